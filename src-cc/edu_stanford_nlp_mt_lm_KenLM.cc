@@ -222,6 +222,27 @@ JNIEXPORT jlong JNICALL Java_edu_stanford_nlp_mt_lm_KenLM_scoreNGramSeq
   return result;
 }
   
+/*
+ * Class:     edu_stanford_nlp_mt_lm_KenLM
+ * Method:    scoreNGramSeqBatch
+ * Signature: (JLjava/nio/ByteBuffer;ILjava/nio/ByteBuffer;)V
+ */
+JNIEXPORT void JNICALL Java_edu_stanford_nlp_mt_lm_KenLM_scoreNGramSeqBatch
+(JNIEnv *env, jobject this_jobj, jlong kenLM_ptr, jobject jinput, jint num_queries, jobject joutput) {
+  // Direct buffers are neither copied nor pinned.
+  const jint *input = (const jint*) env->GetDirectBufferAddress(jinput);
+  jlong *output = (jlong*) env->GetDirectBufferAddress(joutput);
+  UTIL_THROW_IF(!input || !output, util::Exception, "GetDirectBufferAddress JNI call failed.");
+  const WrapAbstract *kenLM = reinterpret_cast<WrapAbstract*>(kenLM_ptr);
+  for (jint i = 0; i < num_queries; ++i) {
+    const jint ngram_sz = input[0];
+    const jint start_index = input[1];
+    const lm::WordIndex *ngram_array = (const lm::WordIndex*) &input[2];
+    output[i] = kenLM->QuerySequence(&ngram_array[0], &ngram_array[start_index], &ngram_array[ngram_sz]);
+    input += 2 + ngram_sz;
+  }
+}
+
 /*
  * Class:     edu_stanford_nlp_more_lm_KenLM
  * Method:    getOrder
@@ -31,13 +31,15 @@ public final class Messages {
     // the "Req" suffix.
     TRANSLATION_REQUEST("tReq", TranslationRequest.class),
     RULE_QUERY_REQUEST("rqReq", RuleQueryRequest.class),
+    WEIGHT_UPDATE_REQUEST("wuReq", WeightUpdateRequest.class),
     // Error catch-all request
     UNKNOWN_REQUEST("unkReq", null),
     
     // Responses -- convention is camelcase letters followed by
     // the "Rep" suffix.
     TRANSLATION_REPLY("tRep", TranslationReply.class),
-    RULE_QUERY_REPLY("rqRep", RuleQueryReply.class);
+    RULE_QUERY_REPLY("rqRep", RuleQueryReply.class),
+    WEIGHT_UPDATE_REPLY("wuRep", WeightUpdateReply.class);
         
     private final String keyName;
     private final Class msgClass;
@@ -113,9 +115,13 @@ public final class Messages {
     // The number of translations to generate
     public final int n;
     public final String tgtPrefix;
-    public TranslationRequest(Language sourceLang, Language targetLang, String source, String inputProps, int n, String tgtPrefix) {
+    // Time in ms after which the request is abandoned. <= 0 selects the server default.
+    public final long timeout;
+    public TranslationRequest(Language sourceLang, Language targetLang, String source, String inputProps, int n, String tgtPrefix,
+        long timeout) {
       super(sourceLang, targetLang, source, inputProps);
       this.n = (n <= 0 || n > 50) ? 10 : n;
+      this.timeout = timeout;
       this.id = MessageType.TRANSLATION_REQUEST.ordinal();
       this.tgtPrefix = tgtPrefix == null || tgtPrefix.length() == 0 ? "" : tgtPrefix.trim();
     
@@ -157,6 +163,24 @@ public final class Messages {
     }
   }
   
+  public static class WeightUpdateRequest extends Request {
+    // Weights file, relative to the weights directory of the service
+    public final String weightsFile;
+    public WeightUpdateRequest(String weightsFile) {
+      super(null, null, null, null);
+      this.weightsFile = weightsFile;
+      this.id = MessageType.WEIGHT_UPDATE_REQUEST.ordinal();
+    }
+    @Override
+    public boolean isAsynchronous() {
+      return false;
+    }
+    @Override
+    public String toString() {
+      return String.format("[%s]", weightsFile);
+    }
+  }
+  
   public static class UnknownRequest extends Request {
     public UnknownRequest() {
       super(null, null, null, null);
@@ -219,4 +243,18 @@ public final class Messages {
       return sb.toString();
     }
   }
+  
+  public static class WeightUpdateReply implements Reply {
+    // The model version that is being served
+    public final long version;
+    public final boolean loaded;
+    public WeightUpdateReply(long version, boolean loaded) {
+      this.version = version;
+      this.loaded = loaded;
+    }
+    @Override
+    public String toString() {
+      return String.format("version: %d loaded: %b", version, loaded);
+    }
+  }
 }
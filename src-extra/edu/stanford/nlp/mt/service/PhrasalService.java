@@ -45,6 +45,7 @@ public final class PhrasalService {
     optionArgDefs.put("l", 0);
     optionArgDefs.put("u", 1);
     optionArgDefs.put("r", 1);
+    optionArgDefs.put("w", 1);
     return optionArgDefs;
   }
 
@@ -63,6 +64,7 @@ public final class PhrasalService {
     sb.append(" -m       : Load mock servlet").append(nl);
     sb.append(" -u file  : UI to load (html file)").append(nl);
     sb.append(" -r path  : Static resource base path").append(nl);
+    sb.append(" -w path  : Enable weight updates from files in this directory").append(nl);
     return sb.toString();
   }
 
@@ -78,6 +80,7 @@ public final class PhrasalService {
     boolean localHost = PropertiesUtils.getBool(options, "l", false);
     String uiFile = options.getProperty("u", "debug.html");
     String resourcePath = options.getProperty("r", ".");
+    String weightsDir = options.getProperty("w", null);
 
     // Parse arguments
     String argList = options.getProperty("",null);
@@ -110,7 +113,7 @@ public final class PhrasalService {
     context.setContextPath("/");
  
     // Add Phrasal servlet
-    PhrasalServlet servlet = loadMockServlet ? new PhrasalServlet() : new PhrasalServlet(phrasalIniFile);
+    PhrasalServlet servlet = loadMockServlet ? new PhrasalServlet() : new PhrasalServlet(phrasalIniFile, weightsDir);
     context.addServlet(new ServletHolder(servlet), SERVLET_ROOT);
 
     // TODO(spenceg): gzip compression causes an encoding problem for unicode characters
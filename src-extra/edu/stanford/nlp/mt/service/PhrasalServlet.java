@@ -22,6 +22,7 @@ import edu.stanford.nlp.mt.service.handlers.ServiceResponse;
 import edu.stanford.nlp.mt.service.handlers.TranslationRequestHandler;
 import edu.stanford.nlp.mt.service.handlers.TranslationRequestHandlerMock;
 import edu.stanford.nlp.mt.service.handlers.UnknownRequestHandler;
+import edu.stanford.nlp.mt.service.handlers.WeightUpdateRequestHandler;
 import edu.stanford.nlp.util.Pair;
 
 /**
@@ -40,7 +41,7 @@ public class PhrasalServlet extends HttpServlet {
   public static final String ASYNC_KEY = "As#R";
   
   // Time in ms that an asynchronous response can be suspended.
-  private static final long ASYNC_TIMEOUT = 30000;
+  public static final long ASYNC_TIMEOUT = 30000;
 
   private final RequestHandler[] requestHandlers;
   private Phrasal decoder;
@@ -54,7 +55,17 @@ public class PhrasalServlet extends HttpServlet {
    * 
    * @param phrasalIniName
    */
-  public PhrasalServlet(String phrasalIniName){
+  public PhrasalServlet(String phrasalIniName) {
+    this(phrasalIniName, null);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param phrasalIniName
+   * @param weightsDir Directory for weight update requests. If null, then weight updates are disabled.
+   */
+  public PhrasalServlet(String phrasalIniName, String weightsDir){
     boolean debugMode = (phrasalIniName == null);
 
     if (!debugMode) {
@@ -69,17 +80,17 @@ public class PhrasalServlet extends HttpServlet {
       logger.info("Loaded phrasal from: " + phrasalIniName);
     }
 
-    requestHandlers = loadHandlers(debugMode);
+    requestHandlers = loadHandlers(debugMode, weightsDir);
   }
 
   /**
    * Setup request handlers.
    * 
    * @param loadMock
-   * @param phrasalIniName
+   * @param weightsDir
    * @return
    */
-  private RequestHandler[] loadHandlers(boolean loadMock) {
+  private RequestHandler[] loadHandlers(boolean loadMock, String weightsDir) {
     RequestHandler[] handlers = new RequestHandler[MessageType.values().length];
     for (MessageType type : MessageType.values()) {
       if (type == MessageType.TRANSLATION_REQUEST) {
@@ -91,6 +102,10 @@ public class PhrasalServlet extends HttpServlet {
           new RuleQueryRequestHandler(decoder.getTranslationModel(), new SparseScorer(decoder.getModel()),
               decoder.getPreprocessor(), decoder.getPostprocessor());
 
+      } else if (type == MessageType.WEIGHT_UPDATE_REQUEST) {
+        handlers[type.ordinal()] = (loadMock || weightsDir == null) ? new UnknownRequestHandler() :
+          new WeightUpdateRequestHandler(decoder, weightsDir);
+
       } else if (type == MessageType.UNKNOWN_REQUEST) {
         handlers[type.ordinal()] = new UnknownRequestHandler();
       }
@@ -7,8 +7,19 @@ import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.servlet.http.HttpServletRequest;
@@ -22,6 +33,7 @@ import org.eclipse.jetty.continuation.ContinuationSupport;
 import com.google.gson.reflect.TypeToken;
 
 import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryBatch;
 import edu.stanford.nlp.mt.process.Postprocessor;
 import edu.stanford.nlp.mt.process.Preprocessor;
 import edu.stanford.nlp.mt.process.ProcessorFactory;
@@ -39,12 +51,19 @@ import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
-import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
-import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
  * Message handler for the TranslationRequest message.
  * 
+ * Each request runs in an unbounded pool of request threads, which do the
+ * pre- and post-processing. Only decoding is bounded: a request must hold one
+ * of the <code>decoder.getNumThreads()</code> decoder slots while it decodes.
+ * Requests that pass their deadline receive an empty reply. Cancellation is cooperative:
+ * a request that is already decoding finishes the search, but skips post-processing.
+ * 
+ * Requests for the same source and input properties that arrive within a short
+ * window, e.g., successive prefixes typed by a user, share a translation model query.
+ * 
  * @author Spence Green
  *
  */
@@ -54,10 +73,17 @@ public class TranslationRequestHandler implements RequestHandler {
   
   private static final int DIVERSITY_WINDOW = 3;
   private static final int NBEST_MULTIPLIER = 20;
-  private static final int MAX_RETRIES_PER_REQUEST = 2;
+  // Time in ms during which new requests join an existing rule query batch.
+  private static final long BATCH_WINDOW = 250;
   
-  private MulticoreWrapper<DecoderInput,DecoderOutput> wrapper;
   private final Phrasal decoder;
+  private final DecoderService decoderService;
+  private final ExecutorService requestPool;
+  private final ScheduledExecutorService scheduler;
+  // Free decoder thread ids. A request holds one while decoding.
+  private final BlockingQueue<Integer> decoderSlots;
+  private final ConcurrentHashMap<String,RuleQueryBatch<IString,String>> batches = 
+      new ConcurrentHashMap<>();
 
   // Threadsafe fields shared among decoding threads
   private static final ConcurrentHashMap<Language,Preprocessor> targetPreprocessorCache =
@@ -71,10 +97,31 @@ public class TranslationRequestHandler implements RequestHandler {
    */
   public TranslationRequestHandler(Phrasal decoder) {
     this.decoder = decoder;
-    // Setup a threadpool for phrasal that wraps the servlet internals
-    // needed to restart the request after processing.
-    wrapper = new MulticoreWrapper<DecoderInput,DecoderOutput>(decoder.getNumThreads(), 
-        new DecoderService(0, decoder), false);
+    final int numThreads = decoder.getNumThreads();
+    this.decoderSlots = new ArrayBlockingQueue<>(numThreads);
+    for (int i = 0; i < numThreads; ++i) decoderSlots.add(i);
+    this.decoderService = new DecoderService(decoder, decoderSlots);
+    this.requestPool = Executors.newCachedThreadPool(daemonThreadFactory("request"));
+    ScheduledThreadPoolExecutor scheduler = new ScheduledThreadPoolExecutor(1, 
+        daemonThreadFactory("request-scheduler"));
+    // Deadline timers are cancelled when their requests complete
+    scheduler.setRemoveOnCancelPolicy(true);
+    this.scheduler = scheduler;
+  }
+
+  /**
+   * Create daemon threads so that the pools do not block shutdown of the service.
+   * 
+   * @param name
+   * @return
+   */
+  private static ThreadFactory daemonThreadFactory(String name) {
+    final AtomicInteger threadId = new AtomicInteger();
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + threadId.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
   }
 
   private static class DecoderInput {
@@ -87,8 +134,11 @@ public class TranslationRequestHandler implements RequestHandler {
     private final Language targetLanguage;
     private final int n;
     private final long submitTime;
+    private final long deadline;
+    private final AtomicBoolean completed = new AtomicBoolean();
+    private volatile ScheduledFuture<?> deadlineTimer;
     public DecoderInput(int inputId, String text, String prefix, int n, Language targetLanguage, String inputProps, HttpServletRequest request,
-        Continuation continuation) {
+        Continuation continuation, long timeout) {
       this.inputId = inputId;
       this.text = text;
       this.tgtPrefix = prefix;
@@ -98,41 +148,88 @@ public class TranslationRequestHandler implements RequestHandler {
       this.request = request;
       this.continuation = continuation;
       this.submitTime = System.nanoTime();
+      this.deadline = submitTime + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+
+    /**
+     * Populate the servlet request with the reply and resume it. Only the first
+     * call has an effect, so the decoder and the deadline timer can race.
+     * 
+     * @return true if this call completed the request
+     */
+    public boolean complete(List<Sequence<IString>> translationList,
+        List<List<String>> alignments, List<Double> scoreList) {
+      if ( ! completed.compareAndSet(false, true)) return false;
+      final ScheduledFuture<?> timer = deadlineTimer;
+      if (timer != null) timer.cancel(false);
+      TranslationRequestHandler.populateRequest(request, translationList, alignments, scoreList);
+      try {
+        continuation.resume(); // Re-dispatch/ resume to generate response
+      } catch (IllegalStateException e) {
+        // The continuation expired first and the servlet has already replied.
+        logger.warn("Input {}: continuation expired", inputId);
+      }
+      return true;
+    }
+
+    /**
+     * Set the timer that fails the request at its deadline. The timer is cancelled
+     * when the request completes.
+     * 
+     * @param timer
+     */
+    public void setDeadlineTimer(ScheduledFuture<?> timer) {
+      deadlineTimer = timer;
+      if (completed.get()) timer.cancel(false);
+    }
+
+    /**
+     * True if the request has been completed, e.g., by the deadline timer.
+     * 
+     * @return
+     */
+    public boolean isCompleted() {
+      return completed.get();
+    }
+
+    /**
+     * Complete the request with an empty reply.
+     * 
+     * @return true if this call completed the request
+     */
+    public boolean fail() {
+      return complete(new LinkedList<Sequence<IString>>(), new LinkedList<List<String>>(), 
+          new LinkedList<Double>());
     }
+
     @Override
     public String toString() {
       return String.format("id: %d n: %d tgt_lang: %s%nsrc: %s%ntgt: %s", inputId, n, targetLanguage.toString(), text, tgtPrefix);
     }
   }
-  
-  private static class DecoderOutput {
-    private final int inputId;
-    private final boolean success;
-    public DecoderOutput(int inputId, boolean status) {
-      this.inputId = inputId;
-      this.success = status;
-    }
-  }
 
-  private static class DecoderService implements ThreadsafeProcessor<DecoderInput,DecoderOutput> {
-    private final int threadId;
-    private int childThreadId;
+  private static class DecoderService {
     private final Phrasal decoder;
+    private final BlockingQueue<Integer> decoderSlots;
     private final boolean dropUnknownWords;
     private final Preprocessor sourcePreprocessor;
     private final Postprocessor postprocessor;
 
-    public DecoderService(int threadId, Phrasal decoder) {
-      this.threadId = threadId;
-      this.childThreadId = threadId+1;
+    public DecoderService(Phrasal decoder, BlockingQueue<Integer> decoderSlots) {
       this.decoder = decoder;
+      this.decoderSlots = decoderSlots;
       this.dropUnknownWords = decoder.isDropUnknownWords();
       this.sourcePreprocessor = decoder.getPreprocessor();
       this.postprocessor = decoder.getPostprocessor();
     }
 
-    @Override
-    public DecoderOutput process(DecoderInput input) {
+    /**
+     * Translate the input and complete the request.
+     * 
+     * @param input
+     * @return true if the request was completed with a translation.
+     */
+    public boolean process(DecoderInput input) {
       logger.info("Input {}: {}", input.inputId, input.text);
       try {
         // Source pre-processing
@@ -169,14 +266,38 @@ public class TranslationRequestHandler implements RequestHandler {
         }
         input.properties.put(InputProperty.TargetPrefix, targets != null);
         
+        // Wait for a decoder slot
+        final long queueStart = System.nanoTime();
+        Integer threadId = decoderSlots.poll(input.deadline - queueStart, TimeUnit.NANOSECONDS);
+        if (threadId == null) {
+          logger.warn("Input {}: no decoder available before the deadline", input.inputId);
+          input.fail();
+          return false;
+        }
+        if (input.isCompleted()) {
+          decoderSlots.add(threadId);
+          logger.warn("Input {}: deadline expired before decoding", input.inputId);
+          return false;
+        }
+        
         // Decode
         final long decodeStart = System.nanoTime();
         final int numRequestedTranslations = input.n;
         final int numTranslationsToGenerate = input.n * NBEST_MULTIPLIER;
-        List<RichTranslation<IString,String>> translations = 
-            decoder.decode(source, input.inputId, threadId, numTranslationsToGenerate, targets, input.properties); 
+        List<RichTranslation<IString,String>> translations;
+        try {
+          translations = decoder.decode(source, input.inputId, threadId, numTranslationsToGenerate, 
+              targets, input.properties);
+        } finally {
+          decoderSlots.add(threadId);
+        }
         logger.info("Input {} decoder: #translations: {}",
             input.inputId, translations.size());
+        if (input.isCompleted()) {
+          // Failed by the deadline timer. Skip post-processing.
+          logger.warn("Input {}: deadline expired during decoding", input.inputId);
+          return false;
+        }
         
         // Result extraction and post-processing
         final long postprocStart = System.nanoTime();
@@ -223,27 +344,23 @@ public class TranslationRequestHandler implements RequestHandler {
 
         // Timing statistics
         final long doneTime = System.nanoTime();
-        double preprocSeconds = (decodeStart - preprocStart) / 1e9;
+        double preprocSeconds = (queueStart - preprocStart) / 1e9;
+        double queueSeconds = (decodeStart - queueStart) / 1e9;
         double decodeSeconds = (postprocStart - decodeStart) / 1e9;
         double postprocSeconds = (doneTime - postprocStart) / 1e9;
         double querySeconds = (doneTime - input.submitTime) / 1e9;
-        logger.info("Input {} timing: elapsed {}s (pre: {}s  decode: {}s  post: {}s)",
-            input.inputId, querySeconds, preprocSeconds, decodeSeconds, postprocSeconds);
+        logger.info("Input {} timing: elapsed {}s (pre: {}s  queue: {}s  decode: {}s  post: {}s)",
+            input.inputId, querySeconds, preprocSeconds, queueSeconds, decodeSeconds, postprocSeconds);
 
         // Create the service reply
-        TranslationRequestHandler.populateRequest(input.request, translationList, alignments, scoreList);
-        input.continuation.resume(); // Re-dispatch/ resume to generate response
-
-        return new DecoderOutput(input.inputId, true);
+        return input.complete(translationList, alignments, scoreList);
       
       } catch(Exception e) {
         // Catch all exception handler. Generate an empty response.
         logger.error("Decoding of request failed: " + input.toString(), e);
-        TranslationRequestHandler.populateRequest(input.request, new LinkedList<Sequence<IString>>(), 
-            new LinkedList<List<String>>(), new LinkedList<Double>());
-        input.continuation.resume(); // Re-dispatch/ resume to generate response
+        input.fail();
       }
-      return new DecoderOutput(input.inputId, false);
+      return false;
     }
 
     /**
@@ -348,11 +465,6 @@ public class TranslationRequestHandler implements RequestHandler {
       }
       return alignment;
     }
-
-    @Override
-    public ThreadsafeProcessor<DecoderInput, DecoderOutput> newInstance() {
-      return new DecoderService(childThreadId++, decoder);
-    }
   }
 
   /**
@@ -397,54 +509,59 @@ public class TranslationRequestHandler implements RequestHandler {
   @Override
   public void handleAsynchronous(Request baseRequest,
       HttpServletRequest request, HttpServletResponse response) {
-    logger.info(wrapper.toString());
+    logger.info("Free decoder slots: {}", decoderSlots.size());
     
     // Suspend the request
     Continuation continuation = ContinuationSupport.getContinuation(request);
     continuation.suspend(response);
 
-    // Create the input to the translation service
+    // Create the input to the translation service. The deadline cannot exceed the
+    // suspension timeout of the servlet.
     TranslationRequest translationRequest = (TranslationRequest) baseRequest;
+    final long timeout = translationRequest.timeout > 0 ? 
+        Math.min(translationRequest.timeout, PhrasalServlet.ASYNC_TIMEOUT) : PhrasalServlet.ASYNC_TIMEOUT;
+    // Rules that were computed under an older model are not shared
+    String sourceKey = String.join("\t", String.valueOf(decoder.getModelVersion()), 
+        translationRequest.src.name(), translationRequest.tgt.name(), 
+        translationRequest.inputProperties, translationRequest.text);
     int sourceId = inputId.incrementAndGet();
     DecoderInput input = new DecoderInput(sourceId, translationRequest.text, translationRequest.tgtPrefix, 
-        translationRequest.n, translationRequest.tgt, translationRequest.inputProperties, request, continuation);
+        translationRequest.n, translationRequest.tgt, translationRequest.inputProperties, request, continuation,
+        timeout);
+    input.properties.put(InputProperty.RuleQueryBatch, getBatch(sourceKey));
 
-    // Try to submit the request to the service.
-    boolean requestSubmitted = false;
-    for (int numRetries = 0; !requestSubmitted && numRetries < MAX_RETRIES_PER_REQUEST; ++numRetries) {
-      try {
-        // Clear the wrapper of status messages of completed jobs
-        wrapper.put(input);
-        requestSubmitted = true;
-        while(wrapper.peek()) {
-          DecoderOutput status = wrapper.poll();
-          sourceId = status.inputId;
-          if (status.success) {
-            logger.info("Input id {}: status {}", status.inputId, status.success);
-          } else {
-            logger.error("Input id {}: status {}", status.inputId, status.success);
-          }
+    // Submit the request and fail it if it misses the deadline. The request thread is
+    // not interrupted, since an interrupt would abort a translation model query that
+    // other requests in the batch share.
+    try {
+      final Future<Boolean> result = requestPool.submit(() -> decoderService.process(input));
+      input.setDeadlineTimer(scheduler.schedule(() -> {
+        if (input.fail()) {
+          result.cancel(false);
+          logger.warn("Input {}: deadline of {}ms expired", input.inputId, timeout);
         }
-        
-      } catch (RejectedExecutionException e) {
-        logger.error("Threadpool corrupted by underlying exceptions. Restarting...", e);
-        wrapper.join();
-        wrapper = new MulticoreWrapper<DecoderInput,DecoderOutput>(decoder.getNumThreads(), 
-            new DecoderService(0, decoder), false);
-        logger.info("Restarted threadpool");
-      } catch (Exception e) {
-        logger.error("Exception while processing request", e);
-      }
-    }
-    
-    if ( ! requestSubmitted) {
-      logger.error("Decoding of request failed: {}", input);
-      TranslationRequestHandler.populateRequest(input.request, new LinkedList<Sequence<IString>>(), 
-          new LinkedList<List<String>>(), new LinkedList<Double>());
-      input.continuation.resume(); // Re-dispatch/ resume to generate response
+      }, timeout, TimeUnit.MILLISECONDS));
+
+    } catch (RejectedExecutionException e) {
+      logger.error("Decoding of request failed: " + input.toString(), e);
+      input.fail();
     }
   }
 
+  /**
+   * Lookup the open rule query batch for the source, or open a new one.
+   * 
+   * @param sourceKey
+   * @return
+   */
+  private RuleQueryBatch<IString,String> getBatch(String sourceKey) {
+    return batches.computeIfAbsent(sourceKey, k -> {
+      RuleQueryBatch<IString,String> batch = new RuleQueryBatch<>();
+      scheduler.schedule(() -> batches.remove(k, batch), BATCH_WINDOW, TimeUnit.MILLISECONDS);
+      return batch;
+    });
+  }
+
   @Override
   public ServiceResponse handle(Request request) {
     throw new UnsupportedOperationException("Synchronous call to asynchronous handler");
@@ -0,0 +1,92 @@
+package edu.stanford.nlp.mt.service.handlers;
+
+import java.lang.reflect.Type;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import com.google.gson.reflect.TypeToken;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.service.Messages.Request;
+import edu.stanford.nlp.mt.service.Messages.WeightUpdateReply;
+import edu.stanford.nlp.mt.service.Messages.WeightUpdateRequest;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Synchronous handler for weight update messages. Loads a weights file from the
+ * weights directory of the service and publishes it as a new model version.
+ * Requests that are being decoded finish with the weights that they started with.
+ */
+public class WeightUpdateRequestHandler implements RequestHandler {
+
+  private static final Logger logger = LogManager.getLogger(WeightUpdateRequestHandler.class.getName());
+
+  private final Phrasal decoder;
+  private final Path weightsDir;
+
+  /**
+   * Constructor.
+   *
+   * @param decoder
+   * @param weightsDir Directory from which weights files may be loaded.
+   */
+  public WeightUpdateRequestHandler(Phrasal decoder, String weightsDir) {
+    this.decoder = decoder;
+    this.weightsDir = Paths.get(weightsDir).toAbsolutePath().normalize();
+  }
+
+  @Override
+  public ServiceResponse handle(Request request) {
+    WeightUpdateRequest updateRequest = (WeightUpdateRequest) request;
+    Path weightsFile = resolve(updateRequest.weightsFile);
+    boolean loaded = false;
+    try {
+      Counter<String> weights = IOTools.readWeights(weightsFile.toString());
+      if (weights == null) {
+        logger.error("Unable to read weights from {}", weightsFile);
+      } else {
+        decoder.setModel(weights);
+        loaded = true;
+      }
+    } catch (Exception e) {
+      logger.error("Weight update request failed", e);
+    }
+    WeightUpdateReply reply = new WeightUpdateReply(decoder.getModelVersion(), loaded);
+    Type t = new TypeToken<WeightUpdateReply>() {}.getType();
+    return new ServiceResponse(reply, t);
+  }
+
+  /**
+   * Resolve a weights file name against the weights directory.
+   *
+   * @param weightsFile
+   * @return
+   */
+  private Path resolve(String weightsFile) {
+    return weightsDir.resolve(weightsFile).normalize();
+  }
+
+  @Override
+  public void handleAsynchronous(Request baseRequest,
+      HttpServletRequest request, HttpServletResponse response) {
+    throw new UnsupportedOperationException("Asynchronous call to synchronous handler");
+  }
+
+  @Override
+  public boolean validate(Request baseRequest) {
+    WeightUpdateRequest request = (WeightUpdateRequest) baseRequest;
+    if (request.weightsFile == null || request.weightsFile.length() == 0)
+      return false;
+    // Do not allow files outside of the weights directory
+    Path weightsFile = resolve(request.weightsFile);
+    return weightsFile.startsWith(weightsDir) && Files.isRegularFile(weightsFile);
+  }
+}
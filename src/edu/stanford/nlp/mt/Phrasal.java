@@ -18,6 +18,9 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.regex.Pattern;
 
 import org.apache.logging.log4j.LogManager;
@@ -25,6 +28,7 @@ import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.decoder.AbstractBeamInferer;
 import edu.stanford.nlp.mt.decoder.AbstractBeamInfererBuilder;
+import edu.stanford.nlp.mt.decoder.CubePruningDecoder.CubePruningDecoderBuilder;
 import edu.stanford.nlp.mt.decoder.DTUDecoder;
 import edu.stanford.nlp.mt.decoder.Inferer;
 import edu.stanford.nlp.mt.decoder.Inferer.NbestMode;
@@ -45,8 +49,8 @@ import edu.stanford.nlp.mt.decoder.util.DTUHypothesis;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.OutputSpaceFactory;
-import edu.stanford.nlp.mt.decoder.util.Scorer;
-import edu.stanford.nlp.mt.decoder.util.ScorerFactory;
+import edu.stanford.nlp.mt.decoder.util.SparseScorer;
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.process.Postprocessor;
@@ -64,6 +68,7 @@ import edu.stanford.nlp.mt.tm.TranslationModel;
 import edu.stanford.nlp.mt.tm.TranslationModelFactory;
 import edu.stanford.nlp.mt.tm.UnknownWordPhraseGenerator;
 import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
+import edu.stanford.nlp.mt.util.BinaryNBestListWriter;
 import edu.stanford.nlp.mt.util.FactoryUtil;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
@@ -71,6 +76,7 @@ import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.KSR;
+import edu.stanford.nlp.mt.util.ReorderBuffer;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
@@ -84,7 +90,6 @@ import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.StringUtils;
-import edu.stanford.nlp.util.concurrent.MulticoreWrapper;
 import edu.stanford.nlp.util.concurrent.ThreadsafeProcessor;
 
 /**
@@ -119,7 +124,7 @@ public class Phrasal {
         .append(nl).append("  -").append(LANGUAGE_MODEL_OPT)
         .append(" filename : Language model file. For KenLM, prefix filename with 'kenlm:'").append(nl).append("  -")
         .append(OPTION_LIMIT_OPT).append(" num : Translation option limit.").append(nl).append("  -")
-        .append(NBEST_LIST_OPT).append(" num : n-best list size.").append(nl).append("  -")
+        .append(NBEST_LIST_OPT).append(" num [mode filename type pattern] : n-best list size. Type 'binary' writes a binary n-best list.").append(nl).append("  -")
         .append(DISTINCT_NBEST_LIST_OPT).append(" boolean : Generate distinct n-best lists (default: false)").append(nl).append("  -")
         .append("  -").append(FORCE_DECODE).append(" filename [filename] : Force decode to reference file(s).")
         .append(nl).append("  -").append(PREFIX_ALIGN_COMPOUNDS).append(" boolean : Apply heuristic compound word alignmen for prefix decoding? Affects cube pruning decoder only. (default: false) ")
@@ -136,6 +141,10 @@ public class Phrasal {
         .append(ADDITIONAL_FEATURIZERS).append(" class [class] : List of additional feature functions.").append(nl)
         .append("  -").append(DISABLED_FEATURIZERS).append(" class [class] : List of baseline featurizers to disable.")
         .append(nl).append("  -").append(NUM_THREADS).append(" num : Number of decoding threads (default: 1)")
+        .append(nl).append("  -").append(SEARCH_THREADS).append(" num : Number of threads per sentence. Affects cube pruning decoder only. (default: 1)")
+        .append(nl).append("  -").append(OUTPUT_BUFFER_SIZE).append(" num : Max number of decoded inputs waiting to be written (default: 1000)")
+        .append(nl).append("  -").append(UNORDERED_OUTPUT).append(" boolean : Write translations as they finish, prefixed with the input id (default: false)")
+        .append(nl).append("  -").append(SCHEDULE_WINDOW).append(" num : Decode the longest inputs first within windows of this many inputs (default: 0, i.e. input order)")
         .append(nl).append("  -").append(USE_ITG_CONSTRAINTS)
         .append(" boolean : Use ITG constraints for decoding (multibeam search only)").append(nl).append("  -")
         .append(RECOMBINATION_MODE).append(" name : Recombination mode [pharoah,exact,dtu] (default: exact).")
@@ -194,6 +203,10 @@ public class Phrasal {
   public static final String ADDITIONAL_FEATURIZERS = "additional-featurizers";
   public static final String DISABLED_FEATURIZERS = "disabled-featurizers";
   public static final String NUM_THREADS = "threads";
+  public static final String SEARCH_THREADS = "search-threads";
+  public static final String OUTPUT_BUFFER_SIZE = "output-buffer-size";
+  public static final String UNORDERED_OUTPUT = "unordered-output";
+  public static final String SCHEDULE_WINDOW = "schedule-window";
   public static final String USE_ITG_CONSTRAINTS = "use-itg-constraints";
   public static final String RECOMBINATION_MODE = "recombination-mode";
   public static final String GAPS_OPT = "gaps";
@@ -226,7 +239,7 @@ public class Phrasal {
     OPTIONAL_FIELDS.addAll(Arrays.asList(INPUT_FILE_OPT,WEIGHTS_FILE, REORDERING_MODEL, DISTORTION_LIMIT, ADDITIONAL_FEATURIZERS,
         DISABLED_FEATURIZERS, OPTION_LIMIT_OPT, NBEST_LIST_OPT, DISTINCT_NBEST_LIST_OPT, 
         FORCE_DECODE, PREFIX_ALIGN_COMPOUNDS, RECOMBINATION_MODE, SEARCH_ALGORITHM, BEAM_SIZE, WEIGHTS_FILE, MAX_SENTENCE_LENGTH, MIN_SENTENCE_LENGTH,
-        USE_ITG_CONSTRAINTS, NUM_THREADS, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
+        USE_ITG_CONSTRAINTS, NUM_THREADS, SEARCH_THREADS, OUTPUT_BUFFER_SIZE, UNORDERED_OUTPUT, SCHEDULE_WINDOW, GAPS_OPT, GAPS_IN_FUTURE_COST_OPT, LINEAR_DISTORTION_OPT,
         MAX_PENDING_PHRASES_OPT, DROP_UNKNOWN_WORDS, INDEPENDENT_PHRASE_TABLES, FOREGROUND_TM, LANGUAGE_MODEL_OPT,
         ALIGNMENT_OUTPUT_FILE, PREPROCESSOR_FILTER, POSTPROCESSOR_FILTER, SOURCE_CLASS_MAP, TARGET_CLASS_MAP,
         PRINT_MODEL_SCORES, INPUT_PROPERTIES, FEATURE_AUGMENTATION, WRAP_BOUNDARY, KSR_NBEST_SIZE, WPA_NBEST_SIZE, ORACLE_NBEST_SIZE, REFERENCE));
@@ -249,6 +262,20 @@ public class Phrasal {
    */
   private int numThreads = 1;
 
+  /**
+   * Batch decoding: max number of decoded inputs that wait to be written, and whether
+   * translations are written in input order.
+   */
+  private static final int DEFAULT_OUTPUT_BUFFER_SIZE = 1000;
+  private int outputBufferSize = DEFAULT_OUTPUT_BUFFER_SIZE;
+  private boolean unorderedOutput = false;
+  
+  /**
+   * Batch decoding: number of inputs that are read ahead and sorted so that the longest
+   * (most expensive) inputs are decoded first. 0 to decode in input order.
+   */
+  private int scheduleWindow = 0;
+
   /**
    * Hard distortion limit for phrase-based decoder
    */
@@ -260,9 +287,9 @@ public class Phrasal {
   private int ruleQueryLimit = 20;
 
   /**
-   * Global model loaded at startup.
+   * Global model. Loaded at startup and replaced by setModel().
    */
-  private Counter<String> globalModel;
+  private final AtomicReference<WeightSnapshot> globalModel = new AtomicReference<>();
 
   /**
    * DTU options
@@ -282,7 +309,7 @@ public class Phrasal {
    * Holds the model weights, one per inferer. The model weights have a shared
    * feature index.
    */
-  private final List<Scorer<String>> scorers;
+  private final List<SparseScorer> scorers;
 
   /**
    * The feature extractor.
@@ -317,6 +344,7 @@ public class Phrasal {
   private String nbestListOutputType = "moses";
   private Pattern nBestListFeaturePattern = null;
   private PrintStream nbestListWriter;
+  private BinaryNBestListWriter binaryNbestListWriter;
   private int nbestListSize;
   private boolean distinctNbest = false;
   private NbestMode nbestMode = NbestMode.Standard;
@@ -380,21 +408,34 @@ public class Phrasal {
   }
 
   /**
-   * Set the global model used by Phrasal.
+   * Set the global model used by Phrasal. The weights are copied and published
+   * as a new version. Sentences that are being decoded finish with the weights
+   * that they started with.
    *
    * @param m
    */
   public void setModel(Counter<String> m) {
-    this.globalModel = m;
+    final Counter<String> weights = new ClassicCounter<>(m);
+    WeightSnapshot model = globalModel.updateAndGet(w -> new WeightSnapshot(weights, w.version() + 1));
+    logger.info("Loaded model version {}", model.version());
   }
 
   /**
    * Return the global Phrasal model.
    *
-   * @return
+   * @return A read-only view of the weights.
    */
   public Counter<String> getModel() {
-    return this.globalModel;
+    return this.globalModel.get().getWeights();
+  }
+
+  /**
+   * Return the version of the global model, which is incremented by setModel().
+   *
+   * @return
+   */
+  public long getModelVersion() {
+    return this.globalModel.get().version();
   }
 
   /**
@@ -491,6 +532,21 @@ public class Phrasal {
     }
     logger.info("Number of threads: {}", numThreads);
 
+    if (config.containsKey(OUTPUT_BUFFER_SIZE)) {
+      outputBufferSize = Integer.parseInt(config.get(OUTPUT_BUFFER_SIZE).get(0));
+      if (outputBufferSize < 1) {
+        logger.fatal("Output buffer size must be positive: {}", outputBufferSize);
+        throw new RuntimeException();
+      }
+    }
+    if (config.containsKey(UNORDERED_OUTPUT)) {
+      unorderedOutput = Boolean.parseBoolean(config.get(UNORDERED_OUTPUT).get(0));
+    }
+    if (config.containsKey(SCHEDULE_WINDOW)) {
+      scheduleWindow = Integer.parseInt(config.get(SCHEDULE_WINDOW).get(0));
+      logger.info("Decoding inputs longest-first in windows of {} inputs", scheduleWindow);
+    }
+
     if (withGaps) {
       recombinationMode = RecombinationFilterFactory.DTU_RECOMBINATION;
     } else if (config.containsKey(RECOMBINATION_MODE)) {
@@ -632,6 +688,13 @@ public class Phrasal {
       // we can NOT use a CombinedTranslationModel here due to "instanceof DynamicTranslationModel" used for ruleGrid augmentation
       translationModel = primaryModel; //new CombinedTranslationModel<>(primaryModel, ruleQueryLimit);
       logger.info("Translation model mode: dynamic");
+      if ( ! Arrays.stream(factoryOptions).anyMatch(o -> o.startsWith(TranslationModelFactory.DYNAMIC_QUERY_THREADS))) {
+        // Each decoding thread also executes its own TM queries, so the query pool
+        // only needs the remaining cores.
+        final int numQueryThreads = Math.max(0, Runtime.getRuntime().availableProcessors() - numThreads);
+        ((DynamicTranslationModel<String>) primaryModel).setQueryThreads(numQueryThreads);
+        logger.info("Dynamic TM query threads: {}", numQueryThreads);
+      }
       if (config.get(FOREGROUND_TM) != null) {
          foregroundModel = TranslationModelFactory.<String> factory(config.get(FOREGROUND_TM).get(0), factoryOptions);
          foregroundModel.setName(TM_FOREGROUND_NAME);
@@ -805,14 +868,15 @@ public class Phrasal {
     if(foregroundModel != null) foregroundModel.setFeaturizer(featurizer);
 
     // Create Scorer / weight vector
-    this.globalModel = new ClassicCounter<String>();
+    Counter<String> weights = new ClassicCounter<String>();
 
     if (config.containsKey(WEIGHTS_FILE)) {
       logger.info("Weights file: {}", config.get(WEIGHTS_FILE).get(0));
-      globalModel = IOTools.readWeights(config.get(WEIGHTS_FILE).get(0));
-      if (globalModel == null)
-        globalModel = new ClassicCounter<>();
+      weights = IOTools.readWeights(config.get(WEIGHTS_FILE).get(0));
+      if (weights == null)
+        weights = new ClassicCounter<>();
     }
+    globalModel.set(new WeightSnapshot(weights, 0));
 
     if (config.containsKey(MAX_SENTENCE_LENGTH)) {
       maxSentenceSize = Integer.parseInt(config.get(MAX_SENTENCE_LENGTH).get(0));
@@ -824,8 +888,8 @@ public class Phrasal {
       minSentenceSize = Integer.parseInt(config.get(MIN_SENTENCE_LENGTH).get(0));
     }
 
-    logger.info("WeightConfig: '{}' {}", Counters.toBiggestValuesFirstString(globalModel, 20),
-        (globalModel.size() > 20 ? "..." : ""));
+    logger.info("WeightConfig: '{}' {}", Counters.toBiggestValuesFirstString(weights, 20),
+        (weights.size() > 20 ? "..." : ""));
 
     // Create Recombination Filter
     final RecombinationFilter<Derivation<IString, String>> filter = RecombinationFilterFactory
@@ -865,7 +929,7 @@ public class Phrasal {
         infererBuilder.setFeaturizer((FeatureExtractor<IString, String>) featurizer.clone());
         infererBuilder.setPhraseGenerator((TranslationModel<IString, String>) translationModel.clone());
         if(foregroundModel != null) infererBuilder.setForegroundModel((TranslationModel<IString, String>) foregroundModel.clone());
-        final Scorer<String> scorer = ScorerFactory.factory(ScorerFactory.SPARSE_SCORER, globalModel, null);
+        final SparseScorer scorer = new SparseScorer(globalModel.get());
         infererBuilder.setScorer(scorer);
         scorers.add(scorer);
         infererBuilder.setSearchHeuristic((SearchHeuristic<IString, String>) heuristic.clone());
@@ -892,6 +956,15 @@ public class Phrasal {
         final int beamSize = Integer.parseInt(config.get(BEAM_SIZE).get(0));
         infererBuilder.setBeamSize(beamSize);
       }
+
+      if (config.containsKey(SEARCH_THREADS)) {
+        final int searchThreads = Integer.parseInt(config.get(SEARCH_THREADS).get(0));
+        if (infererBuilder instanceof CubePruningDecoderBuilder) {
+          ((CubePruningDecoderBuilder<IString, String>) infererBuilder).setSearchThreads(searchThreads);
+        } else {
+          logger.warn("{} is only supported by the cube pruning decoder", SEARCH_THREADS);
+        }
+      }
       inferers.add(infererBuilder.newInferer());
       
       ((AbstractBeamInferer<IString, String>) inferers.get(i)).setPrefixAlignCompounds(prefixAlignCompounds);
@@ -908,15 +981,19 @@ public class Phrasal {
         nbestMode = NbestMode.valueOf(nbestOpt.get(1));
         logger.info("n-best list mode: {}", nbestMode);
       }
-      if (nbestOpt.size() > 2) {
-        final String nbestListFilename = nbestOpt.get(2);
-        nbestListWriter = IOTools.getWriterFromFile(nbestListFilename);
-        logger.info("n-best list filename: {}", nbestListFilename);
-      }
       if (nbestOpt.size() > 3) {
         nbestListOutputType = nbestOpt.get(3);
         logger.info("n-best list filename: {}", nbestListOutputType);
       }
+      if (nbestOpt.size() > 2) {
+        final String nbestListFilename = nbestOpt.get(2);
+        if (nbestListOutputType.equals("binary")) {
+          binaryNbestListWriter = new BinaryNBestListWriter(nbestListFilename);
+        } else {
+          nbestListWriter = IOTools.getWriterFromFile(nbestListFilename);
+        }
+        logger.info("n-best list filename: {}", nbestListFilename);
+      }
       if (nbestOpt.size() > 4) {
         nBestListFeaturePattern = Pattern.compile(nbestOpt.get(4));
         logger.info("n-best list feature pattern: {}", nbestOpt.get(4));
@@ -925,6 +1002,7 @@ public class Phrasal {
     } else {
       nbestListSize = -1;
       nbestListWriter = null;
+      binaryNbestListWriter = null;
     }
     if (nbestListSize > MAX_NBEST_SIZE) {
       logger.warn("nbest list size {} exceeds maximum of {}", nbestListSize, MAX_NBEST_SIZE);
@@ -1160,6 +1238,9 @@ public class Phrasal {
       Sequence<IString> bestTranslation, int sourceLength, int sourceInputId) {
     if (translations.size() > 0) {
       final RichTranslation<IString, String> bestTranslationInfo = translations.get(0);
+      if (unorderedOutput) {
+        System.out.printf("%d\t", sourceInputId);
+      }
       if (printModelScores) {
         System.out.printf("%e\t%s%n", bestTranslationInfo.score, bestTranslation.toString());
       } else {
@@ -1172,6 +1253,8 @@ public class Phrasal {
       // Output the n-best list if necessary
       if (nbestListWriter != null) {
         IOTools.writeNbest(translations, sourceInputId, nbestListOutputType, nBestListFeaturePattern, nbestListWriter);
+      } else if (binaryNbestListWriter != null) {
+        binaryNbestListWriter.write(sourceInputId, translations, nBestListFeaturePattern);
       }
 
       // Output the alignments if necessary
@@ -1184,11 +1267,17 @@ public class Phrasal {
 
     } else {
       // Decoder failure. Print an empty line.
-      System.out.println();
+      if (unorderedOutput) {
+        System.out.println(sourceInputId);
+      } else {
+        System.out.println();
+      }
 
       // Output the n-best list if necessary
       if (nbestListWriter != null) {
         IOTools.writeEmptyNBest(sourceInputId, nbestListWriter);
+      } else if (binaryNbestListWriter != null) {
+        binaryNbestListWriter.writeEmpty(sourceInputId);
       }
 
       // Output the alignments if necessary
@@ -1200,10 +1289,45 @@ public class Phrasal {
     }
   }
 
+  /**
+   * An input with its position in the stream of decoder inputs.
+   */
+  private static class SequencedInput {
+    public final long sequence;
+    public final DecoderInput input;
+    public SequencedInput(long sequence, DecoderInput input) {
+      this.sequence = sequence;
+      this.input = input;
+    }
+  }
+  private static final SequencedInput END_OF_INPUT = new SequencedInput(-1, null);
+
+  /**
+   * Submit a window of inputs to the decoding threads, longest first. Decoding time
+   * grows superlinearly with the input length, so the longest inputs should not be
+   * started last.
+   * 
+   * @param window
+   * @param inputQueue
+   * @throws InterruptedException
+   */
+  private static void schedule(List<SequencedInput> window, BlockingQueue<SequencedInput> inputQueue) 
+      throws InterruptedException {
+    // Stable sort, so inputs of equal length stay in input order.
+    window.sort((a, b) -> Integer.compare(b.input.source.size(), a.input.source.size()));
+    for (SequencedInput input : window) inputQueue.put(input);
+    window.clear();
+  }
+
   /**
    * Decode input from inputStream and either write 1-best translations to
    * stdout or return them in a <code>List</code>.
    *
+   * Inputs are read and preprocessed by the calling thread, decoded and post-processed
+   * by <code>numThreads</code> decoding threads, and written by an output thread. The 
+   * queues between these stages are bounded, so memory does not grow with the input
+   * unless the translations are returned.
+   *
    * @param inputStream
    * @param outputToConsole
    *          if true, output the 1-best translations to the console. Otherwise,
@@ -1213,21 +1337,11 @@ public class Phrasal {
   public List<RichTranslation<IString, String>> decode(InputStream inputStream, boolean outputToConsole)
       throws IOException {
     logger.info("Entering main translation loop");
-    final MulticoreWrapper<DecoderInput, DecoderOutput> wrapper = new MulticoreWrapper<>(numThreads, 
-        new PhrasalProcessor(0));
     final LineNumberReader reader = new LineNumberReader(new InputStreamReader(inputStream, 
         IOTools.DEFAULT_ENCODING));
     final List<RichTranslation<IString, String>> bestTranslationList = outputToConsole ? null
         : new ArrayList<>();
 
-    // Sanity check -- Set each thread's model to the current global model.
-    this.scorers.stream().forEach(scorer -> scorer.updateWeights(globalModel));
-
-    int ksrTyped = 0;
-    int ksrTotal = 0;
-    int wpaCorrect = 0;
-    int wpaTotal = 0;
-    
     boolean doEval = references != null && (ksr_nbest_size > 0 || wpa_nbest_size > 0 || oracle_nbest_size > 0);
     
     final LineNumberReader refReader = doEval ?
@@ -1235,65 +1349,124 @@ public class Phrasal {
             IOTools.DEFAULT_ENCODING))
         : null;
     
-    final long startTime = TimingUtils.startTime();
-    int sourceInputId = 0;
-    for (String line; (line = reader.readLine()) != null; ++sourceInputId) {
-      final Sequence<IString> source = preprocessor == null ? IStrings.tokenize(line)
-          : preprocessor.process(line.trim());
-
-      if (source.size() > maxSentenceSize || source.size() < minSentenceSize) {
-        logger.warn("Skipping: {}", line);
-        logger.warn("Tokens: {} (min: {} max: {})", source.size(), minSentenceSize, maxSentenceSize);
-        continue;
+    // Returned translations are always in input order.
+    final boolean ordered = ! (unorderedOutput && outputToConsole);
+    final BlockingQueue<SequencedInput> inputQueue = new ArrayBlockingQueue<>(2 * numThreads);
+    // The buffer must hold a scheduling window. Otherwise a decoding thread could wait on an
+    // input that is still queued behind it.
+    final ReorderBuffer<DecoderOutput> outputBuffer = new ReorderBuffer<>(
+        Math.max(outputBufferSize, scheduleWindow), ordered);
+    
+    // Decoding stage
+    final List<Thread> decoderThreads = new ArrayList<>(numThreads);
+    for (int i = 0; i < numThreads; ++i) {
+      final PhrasalProcessor processor = new PhrasalProcessor(i);
+      final Thread thread = new Thread(() -> {
+        try {
+          for (SequencedInput item; (item = inputQueue.take()) != END_OF_INPUT;) {
+            DecoderOutput result;
+            try {
+              result = processor.process(item.input);
+            } catch (Throwable e) {
+              // Every sequence number must reach the output buffer. Otherwise the output
+              // stage waits on it forever.
+              logger.error("input {}: decoding failed", item.input.sourceInputId, e);
+              result = new DecoderOutput(item.input.source.size(), Collections.emptyList(), null, 
+                  item.input.sourceInputId);
+            }
+            outputBuffer.put(item.sequence, result);
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }, "decoder-" + i);
+      thread.setDaemon(true);
+      thread.start();
+      decoderThreads.add(thread);
+    }
+    
+    // Output stage
+    final int[] evalCounts = new int[4];
+    final Thread outputThread = new Thread(() -> {
+      try {
+        for (DecoderOutput result; (result = outputBuffer.take()) != null;) {
+          if (outputToConsole) {
+            try {
+              processConsoleResult(result.translations, result.bestTranslation, result.sourceLength, result.sourceInputId);
+            } catch (Throwable e) {
+              logger.error("input {}: writing output failed", result.sourceInputId, e);
+            }
+          } else {
+            final RichTranslation<IString, String> best = result.translations.size() > 0 ? 
+                result.translations.get(0) : null;
+            bestTranslationList.add(best);
+          }
+          evalCounts[0] += result.ksrTyped;
+          evalCounts[1] += result.ksrTotal;
+          evalCounts[2] += result.wpaCorrect;
+          evalCounts[3] += result.wpaTotal;
+        }
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
       }
+    }, "decoder-output");
+    outputThread.setDaemon(true);
+    outputThread.start();
 
-      final InputProperties inputProps = inputPropertiesList != null && sourceInputId < inputPropertiesList.size()
-          ? inputPropertiesList.get(sourceInputId) : new InputProperties();
-      final List<Sequence<IString>> targets = forceDecodeReferences == null ? null
-          : forceDecodeReferences.get(sourceInputId);
+    // Input stage
+    final long startTime = TimingUtils.startTime();
+    int sourceInputId = 0;
+    long numInputs = 0;
+    final List<SequencedInput> window = new ArrayList<>(Math.max(scheduleWindow, 0));
+    try {
+      for (String line; (line = reader.readLine()) != null; ++sourceInputId) {
+        final Sequence<IString> source = preprocessor == null ? IStrings.tokenize(line)
+            : preprocessor.process(line.trim());
+
+        if (source.size() > maxSentenceSize || source.size() < minSentenceSize) {
+          logger.warn("Skipping: {}", line);
+          logger.warn("Tokens: {} (min: {} max: {})", source.size(), minSentenceSize, maxSentenceSize);
+          continue;
+        }
 
-      Sequence<IString> ref = null;
-      if(doEval) {
-        String refLine = refReader.readLine();
-        if(refLine == null) {
-          System.err.println("ERROR: reference file is too short");
-          System.exit(-1);
+        final InputProperties inputProps = inputPropertiesList != null && sourceInputId < inputPropertiesList.size()
+            ? inputPropertiesList.get(sourceInputId) : new InputProperties();
+        final List<Sequence<IString>> targets = forceDecodeReferences == null ? null
+            : forceDecodeReferences.get(sourceInputId);
+
+        Sequence<IString> ref = null;
+        if(doEval) {
+          String refLine = refReader.readLine();
+          if(refLine == null) {
+            System.err.println("ERROR: reference file is too short");
+            System.exit(-1);
+          }
+          ref = IStrings.tokenize(refLine);
         }
-        ref = IStrings.tokenize(refLine);
-      }
-      
-      wrapper.put(new DecoderInput(source, sourceInputId, targets, inputProps, ksr_nbest_size, wpa_nbest_size, oracle_nbest_size, ref));
-      for (DecoderOutput result; (result = wrapper.poll()) != null;) {
-        if (outputToConsole) {
-          processConsoleResult(result.translations, result.bestTranslation, result.sourceLength, result.sourceInputId);
+        
+        final SequencedInput input = new SequencedInput(numInputs++, new DecoderInput(source, sourceInputId, 
+            targets, inputProps, ksr_nbest_size, wpa_nbest_size, oracle_nbest_size, ref));
+        if (scheduleWindow > 1) {
+          window.add(input);
+          if (window.size() == scheduleWindow) schedule(window, inputQueue);
         } else {
-          final RichTranslation<IString, String> best = result.translations.size() > 0 ? 
-              result.translations.get(0) : null;
-          bestTranslationList.add(best);
+          inputQueue.put(input);
         }
-        ksrTyped += result.ksrTyped;
-        ksrTotal += result.ksrTotal;
-        wpaCorrect += result.wpaCorrect;
-        wpaTotal += result.wpaTotal;
       }
-    }
-
-    // Finished reading the input. Wait for threadpool to finish, then process
-    // last few translations.
-    wrapper.join();
-    while (wrapper.peek()) {
-      final DecoderOutput result = wrapper.poll();
-      if (outputToConsole) {
-        processConsoleResult(result.translations, result.bestTranslation, result.sourceLength, result.sourceInputId);
-      } else {
-        final RichTranslation<IString, String> best = result.translations.size() > 0 ? result.translations.get(0)
-            : null;
-        bestTranslationList.add(best);
-      }
-      ksrTyped += result.ksrTyped;
-      ksrTotal += result.ksrTotal;
-      wpaCorrect += result.wpaCorrect;
-      wpaTotal += result.wpaTotal;
+      schedule(window, inputQueue);
+
+      // Finished reading the input. Wait for the decoding threads to finish, then 
+      // for the last few translations to be written.
+      for (int i = 0; i < numThreads; ++i) inputQueue.put(END_OF_INPUT);
+      outputBuffer.close(numInputs);
+      for (Thread thread : decoderThreads) thread.join();
+      outputThread.join();
+      
+    } catch (InterruptedException e) {
+      logger.error("Interrupted while decoding", e);
+      decoderThreads.stream().forEach(Thread::interrupt);
+      outputThread.interrupt();
+      Thread.currentThread().interrupt();
     }
 
     final double totalTime = TimingUtils.elapsedSeconds(startTime);
@@ -1303,6 +1476,8 @@ public class Phrasal {
     reader.close();
     if(refReader != null) refReader.close();
     
+    final int ksrTyped = evalCounts[0], ksrTotal = evalCounts[1];
+    final int wpaCorrect = evalCounts[2], wpaTotal = evalCounts[3];
     if(ksrTotal > 0) logger.info("KSR: {} / {} = {}", ksrTyped, ksrTotal, ((double) ksrTyped) / ksrTotal);
     if(wpaTotal > 0) logger.info("Word prediction accuracy: {} / {} = {}", wpaCorrect, wpaTotal, ((double) wpaCorrect) / wpaTotal);
     return bestTranslationList;
@@ -1391,12 +1566,10 @@ public class Phrasal {
       logger.info("Configured foreground translation model for thread {}: {}", threadId, tm.getName());
     }
     if (inputProperties.containsKey(InputProperty.ModelWeights)) {
-      final Counter<String> weights = (Counter<String>) inputProperties.get(InputProperty.ModelWeights);
-      this.scorers.get(threadId).updateWeights(weights);
-      logger.info("Loaded decoder-local weights for thread {}", threadId);
+      setLocalWeights(threadId, inputProperties.get(InputProperty.ModelWeights));
 
     } else {
-      this.scorers.get(threadId).updateWeights(this.globalModel);
+      this.scorers.get(threadId).setWeights(this.globalModel.get());
     }
     if (! inputProperties.containsKey(InputProperty.RuleQueryLimit)) {
       inputProperties.put(InputProperty.RuleQueryLimit, ruleQueryLimit);
@@ -1425,6 +1598,23 @@ public class Phrasal {
     return translations;
   }
 
+  /**
+   * Set the weights of one decoding thread from the <code>ModelWeights</code> input property.
+   * Snapshots are shared, while counters are copied.
+   * 
+   * @param threadId
+   * @param weights
+   */
+  @SuppressWarnings("unchecked")
+  private void setLocalWeights(int threadId, Object weights) {
+    if (weights instanceof WeightSnapshot) {
+      this.scorers.get(threadId).setWeights((WeightSnapshot) weights);
+    } else {
+      this.scorers.get(threadId).updateWeights((Counter<String>) weights);
+    }
+    logger.info("Loaded decoder-local weights for thread {}", threadId);
+  }
+
   /**
    * Word-align a given sentence pair.
    *
@@ -1462,12 +1652,10 @@ public class Phrasal {
       logger.info("Configured foreground translation model for thread {}: {}", threadId, tm.getName());
     }
     if (inputProperties.containsKey(InputProperty.ModelWeights)) {
-      final Counter<String> weights = (Counter<String>) inputProperties.get(InputProperty.ModelWeights);
-      this.scorers.get(threadId).updateWeights(weights);
-      logger.info("Loaded decoder-local weights for thread {}", threadId);
+      setLocalWeights(threadId, inputProperties.get(InputProperty.ModelWeights));
 
     } else {
-      this.scorers.get(threadId).updateWeights(this.globalModel);
+      this.scorers.get(threadId).setWeights(this.globalModel.get());
     }
     timer.mark("setup");
 
@@ -1489,6 +1677,14 @@ public class Phrasal {
       logger.info("Closing n-best writer");
       nbestListWriter.close();
     }
+    if (binaryNbestListWriter != null) {
+      logger.info("Closing binary n-best writer");
+      try {
+        binaryNbestListWriter.close();
+      } catch (IOException e) {
+        logger.error("Unable to close binary n-best list", e);
+      }
+    }
 
     if (alignmentWriter != null) {
       logger.info("Closing alignment writer");
@@ -24,6 +24,7 @@ import edu.stanford.nlp.mt.decoder.util.DiverseNbestDecoder;
 import edu.stanford.nlp.mt.decoder.util.NbestListUtils;
 import edu.stanford.nlp.mt.decoder.util.OutputSpace;
 import edu.stanford.nlp.mt.decoder.util.RuleGrid;
+import edu.stanford.nlp.mt.decoder.util.RuleQueryBatch;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.decoder.util.StateLatticeDecoder;
 import edu.stanford.nlp.mt.decoder.util.SyntheticRules;
@@ -112,10 +113,29 @@ public abstract class AbstractBeamInferer<TK, FV> extends AbstractInferer<TK, FV
    * @param scorer
    * @return
    */
+  @SuppressWarnings("unchecked")
   protected PhraseQuery<TK,FV> getRules(Sequence<TK> source,
       InputProperties sourceInputProperties, List<Sequence<TK>> targets,
       int sourceInputId, Scorer<FV> scorer) {
-    
+    if (sourceInputProperties.containsKey(InputProperty.RuleQueryBatch)) {
+      RuleQueryBatch<TK,FV> batch = (RuleQueryBatch<TK,FV>) sourceInputProperties.get(InputProperty.RuleQueryBatch);
+      return batch.get(() -> queryRules(source, sourceInputProperties, sourceInputId, scorer), 
+          featurizer, scorer, sourceInputId, sourceInputProperties);
+    }
+    return queryRules(source, sourceInputProperties, sourceInputId, scorer);
+  }
+  
+  /**
+   * Query the phrase table and the unknown word model.
+   * 
+   * @param source
+   * @param sourceInputProperties
+   * @param sourceInputId
+   * @param scorer
+   * @return
+   */
+  private PhraseQuery<TK,FV> queryRules(Sequence<TK> source,
+      InputProperties sourceInputProperties, int sourceInputId, Scorer<FV> scorer) {
     // Initial query
     List<ConcreteRule<TK,FV>> ruleList = phraseGenerator.getRules(source, sourceInputProperties, 
         sourceInputId, scorer);
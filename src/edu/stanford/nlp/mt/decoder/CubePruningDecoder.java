@@ -1,14 +1,21 @@
 package edu.stanford.nlp.mt.decoder;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.PriorityQueue;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.stanford.nlp.mt.decoder.feat.FeatureExtractor;
 import edu.stanford.nlp.mt.decoder.recomb.RecombinationHistory;
 import edu.stanford.nlp.mt.decoder.util.Beam;
 import edu.stanford.nlp.mt.decoder.util.BundleBeam;
@@ -43,20 +50,55 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   // of MultiBeamDecoder
   public static final int DEFAULT_BEAM_SIZE = 1200;
   public static final int DEFAULT_MAX_DISTORTION = -1;
+  
+  // Featurize batches of derivation extensions at least this large before the derivations
+  // are built. Smaller batches, e.g., the successors of a popped item, are not worth the overhead.
+  private static final int MIN_PREFETCH_SIZE = 16;
 
+  // Intra-sentence parallelism: minimum number of derivations built by each thread.
+  private static final int MIN_DERIVATIONS_PER_THREAD = 8;
+  
   // TODO(spenceg) May need to cap the number of popped items to keep it from running forever.
   
   protected int maxDistortion;
   protected final int defaultDistortion;
   
+  // Search thread pools, keyed by parallelism. The pools are shared by all decoders,
+  // so no pool is ever replaced or leaked.
+  private static final Map<Integer,ForkJoinPool> searchPools = new ConcurrentHashMap<>();
+  
+  // Threads for building derivations within a sentence. Each thread has its own
+  // featurizer, which is a clone of the featurizer of this decoder.
+  protected final int searchThreads;
+  private final ForkJoinPool searchPool;
+  private final List<FeatureExtractor<TK,FV>> threadFeaturizers;
+  
   static public <TK, FV> CubePruningDecoderBuilder<TK, FV> builder() {
     return new CubePruningDecoderBuilder<TK, FV>();
   }
 
+  @SuppressWarnings("unchecked")
   protected CubePruningDecoder(CubePruningDecoderBuilder<TK, FV> builder) {
     super(builder);
     maxDistortion = builder.maxDistortion;
     defaultDistortion = builder.maxDistortion;
+    searchThreads = builder.searchThreads;
+    if (searchThreads > 1) {
+      searchPool = getSearchPool(searchThreads);
+      threadFeaturizers = new ArrayList<>(searchThreads);
+      threadFeaturizers.add(featurizer);
+      try {
+        for (int i = 1; i < searchThreads; ++i) {
+          threadFeaturizers.add((FeatureExtractor<TK, FV>) featurizer.clone());
+        }
+      } catch (CloneNotSupportedException e) {
+        throw new RuntimeException(e);
+      }
+      logger.info("Cube pruning decoder {}. Search threads: {}", builder.decoderId, searchThreads);
+    } else {
+      searchPool = null;
+      threadFeaturizers = Collections.singletonList(featurizer);
+    }
 
     if (maxDistortion != -1) {
       logger.info("Cube pruning decoder {}. Distortion limit: {}", builder.decoderId, 
@@ -69,6 +111,7 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   public static class CubePruningDecoderBuilder<TK, FV> extends AbstractBeamInfererBuilder<TK, FV> {
     int maxDistortion = DEFAULT_MAX_DISTORTION;
     int decoderId = -1;
+    int searchThreads = 1;
 
     @Override
     public AbstractBeamInfererBuilder<TK, FV> setMaxDistortion(int maxDistortion) {
@@ -76,6 +119,19 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
       return this;
     }
 
+    /**
+     * Set the number of threads that build derivations within a sentence. The threads
+     * are shared by all decoders with the same number of search threads.
+     * 
+     * @param searchThreads
+     * @return
+     */
+    public CubePruningDecoderBuilder<TK, FV> setSearchThreads(int searchThreads) {
+      if (searchThreads < 1) throw new IllegalArgumentException("Invalid number of search threads: " + searchThreads);
+      this.searchThreads = searchThreads;
+      return this;
+    }
+    
     public CubePruningDecoderBuilder() {
       super(DEFAULT_BEAM_SIZE, null);
     }
@@ -92,6 +148,25 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     }
   }
 
+  /**
+   * Get the shared pool with the specified parallelism.
+   * 
+   * @param numThreads
+   * @return
+   */
+  private static ForkJoinPool getSearchPool(int numThreads) {
+    ForkJoinPool pool = searchPools.get(numThreads);
+    return pool == null ? searchPools.computeIfAbsent(numThreads, n -> {
+      final String threadPrefix = "cube-search-" + n;
+      // Worker threads of the default factory are daemon threads
+      return new ForkJoinPool(n, p -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        t.setName(threadPrefix + "-" + t.getPoolIndex());
+        return t;
+      }, null, false);
+    }) : pool;
+  }
+
   @SuppressWarnings("unchecked")
   @Override
   protected Beam<Derivation<TK, FV>> decode(Scorer<FV> scorer,
@@ -163,7 +238,9 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
     }
 
     // Initialize feature extractors
-    featurizer.initialize(sourceInputId, source);
+    for (FeatureExtractor<TK,FV> threadFeaturizer : threadFeaturizers) {
+      threadFeaturizer.initialize(sourceInputId, source);
+    }
     
     // Prefix decoding
     int startOfDecoding = 1;
@@ -193,18 +270,21 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*beamCapacity);
+      List<Consequent<TK,FV>> frontier = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) beams.get(j);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, false)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          frontier.addAll(bundle.nextSuccessors(null));
         }
       }
+      for(Item consequent : generateItems(frontier, sourceInputId, outputSpace, false)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        pq.add(consequent);
+      }
 
-      // Beam-filling
+      // Beam-filling. Items are popped one at a time, so the search is the same for any
+      // number of search threads.
       BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) beams.get(i);
       int numPoppedItems = newBeam.size();
       while (numPoppedItems < beamCapacity && ! pq.isEmpty()) {
@@ -291,16 +371,106 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
   private List<Item> generateConsequentsFrom(Consequent<TK, FV> antecedent, 
       HyperedgeBundle<TK, FV> bundle, int sourceInputId, OutputSpace<TK, FV> outputSpace, 
       boolean checkSourceCoverage) {
-    List<Item> successors = new ArrayList<>(2);
-    for(Consequent<TK, FV> successor : bundle.nextSuccessors(antecedent)) {
+    return generateItems(bundle.nextSuccessors(antecedent), sourceInputId, outputSpace, checkSourceCoverage);
+  }
+  
+  /**
+   * Build derivations for a list of successors. The derivation extensions are featurized
+   * as a batch before the derivations are built.
+   * 
+   * @param successors
+   * @param sourceInputId
+   * @param outputSpace
+   * @param checkSourceCoverage
+   * @return
+   */
+  private List<Item> generateItems(List<Consequent<TK, FV>> successors, int sourceInputId, 
+      OutputSpace<TK, FV> outputSpace, boolean checkSourceCoverage) {
+    final int numSuccessors = successors.size();
+    final int[] derivationIndex = new int[numSuccessors];
+    final List<Derivation<TK,FV>> antecedents = new ArrayList<>(numSuccessors);
+    final List<ConcreteRule<TK,FV>> rules = new ArrayList<>(numSuccessors);
+    for (int i = 0; i < numSuccessors; ++i) {
+      Consequent<TK, FV> successor = successors.get(i);
       boolean buildDerivation = outputSpace.allowableContinuation(successor.antecedent.featurizable, successor.rule)
           && (!checkSourceCoverage || (!successor.antecedent.sourceCoverage.intersects(successor.rule.sourceCoverage) ));
-      Derivation<TK, FV> derivation = buildDerivation ? new Derivation<>(sourceInputId,
-          successor.rule, successor.antecedent.length, successor.antecedent, featurizer, scorer, 
-          heuristic, outputSpace) : null;
-      successors.add(new Item(derivation, successor));
+      if (buildDerivation) {
+        derivationIndex[i] = antecedents.size();
+        antecedents.add(successor.antecedent);
+        rules.add(successor.rule);
+      } else {
+        derivationIndex[i] = -1;
+      }
+    }
+    final List<Derivation<TK,FV>> derivations = buildDerivations(antecedents, rules, sourceInputId, outputSpace);
+    
+    List<Item> items = new ArrayList<>(numSuccessors);
+    for (int i = 0; i < numSuccessors; ++i) {
+      Derivation<TK, FV> derivation = derivationIndex[i] < 0 ? null : derivations.get(derivationIndex[i]);
+      items.add(new Item(derivation, successors.get(i)));
+    }
+    return items;
+  }
+  
+  /**
+   * Extend each antecedent with the corresponding rule. Large batches are split across the 
+   * search threads. The search threads only extract features, each with its own featurizer.
+   * The scorer and the heuristic are not threadsafe in general, so the derivations are
+   * scored in the calling thread.
+   * 
+   * @param antecedents
+   * @param rules
+   * @param sourceInputId
+   * @param outputSpace
+   * @return
+   */
+  private List<Derivation<TK,FV>> buildDerivations(List<Derivation<TK,FV>> antecedents, 
+      List<ConcreteRule<TK,FV>> rules, int sourceInputId, OutputSpace<TK, FV> outputSpace) {
+    final int numDerivations = antecedents.size();
+    // Generic arrays cannot be created. Only Derivation<TK,FV> elements are stored, and
+    // the array is returned as a typed list.
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    final Derivation<TK,FV>[] derivations = new Derivation[numDerivations];
+    // Reserve the ids so that the derivations are ordered as in single-threaded search.
+    final long firstId = Derivation.nextId.getAndAdd(numDerivations) + 1;
+    final int numThreads = searchPool == null ? 1 : 
+      Math.min(searchThreads, numDerivations / MIN_DERIVATIONS_PER_THREAD);
+    if (numThreads <= 1) {
+      buildDerivations(featurizer, antecedents, rules, 0, numDerivations, firstId, 
+          sourceInputId, outputSpace, derivations, true);
+    } else {
+      final List<ForkJoinTask<?>> tasks = new ArrayList<>(numThreads - 1);
+      for (int t = 1; t < numThreads; ++t) {
+        final FeatureExtractor<TK,FV> threadFeaturizer = threadFeaturizers.get(t);
+        final int start = t * numDerivations / numThreads;
+        final int end = (t + 1) * numDerivations / numThreads;
+        tasks.add(searchPool.submit(() -> buildDerivations(threadFeaturizer, antecedents, rules, 
+            start, end, firstId, sourceInputId, outputSpace, derivations, false)));
+      }
+      buildDerivations(featurizer, antecedents, rules, 0, numDerivations / numThreads, firstId, 
+          sourceInputId, outputSpace, derivations, false);
+      for (ForkJoinTask<?> task : tasks) task.join();
+      for (Derivation<TK,FV> derivation : derivations) derivation.computeScore(scorer, heuristic);
+    }
+    return Arrays.asList(derivations);
+  }
+  
+  /**
+   * Build derivations [start,end) with the specified featurizer. If <code>score</code> is false,
+   * the derivations are not scored.
+   */
+  private void buildDerivations(FeatureExtractor<TK,FV> featurizer, List<Derivation<TK,FV>> antecedents, 
+      List<ConcreteRule<TK,FV>> rules, int start, int end, long firstId, int sourceInputId, 
+      OutputSpace<TK, FV> outputSpace, Derivation<TK,FV>[] derivations, boolean score) {
+    // Featurizers such as the LM prefetch per thread, so the batch must be built in this thread.
+    if (end - start >= MIN_PREFETCH_SIZE) {
+      featurizer.prefetch(antecedents.subList(start, end), rules.subList(start, end));
+    }
+    for (int i = start; i < end; ++i) {
+      Derivation<TK,FV> antecedent = antecedents.get(i);
+      derivations[i] = new Derivation<>(firstId + i, sourceInputId, rules.get(i), antecedent.length, 
+          antecedent, featurizer, score ? scorer : null, heuristic, outputSpace);
     }
-    return successors;
   }
   
   private int itemId = 0;
@@ -413,17 +583,19 @@ public class CubePruningDecoder<TK,FV> extends AbstractBeamInferer<TK, FV> {
 
       // Initialize the priority queue
       Queue<Item> pq = new PriorityQueue<>(2*beamCapacity);
+      List<Consequent<TK,FV>> frontier = new ArrayList<>();
       for (int j = startBeam; j < i; ++j) {
         BundleBeam<TK,FV> bundleBeam = (BundleBeam<TK,FV>) tgtBeams.get(j);
         //System.err.println("card " + j + " consequent size " + i);
         for (HyperedgeBundle<TK,FV> bundle : bundleBeam.getBundlesForConsequentSize(i)) {
-          for(Item consequent : generateConsequentsFrom(null, bundle, sourceInputId, outputSpace, true)) {
-            ++totalHypothesesGenerated;
-            if (consequent.derivation == null) ++numPruned;
-            pq.add(consequent);
-          }
+          frontier.addAll(bundle.nextSuccessors(null));
         }
       }
+      for(Item consequent : generateItems(frontier, sourceInputId, outputSpace, true)) {
+        ++totalHypothesesGenerated;
+        if (consequent.derivation == null) ++numPruned;
+        pq.add(consequent);
+      }
       
       // Beam-filling
       BundleBeam<TK,FV> newBeam = (BundleBeam<TK, FV>) tgtBeams.get(i);
@@ -0,0 +1,26 @@
+package edu.stanford.nlp.mt.decoder.feat;
+
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+
+/**
+ * A derivation featurizer that can score many derivation extensions at once,
+ * e.g., to amortize the cost of a native call. Before a batch of derivations is
+ * built, the decoder passes their antecedents and rules to prefetch(). The derivations
+ * are then built in the same order in the same thread.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public interface BatchDerivationFeaturizer<TK,FV> {
+
+  /**
+   * Score the extensions of antecedents.get(i) by rules.get(i).
+   *
+   * @param antecedents
+   * @param rules
+   */
+  public void prefetch(List<Derivation<TK,FV>> antecedents, List<ConcreteRule<TK,FV>> rules);
+}
@@ -7,6 +7,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.InputProperty;
@@ -23,7 +24,7 @@ import edu.stanford.nlp.mt.util.Sequence;
  */
 public class FeatureExtractor<TK, FV> extends 
     DerivationFeaturizer<TK, FV> implements RuleFeaturizer<TK, FV>,
-    Cloneable {
+    BatchDerivationFeaturizer<TK, FV>, Cloneable {
   
   private List<Featurizer<TK, FV>> featurizers;
   private final int numDerivationFeaturizers;
@@ -165,7 +166,10 @@ public class FeatureExtractor<TK, FV> extends
    */
   @Override
   public List<FeatureValue<FV>> featurize(Featurizable<TK, FV> f) {
-    List<FeatureValue<FV>> featureValues = new ArrayList<>();
+    // Derivation adds the cached rule features to this list, so reserve space for them.
+    final int numRuleFeatures = f.rule == null || f.rule.cachedFeatureList == null ? 0 :
+      f.rule.cachedFeatureList.size();
+    List<FeatureValue<FV>> featureValues = new ArrayList<>(2*numDerivationFeaturizers + numRuleFeatures);
     for (Featurizer<TK, FV> featurizer : featurizers) {
       if (featurizer instanceof DerivationFeaturizer) {
         List<FeatureValue<FV>> listFeatureValues = 
@@ -183,6 +187,19 @@ public class FeatureExtractor<TK, FV> extends
     return featureValues;
   }
 
+  /**
+   * Prefetch derivation features for a batch of derivation extensions.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  public void prefetch(List<Derivation<TK, FV>> antecedents, List<ConcreteRule<TK, FV>> rules) {
+    for (Featurizer<TK, FV> featurizer : featurizers) {
+      if (featurizer instanceof BatchDerivationFeaturizer) {
+        ((BatchDerivationFeaturizer<TK,FV>) featurizer).prefetch(antecedents, rules);
+      }
+    }
+  }
+
   /**
    * Extract rule features.
    */
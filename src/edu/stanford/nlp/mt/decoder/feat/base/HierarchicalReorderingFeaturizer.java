@@ -10,6 +10,7 @@ import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.ExtendedLexicalReorderingTable.ReorderingTypes;
 import edu.stanford.nlp.mt.train.AlignmentGrid;
 import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -147,6 +148,7 @@ public class HierarchicalReorderingFeaturizer extends
 
   final boolean has2Disc, hasContainment;
   final String[] featureTags;
+  final int[] featureIds;
   final ExtendedLexicalReorderingTable mlrt;
   private BitSet tmpCoverage = new BitSet();
 
@@ -191,6 +193,7 @@ public class HierarchicalReorderingFeaturizer extends
     for (int i = 0; i < mlrt.positionalMapping.length; i++)
       featureTags[i] = String.format("%s:%s", FEATURE_PREFIX,
           mlrt.positionalMapping[i]);
+    featureIds = FeatureRegistry.addAll(featureTags);
   }
 
   @Override
@@ -330,14 +333,14 @@ public class HierarchicalReorderingFeaturizer extends
         if (!usePrior(mlrt.positionalMapping[i])) {
           boolean firstInDTU = f.getSegmentIdx() == 0;
           if (scores != null && firstInDTU) {
-            values.add(new FeatureValue<String>(featureTags[i], scores[i], true));
+            values.add(new FeatureValue<String>(featureTags[i], scores[i], true, featureIds[i]));
           }
         } else {
           boolean lastInDTU = (f.prior == null)
               || f.prior.getSegmentIdx() + 1 == f.prior.getSegmentNumber();
           if (priorScores != null && lastInDTU) {
             values
-                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true));
+                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true, featureIds[i]));
           }
         }
       }
@@ -384,7 +387,7 @@ public class HierarchicalReorderingFeaturizer extends
           if (usePrior(mlrt.positionalMapping[i])) {
             if (finalScores != null)
               values.add(new FeatureValue<String>(featureTags[i],
-                  finalScores[i], true));
+                  finalScores[i], true, featureIds[i]));
           }
         }
       }
@@ -14,6 +14,7 @@ import edu.stanford.nlp.mt.tm.LexicalReorderingTable;
 import edu.stanford.nlp.mt.tm.LexicalReorderingTable.ReorderingTypes;
 import edu.stanford.nlp.mt.tm.Rule;
 import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -37,6 +38,7 @@ public class LexicalReorderingFeaturizer extends
   public static final String FEATURE_PREFIX = "LexR";
   private static final String DISCRIMINATIVE_PREFIX = "Disc" + FEATURE_PREFIX;
   public final String[] featureTags;
+  private final int[] featureIds;
   public final LexicalReorderingTable mlrt;
   private List<LexicalReorderingTable.ReorderingTypes> discriminativeSet;
   private final boolean useAlignmentConstellations;
@@ -60,6 +62,7 @@ public class LexicalReorderingFeaturizer extends
     this.discriminativeSet = new ArrayList<>(Arrays.asList(LexicalReorderingTable.ReorderingTypes.values()));
     this.mlrt = null;
     this.featureTags = null;
+    this.featureIds = null;
     this.useAlignmentConstellations = false;
     this.useClasses = false;
     this.countFeatureIndex = -1;
@@ -82,6 +85,7 @@ public class LexicalReorderingFeaturizer extends
       this.mlrt = null;
       this.featureTags = Arrays.stream(LexicalReorderingTable.msdBidirectionalPositionMapping).map(m -> 
       String.format("%s:%s", FEATURE_PREFIX, m)).toArray(String[]::new);
+      this.featureIds = FeatureRegistry.addAll(featureTags);
       this.useAlignmentConstellations = false;
       this.useClasses = false;
       this.countFeatureIndex = -1;
@@ -107,6 +111,7 @@ public class LexicalReorderingFeaturizer extends
       }
       this.mlrt = null;
       this.featureTags = null;
+      this.featureIds = null;
       this.lexicalCutoff = PropertiesUtils.getInt(options, "lexicalCutoff", 0);
     }
   }
@@ -126,6 +131,7 @@ public class LexicalReorderingFeaturizer extends
       featureTags[i] = String.format("%s:%s", FEATURE_PREFIX,
           mlrt.positionalMapping[i]);
     }
+    this.featureIds = FeatureRegistry.addAll(featureTags);
     this.discriminativeSet = null;
     this.countFeatureIndex = -1;
     this.lexicalCutoff = 0;
@@ -199,11 +205,11 @@ public class LexicalReorderingFeaturizer extends
         boolean ff = featureFunction(monotone, swap, mlrt.positionalMapping[i]);
         if (!usePrior(mlrt.positionalMapping[i])) {
           if (scores != null && ff)
-            features.add(new FeatureValue<String>(featureTags[i], scores[i], true));
+            features.add(new FeatureValue<String>(featureTags[i], scores[i], true, featureIds[i]));
         } else {
           if (priorScores != null && ff)
             features
-                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true));
+                .add(new FeatureValue<String>(featureTags[i], priorScores[i], true, featureIds[i]));
         }
       }
     }
@@ -218,7 +224,7 @@ public class LexicalReorderingFeaturizer extends
           // Forward scores
           assert i >= 3;
           if (priorScores != null && ff) {
-            features.add(new FeatureValue<String>(featureTags[i], priorScores[i], true));
+            features.add(new FeatureValue<String>(featureTags[i], priorScores[i], true, featureIds[i]));
             if (dynamicDiscrim) {
               String featureName = DISCRIMINATIVE_PREFIX + ":" + f.prior.rule.abstractRule.forwardOrientation.toString()
                 + "-" + type.toString();
@@ -230,7 +236,7 @@ public class LexicalReorderingFeaturizer extends
           // Backward scores
           assert i < 3;
           if (scores != null && ff) {
-            features.add(new FeatureValue<String>(featureTags[i], scores[i], true));
+            features.add(new FeatureValue<String>(featureTags[i], scores[i], true, featureIds[i]));
             if (dynamicDiscrim) {
               String featureName = DISCRIMINATIVE_PREFIX + ":" + f.rule.abstractRule.backwardOrientation.toString()
                 + "-" + type.toString();
@@ -6,6 +6,7 @@ import java.util.List;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeaturizerState;
 import edu.stanford.nlp.mt.decoder.util.Derivation;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -20,6 +21,7 @@ import edu.stanford.nlp.mt.util.Sequence;
 public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, String> {
 
   public static final String FEATURE_NAME = "LinearDistortion";
+  private static final int FEATURE_ID = FeatureRegistry.add(FEATURE_NAME);
 
   public static final boolean ADD_EOS = Boolean.parseBoolean(System
       .getProperty("addEOS", "false"));
@@ -83,7 +85,7 @@ public class LinearFutureCostFeaturizer extends DerivationFeaturizer<IString, St
     int edge = lastOptionForeignEdge(f.derivation);
     f.setState(this, new FutureCostState(edge, futureCost));
     float deltaCost = futureCost - oldFutureCost;
-    return Collections.singletonList(new FeatureValue<String>(FEATURE_NAME, -1.0 * (cost(f) + deltaCost), true));
+    return Collections.singletonList(new FeatureValue<String>(FEATURE_NAME, -1.0 * (cost(f) + deltaCost), true, FEATURE_ID));
   }
 
   @Override
@@ -1,18 +1,23 @@
 package edu.stanford.nlp.mt.decoder.feat.base;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Properties;
 
+import edu.stanford.nlp.mt.decoder.feat.BatchDerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.DerivationFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
+import edu.stanford.nlp.mt.decoder.util.Derivation;
 import edu.stanford.nlp.mt.lm.LMState;
 import edu.stanford.nlp.mt.lm.LanguageModel;
 import edu.stanford.nlp.mt.lm.LanguageModelFactory;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
 import edu.stanford.nlp.mt.util.AbstractWordClassMap;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -29,11 +34,12 @@ import edu.stanford.nlp.util.PropertiesUtils;
  * @author Spence Green
  */
 public class NGramLanguageModelFeaturizer extends DerivationFeaturizer<IString, String> implements
-RuleFeaturizer<IString, String> {
+RuleFeaturizer<IString, String>, BatchDerivationFeaturizer<IString, String> {
   private static final boolean DEBUG = false;
   public static final String DEFAULT_FEATURE_NAME = "LM";
 
   private final String featureName;
+  private final int featureId;
   private final LanguageModel<IString> lm;
   private final IString startToken;
   private final IString endToken;
@@ -43,6 +49,9 @@ RuleFeaturizer<IString, String> {
 
   private static final boolean wrapBoundary = System.getProperties().containsKey("wrapBoundary");
 
+  // LM states from the last call to prefetch() in each decoder thread.
+  private final ThreadLocal<Prefetched> threadLocalPrefetched = ThreadLocal.withInitial(Prefetched::new);
+
   /**
    * Constructor.
    * 
@@ -51,6 +60,7 @@ RuleFeaturizer<IString, String> {
   public NGramLanguageModelFeaturizer(LanguageModel<IString> lm) {
     this.lm = lm;
     featureName = DEFAULT_FEATURE_NAME;
+    featureId = FeatureRegistry.add(featureName);
     this.startToken = lm.getStartToken();
     this.endToken = lm.getEndToken();
     this.isClassBased = false;
@@ -78,6 +88,7 @@ RuleFeaturizer<IString, String> {
 
     // Set the feature name
     this.featureName = args[1];
+    this.featureId = FeatureRegistry.add(featureName);
 
     // Named parameters
     Properties options = FeatureUtils.argsToProperties(args);
@@ -121,46 +132,91 @@ RuleFeaturizer<IString, String> {
       System.err.println("ngram scoring:");
     }
     
-    LMState priorState = f.prior == null ? null : (LMState) f.prior.getState(this);
+    LMState state = threadLocalPrefetched.get().next(f);
+    if (state == null) {
+      Query query = makeQuery(f.prior, f.targetPhrase, f.done);
+      if (query == null) return null;
+      state = lm.score(query.sequence, query.startIndex, query.priorState);
+    }
+    f.setState(this, state);
+    
+    if (DEBUG) {
+      System.err.printf("Final score: %f%n", state.getScore());
+      System.err.println("===================");
+    }
+    return Collections.singletonList(new FeatureValue<>(featureName, state.getScore(), true, featureId));
+  }
+
+  /**
+   * Make the LM query for a derivation extension.
+   * 
+   * @param prior
+   * @param targetPhrase
+   * @param done
+   * @return The query or null if the extension should not be scored.
+   */
+  private Query makeQuery(Featurizable<IString, String> prior, Sequence<IString> targetPhrase, 
+      boolean done) {
+    LMState priorState = prior == null ? null : (LMState) prior.getState(this);
     
     Sequence<IString> partialTranslation = isClassBased ? 
-        toClassRepresentation(f.targetPhrase) : f.targetPhrase;
+        toClassRepresentation(targetPhrase) : targetPhrase;
     int startIndex = 0;
     if (! wrapBoundary) {
-      if (f.prior == null && f.done) {
+      if (prior == null && done) {
         partialTranslation = Sequences.wrapStartEnd(
             partialTranslation, startToken, endToken);
         startIndex = 1;
-      } else if (f.prior == null) {
+      } else if (prior == null) {
         partialTranslation = Sequences.wrapStart(partialTranslation, startToken);
         startIndex = 1;
-      } else if ( f.done) {
+      } else if (done) {
         partialTranslation = Sequences.wrapEnd(partialTranslation, endToken);
       } 
-    } else if (f.prior == null) {
+    } else if (prior == null) {
       if (partialTranslation.size() < 2) return null;
       startIndex = 1;
-    } else if (f.prior != null && priorState == null) {
-      partialTranslation = Sequences.wrapStart(partialTranslation, f.prior.targetSequence.get(0));
+    } else if (prior != null && priorState == null) {
+      partialTranslation = Sequences.wrapStart(partialTranslation, prior.targetSequence.get(0));
       startIndex = 1;
     }
-    
-    LMState state = lm.score(partialTranslation, startIndex, priorState);
-    f.setState(this, state);
-    
-    if (DEBUG) {
-      System.err.printf("Final score: %f%n", state.getScore());
-      System.err.println("===================");
+    return new Query(partialTranslation, startIndex, priorState);
+  }
+  
+  @Override
+  public void prefetch(List<Derivation<IString, String>> antecedents,
+      List<ConcreteRule<IString, String>> rules) {
+    final int numExtensions = antecedents.size();
+    final List<Sequence<IString>> sequences = new ArrayList<>(numExtensions);
+    final List<LMState> priorStates = new ArrayList<>(numExtensions);
+    final int[] startIndices = new int[numExtensions];
+    final boolean[] scored = new boolean[numExtensions];
+    for (int i = 0; i < numExtensions; ++i) {
+      final Derivation<IString, String> antecedent = antecedents.get(i);
+      final ConcreteRule<IString, String> rule = rules.get(i);
+      final boolean done = antecedent.untranslatedSourceTokens == rule.sourceCoverage.cardinality();
+      final Query query = makeQuery(antecedent.featurizable, rule.abstractRule.target, done);
+      if (query != null) {
+        startIndices[sequences.size()] = query.startIndex;
+        sequences.add(query.sequence);
+        priorStates.add(query.priorState);
+        scored[i] = true;
+      }
     }
-    return Collections.singletonList(new FeatureValue<>(featureName, state.getScore(), true));
+    final List<LMState> batchStates = lm.score(sequences, startIndices, priorStates);
+    final List<LMState> states = new ArrayList<>(numExtensions);
+    for (int i = 0, j = 0; i < numExtensions; ++i) {
+      states.add(scored[i] ? batchStates.get(j++) : null);
+    }
+    threadLocalPrefetched.get().set(antecedents, rules, states);
   }
-
+  
   @Override
   public List<FeatureValue<String>> ruleFeaturize(
       Featurizable<IString, String> f) {
     assert (f.targetPhrase != null);
     double lmScore = lm.score(f.targetPhrase, 0, null).getScore();
-    return Collections.singletonList(new FeatureValue<>(featureName, lmScore, true));
+    return Collections.singletonList(new FeatureValue<>(featureName, lmScore, true, featureId));
   }
 
   @Override
@@ -176,6 +232,51 @@ RuleFeaturizer<IString, String> {
     return true;
   }
   
+  /**
+   * An LM query.
+   */
+  private static class Query {
+    public final Sequence<IString> sequence;
+    public final int startIndex;
+    public final LMState priorState;
+    public Query(Sequence<IString> sequence, int startIndex, LMState priorState) {
+      this.sequence = sequence;
+      this.startIndex = startIndex;
+      this.priorState = priorState;
+    }
+  }
+  
+  /**
+   * LM states from a batch query. Derivations are built in the order of the
+   * batch, so lookups only need to check the next extension.
+   */
+  private static class Prefetched {
+    private List<Derivation<IString, String>> antecedents = Collections.emptyList();
+    private List<ConcreteRule<IString, String>> rules;
+    private List<LMState> states;
+    private int position = 0;
+    
+    public void set(List<Derivation<IString, String>> antecedents, 
+        List<ConcreteRule<IString, String>> rules, List<LMState> states) {
+      this.antecedents = antecedents;
+      this.rules = rules;
+      this.states = states;
+      this.position = 0;
+    }
+    
+    public LMState next(Featurizable<IString, String> f) {
+      if (position < antecedents.size() && f.derivation != null 
+          && f.derivation.parent == antecedents.get(position) 
+          && f.derivation.rule == rules.get(position)) {
+        final LMState state = states.get(position++);
+        // Release the derivations once the batch has been consumed
+        if (position == antecedents.size()) set(Collections.emptyList(), null, null);
+        return state;
+      }
+      return null;
+    }
+  }
+  
   private static class LocalTargetMap extends AbstractWordClassMap {
     public LocalTargetMap() {
       wordToClass = new HashMap<>();
@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
 
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 import edu.stanford.nlp.mt.util.IString;
@@ -23,7 +24,19 @@ public class TranslationModelFeaturizer implements RuleFeaturizer<IString, Strin
   public static final String FEATURE_PREFIX = "TM";
 
   // Only construct the feature strings once for each phrase table
-  private final ConcurrentHashMap<String, String[]> featureNamesHash;
+  private final ConcurrentHashMap<String, FeatureNames> featureNamesHash;
+
+  /**
+   * The feature names of a phrase table and their FeatureRegistry ids.
+   */
+  private static class FeatureNames {
+    public final String[] names;
+    public final int[] ids;
+    public FeatureNames(String[] names) {
+      this.names = names;
+      this.ids = FeatureRegistry.addAll(names);
+    }
+  }
 
   
   /**
@@ -51,8 +64,8 @@ public class TranslationModelFeaturizer implements RuleFeaturizer<IString, Strin
    * @param phraseScoreNames
    * @return
    */
-  private String[] createAndCacheFeatureNames(String phraseTableName, String[] phraseScoreNames, boolean forceUpdate) {
-    String[] featureNames = Arrays.stream(phraseScoreNames).map(s -> toTMFeature(s)).toArray(String[]::new);
+  private FeatureNames createAndCacheFeatureNames(String phraseTableName, String[] phraseScoreNames, boolean forceUpdate) {
+    FeatureNames featureNames = new FeatureNames(Arrays.stream(phraseScoreNames).map(s -> toTMFeature(s)).toArray(String[]::new));
     if (forceUpdate) featureNamesHash.put(phraseTableName, featureNames);
     else featureNamesHash.putIfAbsent(phraseTableName, featureNames);
     return featureNames;
@@ -65,19 +78,20 @@ public class TranslationModelFeaturizer implements RuleFeaturizer<IString, Strin
       throw new RuntimeException("Score name/value arrays of different dimensions for table: " + phraseTableName);
     }
     
-    String[] featureNames = featureNamesHash.get(phraseTableName);
+    FeatureNames featureNames = featureNamesHash.get(phraseTableName);
     if (featureNames == null) {
       featureNames = createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, false);
     }
-    if (featurizable.phraseScoreNames.length > featureNames.length) {
+    if (featurizable.phraseScoreNames.length > featureNames.names.length) {
       // We want to cache the longest feature list for each phrase table
       featureNames = createAndCacheFeatureNames(phraseTableName, featurizable.phraseScoreNames, true);
     }
     
     // construct array of FeatureValue objects
-    final List<FeatureValue<String>> features = new ArrayList<>(featureNames.length);
+    final List<FeatureValue<String>> features = new ArrayList<>(featureNames.names.length);
     for (int i = 0; i < featurizable.translationScores.length; ++i) {
-      features.add(new FeatureValue<>(featureNames[i], featurizable.translationScores[i], true));
+      features.add(new FeatureValue<>(featureNames.names[i], featurizable.translationScores[i], true,
+          featureNames.ids[i]));
     }
     return features;
   }
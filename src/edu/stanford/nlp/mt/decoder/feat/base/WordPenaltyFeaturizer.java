@@ -4,6 +4,7 @@ import java.util.Collections;
 import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.Featurizable;
 
@@ -16,11 +17,12 @@ import edu.stanford.nlp.mt.util.Featurizable;
 public class WordPenaltyFeaturizer<TK> implements RuleFeaturizer<TK, String> {
 
   public static final String FEATURE_NAME = "WordPenalty";
+  private static final int FEATURE_ID = FeatureRegistry.add(FEATURE_NAME);
 
   @Override
   public List<FeatureValue<String>> ruleFeaturize(Featurizable<TK, String> f) {
     return (f.targetPhrase == null || f.targetPhrase.size() == 0) ? null :
-      Collections.singletonList(new FeatureValue<>(FEATURE_NAME, -1.0 * f.targetPhrase.size(), true));
+      Collections.singletonList(new FeatureValue<>(FEATURE_NAME, -1.0 * f.targetPhrase.size(), true, FEATURE_ID));
   }
 
   @Override
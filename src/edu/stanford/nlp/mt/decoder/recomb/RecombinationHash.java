@@ -1,9 +1,9 @@
 package edu.stanford.nlp.mt.decoder.recomb;
 
+import it.unimi.dsi.fastutil.HashCommon;
+
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.stream.Collectors;
 
 import edu.stanford.nlp.mt.decoder.util.State;
@@ -13,6 +13,10 @@ import edu.stanford.nlp.mt.decoder.util.State;
  * Implements hypothesis recombination according to the specified recombination
  * filter.
  * 
+ * Hypotheses are stored in an open-addressing table with linear probing. The
+ * recombination hash code of each hypothesis is computed once and stored in a
+ * parallel array, so the filter is only consulted when two hash codes are identical.
+ * 
  * @author danielcer
  * @author Spence Green
  * 
@@ -20,18 +24,28 @@ import edu.stanford.nlp.mt.decoder.util.State;
  */
 public class RecombinationHash<S extends State<S>> {
 
-  private static final int INITIAL_CAPACITY = 1500;
+  private static final int INITIAL_CAPACITY = 256;
   
-  private final Map<FilterWrappedHypothesis, FilterWrappedHypothesis> recombinationHash;
   // private
   final RecombinationFilter<S> filter;
+  
+  private long[] keys;
+  private Object[] hypotheses;
+  private int mask;
+  private int size = 0;
 
   /**
 	 * 
 	 */
   public RecombinationHash(RecombinationFilter<S> filter) {
-    this.recombinationHash = new HashMap<>(INITIAL_CAPACITY);
     this.filter = filter;
+    allocate(INITIAL_CAPACITY);
+  }
+
+  private void allocate(int capacity) {
+    keys = new long[capacity];
+    hypotheses = new Object[capacity];
+    mask = capacity - 1;
   }
 
   /**
@@ -47,49 +61,99 @@ public class RecombinationHash<S extends State<S>> {
   };
 
   public int size() {
-    return recombinationHash.size();
+    return size;
+  }
+
+  /**
+   * Home slot of a hash code.
+   */
+  private int slot(long key) {
+    return (int) HashCommon.mix(key) & mask;
+  }
+  
+  /**
+   * Returns the slot of the first hypothesis that is equivalent to
+   * <code>hypothesis</code> under the filter, or the empty slot at which
+   * the probe sequence ended.
+   */
+  @SuppressWarnings("unchecked")
+  private int find(S hypothesis, long key) {
+    int pos = slot(key);
+    for (Object h; (h = hypotheses[pos]) != null; pos = (pos + 1) & mask) {
+      if (h == hypothesis || (keys[pos] == key && filter.combinable(hypothesis, (S) h))) {
+        return pos;
+      }
+    }
+    return pos;
+  }
+
+  /**
+   * Insert into the empty slot <code>pos</code>.
+   */
+  private void insert(int pos, S hypothesis, long key) {
+    keys[pos] = key;
+    hypotheses[pos] = hypothesis;
+    if (++size > (mask + 1) / 2) {
+      rehash();
+    }
+  }
+  
+  /**
+   * Double the size of the table. Entries are re-inserted in probe order, starting
+   * after an empty slot, so hypotheses with equal hash codes keep their relative order.
+   */
+  private void rehash() {
+    final long[] oldKeys = keys;
+    final Object[] oldHypotheses = hypotheses;
+    final int oldMask = mask;
+    int start = 0;
+    while (oldHypotheses[start] != null) ++start;
+    allocate(2 * oldKeys.length);
+    for (int j = 1; j <= oldMask + 1; ++j) {
+      final int i = (start + j) & oldMask;
+      if (oldHypotheses[i] == null) continue;
+      int pos = slot(oldKeys[i]);
+      while (hypotheses[pos] != null) pos = (pos + 1) & mask;
+      keys[pos] = oldKeys[i];
+      hypotheses[pos] = oldHypotheses[i];
+    }
   }
 
   public boolean isBest(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
-    if (filterEquivWrappedHyp == null)
-      return false;
-    return filterEquivWrappedHyp.hypothesis == hypothesis;
+    final long key = filter.recombinationHashCode(hypothesis);
+    return hypotheses[find(hypothesis, key)] == hypothesis;
   }
 
   /**
 	 * Query the status of hypothesis and update if necessary. Return
 	 * the re-combined hypothesis, if any.
 	 */
+  @SuppressWarnings("unchecked")
   public Status update(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
+    final long key = filter.recombinationHashCode(hypothesis);
+    final int pos = find(hypothesis, key);
+    final S filterEquivHyp = (S) hypotheses[pos];
 
-    if (filterEquivWrappedHyp == null) {
+    if (filterEquivHyp == null) {
       lastBestOnQuery = hypothesis;
       lastRedundantOnQuery = null;
-      recombinationHash.put(wrappedHyp, wrappedHyp);
+      insert(pos, hypothesis, key);
       return Status.NOVEL;
     
-    } else if (hypothesis == filterEquivWrappedHyp.hypothesis) {
+    } else if (hypothesis == filterEquivHyp) {
       lastBestOnQuery = hypothesis;
       lastRedundantOnQuery = null;
       return Status.SELF;
     
-    } else if (hypothesis.score() > filterEquivWrappedHyp.hypothesis.score()) {
-      lastRedundantOnQuery = filterEquivWrappedHyp.hypothesis;
+    } else if (hypothesis.score() > filterEquivHyp.score()) {
+      lastRedundantOnQuery = filterEquivHyp;
       lastBestOnQuery = hypothesis;
-      filterEquivWrappedHyp.hypothesis = hypothesis;
+      hypotheses[pos] = hypothesis;
       return Status.BETTER;
     
     } else {
       lastRedundantOnQuery = hypothesis;
-      lastBestOnQuery = filterEquivWrappedHyp.hypothesis;
+      lastBestOnQuery = filterEquivHyp;
       return Status.COMBINABLE;
     }
   }
@@ -106,11 +170,16 @@ public class RecombinationHash<S extends State<S>> {
   }
 
   /**
-	 * 
+	 * Insert a hypothesis, replacing an equivalent hypothesis if one exists.
 	 */
   public void put(S hypothesis) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(hypothesis, filter);
-    recombinationHash.put(wrappedHyp, wrappedHyp);
+    final long key = filter.recombinationHashCode(hypothesis);
+    final int pos = find(hypothesis, key);
+    if (hypotheses[pos] == null) {
+      insert(pos, hypothesis, key);
+    } else {
+      hypotheses[pos] = hypothesis;
+    }
   }
 
   public void remove(S hypothesis) {
@@ -118,60 +187,37 @@ public class RecombinationHash<S extends State<S>> {
   }
 
   public void remove(S hypothesis, boolean missingOkay) {
-    FilterWrappedHypothesis wrappedHyp = new FilterWrappedHypothesis(
-        hypothesis, filter);
-    FilterWrappedHypothesis filterEquivWrappedHyp = recombinationHash
-        .get(wrappedHyp);
-    if (filterEquivWrappedHyp == null) {
+    final long key = filter.recombinationHashCode(hypothesis);
+    final int pos = find(hypothesis, key);
+    if (hypotheses[pos] == null) {
       if (missingOkay)
         return;
       throw new RuntimeException("hypothesis not found in recombination hash");
     }
-    if (hypothesis == filterEquivWrappedHyp.hypothesis)
-      recombinationHash.remove(wrappedHyp);
-  }
-
-  public class FilterWrappedHypothesis {
-    public S hypothesis;
-    public final RecombinationFilter<S> filter;
-    private final long hashCode;
-
-    public FilterWrappedHypothesis(S hyp, RecombinationFilter<S> filter) {
-      this.hypothesis = hyp;
-      this.filter = filter;
-      hashCode = filter.recombinationHashCode(hypothesis);
+    if (hypothesis == hypotheses[pos]) {
+      shiftKeys(pos);
+      --size;
     }
+  }
 
-    @SuppressWarnings("unchecked")
-    @Override
-    public boolean equals(Object o) {
-      if (this == o) {
-        return true;
-      
-      } else if (!(o instanceof RecombinationHash.FilterWrappedHypothesis)) {
-        return false;
-
-      } else {
-        FilterWrappedHypothesis wrappedHyp = (FilterWrappedHypothesis) o;
-        if (wrappedHyp.hypothesis == this.hypothesis) {
-          return true;
-        } else if (hashCode != wrappedHyp.hashCode) {
-          return false;
-        } else {
-          boolean isCombinable = filter.combinable(this.hypothesis, wrappedHyp.hypothesis);
-          return isCombinable;
+  /**
+   * Backward-shift deletion for linear probing. Entries move toward their home
+   * slots, so the relative order of each probe sequence is unchanged.
+   */
+  private void shiftKeys(int pos) {
+    for (int last = pos;; last = pos) {
+      pos = (last + 1) & mask;
+      for (;; pos = (pos + 1) & mask) {
+        if (hypotheses[pos] == null) {
+          hypotheses[last] = null;
+          return;
         }
+        final int home = slot(keys[pos]);
+        // Move the entry at pos unless its home slot lies cyclically in (last, pos]
+        if (last <= pos ? last >= home || home > pos : last >= home && home > pos) break;
       }
-    }
-
-    @Override
-    public String toString() {
-      return hypothesis.toString();
-    }
-    
-    @Override
-    public int hashCode() {
-      return ((int) (hashCode >> 32)) ^ ((int) (hashCode & 0xffffffff));
+      keys[last] = keys[pos];
+      hypotheses[last] = hypotheses[pos];
     }
   }
 
@@ -180,9 +226,12 @@ public class RecombinationHash<S extends State<S>> {
    * 
    * @return
    */
+  @SuppressWarnings("unchecked")
   public List<S> derivations() {
-    final List<S> derivations = new ArrayList<>(recombinationHash.size());
-    for (FilterWrappedHypothesis hyp : recombinationHash.keySet()) derivations.add(hyp.hypothesis);
+    final List<S> derivations = new ArrayList<>(size);
+    for (Object h : hypotheses) {
+      if (h != null) derivations.add((S) h);
+    }
     return derivations;
   }
   
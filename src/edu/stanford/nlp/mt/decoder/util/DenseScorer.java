@@ -4,11 +4,11 @@ import java.io.IOException;
 import java.util.Collection;
 
 import edu.stanford.nlp.mt.util.DenseFeatureValueCollection;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.IOTools;
 
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.util.HashIndex;
 import edu.stanford.nlp.util.Index;
 import edu.stanford.nlp.math.ArrayMath;
 
@@ -21,15 +21,16 @@ import edu.stanford.nlp.math.ArrayMath;
  */
 public class DenseScorer implements Scorer<String> {
 
+  // Only used for the dense feature vectors of a shared feature index
   private final Index<String> featureIndex;
   private double[] weights;
+  
+  // Weights indexed by FeatureRegistry id
+  private double[] weightsById;
   private final boolean sharedFeatureIndex;
 
   public DenseScorer(String filename) {
-    sharedFeatureIndex = false;
-    featureIndex = new HashIndex<String>();
-    Counter<String> wts = IOTools.readWeights(filename, featureIndex);
-    updateWeights(wts);
+    this(IOTools.readWeights(filename), null);
   }
 
   public DenseScorer(Counter<String> featureWts) {
@@ -38,7 +39,7 @@ public class DenseScorer implements Scorer<String> {
 
   public DenseScorer(Counter<String> featureWts, Index<String> featureIndex) {
     sharedFeatureIndex = (featureIndex != null);
-    this.featureIndex = featureIndex == null ? new HashIndex<String>() : featureIndex;
+    this.featureIndex = featureIndex;
     updateWeights(featureWts);
   }
 
@@ -59,9 +60,9 @@ public class DenseScorer implements Scorer<String> {
     double score = 0;
 
     for (FeatureValue<String> feature : features) {
-      int index = featureIndex.indexOf(feature.name);
-      if (index >= 0 && index < weights.length) {
-        score += weights[index] * feature.value;
+      int index = feature.getId();
+      if (index >= 0 && index < weightsById.length) {
+        score += weightsById[index] * feature.value;
       }
     }
 
@@ -70,23 +71,32 @@ public class DenseScorer implements Scorer<String> {
 
   @Override
   public boolean hasNonZeroWeight(String featureName) {
-    int idx = featureIndex.indexOf(featureName);
-    return idx >= 0 && weights[idx] == weights[idx] && weights[idx] != 0;
+    int idx = FeatureRegistry.indexOf(featureName);
+    return idx >= 0 && idx < weightsById.length && weightsById[idx] == weightsById[idx]
+        && weightsById[idx] != 0;
   }
 
   @Override
   public void updateWeights(Counter<String> featureWts) {
+    int maxId = -1;
     for (String key : featureWts.keySet()) {
       // TODO(spenceg) - find out what is generating 'null' model weights
       // for now, we'll just have the decoding model ignore them
       if (key == null) continue;
-      featureIndex.addToIndex(key);
+      maxId = Math.max(maxId, FeatureRegistry.add(key));
+      if (sharedFeatureIndex) featureIndex.addToIndex(key);
     }
-
-    weights = new double[featureIndex.size()];
+    weightsById = new double[maxId + 1];
     for (String key : featureWts.keySet()) {
       if (key == null) continue;
-      weights[featureIndex.indexOf(key)] = featureWts.getCount(key);
+      weightsById[FeatureRegistry.indexOf(key)] = featureWts.getCount(key);
+    }
+    if (sharedFeatureIndex) {
+      weights = new double[featureIndex.size()];
+      for (String key : featureWts.keySet()) {
+        if (key == null) continue;
+        weights[featureIndex.indexOf(key)] = featureWts.getCount(key);
+      }
     }
   }
 
@@ -32,7 +32,7 @@ State<Derivation<TK, FV>> {
 
   // primitives
   public final long id;
-  public final double h;
+  public double h;
   public final int insertionPosition;
   public final int untranslatedSourceTokens;
   public final int depth;
@@ -149,7 +149,33 @@ State<Derivation<TK, FV>> {
       Derivation<TK, FV> base, FeatureExtractor<TK, FV> featurizer,
       Scorer<FV> scorer, SearchHeuristic<TK, FV> heuristic,
       OutputSpace<TK, FV> outputSpace) {
-    this.id = nextId.incrementAndGet();
+    this(nextId.incrementAndGet(), sourceInputId, rule, insertionPosition, base, featurizer, 
+        scorer, heuristic, outputSpace);
+  }
+  
+  /**
+   * Constructor for standard phrase-based (left-to-right) derivation expansion with an id 
+   * reserved from <code>nextId</code>. Derivations that are built concurrently are ordered by id
+   * when their scores are equal, so reserving ids keeps search deterministic. If the scorer
+   * is null, only the features are extracted, and the derivation must be scored with
+   * {@link #computeScore(Scorer, SearchHeuristic)}.
+   * 
+   * @param id
+   * @param sourceInputId
+   * @param rule
+   * @param insertionPosition
+   * @param base
+   * @param featurizer
+   * @param scorer
+   * @param heuristic
+   * @param outputSpace
+   */
+  public Derivation(long id, int sourceInputId,
+      ConcreteRule<TK,FV> rule, int insertionPosition,
+      Derivation<TK, FV> base, FeatureExtractor<TK, FV> featurizer,
+      Scorer<FV> scorer, SearchHeuristic<TK, FV> heuristic,
+      OutputSpace<TK, FV> outputSpace) {
+    this.id = id;
     this.insertionPosition = insertionPosition;
     this.rule = rule;
     this.parent = base;
@@ -175,14 +201,25 @@ State<Derivation<TK, FV>> {
     List<FeatureValue<FV>> nonLocalRuleAugments = featurizer.nonLocalAugmentRuleFeatures(rule.cachedFeatureList, this);
     if(nonLocalRuleAugments != null) features.addAll(nonLocalRuleAugments);
     
-    score = base.score + scorer.getIncrementalScore(features);
-    h = (Double.isInfinite(base.h)) ? base.h : base.h
+    depth = base.depth + 1;
+    if (scorer != null) computeScore(scorer, heuristic);
+  }
+
+  /**
+   * Compute the model score and the heuristic score from the features
+   * and the parent derivation.
+   * 
+   * @param scorer
+   * @param heuristic
+   */
+  public void computeScore(Scorer<FV> scorer, SearchHeuristic<TK, FV> heuristic) {
+    score = parent.score + scorer.getIncrementalScore(features);
+    h = (Double.isInfinite(parent.h)) ? parent.h : parent.h
         + heuristic.getHeuristicDelta(this, rule.sourceCoverage);
     // System.err.printf("h: %f %f %d %s\n", baseHyp.h,
     // heuristic.getHeuristicDelta(this, translationOpt.foreignCoverage),
     // untranslatedTokens, foreignCoverage);
     assert (!Double.isNaN(h));
-    depth = base.depth + 1;    
   }
 
   /**
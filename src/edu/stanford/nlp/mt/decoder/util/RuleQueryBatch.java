@@ -0,0 +1,66 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+
+import edu.stanford.nlp.mt.decoder.AbstractBeamInferer.PhraseQuery;
+import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.DTURule;
+import edu.stanford.nlp.mt.util.InputProperties;
+
+/**
+ * Shares one translation model query among inputs with the same source and
+ * input properties, e.g., interactive requests that differ only in the target
+ * prefix. The first input to be decoded runs the query. The others wait for it
+ * and receive the same rules, featurized and scored for their own input.
+ *
+ * Set as the value of <code>InputProperty.RuleQueryBatch</code>.
+ *
+ * @param <TK>
+ * @param <FV>
+ */
+public class RuleQueryBatch<TK,FV> {
+
+  private PhraseQuery<TK,FV> query;
+
+  /**
+   * Return the shared query result, running the query if this is the
+   * first input in the batch. The result of a query that was interrupted
+   * may be incomplete, so it is not shared.
+   *
+   * @param ruleQuery
+   * @param featurizer
+   * @param scorer
+   * @param sourceInputId
+   * @param sourceInputProperties
+   * @return
+   */
+  public PhraseQuery<TK,FV> get(Supplier<PhraseQuery<TK,FV>> ruleQuery, RuleFeaturizer<TK,FV> featurizer,
+      Scorer<FV> scorer, int sourceInputId, InputProperties sourceInputProperties) {
+    final PhraseQuery<TK,FV> sharedQuery;
+    synchronized(this) {
+      if (query == null) {
+        PhraseQuery<TK,FV> result = ruleQuery.get();
+        if (Thread.currentThread().isInterrupted()) return result;
+        query = result;
+        // The decoder may add synthetic rules to the list
+        return new PhraseQuery<>(result.filteredSource, new ArrayList<>(result.ruleList));
+      }
+      sharedQuery = query;
+    }
+    
+    // Rule features and isolation scores depend on the input, so only the abstract
+    // rules are shared.
+    List<ConcreteRule<TK,FV>> ruleList = new ArrayList<>(sharedQuery.ruleList.size());
+    for (ConcreteRule<TK,FV> rule : sharedQuery.ruleList) {
+      ruleList.add(rule.abstractRule instanceof DTURule ? 
+          new ConcreteRule<>(rule.abstractRule, rule.sourceCoverage, featurizer, scorer, 
+              sharedQuery.filteredSource, sourceInputId, true, sourceInputProperties) :
+          new ConcreteRule<>(rule.abstractRule, rule.sourceCoverage, featurizer, scorer, 
+              sharedQuery.filteredSource, sourceInputId, sourceInputProperties));
+    }
+    return new PhraseQuery<>(sharedQuery.filteredSource, ruleList);
+  }
+}
@@ -5,21 +5,23 @@ import java.util.Collection;
 
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.util.Index;
 
 /**
  * A sparse scorer for high dimensional models.
  * 
- * NOTE: This class is not threadsafe, which is okay for the current implementation
- * in which each Inferer has its own scorer.
+ * The scorer holds an immutable WeightSnapshot. updateWeights() and setWeights() replace
+ * the snapshot, so a scoring call never sees a mix of old and new weights. Scoring may be
+ * called concurrently by the threads of a single Inferer.
  * 
  * @author Spence Green
  *
  */
 public class SparseScorer implements Scorer<String> {
 
-  private Counter<String> weights;
+  private volatile WeightSnapshot weights;
   
   public SparseScorer(Counter<String> featureWts) {
     this(featureWts, null);
@@ -35,24 +37,55 @@ public class SparseScorer implements Scorer<String> {
     updateWeights(featureWts);
   }
   
+  /**
+   * Constructor.
+   * 
+   * @param weights
+   */
+  public SparseScorer(WeightSnapshot weights) {
+    this.weights = weights;
+  }
+  
   @Override
   public double getIncrementalScore(Collection<FeatureValue<String>> features) {
+    final WeightSnapshot weights = this.weights;
     double score = 0.0;
     for (FeatureValue<String> feature : features) {
-      score += feature.value * weights.getCount(feature.name);
+      score += feature.value * weights.getWeight(feature);
     }
     return score;
   }
 
+  /**
+   * Replace the weights with a copy of <code>weights</code>. Use setWeights() to
+   * share weights without copying them.
+   */
   @Override
   public void updateWeights(Counter<String> weights) {
-    // Do not copy the weights vector.
+    this.weights = new WeightSnapshot(new ClassicCounter<>(weights), 0);
+  }
+  
+  /**
+   * Replace the weights with a snapshot. The snapshot is not copied.
+   * 
+   * @param weights
+   */
+  public void setWeights(WeightSnapshot weights) {
     this.weights = weights;
   }
+  
+  /**
+   * The current weights.
+   * 
+   * @return
+   */
+  public WeightSnapshot getWeights() {
+    return weights;
+  }
 
   @Override
   public void saveWeights(String filename) throws IOException {
-    IOTools.writeWeights(filename, weights);
+    IOTools.writeWeights(filename, weights.getWeights());
   }
 
   @Override
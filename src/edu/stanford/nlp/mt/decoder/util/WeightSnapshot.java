@@ -0,0 +1,93 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+
+/**
+ * An immutable, versioned model weight vector. New weights are published by
+ * replacing the snapshot, never by modifying it, so a decoder that holds a
+ * snapshot sees one consistent set of weights for the whole sentence.
+ *
+ * Weights are looked up by FeatureRegistry id in a dense array, which is built
+ * when the snapshot is created and never modified. Features that are registered
+ * afterward are looked up by name.
+ *
+ * Subclasses may read the weights from another store, e.g., a view of the
+ * shared weights in asynchronous tuning.
+ */
+public class WeightSnapshot {
+
+  private final Counter<String> weights;
+  private final long version;
+
+  // Weights of the features that were registered when the snapshot was created
+  private final double[] denseWeights;
+
+  /**
+   * Constructor. The snapshot takes ownership of the weights, which must not be
+   * modified afterward.
+   *
+   * @param weights
+   * @param version
+   */
+  public WeightSnapshot(Counter<String> weights, long version) {
+    this.weights = weights;
+    this.version = version;
+    // Read the size first. Features with larger ids are looked up by name.
+    this.denseWeights = new double[weights == null ? 0 : FeatureRegistry.size()];
+    if (weights != null) {
+      for (String feature : weights.keySet()) {
+        final int id = FeatureRegistry.indexOf(feature);
+        if (id >= 0 && id < denseWeights.length) denseWeights[id] = weights.getCount(feature);
+      }
+    }
+  }
+
+  /**
+   * Constructor for subclasses that override the weight lookups.
+   */
+  protected WeightSnapshot() {
+    this(null, 0);
+  }
+
+  /**
+   * The weight of a feature.
+   *
+   * @param feature
+   * @return
+   */
+  public double getWeight(FeatureValue<String> feature) {
+    final int id = feature.getId();
+    return id >= 0 && id < denseWeights.length ? denseWeights[id] : weights.getCount(feature.name);
+  }
+
+  /**
+   * The weight of a registered feature.
+   *
+   * @param id FeatureRegistry id
+   * @return
+   */
+  public double getWeight(int id) {
+    return id < denseWeights.length ? denseWeights[id] : weights.getCount(FeatureRegistry.get(id));
+  }
+
+  /**
+   * A read-only view of the weights.
+   *
+   * @return
+   */
+  public Counter<String> getWeights() {
+    return Counters.unmodifiableCounter(weights);
+  }
+
+  /**
+   * The version of the weights.
+   *
+   * @return
+   */
+  public long version() {
+    return version;
+  }
+}
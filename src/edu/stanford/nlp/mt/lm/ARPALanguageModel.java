@@ -2,12 +2,15 @@ package edu.stanford.nlp.mt.lm;
 
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.StringTokenizer;
 
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
-import edu.stanford.nlp.mt.util.IntegerArrayRawIndex;
 import edu.stanford.nlp.mt.util.ProbingIntegerArrayRawIndex;
+import edu.stanford.nlp.mt.util.Quantizer;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.Sequences;
 import edu.stanford.nlp.mt.util.TokenUtils;
@@ -16,6 +19,9 @@ import edu.stanford.nlp.mt.util.TokenUtils;
  * A pure Java implementation of an n-gram language model loaded from
  * an ARPA-format file.
  * 
+ * Probabilities and backoff weights are stored either as floats or, to reduce
+ * memory, as quantized codes into a per-order codebook.
+ * 
  * @author Daniel Cer
  */
 public class ARPALanguageModel implements LanguageModel<IString> {
@@ -54,15 +60,37 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     return inline;
   }
 
-  protected IntegerArrayRawIndex[] tables;
+  protected ProbingIntegerArrayRawIndex[] tables;
   private float[][] probs;
   private float[][] bows;
+  
+  // Quantized storage. Null if probabilities are stored as floats.
+  private QuantizedArray[] quantizedProbs;
+  private QuantizedArray[] quantizedBows;
+  private final int quantizationBits;
 
   protected static final int MAX_GRAM = 10; // highest order ngram possible
   protected static final float LOAD_MULTIPLIER = (float) 1.7;
 
   public ARPALanguageModel(String filename) throws IOException {
+    this(filename, 0);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param filename
+   * @param quantizationBits Number of bits for each quantized probability and backoff
+   * weight (2-16), or 0 to store floats.
+   * @throws IOException
+   */
+  public ARPALanguageModel(String filename, int quantizationBits) throws IOException {
+    if (quantizationBits != 0 && (quantizationBits < Quantizer.MIN_BITS
+        || quantizationBits > Quantizer.MAX_BITS)) {
+      throw new IllegalArgumentException("Invalid number of quantization bits: " + quantizationBits);
+    }
     name = String.format("APRA(%s)", filename);
+    this.quantizationBits = quantizationBits;
     init(filename);
   }
 
@@ -133,8 +161,12 @@ public class ARPALanguageModel implements LanguageModel<IString> {
           ngramInts[i] = ngram[i].getId();
         }
 
+        // Missing backoff weights are equivalent to log(1)
         float bow = (tok.hasMoreElements() ? Float.parseFloat(tok.nextToken())
-            * log10LogConstant : Float.NaN);
+            * log10LogConstant : 0.0f);
+        if (Float.isNaN(bow)) {
+          bow = 0.0f; // treat NaNs as bow that are not found at all
+        }
         int index = tables[order].insertIntoIndex(ngramInts);
         probs[order][index] = prob;
         if (order < bows.length)
@@ -142,6 +174,26 @@ public class ARPALanguageModel implements LanguageModel<IString> {
       }
     }
 
+    // The tables are sized for the probing index, but the index assigns dense ids.
+    for (int i = 0; i < maxOrder; ++i) {
+      int size = tables[i].size();
+      probs[i] = Arrays.copyOf(probs[i], size);
+      if (i < bows.length) bows[i] = Arrays.copyOf(bows[i], size);
+    }
+    if (quantizationBits > 0) {
+      quantizedProbs = new QuantizedArray[maxOrder];
+      quantizedBows = new QuantizedArray[bows.length];
+      for (int i = 0; i < maxOrder; ++i) {
+        quantizedProbs[i] = new QuantizedArray(probs[i], quantizationBits);
+        probs[i] = null;
+        if (i < bows.length) {
+          quantizedBows[i] = new QuantizedArray(bows[i], quantizationBits);
+          bows[i] = null;
+        }
+      }
+      System.err.printf("Quantized probabilities and backoff weights to %d bits%n", quantizationBits);
+    }
+
     // print some status information
     long postLMLoadMemUsed = rt.totalMemory() - rt.freeMemory();
     long loadTimeMillis = System.currentTimeMillis() - startTimeMillis;
@@ -163,6 +215,20 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     return getName();
   }
 
+  /**
+   * Probability of the n-gram with dense id index.
+   */
+  private float prob(int order, int index) {
+    return quantizedProbs == null ? probs[order][index] : quantizedProbs[order].get(index);
+  }
+
+  /**
+   * Backoff weight of the n-gram with dense id index.
+   */
+  private float bow(int order, int index) {
+    return quantizedBows == null ? bows[order][index] : quantizedBows[order].get(index);
+  }
+
   /**
    * 
    * From CMU language model headers:
@@ -175,46 +241,53 @@ public class ARPALanguageModel implements LanguageModel<IString> {
    * 
    * p(wd2|wd1)= if(bigram exists) p_2(wd1,wd2) else bo_wt_1(wd1)*p_1(wd2)
    * 
+   * Scores the n-gram ngramInts[start..end] by walking the backoff chain iteratively. 
+   * The start of the longest n-gram that was found (or end for an OOV) is returned in
+   * matchStart[0].
+   * 
+   * @param ngramInts
+   * @param start
+   * @param end Inclusive
+   * @param matchStart
+   * @return The log probability.
    */
-  protected ARPALMState scoreNgram(Sequence<IString> sequence) {
-    int[] ngramInts = Sequences.toIntArray(sequence);
-    int index;
-
-    index = tables[ngramInts.length - 1].getIndex(ngramInts);
-    if (index >= 0) { // found a match
-      double p = probs[ngramInts.length - 1][index];
-      if (verbose)
-        System.err.printf("EM: scoreR: seq: %s logp: %f%n", sequence.toString(), p);
-      return new ARPALMState(p, sequence.subsequence(1, sequence.size()));
+  protected double scoreNgram(int[] ngramInts, int start, int end, int[] matchStart) {
+    // Find the longest n-gram that ends at end
+    double p = 0.0;
+    int s = start;
+    for (; s <= end; ++s) {
+      int length = end - s + 1;
+      int index = tables[length - 1].find(ngramInts, s, length);
+      if (index >= 0) { // found a match
+        p = prob(length - 1, index);
+        break;
+      }
     }
-    
-    // OOV
-    if (ngramInts.length == 1) {
-      // First check for an <unk> class, which is present for KenLM
+    if (s > end) {
+      // OOV. First check for an <unk> class, which is present for KenLM
       // but not necessarily for SRILM.
-      index = tables[0].getIndex(UNK_QUERY);
-      double p = index >= 0 ? probs[0][index] : UNKNOWN_WORD_SCORE;
-      return new ARPALMState(p, Sequences.emptySequence());
+      int index = tables[0].getIndex(UNK_QUERY);
+      p = index >= 0 ? prob(0, index) : UNKNOWN_WORD_SCORE;
     }
+    matchStart[0] = Math.min(s, end);
     
-    // Backoff recursively
-    Sequence<IString> prefix = sequence.subsequence(0, ngramInts.length - 1);
-    int[] prefixInts = Sequences.toIntArray(prefix);
-    index = tables[prefixInts.length - 1].getIndex(prefixInts);
-    double bow = 0;
-    if (index >= 0) {
-      bow = bows[prefixInts.length - 1][index];
-    }
-    if (Double.isNaN(bow)) {
-      bow = 0.0; // treat NaNs as bow that are not found at all
+    // Add the backoff weights of the context prefixes, from shortest to longest
+    for (int b = Math.min(s, end) - 1; b >= start; --b) {
+      int length = end - b;
+      int index = tables[length - 1].find(ngramInts, b, length);
+      if (index >= 0) {
+        final float bow = bow(length - 1, index);
+        if ( ! Float.isNaN(bow)) {
+          // treat NaNs as bow that are not found at all
+          p = bow + p;
+        }
+      }
     }
-    ARPALMState state = scoreNgram(sequence.subsequence(1, ngramInts.length));
-    double p = bow + state.getScore();
     if (verbose) {
-      System.err.printf("scoreR: seq: %s logp: %f [%f] bow: %f\n",
-          sequence.toString(), p, p / Math.log(10), bow);
+      System.err.printf("scoreR: seq: %s logp: %f [%f]%n",
+          Arrays.toString(Arrays.copyOfRange(ngramInts, start, end + 1)), p, p / Math.log(10));
     }
-    return new ARPALMState(p, state);
+    return p;
   }
 
   @Override
@@ -228,22 +301,35 @@ public class ARPALanguageModel implements LanguageModel<IString> {
     }
     
     // Concatenate the state onto the sequence.
-    if (priorState != null && priorState instanceof ARPALMState) {
-      int seqLength = sequence.size();
-    	sequence = ((ARPALMState) priorState).getState().concat(sequence);
-    	startOffsetIndex += (sequence.size() - seqLength);
+    Sequence<IString> priorSequence = priorState != null && priorState instanceof ARPALMState ?
+        ((ARPALMState) priorState).getState() : Sequences.emptySequence();
+    final int priorLength = priorSequence.size();
+    final int length = priorLength + sequence.size();
+    final int[] ngramInts = new int[length];
+    for (int i = 0; i < priorLength; ++i) ngramInts[i] = priorSequence.get(i).id;
+    for (int i = priorLength; i < length; ++i) ngramInts[i] = sequence.get(i - priorLength).id;
+    startOffsetIndex += priorLength;
+    if (startOffsetIndex >= length) {
+      return EMPTY_STATE;
     }
 
     // Score the sequence
+    final int order = order();
+    final int[] matchStart = new int[1];
     double lmSumScore = 0.0;
-    ARPALMState state = EMPTY_STATE;
-    for (int pos = startOffsetIndex, limit = sequence.size(); pos < limit; pos++) {
-      final int seqStart = Math.max(0, pos - order() + 1);
-      Sequence<IString> ngram = sequence.subsequence(seqStart, pos + 1);
-      state = scoreNgram(ngram);
-      lmSumScore += state.getScore();
+    for (int pos = startOffsetIndex; pos < length; pos++) {
+      final int seqStart = Math.max(0, pos - order + 1);
+      lmSumScore += scoreNgram(ngramInts, seqStart, pos, matchStart);
     }
     
+    // The state is the longest matched n-gram of the last query, minus its first word.
+    final int stateStart = matchStart[0] + 1;
+    Sequence<IString> state;
+    if (stateStart >= priorLength) {
+      state = sequence.subsequence(stateStart - priorLength, sequence.size());
+    } else {
+      state = priorSequence.subsequence(stateStart, priorLength).concat(sequence);
+    }
     if (verbose) {
       System.err.printf("ARPALM: seq: %s  state: %s  score: %f%n", sequence.toString(),
           state.toString(), lmSumScore);
@@ -253,6 +339,32 @@ public class ARPALanguageModel implements LanguageModel<IString> {
 
   @Override
   public int order() {
-    return probs.length;
+    return tables.length;
+  }
+
+  /**
+   * Quantized float array.
+   */
+  private static final class QuantizedArray {
+    private final float[] centers;
+    private final byte[] codes;
+    private final char[] wideCodes;
+
+    public QuantizedArray(float[] values, int bits) {
+      Quantizer quantizer = new Quantizer(values, bits);
+      centers = quantizer.codebook();
+      final boolean wide = bits > 8;
+      codes = wide ? null : new byte[values.length];
+      wideCodes = wide ? new char[values.length] : null;
+      for (int i = 0; i < values.length; ++i) {
+        int code = quantizer.encode(values[i]);
+        if (wide) wideCodes[i] = (char) code;
+        else codes[i] = (byte) code;
+      }
+    }
+
+    public float get(int i) {
+      return codes == null ? centers[wideCodes[i]] : centers[codes[i] & 0xff];
+    }
   }
 }
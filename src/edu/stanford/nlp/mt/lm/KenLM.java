@@ -1,6 +1,7 @@
 package edu.stanford.nlp.mt.lm;
 
 import java.io.File;
+import java.nio.ByteBuffer;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
@@ -41,6 +42,7 @@ public class KenLM {
   private native long readKenLM(String filename, long nplm_cache_size, int loadMethod);
   private native long scoreNGramSeq(long kenLMPtr, int[] ngram, int startIndex);
   private native long scoreNGram(long kenLMPtr, int[] ngram);
+  private native void scoreNGramSeqBatch(long kenLMPtr, ByteBuffer input, int numQueries, ByteBuffer output);
   private native int getLMId(long kenLMPtr, String token);
   private native int getOrder(long kenLMPtr);
 
@@ -136,6 +138,28 @@ public class KenLM {
     return scoreNGramSeq(kenLMPtr, words, startIndex);
   }
 
+  /**
+   * Score a batch of sequences with one native call. The input buffer contains the
+   * queries in the native byte order. Each query is laid out as
+   * 
+   *   [length, startIndex, words_0, ..., words_{length-1}]
+   * 
+   * where the words and start index are the same as for scoreSeqMarshalled. The marshalled
+   * result of the i-th query is written to the i-th long of the output buffer.
+   * 
+   * @param input A direct buffer with the queries.
+   * @param numQueries The number of queries in the input buffer.
+   * @param output A direct buffer with capacity for numQueries longs.
+   */
+  public void scoreSeqMarshalledBatch(ByteBuffer input, int numQueries, ByteBuffer output) {
+    if ( ! (input.isDirect() && output.isDirect())) {
+      throw new IllegalArgumentException("KenLM batch queries require direct buffers");
+    } else if (output.capacity() < numQueries * Long.BYTES) {
+      throw new IllegalArgumentException("Output buffer is too small for " + numQueries + " queries");
+    }
+    scoreNGramSeqBatch(kenLMPtr, input, numQueries, output);
+  }
+
   /**
    * Just get the score of a sequence if you don't care about right state length
    */
@@ -1,12 +1,20 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.MurmurHash2;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.TokenUtils;
 import edu.stanford.nlp.mt.util.Vocabulary;
@@ -27,6 +35,18 @@ public class KenLanguageModel implements LanguageModel<IString> {
   private static final KenLMState ZERO_LENGTH_STATE = new KenLMState(0.0f, EMPTY_INT_ARRAY, 0);
   public static final String KENLM_LIBRARY_NAME = "PhrasalKenLM";
   public static final String LAZY_TAG = "lazy:";
+  public static final String CACHE_TAG = "cache=";
+  
+  // Query caches are disabled by default.
+  public static final int DEFAULT_CACHE_SIZE = 0;
+  
+  // Log the hit rate of each query cache after this many queries.
+  private static final long CACHE_REPORT_INTERVAL = 1L << 24;
+  
+  // Initial number of ints in the batch query buffers. The buffers grow as needed.
+  private static final int INITIAL_BATCH_BUFFER_SIZE = 1 << 14;
+  private static final ThreadLocal<BatchBuffers> threadLocalBuffers = 
+      ThreadLocal.withInitial(BatchBuffers::new);
   
   static {
     try {
@@ -46,24 +66,52 @@ public class KenLanguageModel implements LanguageModel<IString> {
   private AtomicReference<int[]> istringIdToKenLMId;
 
   private final ReentrantLock preventDuplicateWork = new ReentrantLock();
+  
+  // Per-thread query caches. Null if caching is disabled.
+  private final ThreadLocal<KenLMCache> threadLocalCache;
+  // Hit statistics of all query caches. The caches themselves are only referenced by
+  // their threads, so they are collected along with short-lived threads.
+  private final LongAdder cacheHits = new LongAdder();
+  private final LongAdder cacheQueries = new LongAdder();
 
   /**
-   * Constructor for multi-threaded queries.
+   * Constructor for multi-threaded queries. The filename may be preceded by
+   * options:
+   * 
+   *   lazy:          Load the model lazily.
+   *   cache=size:    Cache query results in each thread. The size is rounded up to a power of 2.
+   * 
+   * For example, <code>cache=1048576:lazy:model.bin</code>.
    *
    * @param filename
    */
   public KenLanguageModel(String filename) {
     String realFilename = filename;
-   
-    if(filename.startsWith(LAZY_TAG)) {
-      realFilename = filename.substring(LAZY_TAG.length());
-      model = new KenLM(realFilename, KenLM.LoadMethod.LAZY);
-    }
-    else {
-      model = new KenLM(realFilename);
+    boolean lazy = false;
+    int cacheSize = DEFAULT_CACHE_SIZE;
+    while (true) {
+      if (realFilename.startsWith(LAZY_TAG)) {
+        lazy = true;
+        realFilename = realFilename.substring(LAZY_TAG.length());
+      } else if (realFilename.startsWith(CACHE_TAG) && realFilename.indexOf(':') > 0) {
+        final int end = realFilename.indexOf(':');
+        cacheSize = Integer.parseInt(realFilename.substring(CACHE_TAG.length(), end));
+        realFilename = realFilename.substring(end + 1);
+      } else {
+        break;
+      }
     }
+    model = lazy ? new KenLM(realFilename, KenLM.LoadMethod.LAZY) : new KenLM(realFilename);
     name = String.format("KenLM(%s)", realFilename);
     initializeIdTable();
+    
+    if (cacheSize > 0) {
+      final int size = cacheSize == 1 ? 1 : Integer.highestOneBit(cacheSize - 1) << 1;
+      logger.info("{}: query cache size {}", name, size);
+      threadLocalCache = ThreadLocal.withInitial(() -> new KenLMCache(size, cacheHits, cacheQueries));
+    } else {
+      threadLocalCache = null;
+    }
   }
 
   /**
@@ -162,11 +210,168 @@ public class KenLanguageModel implements LanguageModel<IString> {
     assert kenLMStartIndex >= 0;
     
     // Execute the query (via JNI) and construct the return state
-    final long got = model.scoreSeqMarshalled(ngramIds, kenLMStartIndex);
+    final KenLMCache cache = threadLocalCache == null ? null : threadLocalCache.get();
+    final long got;
+    if (cache == null) {
+      got = model.scoreSeqMarshalled(ngramIds, kenLMStartIndex);
+    } else {
+      final long hash = KenLMCache.hash(ngramIds, kenLMStartIndex);
+      final int slot = cache.find(hash, ngramIds, kenLMStartIndex);
+      if (slot >= 0) {
+        got = cache.value(slot);
+      } else {
+        got = model.scoreSeqMarshalled(ngramIds, kenLMStartIndex);
+        cache.insert(hash, ngramIds, kenLMStartIndex, got);
+      }
+      cache.report(name);
+    }
     
     return new KenLMState(KenLM.scoreFromMarshalled(got), ngramIds, KenLM.rightStateFromMarshalled(got));
   }
 
+  @Override
+  public List<LMState> score(List<Sequence<IString>> sequences, int[] startOffsetIndices, 
+      List<LMState> priorStates) {
+    final int numSequences = sequences.size();
+    final LMState[] states = new LMState[numSequences];
+    final KenLMCache cache = threadLocalCache == null ? null : threadLocalCache.get();
+    final int[][] cachedInputs = cache == null ? null : new int[numSequences][];
+    final long[] hashes = cache == null ? null : new long[numSequences];
+    final int[] kenLMStartIndices = cache == null ? null : new int[numSequences];
+    
+    // Size the query buffers
+    int numQueries = 0, numInts = 0;
+    for (int i = 0; i < numSequences; ++i) {
+      final int sequenceSize = sequences.get(i).size();
+      final LMState priorState = priorStates.get(i);
+      if (sequenceSize == 0) {
+        // Source deletion rule
+        states[i] = priorState == null ? ZERO_LENGTH_STATE : priorState;
+      } else if (sequenceSize == 1 && priorState == null && sequences.get(i).get(0).equals(TokenUtils.START_TOKEN)) {
+        // Special case: Source deletion rule (e.g., from the OOV model) at the start of a string
+        final int[] ngramIds = new int[]{ toKenLMId(TokenUtils.START_TOKEN) };
+        states[i] = new KenLMState(0.0f, ngramIds, ngramIds.length);
+      } else if (cache != null && lookup(cache, i, sequences.get(i), startOffsetIndices[i], 
+          (KenLMState) priorState, states, cachedInputs, hashes, kenLMStartIndices)) {
+        // Cache hit
+      } else {
+        ++numQueries;
+        numInts += 2 + sequenceSize + (priorState == null ? 0 : priorState.length());
+      }
+    }
+    if (numQueries == 0) return Arrays.asList(states);
+    
+    // Write the queries
+    final BatchBuffers buffers = threadLocalBuffers.get();
+    buffers.ensureCapacity(numInts, numQueries);
+    final IntBuffer input = buffers.inputInts;
+    input.clear();
+    final int[] offsets = new int[numSequences];
+    for (int i = 0; i < numSequences; ++i) {
+      if (states[i] != null) continue;
+      final Sequence<IString> sequence = sequences.get(i);
+      final int[] state = priorStates.get(i) == null ? EMPTY_INT_ARRAY : ((KenLMState) priorStates.get(i)).getState();
+      final int sequenceSize = sequence.size();
+      final int length = sequenceSize + state.length;
+      // Reverse the start index for KenLM
+      final int kenLMStartIndex = length - state.length - startOffsetIndices[i] - 1;
+      assert kenLMStartIndex >= 0;
+      input.put(length);
+      input.put(kenLMStartIndex);
+      offsets[i] = input.position();
+      if (cache != null) {
+        input.put(cachedInputs[i]);
+      } else {
+        // Notice: ngramids are in reverse order vv. the Sequence
+        for (int j = sequenceSize - 1; j >= 0; --j) {
+          input.put(toKenLMId(sequence.get(j)));
+        }
+        input.put(state);
+      }
+    }
+    
+    // Execute the queries (via JNI) and construct the return states
+    model.scoreSeqMarshalledBatch(buffers.input, numQueries, buffers.output);
+    final LongBuffer output = buffers.outputLongs;
+    for (int i = 0, q = 0; i < numSequences; ++i) {
+      if (states[i] != null) continue;
+      final long got = output.get(q++);
+      if (cache != null) cache.insert(hashes[i], cachedInputs[i], kenLMStartIndices[i], got);
+      final int[] rightState = new int[KenLM.rightStateFromMarshalled(got)];
+      for (int j = 0; j < rightState.length; ++j) {
+        rightState[j] = input.get(offsets[i] + j);
+      }
+      states[i] = new KenLMState(KenLM.scoreFromMarshalled(got), rightState, rightState.length);
+    }
+    if (cache != null) cache.report(name);
+    return Arrays.asList(states);
+  }
+  
+  /**
+   * Look up a query in the cache. On a hit, sets the i-th state. On a miss, sets the
+   * i-th KenLM input, hash, and start index.
+   * 
+   * @return true on a cache hit.
+   */
+  private boolean lookup(KenLMCache cache, int i, Sequence<IString> sequence, int startOffsetIndex,
+      KenLMState priorState, LMState[] states, int[][] inputs, long[] hashes, int[] startIndices) {
+    final int[] state = priorState == null ? EMPTY_INT_ARRAY : priorState.getState();
+    final int[] ngramIds = makeKenLMInput(sequence, state);
+    final int kenLMStartIndex = ngramIds.length - state.length - startOffsetIndex - 1;
+    final long hash = KenLMCache.hash(ngramIds, kenLMStartIndex);
+    final int slot = cache.find(hash, ngramIds, kenLMStartIndex);
+    if (slot >= 0) {
+      final long got = cache.value(slot);
+      states[i] = new KenLMState(KenLM.scoreFromMarshalled(got), ngramIds, KenLM.rightStateFromMarshalled(got));
+      return true;
+    }
+    inputs[i] = ngramIds;
+    hashes[i] = hash;
+    startIndices[i] = kenLMStartIndex;
+    return false;
+  }
+  
+  /**
+   * The fraction of queries answered by the query caches. The result is approximate
+   * while decoding.
+   * 
+   * @return The hit rate or 0 if caching is disabled.
+   */
+  public double getCacheHitRate() {
+    final long queries = cacheQueries.sum();
+    return queries == 0 ? 0.0 : cacheHits.sum() / (double) queries;
+  }
+  
+  /**
+   * Direct buffers for batch queries. Each thread reuses its own buffers.
+   */
+  private static class BatchBuffers {
+    private ByteBuffer input;
+    private IntBuffer inputInts;
+    private ByteBuffer output;
+    private LongBuffer outputLongs;
+    
+    public BatchBuffers() {
+      allocateInput(INITIAL_BATCH_BUFFER_SIZE);
+      allocateOutput(INITIAL_BATCH_BUFFER_SIZE / 4);
+    }
+    
+    public void ensureCapacity(int numInts, int numQueries) {
+      if (inputInts.capacity() < numInts) allocateInput(Math.max(numInts, 2 * inputInts.capacity()));
+      if (outputLongs.capacity() < numQueries) allocateOutput(Math.max(numQueries, 2 * outputLongs.capacity()));
+    }
+    
+    private void allocateInput(int numInts) {
+      input = ByteBuffer.allocateDirect(numInts * Integer.BYTES).order(ByteOrder.nativeOrder());
+      inputInts = input.asIntBuffer();
+    }
+    
+    private void allocateOutput(int numLongs) {
+      output = ByteBuffer.allocateDirect(numLongs * Long.BYTES).order(ByteOrder.nativeOrder());
+      outputLongs = output.asLongBuffer();
+    }
+  }
+  
   /**
    * Convert a Sequence and an optional state to an input for KenLM.
    *
@@ -187,34 +392,76 @@ public class KenLanguageModel implements LanguageModel<IString> {
     return ngramIds;
   }
   
-// TODO(spenceg) This never yielded an improvement....
-//  private static final int DEFAULT_CACHE_SIZE = 10000;
-//  private static final ThreadLocal<KenLMCache> threadLocalCache =
-//      new ThreadLocal<KenLMCache>();
-//  
-//  private static class KenLMCache {
-//    private final long[] keys;
-//    private final long[] values;
-//    private final int mask;
-//    public KenLMCache(int size) {
-//      this.keys = new long[size];
-//      this.values = new long[size];
-//      this.mask = size - 1;
-//    }
-//    
-//    public Long get(int[] kenLMInput, int startIndex) {
-//      long hashValue = MurmurHash2.hash64(kenLMInput, kenLMInput.length, startIndex);
-//      int k = ideal(hashValue);
-//      return keys[k] == hashValue ? values[k] : null;
-//    }
-//    private int ideal(long hashed) {
-//      return ((int)hashed) & mask;
-//    }
-//    public void insert(int[] kenLMInput, int startIndex, long value) {
-//      long hashValue = MurmurHash2.hash64(kenLMInput, kenLMInput.length, startIndex);
-//      int k = ideal(hashValue);
-//      keys[k] = hashValue;
-//      values[k] = value;
-//    }
-//  }
+  /**
+   * Direct-mapped cache of marshalled KenLM results, keyed by the KenLM input and
+   * start index. Slots are chosen by a 64-bit hash of the key, and the stored key
+   * is compared on every hit, so hash collisions are misses. The input contains
+   * the prior state, so the right state length of a cached result applies to every
+   * query with the same key. Not threadsafe.
+   */
+  private static class KenLMCache {
+    private final long[] hashes;
+    private final int[][] inputs;
+    private final int[] startIndices;
+    private final long[] values;
+    private final int mask;
+    private final LongAdder totalHits;
+    private final LongAdder totalQueries;
+    private long hits = 0;
+    private long queries = 0;
+    private long nextReport = CACHE_REPORT_INTERVAL;
+    
+    public KenLMCache(int size, LongAdder totalHits, LongAdder totalQueries) {
+      this.hashes = new long[size];
+      this.inputs = new int[size][];
+      this.startIndices = new int[size];
+      this.values = new long[size];
+      this.mask = size - 1;
+      this.totalHits = totalHits;
+      this.totalQueries = totalQueries;
+    }
+    
+    public static long hash(int[] kenLMInput, int startIndex) {
+      return MurmurHash2.hash64(kenLMInput, kenLMInput.length, startIndex);
+    }
+    
+    /**
+     * Returns the slot of the key or -1 if the key is not in the cache.
+     */
+    public int find(long hash, int[] kenLMInput, int startIndex) {
+      ++queries;
+      totalQueries.increment();
+      final int k = ((int) hash) & mask;
+      if (hashes[k] == hash && startIndices[k] == startIndex && inputs[k] != null
+          && Arrays.equals(inputs[k], kenLMInput)) {
+        ++hits;
+        totalHits.increment();
+        return k;
+      }
+      return -1;
+    }
+    
+    public long value(int slot) {
+      return values[slot];
+    }
+    
+    /**
+     * Insert a result. The input array must not be modified afterwards.
+     */
+    public void insert(long hash, int[] kenLMInput, int startIndex, long value) {
+      final int k = ((int) hash) & mask;
+      hashes[k] = hash;
+      inputs[k] = kenLMInput;
+      startIndices[k] = startIndex;
+      values[k] = value;
+    }
+    
+    public void report(String name) {
+      if (queries >= nextReport) {
+        logger.info("{}: thread {} query cache hit rate {}", name, Thread.currentThread().getName(),
+            String.format("%.4f", hits / (double) queries));
+        nextReport += CACHE_REPORT_INTERVAL;
+      }
+    }
+  }
 }
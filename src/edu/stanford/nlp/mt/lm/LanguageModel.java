@@ -1,5 +1,8 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import edu.stanford.nlp.mt.util.Sequence;
 
 /**
@@ -28,6 +31,27 @@ public interface LanguageModel<T> {
    */
   LMState score(Sequence<T> sequence, int startOffsetIndex, LMState priorState);
   
+  /**
+   * Score a batch of sequences. The i-th result is the same as the result of
+   * score(sequences.get(i), startOffsetIndices[i], priorStates.get(i)). Models
+   * that can amortize the cost of a query, e.g., across JNI calls, should
+   * override this method.
+   * 
+   * @param sequences The sequences to score
+   * @param startOffsetIndices indices in the sequences to start scoring.
+   * @param priorStates States from prior calls to score(). Elements could be null.
+   * 
+   * @return the language model states and the scores of the sequences
+   */
+  default List<LMState> score(List<Sequence<T>> sequences, int[] startOffsetIndices, 
+      List<LMState> priorStates) {
+    List<LMState> states = new ArrayList<>(sequences.size());
+    for (int i = 0, sz = sequences.size(); i < sz; ++i) {
+      states.add(score(sequences.get(i), startOffsetIndices[i], priorStates.get(i)));
+    }
+    return states;
+  }
+  
   /**
 	 * @return the LM-specific start token.
 	 */
@@ -16,6 +16,10 @@ public final class LanguageModelFactory {
 
   // Supported language models
   public static final String KEN_LM_TAG = "kenlm:";
+  public static final String MAPPED_LM_TAG = "mmap:";
+  
+  // Options for the Java LM, e.g., quantize=8:model.arpa
+  public static final String QUANTIZE_TAG = "quantize=";
 
   public static final int MAX_NGRAM_ORDER = 10;
 
@@ -27,6 +31,18 @@ public final class LanguageModelFactory {
       String realFilename = filename.substring(KEN_LM_TAG.length());
       languageModel = new KenLanguageModel(realFilename);
 
+    } else if (filename.startsWith(MAPPED_LM_TAG)) {
+      String realFilename = filename.substring(MAPPED_LM_TAG.length());
+      languageModel = new MappedLanguageModel(realFilename);
+
+    } else if (filename.startsWith(QUANTIZE_TAG)) {
+      int delim = filename.indexOf(':');
+      if (delim < 0) {
+        throw new IllegalArgumentException("Invalid language model specification: " + filename);
+      }
+      int bits = Integer.parseInt(filename.substring(QUANTIZE_TAG.length(), delim));
+      languageModel = new ARPALanguageModel(filename.substring(delim + 1), bits);
+
     } else {
       // Default Java LM data structure
       languageModel = new ARPALanguageModel(filename);
@@ -0,0 +1,344 @@
+package edu.stanford.nlp.mt.lm;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.TokenUtils;
+import edu.stanford.nlp.mt.util.WordHash;
+
+/**
+ * A pure Java n-gram language model that is queried directly from a memory-mapped
+ * binary file. Loading is O(1), and processes that map the same file share its pages.
+ * Convert an ARPA file with the main method.
+ *
+ * Like the KenLM probing format, each order is a linear probing hash table keyed by
+ * 64-bit hashes of the n-grams. Words are hashed from their strings, so the file does
+ * not store a vocabulary. The layout is little-endian:
+ *
+ *   magic order (offset numBuckets) x order
+ *   (key prob bow) x numBuckets x order   -- 16 bytes per bucket; key 0 is empty
+ *
+ * Scores and states are identical to ARPALanguageModel, up to hash collisions.
+ */
+public class MappedLanguageModel implements LanguageModel<IString> {
+
+  private static final Logger logger = LogManager.getLogger(MappedLanguageModel.class);
+
+  private static final int MAGIC = 0x504c4d31;
+  private static final int BUCKET_BYTES = 16;
+  private static final double LOAD_FACTOR = 0.7;
+
+  // Mapped regions are limited to 2GB, so large files are mapped in segments.
+  // Buckets are aligned, so they never straddle a segment boundary.
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  private static final ARPALMState EMPTY_STATE = new ARPALMState(0.0, Sequences.emptySequence());
+  private static final long UNK_HASH = WordHash.hash(TokenUtils.UNK_TOKEN.toString());
+
+  private final String name;
+  private final ByteBuffer[] segments;
+  private final long[] tableOffsets;
+  private final long[] tableMasks;
+  private final double unkScore;
+
+  /**
+   * Constructor.
+   *
+   * @param filename A file created by {@link #build(String, String)}.
+   * @throws IOException
+   */
+  public MappedLanguageModel(String filename) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    this.name = String.format("MappedLM(%s)", filename);
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      this.segments = map(channel, MapMode.READ_ONLY, channel.size());
+    }
+    if (segments.length == 0 || segments[0].getInt(0) != MAGIC) {
+      throw new IOException("Not a memory-mapped language model: " + filename);
+    }
+    final int order = segments[0].getInt(Integer.BYTES);
+    this.tableOffsets = new long[order];
+    this.tableMasks = new long[order];
+    for (int i = 0; i < order; ++i) {
+      int pos = 2 * Integer.BYTES + i * 2 * Long.BYTES;
+      tableOffsets[i] = segments[0].getLong(pos);
+      tableMasks[i] = segments[0].getLong(pos + Long.BYTES) - 1;
+    }
+
+    // Prefer an <unk> class, which is present for KenLM but not necessarily for SRILM.
+    long[] unk = new long[] { UNK_HASH };
+    long pos = find(0, unk, 0, 1);
+    this.unkScore = pos >= 0 ? getFloat(segments, pos + Long.BYTES) : ARPALanguageModel.UNKNOWN_WORD_SCORE;
+    timer.mark("Load");
+    logger.info("Mapped language model {} (order: {}): {}", filename, order, timer);
+  }
+
+  /**
+   * Find the bucket of an n-gram.
+   *
+   * @return The file position of the bucket, or -1 if the n-gram is not in the model.
+   */
+  private long find(int orderIndex, long[] hashes, int start, int length) {
+    final long key = WordHash.hash(hashes, start, length);
+    final long offset = tableOffsets[orderIndex];
+    final long mask = tableMasks[orderIndex];
+    for (long bucket = key & mask; ; bucket = (bucket + 1) & mask) {
+      long pos = offset + bucket * BUCKET_BYTES;
+      long k = getLong(segments, pos);
+      if (k == key) return pos;
+      if (k == 0) return -1;
+    }
+  }
+
+  /**
+   * Score the n-gram hashes[start..end] by walking the backoff chain. See
+   * {@link ARPALanguageModel#scoreNgram(int[], int, int, int[])}.
+   */
+  private double scoreNgram(long[] hashes, int start, int end, int[] matchStart) {
+    double p = 0.0;
+    int s = start;
+    for (; s <= end; ++s) {
+      int length = end - s + 1;
+      long pos = find(length - 1, hashes, s, length);
+      if (pos >= 0) {
+        p = getFloat(segments, pos + Long.BYTES);
+        break;
+      }
+    }
+    if (s > end) {
+      p = unkScore;
+    }
+    matchStart[0] = Math.min(s, end);
+
+    // Add the backoff weights of the context prefixes, from shortest to longest
+    for (int b = Math.min(s, end) - 1; b >= start; --b) {
+      int length = end - b;
+      long pos = find(length - 1, hashes, b, length);
+      if (pos >= 0) {
+        p = getFloat(segments, pos + Long.BYTES + Float.BYTES) + p;
+      }
+    }
+    return p;
+  }
+
+  @Override
+  public LMState score(Sequence<IString> sequence, int startOffsetIndex, LMState priorState) {
+    if (sequence.size() == 0) {
+      // Source deletion rule
+      return priorState == null ? EMPTY_STATE : priorState;
+    } else if (sequence.size() == 1 && priorState == null && sequence.get(0).equals(TokenUtils.START_TOKEN)) {
+      // Special case: Source deletion rule (e.g., from the OOV model) at the start of a string
+      return new ARPALMState(0.0f, sequence);
+    }
+
+    // Concatenate the state onto the sequence.
+    Sequence<IString> priorSequence = priorState != null && priorState instanceof ARPALMState ?
+        ((ARPALMState) priorState).getState() : Sequences.emptySequence();
+    final int priorLength = priorSequence.size();
+    final int length = priorLength + sequence.size();
+    final long[] hashes = new long[length];
+    for (int i = 0; i < priorLength; ++i) hashes[i] = WordHash.hash(priorSequence.get(i));
+    for (int i = priorLength; i < length; ++i) hashes[i] = WordHash.hash(sequence.get(i - priorLength));
+    startOffsetIndex += priorLength;
+    if (startOffsetIndex >= length) {
+      return EMPTY_STATE;
+    }
+
+    // Score the sequence
+    final int order = order();
+    final int[] matchStart = new int[1];
+    double lmSumScore = 0.0;
+    for (int pos = startOffsetIndex; pos < length; pos++) {
+      final int seqStart = Math.max(0, pos - order + 1);
+      lmSumScore += scoreNgram(hashes, seqStart, pos, matchStart);
+    }
+
+    // The state is the longest matched n-gram of the last query, minus its first word.
+    final int stateStart = matchStart[0] + 1;
+    Sequence<IString> state;
+    if (stateStart >= priorLength) {
+      state = sequence.subsequence(stateStart - priorLength, sequence.size());
+    } else {
+      state = priorSequence.subsequence(stateStart, priorLength).concat(sequence);
+    }
+    return new ARPALMState(lmSumScore, state);
+  }
+
+  @Override
+  public IString getStartToken() {
+    return TokenUtils.START_TOKEN;
+  }
+
+  @Override
+  public IString getEndToken() {
+    return TokenUtils.END_TOKEN;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public int order() {
+    return tableOffsets.length;
+  }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  private static ByteBuffer[] map(FileChannel channel, MapMode mode, long size) throws IOException {
+    int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    ByteBuffer[] segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      long start = (long) i << SEGMENT_SHIFT;
+      long length = Math.min(SEGMENT_MASK + 1, size - start);
+      segments[i] = channel.map(mode, start, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return segments;
+  }
+
+  private static long getLong(ByteBuffer[] segments, long pos) {
+    return segments[(int) (pos >>> SEGMENT_SHIFT)].getLong((int) (pos & SEGMENT_MASK));
+  }
+
+  private static float getFloat(ByteBuffer[] segments, long pos) {
+    return segments[(int) (pos >>> SEGMENT_SHIFT)].getFloat((int) (pos & SEGMENT_MASK));
+  }
+
+  /**
+   * Convert an ARPA file to the memory-mapped format. The hash tables are built directly
+   * in the mapped output file, so the heap requirement is independent of the model size.
+   *
+   * @param arpaFile
+   * @param outputFile
+   * @throws IOException
+   */
+  public static void build(String arpaFile, String outputFile) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    LineNumberReader reader = IOTools.getReaderFromFile(arpaFile);
+
+    // skip everything until the line that begins with '\data\'
+    while (!ARPALanguageModel.readLineNonNull(reader).startsWith("\\data\\")) {
+    }
+
+    // read in ngram counts
+    long[] ngramCounts = new long[LanguageModelFactory.MAX_NGRAM_ORDER];
+    String inline;
+    int order = 0;
+    while ((inline = ARPALanguageModel.readLineNonNull(reader)).startsWith("ngram")) {
+      String[] fields = inline.replaceFirst("ngram\\s+", "").split("=");
+      int ngramOrder = Integer.parseInt(fields[0].trim());
+      if (ngramOrder > ngramCounts.length) {
+        throw new RuntimeException(String.format("Max n-gram order: %d", ngramCounts.length));
+      }
+      ngramCounts[ngramOrder - 1] = Long.parseLong(fields[1].replaceAll("[^0-9]", ""));
+      order = Math.max(order, ngramOrder);
+    }
+
+    // Lay out the file
+    long[] offsets = new long[order];
+    long[] numBuckets = new long[order];
+    long size = 2 * Integer.BYTES + order * 2 * Long.BYTES;
+    for (int i = 0; i < order; ++i) {
+      size = (size + BUCKET_BYTES - 1) / BUCKET_BYTES * BUCKET_BYTES;
+      numBuckets[i] = 1;
+      while (numBuckets[i] * LOAD_FACTOR < ngramCounts[i] + 1) numBuckets[i] <<= 1;
+      offsets[i] = size;
+      size += numBuckets[i] * BUCKET_BYTES;
+    }
+
+    try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      ByteBuffer[] segments = map(channel, MapMode.READ_WRITE, size);
+      segments[0].putInt(0, MAGIC);
+      segments[0].putInt(Integer.BYTES, order);
+      for (int i = 0; i < order; ++i) {
+        int pos = 2 * Integer.BYTES + i * 2 * Long.BYTES;
+        segments[0].putLong(pos, offsets[i]);
+        segments[0].putLong(pos + Long.BYTES, numBuckets[i]);
+      }
+      timer.mark("Allocate");
+
+      final float log10LogConstant = (float) Math.log(10);
+      for (int i = 0; i < order; ++i) {
+        String nextOrderHeader = String.format("\\%d-grams:", i + 1);
+        while (!ARPALanguageModel.readLineNonNull(reader).startsWith(nextOrderHeader)) {
+        }
+        final long mask = numBuckets[i] - 1;
+        final long[] hashes = new long[i + 1];
+        long numEntries = 0;
+        while (!(inline = ARPALanguageModel.readLineNonNull(reader)).equals("") && !(inline.equals("\\end\\"))) {
+          StringTokenizer tok = new StringTokenizer(inline);
+          String probStr = tok.nextToken();
+          float prob = (probStr.equals("-inf") ? Float.NEGATIVE_INFINITY : Float.parseFloat(probStr))
+              * log10LogConstant;
+          for (int j = 0; j <= i; ++j) {
+            hashes[j] = WordHash.hash(tok.nextToken());
+          }
+          // Missing backoff weights are equivalent to log(1)
+          float bow = tok.hasMoreTokens() ? Float.parseFloat(tok.nextToken()) * log10LogConstant : 0.0f;
+          if (Float.isNaN(bow)) {
+            bow = 0.0f; // treat NaNs as bow that are not found at all
+          }
+
+          final long key = WordHash.hash(hashes, 0, hashes.length);
+          long pos;
+          for (long bucket = key & mask; ; bucket = (bucket + 1) & mask) {
+            pos = offsets[i] + bucket * BUCKET_BYTES;
+            long k = getLong(segments, pos);
+            if (k == key || k == 0) break;
+          }
+          if (getLong(segments, pos) == 0 && ++numEntries > ngramCounts[i]) {
+            throw new IOException(String.format("More %d-grams than declared in the header", i + 1));
+          }
+          ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)];
+          int segmentPos = (int) (pos & SEGMENT_MASK);
+          segment.putLong(segmentPos, key);
+          segment.putFloat(segmentPos + Long.BYTES, prob);
+          segment.putFloat(segmentPos + Long.BYTES + Float.BYTES, bow);
+        }
+        timer.mark(String.format("%d-grams", i + 1));
+      }
+      for (ByteBuffer segment : segments) ((MappedByteBuffer) segment).force();
+    }
+    reader.close();
+    logger.info("Wrote memory-mapped language model to {} ({} bytes): {}", outputFile, size, timer);
+  }
+
+  /**
+   * Convert an ARPA file to the memory-mapped format.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.printf("Usage: java %s arpa_file output_file%n", MappedLanguageModel.class.getName());
+      System.exit(-1);
+    }
+    build(args[0], args[1]);
+  }
+}
@@ -1,6 +1,8 @@
 package edu.stanford.nlp.mt.metrics;
 
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import edu.stanford.nlp.mt.util.Sequence;
 
@@ -20,6 +22,11 @@ public class BLEUGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
   private final boolean doNakov;
   private final boolean scaleLength;
   
+  // Reference n-gram counts by source id. Tuning scores many translations of each
+  // source, so the references are indexed once.
+  private final ConcurrentMap<Integer,CachedReferences<TK>> referenceCache = 
+      new ConcurrentHashMap<>();
+  
   /**
    * Constructor.
    */
@@ -53,14 +60,15 @@ public class BLEUGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
   public double score(int sourceId, Sequence<TK> source,
       List<Sequence<TK>> references, Sequence<TK> translation) {
     
-    double score = BLEUMetric.computeLocalSmoothScore(translation, references, order, doNakov);
+    ReferenceNGrams<TK> referenceNGrams = getReferences(sourceId, references);
+    double score = BLEUMetric.computeLocalSmoothScore(translation, referenceNGrams, doNakov);
 
     if (scaleLength) {
       // Take the min reference length
       int minLength = Integer.MAX_VALUE;
-      for (Sequence<TK> sentence : references) {
-        if (sentence.size() < minLength) {
-          minLength = sentence.size();
+      for (int length : referenceNGrams.lengths()) {
+        if (length < minLength) {
+          minLength = length;
         }
       }
       // Scale the score by the min reference length
@@ -69,6 +77,50 @@ public class BLEUGain<TK,FV> implements SentenceLevelMetric<TK, FV> {
     return score;
   }
 
+  /**
+   * Look up the indexed references for a source, indexing them if the source is
+   * new or its references have changed.
+   * 
+   * @param sourceId
+   * @param references
+   * @return
+   */
+  private ReferenceNGrams<TK> getReferences(int sourceId, List<Sequence<TK>> references) {
+    CachedReferences<TK> cached = referenceCache.get(sourceId);
+    if (cached == null || ! cached.matches(references)) {
+      cached = new CachedReferences<>(references, new ReferenceNGrams<>(references, order));
+      referenceCache.put(sourceId, cached);
+    }
+    return cached.ngrams;
+  }
+  
+  private static class CachedReferences<TK> {
+    // A copy of the reference list. Callers may modify their lists in place,
+    // e.g., OnlineTuner replaces the prefix at the head of each list.
+    private final Object[] references;
+    public final ReferenceNGrams<TK> ngrams;
+    public CachedReferences(List<Sequence<TK>> references, ReferenceNGrams<TK> ngrams) {
+      this.references = references.toArray();
+      this.ngrams = ngrams;
+    }
+
+    /**
+     * True if the list holds the same references that were indexed. Sequences are
+     * immutable, so comparing them by identity suffices.
+     * 
+     * @param references
+     * @return
+     */
+    public boolean matches(List<Sequence<TK>> references) {
+      if (references.size() != this.references.length) return false;
+      int i = 0;
+      for (Sequence<TK> reference : references) {
+        if (reference != this.references[i++]) return false;
+      }
+      return true;
+    }
+  }
+
   @Override
   public void update(int sourceId, List<Sequence<TK>> references,
       Sequence<TK> translation) {}
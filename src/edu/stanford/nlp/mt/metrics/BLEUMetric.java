@@ -12,8 +12,6 @@ import edu.stanford.nlp.mt.util.NBestListContainer;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.mt.util.ArraySequence;
-import edu.stanford.nlp.stats.ClassicCounter;
-import edu.stanford.nlp.stats.Counter;
 
 import edu.stanford.nlp.util.Pair;
 import edu.stanford.nlp.util.PropertiesUtils;
@@ -33,7 +31,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
   public static final double LENGTH_BIAS = Double.parseDouble(System
       .getProperty("bleuLengthBias", "1"));
 
-  final List<Counter<Sequence<TK>>> maxReferenceCounts;
+  final List<ReferenceNGrams<TK>> maxReferenceCounts;
   final int[][] refLengths;
   final int order;
   final double multiplier;
@@ -50,16 +48,12 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     return d >= 0 ? d : 0;
   }
 
-  private static <TK> double[] localMatchCounts(Counter<Sequence<TK>> clippedCounts, int order) {
+  private static <TK> double[] localMatchCounts(Sequence<TK> seq, ReferenceNGrams<TK> maxReferenceCount) {
+    final int order = maxReferenceCount.order();
+    int[] matches = new int[order];
+    maxReferenceCount.matchCounts(seq, matches);
     double[] counts = new double[order];
-    for (Sequence<TK> ngram : clippedCounts.keySet()) {
-      double cnt = clippedCounts.getCount(ngram);
-      if (cnt > 0.0) {
-        int len = ngram.size();
-        counts[len - 1] += cnt;
-      }
-    }
-
+    for (int i = 0; i < order; ++i) counts[i] = matches[i];
     return counts;
   }
 
@@ -98,25 +92,30 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
 
   public static <TK> double computeLocalSmoothScore(Sequence<TK> seq,
       List<Sequence<TK>> refs, int order, boolean doNakovExtension) {
+    return computeLocalSmoothScore(seq, new ReferenceNGrams<>(refs, order), doNakovExtension);
+  }
 
-    Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(seq,
-        order);
-    Counter<Sequence<TK>> maxReferenceCount = MetricUtils.getMaxNGramCounts(refs, order);
-    
-    MetricUtils.clipCounts(candidateCounts, maxReferenceCount);
+  /**
+   * Compute a sentence-level smoothed BLEU score against references that have
+   * already been indexed.
+   * 
+   * @param seq The candidate translation
+   * @param refs The reference n-gram counts
+   * @param doNakovExtension
+   * @return The smoothed BLEU score
+   */
+  public static <TK> double computeLocalSmoothScore(Sequence<TK> seq,
+      ReferenceNGrams<TK> refs, boolean doNakovExtension) {
+    final int order = refs.order();
     int seqSz = seq.size();
     int[] localPossibleMatchCounts = new int[order];
     for (int i = 0; i < order; i++) {
       localPossibleMatchCounts[i] = possibleMatchCounts(i, seqSz);
     }
 
-    double[] localCounts = localMatchCounts(candidateCounts,order);
+    double[] localCounts = localMatchCounts(seq, refs);
     int localC = seq.size();
-    int[] refLengths = new int[refs.size()];
-    for (int i = 0; i < refLengths.length; i++) {
-      refLengths[i] = refs.get(i).size();
-    }
-    int localR = bestMatchLength(refLengths, seq.size());
+    int localR = bestMatchLength(refs.lengths(), seq.size());
     if (doNakovExtension) ++localR;
 
     double localLogBP;
@@ -154,7 +153,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
    */
   public BLEUMetric(double multiplier, List<List<Sequence<TK>>> referencesList) {
     this.order = DEFAULT_MAX_NGRAM_ORDER;
-    maxReferenceCounts = new ArrayList<Counter<Sequence<TK>>>(
+    maxReferenceCounts = new ArrayList<ReferenceNGrams<TK>>(
         referencesList.size());
     refLengths = new int[referencesList.size()][];
     init(referencesList);
@@ -171,7 +170,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
    */
   public BLEUMetric(List<List<Sequence<TK>>> referencesList, boolean smooth) {
     this.order = DEFAULT_MAX_NGRAM_ORDER;
-    maxReferenceCounts = new ArrayList<Counter<Sequence<TK>>>(
+    maxReferenceCounts = new ArrayList<ReferenceNGrams<TK>>(
         referencesList.size());
     refLengths = new int[referencesList.size()][];
     multiplier = 1;
@@ -185,7 +184,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
   public BLEUMetric(List<List<Sequence<TK>>> referencesList, int order,
       boolean smooth) {
     this.order = order;
-    maxReferenceCounts = new ArrayList<Counter<Sequence<TK>>>(
+    maxReferenceCounts = new ArrayList<ReferenceNGrams<TK>>(
         referencesList.size());
     refLengths = new int[referencesList.size()][];
     multiplier = 1;
@@ -195,7 +194,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
 
   public BLEUMetric(List<List<Sequence<TK>>> referencesList, int order) {
     this.order = order;
-    maxReferenceCounts = new ArrayList<Counter<Sequence<TK>>>(
+    maxReferenceCounts = new ArrayList<ReferenceNGrams<TK>>(
         referencesList.size());
     refLengths = new int[referencesList.size()][];
     multiplier = 1;
@@ -209,9 +208,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     for (int listI = 0; listI < listSz; listI++) {
       List<Sequence<TK>> references = referencesList.get(listI);
 
-      Counter<Sequence<TK>> maxReferenceCount = MetricUtils.getMaxNGramCounts(
-          references, order);
-      maxReferenceCounts.add(maxReferenceCount);
+      maxReferenceCounts.add(new ReferenceNGrams<>(references, order));
 
       int refsSz = references.size();
       assert refsSz > 0;
@@ -298,10 +295,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
               futurePossibleCounts[i][j] = possibleMatchCounts(j, seqSz);
             }
           }
-          Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(
-              tran.translation, order);
-          MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(i));
-          double[] localCounts = localMatchCounts(candidateCounts,order);
+          double[] localCounts = localMatchCounts(tran.translation, maxReferenceCounts.get(i));
           for (int j = 0; j < order; j++) {
             if (futureMatchCounts[i][j] < localCounts[j]) {
               futureMatchCounts[i][j] = localCounts[j];
@@ -372,28 +366,27 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
       return id - ((BLEUIncrementalMetric) o).id;
     }
 
-    private void incCounts(Counter<Sequence<TK>> clippedCounts,
+    private void incCounts(double[] localCounts,
         Sequence<TK> sequence, int mul) {
       int seqSz = sequence.size();
       for (int i = 0; i < order; i++) {
         possibleMatchCounts[i] += mul * possibleMatchCounts(i, seqSz);
       }
 
-      double[] localCounts = localMatchCounts(clippedCounts,order);
       for (int i = 0; i < order; i++) {
         // System.err.printf("local Counts[%d]: %d\n", i, localCounts[i]);
         matchCounts[i] += mul * localCounts[i];
       }
     }
 
-    private void incCounts(Counter<Sequence<TK>> clippedCounts,
+    private void incCounts(double[] localCounts,
         Sequence<TK> sequence) {
-      incCounts(clippedCounts, sequence, 1);
+      incCounts(localCounts, sequence, 1);
     }
 
-    private void decCounts(Counter<Sequence<TK>> clippedCounts,
+    private void decCounts(double[] localCounts,
         Sequence<TK> sequence) {
-      incCounts(clippedCounts, sequence, -1);
+      incCounts(localCounts, sequence, -1);
     }
 
     private double getLocalSmoothScore(Sequence<TK> seq, int pos, int nbestId) {
@@ -409,16 +402,13 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
     }
 
     public double computeLocalSmoothScore(Sequence<TK> seq, int pos) {
-      Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(seq,
-          order);
-      MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(pos));
       int seqSz = seq.size();
       int[] localPossibleMatchCounts = new int[order];
       for (int i = 0; i < order; i++) {
         localPossibleMatchCounts[i] = possibleMatchCounts(i, seqSz);
       }
 
-      double[] localCounts = localMatchCounts(candidateCounts,order);
+      double[] localCounts = localMatchCounts(seq, maxReferenceCounts.get(pos));
       int localC = seq.size();
       int localR = bestMatchLength(refLengths[pos], seq.size());
 
@@ -491,11 +481,9 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
         }
       } else {
         if (translation != null) {
-          Counter<Sequence<TK>> candidateCounts = MetricUtils.getNGramCounts(
-              translation, order);
-          MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(pos));
+          double[] localCounts = localMatchCounts(translation, maxReferenceCounts.get(pos));
           sequences.add(translation);
-          incCounts(candidateCounts, translation);
+          incCounts(localCounts, translation);
           c += translation.size();
           r += bestMatchLength(refLengths[pos], translation.size());
         } else {
@@ -520,21 +508,18 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
           add(is_null);
         add(trans);
       }
-      Counter<Sequence<TK>> candidateCounts = null;
+      double[] localCounts = null;
       if (smooth) {
         if (sequences.get(index) != null) {
           smoothSum -= getLocalSmoothScore(sequences.get(index), index, nbestId);
           smoothCnt--;
         }
       } else {
-        candidateCounts = (trans == null ? new ClassicCounter<Sequence<TK>>()
-            : MetricUtils.getNGramCounts(trans.translation, order));
-        MetricUtils.clipCounts(candidateCounts, maxReferenceCounts.get(index));
+        localCounts = (trans == null ? new double[order]
+            : localMatchCounts(trans.translation, maxReferenceCounts.get(index)));
         if (sequences.get(index) != null) {
-          Counter<Sequence<TK>> oldCandidateCounts = MetricUtils
-              .getNGramCounts(sequences.get(index), order);
-          MetricUtils.clipCounts(oldCandidateCounts, maxReferenceCounts.get(index));
-          decCounts(oldCandidateCounts, sequences.get(index));
+          double[] oldLocalCounts = localMatchCounts(sequences.get(index), maxReferenceCounts.get(index));
+          decCounts(oldLocalCounts, sequences.get(index));
           c -= sequences.get(index).size();
           r -= bestMatchLength(refLengths[index], sequences.get(index).size());
         }
@@ -549,7 +534,7 @@ public class BLEUMetric<TK, FV> extends AbstractMetric<TK, FV> {
         }
       } else {
         if (trans != null) {
-          incCounts(candidateCounts, trans.translation);
+          incCounts(localCounts, trans.translation);
           c += sequences.get(index).size();
           r += bestMatchLength(refLengths[index], sequences.get(index).size());
         }
@@ -0,0 +1,159 @@
+package edu.stanford.nlp.mt.metrics;
+
+import it.unimi.dsi.fastutil.HashCommon;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+
+import java.util.Arrays;
+import java.util.List;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.WordHash;
+
+/**
+ * Maximum n-gram counts over a set of references, for computing clipped n-gram
+ * matches without building a <code>Counter<Sequence<TK>></code> for each candidate.
+ *
+ * N-grams are hashed to 64-bit keys over <code>IString</code> ids (or word hashes for
+ * other token types). Hash collisions are ignored. Candidate n-grams are counted by
+ * sorting their keys in a per-thread scratch buffer, so matching does not allocate.
+ *
+ * Instances are immutable and threadsafe.
+ *
+ * @param <TK>
+ */
+public class ReferenceNGrams<TK> {
+
+  private static final long SEED = 0x9e3779b97f4a7c15L;
+
+  private static final ThreadLocal<long[]> scratch = new ThreadLocal<long[]>() {
+    @Override
+    protected long[] initialValue() { return new long[256]; }
+  };
+
+  private final Long2IntOpenHashMap maxCounts;
+  private final int[] lengths;
+  private final int order;
+
+  /**
+   * Constructor.
+   *
+   * @param references
+   * @param order
+   */
+  public ReferenceNGrams(List<Sequence<TK>> references, int order) {
+    if (order < 1) throw new IllegalArgumentException("Invalid n-gram order: " + order);
+    this.order = order;
+    this.lengths = new int[references.size()];
+    this.maxCounts = new Long2IntOpenHashMap();
+    for (int r = 0; r < lengths.length; ++r) {
+      Sequence<TK> reference = references.get(r);
+      lengths[r] = reference.size();
+      long[] keys = ngramKeys(reference);
+      for (int n = 1; n <= order && n <= lengths[r]; ++n) {
+        final int numKeys = nextOrder(reference, keys, n);
+        Arrays.sort(keys, lengths[r], lengths[r] + numKeys);
+        for (int i = lengths[r], end = i + numKeys; i < end;) {
+          final long key = keys[i];
+          int count = 1;
+          for (++i; i < end && keys[i] == key; ++i) ++count;
+          if (count > maxCounts.get(key)) maxCounts.put(key, count);
+        }
+      }
+    }
+  }
+
+  /**
+   * The n-gram order.
+   *
+   * @return
+   */
+  public int order() {
+    return order;
+  }
+
+  /**
+   * The reference lengths. Do not modify.
+   *
+   * @return
+   */
+  public int[] lengths() {
+    return lengths;
+  }
+
+  /**
+   * Compute the clipped n-gram match counts of a candidate. matches[n-1] is set to
+   * the number of matching n-grams.
+   *
+   * @param candidate
+   * @param matches An array of size order()
+   */
+  public void matchCounts(Sequence<TK> candidate, int[] matches) {
+    Arrays.fill(matches, 0, order, 0);
+    final int length = candidate.size();
+    long[] keys = ngramKeys(candidate);
+    for (int n = 1; n <= order && n <= length; ++n) {
+      final int numKeys = nextOrder(candidate, keys, n);
+      Arrays.sort(keys, length, length + numKeys);
+      int numMatches = 0;
+      for (int i = length, end = i + numKeys; i < end;) {
+        final long key = keys[i];
+        int count = 1;
+        for (++i; i < end && keys[i] == key; ++i) ++count;
+        numMatches += Math.min(count, maxCounts.get(key));
+      }
+      matches[n-1] = numMatches;
+    }
+  }
+
+  /**
+   * Return a scratch buffer for the n-gram keys of a sequence. The first half holds
+   * the keys of the n-grams that start at each position. The second half holds a
+   * copy that is sorted for counting.
+   *
+   * @param sequence
+   * @return
+   */
+  private static <TK> long[] ngramKeys(Sequence<TK> sequence) {
+    final int length = sequence.size();
+    long[] keys = scratch.get();
+    if (keys.length < 2 * length) {
+      keys = new long[2 * length];
+      scratch.set(keys);
+    }
+    Arrays.fill(keys, 0, length, SEED);
+    return keys;
+  }
+
+  /**
+   * Extend the n-1-gram keys in the first half of the buffer to n-grams, and copy
+   * them to the second half.
+   *
+   * @param sequence
+   * @param keys
+   * @param n
+   * @return The number of n-grams
+   */
+  private static <TK> int nextOrder(Sequence<TK> sequence, long[] keys, int n) {
+    final int length = sequence.size();
+    final int numKeys = length - n + 1;
+    for (int i = 0; i < numKeys; ++i) {
+      keys[i] = HashCommon.mix(keys[i] * SEED + tokenHash(sequence.get(i + n - 1)));
+    }
+    System.arraycopy(keys, 0, keys, length, numKeys);
+    return numKeys;
+  }
+
+  private static <TK> long tokenHash(TK token) {
+    return token instanceof IString ? ((IString) token).id : WordHash.hash(token.toString());
+  }
+
+  /**
+   * The number of distinct reference n-grams.
+   *
+   * @return
+   */
+  public int size() {
+    return maxCounts.size();
+  }
+}
@@ -71,6 +71,21 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   public CompiledPhraseTable(
       String featurePrefix,
       String filename) throws IOException {
+    this(featurePrefix, filename, null);
+  }
+
+  /**
+   * Constructor. Only loads the entries accepted by the filter.
+   *
+   * @param featurePrefix
+   * @param filename
+   * @param filter Load all entries if null.
+   * @throws IOException
+   */
+  public CompiledPhraseTable(
+      String featurePrefix,
+      String filename,
+      PhraseTableFilter filter) throws IOException {
     super(null);
     File f = new File(filename);
     name = String.format("%s:%s", this.getClass().getName(), f.getPath()).intern();
@@ -78,7 +93,7 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
     ruleLists = new ArrayList<>(INITIAL_CAPACITY);
     sourceToRuleIndex = new ProbingIntegerArrayRawIndex();
     targetIndex = new ProbingIntegerArrayIndex();
-    int countScores = init(f);
+    int countScores = init(f, filter);
     scoreNames = new String[countScores];
     for (int i = 0; i < countScores; i++) {
       scoreNames[i] = String.format("%s.%d", featurePrefix, i);
@@ -88,6 +103,16 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
   @Override
   public int size() { return ruleIdCounter.get(); }
 
+  /**
+   * Reserve a contiguous block of rule ids for another phrase table implementation.
+   *
+   * @param numRules
+   * @return The first id in the block.
+   */
+  static int reserveRuleIds(int numRules) {
+    return ruleIdCounter.getAndAdd(numRules);
+  }
+
   /**
    * Add a rule to the phrase table.
    *
@@ -124,17 +149,26 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
    * Load the phrase table from file.
    *
    * @param f
+   * @param filter
    * @return
    * @throws IOException
    */
-  private int init(File f) throws IOException {
+  private int init(File f, PhraseTableFilter filter) throws IOException {
     Runtime rt = Runtime.getRuntime();
     long prePhraseTableLoadMemUsed = rt.totalMemory() - rt.freeMemory();
     final long startTime = System.nanoTime();
 
     LineNumberReader reader = IOTools.getReaderFromFile(f);
     int numScores = -1;
+    int numFiltered = 0;
     for (String line; (line = reader.readLine()) != null;) {
+      if (filter != null) {
+        int delim = line.indexOf(FIELD_DELIM);
+        if (delim < 0 || ! filter.accept(line, delim)) {
+          ++numFiltered;
+          continue;
+        }
+      }
       List<List<String>> fields = StringUtils.splitFieldsFast(line, CompiledPhraseTable.FIELD_DELIM);
 
       // The standard format has five fields
@@ -192,6 +226,9 @@ public class CompiledPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV
             (postPhraseTableLoadMemUsed - prePhraseTableLoadMemUsed)
                 / (1024 * 1024), elapsedTime);
     System.err.println("Longest foreign phrase: " + longestSourcePhrase);
+    if (filter != null) {
+      System.err.printf("Filtered %d entries that do not match the input%n", numFiltered);
+    }
     return numScores;
   }
 
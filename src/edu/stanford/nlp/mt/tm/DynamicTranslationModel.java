@@ -9,14 +9,18 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorCompletionService;
-import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -27,11 +31,15 @@ import com.esotericsoftware.kryo.Kryo;
 import com.esotericsoftware.kryo.KryoSerializable;
 import com.esotericsoftware.kryo.io.Input;
 import com.esotericsoftware.kryo.io.Output;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 
 import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
 import edu.stanford.nlp.mt.train.LexicalReorderingFeatureExtractor.ReorderingTypes;
+import edu.stanford.nlp.mt.util.AlignedSentence;
 import edu.stanford.nlp.mt.util.CoverageSet;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
@@ -39,6 +47,7 @@ import edu.stanford.nlp.mt.util.IStrings;
 import edu.stanford.nlp.mt.util.InputProperties;
 import edu.stanford.nlp.mt.util.InputProperty;
 import edu.stanford.nlp.mt.util.MurmurHash2;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
 import edu.stanford.nlp.mt.util.ParallelSuffixArrayEntry;
 import edu.stanford.nlp.mt.util.PhraseAlignment;
 import edu.stanford.nlp.mt.util.ParallelSuffixArray;
@@ -56,6 +65,8 @@ import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 import it.unimi.dsi.fastutil.longs.Long2IntMap;
 import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
 
 /**
  * A dynamic translation model backed by a suffix array.
@@ -71,32 +82,32 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public static final String DEFAULT_NAME = "dynamic-tm";
   public static final int DEFAULT_SAMPLE_SIZE = 100;
   public static final int DEFAULT_MAX_PHRASE_LEN = 12;
+  public static final int DEFAULT_COMPACTION_THRESHOLD = 10000;
   private static final int RULE_CACHE_THRESHOLD = 10000;
   private static final double MIN_LEX_PROB = 1e-5;
   private static final int MAX_FERTILITY = 5;
   
   /**
-   * Parallelize TM queries. 
+   * Parallelize TM queries. Each model owns a work-stealing pool that is created on the
+   * first query. Source inputs up to the direct execution length are queried in the
+   * calling thread.
    */
-  private static final int WORK_QUEUE_SIZE = 4096;
-  private static final int NUM_THREADS = Runtime.getRuntime().availableProcessors();
-  private static final ThreadPoolExecutor threadPool = 
-      new ThreadPoolExecutor(NUM_THREADS, NUM_THREADS, 0L, TimeUnit.MILLISECONDS,
-          new ArrayBlockingQueue<>(WORK_QUEUE_SIZE), new ThreadFactory() {
-        int threadId = 0;
-        @Override
-        public Thread newThread(Runnable r) {
-          Thread t = new Thread(r);
-          t.setName("dyntm-" + Integer.toString(threadId++));
-          t.setDaemon(true);
-          return t;
-        }
-      });
-  static {
-    // Get ready for action.
-    threadPool.prestartAllCoreThreads();
-    threadPool.allowCoreThreadTimeOut(false);
-  }
+  public static final int DEFAULT_QUERY_THREADS = Runtime.getRuntime().availableProcessors();
+  public static final int DEFAULT_DIRECT_EXECUTION_LENGTH = 5;
+  
+  /**
+   * Sampled rules are shared across inputs in a bounded cache. The size is measured in
+   * target tokens (plus one per rule). A size of 0 disables the cache.
+   */
+  public static final long DEFAULT_RULE_CACHE_SIZE = 1000000;
+  
+  // Types of the counts on which extracted rules depend. Incremental updates record the
+  // counts that they change so that only the cached rules that depend on them are discarded.
+  private static final long SOURCE_NGRAM = 0L;
+  private static final long TARGET_NGRAM = 1L << 62;
+  private static final long SOURCE_WORD = 2L << 62;
+  private static final long TARGET_WORD = 3L << 62;
+  private static final long COUNT_KEY_MASK = (1L << 62) - 1;
   
   /**
    * Feature specification:
@@ -125,7 +136,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     public int getNumFeatures() { return numFeatures; }
   };
   
-  protected ParallelSuffixArray sa;
+  protected volatile ParallelSuffixArray sa;
   
   private static final Logger logger = LogManager.getLogger(DynamicTranslationModel.class);
   
@@ -139,10 +150,34 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   protected transient String[] featureNames;
   protected transient String name;
   protected transient boolean reorderingEnabled;
+  protected transient int compactionThreshold;
+  protected transient int numQueryThreads;
+  protected transient int directExecutionLength;
+  protected transient long ruleCacheSize;
   
   // Caches
   public transient LexCoocTable coocTable;
-  protected transient Map<Sequence<IString>,List<Rule<IString>>> ruleCache;
+  protected transient volatile Cache<RuleCacheKey,CachedRules> sharedRuleCache;
+  
+  // Queries read the static index and the incremental updates through this snapshot.
+  protected transient volatile IndexSnapshot index;
+  protected transient long indexVersion;
+  
+  // Incremental updates since the last compaction. Guarded by this.
+  protected transient List<AlignedSentence> updates;
+  protected transient Future<?> compaction;
+  
+  // Query pools are shared by all models with the same number of query threads, so
+  // loading or discarding models does not create or leak threads.
+  private static final Map<Integer,ForkJoinPool> queryPools = new ConcurrentHashMap<>();
+  
+  // Compactions of all models run in one background thread.
+  private static final ExecutorService compactionExecutor = Executors.newSingleThreadExecutor(r -> {
+    Thread t = new Thread(r);
+    t.setName("dyntm-compaction");
+    t.setDaemon(true);
+    return t;
+  });
   
   // Vocabulary translation arrays
   protected transient int[] sys2TM;
@@ -180,6 +215,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     this.sampleSize = DEFAULT_SAMPLE_SIZE;
     this.name = name;
     this.reorderingEnabled = false;
+    this.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    this.numQueryThreads = DEFAULT_QUERY_THREADS;
+    this.directExecutionLength = DEFAULT_DIRECT_EXECUTION_LENGTH;
+    this.ruleCacheSize = DEFAULT_RULE_CACHE_SIZE;
     setFeatureTemplate(FeatureTemplate.DENSE);
   }
 
@@ -196,7 +235,9 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   }
 
   /**
-   * Load a translation model from a serialized file.
+   * Load a translation model from a serialized file. Files with the
+   * {@link ParallelSuffixArray#MAPPED_EXTENSION} extension are memory-mapped
+   * instead of deserialized.
    * 
    * @param filename
    * @param initializeSystemVocabulary
@@ -208,7 +249,9 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public static <FV> DynamicTranslationModel<FV> load(String filename, boolean initializeSystemVocabulary,
       String name) throws IOException {
     TimeKeeper timer = TimingUtils.start();
-    DynamicTranslationModel<FV> tm = IOTools.deserialize(filename, DynamicTranslationModel.class);
+    DynamicTranslationModel<FV> tm = ParallelSuffixArray.isMappedFile(filename) ?
+        new DynamicTranslationModel<>(ParallelSuffixArray.loadMapped(filename), name) :
+        IOTools.deserialize(filename, DynamicTranslationModel.class);
     if (tm == null) {
       logger.error("File not found: {}", filename);
       throw new IOException("File not found: " + filename);
@@ -217,6 +260,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     tm.maxSourcePhrase = DEFAULT_MAX_PHRASE_LEN;
     tm.maxTargetPhrase = DEFAULT_MAX_PHRASE_LEN;
     tm.sampleSize = DEFAULT_SAMPLE_SIZE;
+    tm.compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    tm.numQueryThreads = DEFAULT_QUERY_THREADS;
+    tm.directExecutionLength = DEFAULT_DIRECT_EXECUTION_LENGTH;
+    tm.ruleCacheSize = DEFAULT_RULE_CACHE_SIZE;
     tm.name = name;
     tm.setFeatureTemplate(FeatureTemplate.DENSE);
     
@@ -254,6 +301,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     maxSourcePhrase = DEFAULT_MAX_PHRASE_LEN;
     maxTargetPhrase = DEFAULT_MAX_PHRASE_LEN;
     sampleSize = DEFAULT_SAMPLE_SIZE;
+    compactionThreshold = DEFAULT_COMPACTION_THRESHOLD;
+    // Foreground models are small and are queried from the background model's
+    // query, so run them in the calling thread.
+    setQueryThreads(0);
     this.name = Phrasal.TM_FOREGROUND_NAME;
     setFeatureTemplate(t);
     
@@ -279,8 +330,29 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Explicitly make the user specify the feature template.
     setFeatureTemplate(t);
     // Now that we have a lexical co-occurence table, build the rule cache.
-    Map<Span,SuffixArraySample> queryCache = sa.lookupFrequentSourceNgrams(sampleSize, RULE_CACHE_THRESHOLD);
-    ruleCache = new ConcurrentHashMap<>(queryCache.size());
+    for (;;) {
+      final IndexSnapshot current = this.index;
+      final Map<Sequence<IString>,CachedRules> ruleCache = extractFrequentRules(current.staticIndex());
+      synchronized(this) {
+        // Retry if the index was compacted during extraction
+        if (index.staticVersion == current.staticVersion) {
+          index = index.withRuleCache(ruleCache);
+          return;
+        }
+      }
+    }
+  }
+  
+  /**
+   * Extract rules for the frequent source n-grams of a static index.
+   * 
+   * @param staticIndex
+   * @return
+   */
+  private Map<Sequence<IString>,CachedRules> extractFrequentRules(IndexSnapshot staticIndex) {
+    Map<Span,SuffixArraySample> queryCache = staticIndex.sa.lookupFrequentSourceNgrams(sampleSize, 
+        RULE_CACHE_THRESHOLD);
+    final Map<Sequence<IString>,CachedRules> ruleCache = new ConcurrentHashMap<>(queryCache.size());
     logger.info("Extracting rules from query cache of size {}", queryCache.size());
     queryCache.entrySet().parallelStream().forEach(entry -> {
       Span span = entry.getKey();
@@ -288,9 +360,13 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       Sequence<IString> sourceSpan = toSequence(span.tokens);
       int numHits = sample.ub - sample.lb + 1;
       double sampleRate = sample.samples.size() / (double) numHits;
-      List<Rule<IString>> rules = samplesToRules(sample.samples, span.tokens.length, sampleRate, sourceSpan);
-      ruleCache.put(sourceSpan, rules);
+      LongSet countKeys = new LongOpenHashSet();
+      countKeys.add(ngramKey(SOURCE_NGRAM, span.tokens, 0, span.tokens.length));
+      List<Rule<IString>> rules = samplesToRules(sample.samples, span.tokens.length, sampleRate, sourceSpan, 
+          staticIndex, countKeys);
+      ruleCache.put(sourceSpan, new CachedRules(rules, staticIndex, null, false, countKeys));
     });
+    return ruleCache;
   }
   
   /**
@@ -303,7 +379,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     final Vocabulary tmVocab = sa.getVocabulary();
     // Augment the system vocabulary
     int tmSize = tmVocab.size();
-    tm2Sys = new int[tmSize];
+    final int[] tm2Sys = new int[tmSize];
     IntStream.range(0, tmSize).parallel().forEach(i -> {
       String word = tmVocab.get(i);
       int wordIndex = Vocabulary.systemIndexOf(word);
@@ -312,10 +388,13 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     });
     // Now create the mapping from the (augmented) system vocabulary
     final int sysSize = Vocabulary.systemSize();
-    sys2TM = new int[sysSize];
+    final int[] sys2TM = new int[sysSize];
     IntStream.range(0, sysSize).parallel().forEach(i -> {
       sys2TM[i] = tmVocab.indexOf(Vocabulary.systemGet(i));
     });
+    // Publish complete arrays since this method is also called during decoding by update()
+    this.tm2Sys = tm2Sys;
+    this.sys2TM = sys2TM;
   }
 
   /**
@@ -334,7 +413,23 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   private void createLexCoocTable(int vocabSize) {
     logger.info("Creating lexical cooc table");
     // Constant chosen empirically
-    coocTable = new LexCoocTable(10*vocabSize);
+    coocTable = createLexCoocTable(sa, 10*vocabSize);
+    synchronized(this) {
+      final long version = ++indexVersion;
+      index = new IndexSnapshot(sa, coocTable, null, null, version, version, new ConcurrentHashMap<>(), 
+          null);
+    }
+  }
+  
+  /**
+   * Count lexical co-occurrences in a suffix array.
+   * 
+   * @param sa
+   * @param initialCapacity
+   * @return
+   */
+  private static LexCoocTable createLexCoocTable(ParallelSuffixArray sa, int initialCapacity) {
+    final LexCoocTable coocTable = new LexCoocTable(initialCapacity);
     // Iterate over every (symmetric) alignment point in parallel
     sa.stream().forEach(s -> {
       for(int i = 0, sz = s.sourceLength(); i < sz; ++i) {
@@ -362,6 +457,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
         }
       }
     });
+    return coocTable;
   }
 
   /**
@@ -386,6 +482,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setFeatureTemplate(FeatureTemplate t) {
     this.featureTemplate = t;
+    invalidateRuleCache();
     featureNames = (String[]) IntStream.range(0, t.getNumFeatures()).mapToObj(i -> {
       return String.format("%s.%d", FEATURE_PREFIX, i);
     }).toArray(String[]::new);
@@ -396,6 +493,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setReorderingScores() {
     this.reorderingEnabled = true;
+    invalidateRuleCache();
   }
   
   /**
@@ -414,6 +512,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setMaxTargetPhrase(int dim) {
     maxTargetPhrase = dim;
+    invalidateRuleCache();
   }
   
   /**
@@ -423,6 +522,299 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public void setSampleSize(int sz) {
     this.sampleSize = sz;
+    invalidateRuleCache();
+  }
+  
+  /**
+   * Set the number of threads in the query pool. If the number of threads is 0, then
+   * all queries run in the calling thread.
+   * 
+   * @param numThreads
+   */
+  public synchronized void setQueryThreads(int numThreads) {
+    if (numThreads < 0) throw new IllegalArgumentException("Invalid number of query threads: " + numThreads);
+    this.numQueryThreads = numThreads;
+  }
+  
+  /**
+   * Source inputs up to this length are queried in the calling thread.
+   * 
+   * @param length
+   */
+  public void setDirectExecutionLength(int length) {
+    this.directExecutionLength = length;
+  }
+  
+  /**
+   * Get the shared query pool for this number of query threads, which is created on first use.
+   * 
+   * @return The pool or null if queries should run in the calling thread.
+   */
+  private ForkJoinPool getQueryPool() {
+    final int numThreads = numQueryThreads;
+    if (numThreads <= 0) return null;
+    ForkJoinPool pool = queryPools.get(numThreads);
+    return pool == null ? queryPools.computeIfAbsent(numThreads, n -> {
+      final String threadPrefix = "dyntm-query-" + n;
+      // Worker threads of the default factory are daemon threads
+      return new ForkJoinPool(n, p -> {
+        ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+        t.setName(threadPrefix + "-" + t.getPoolIndex());
+        return t;
+      }, null, true);
+    }) : pool;
+  }
+  
+  /**
+   * Set the maximum size of the rule cache that is shared across inputs. The size is
+   * measured in target tokens. If the size is 0, then the cache is disabled.
+   * 
+   * @param size
+   */
+  public synchronized void setRuleCacheSize(long size) {
+    if (size < 0) throw new IllegalArgumentException("Invalid rule cache size: " + size);
+    this.ruleCacheSize = size;
+    sharedRuleCache = null;
+  }
+  
+  /**
+   * Hit and miss counts of the rule cache that is shared across inputs.
+   * 
+   * @return The statistics or null if the cache is disabled.
+   */
+  public CacheStats getRuleCacheStats() {
+    final Cache<RuleCacheKey,CachedRules> cache = sharedRuleCache;
+    return cache == null ? null : cache.stats();
+  }
+  
+  /**
+   * Get the rule cache, which is created on first use.
+   * 
+   * @return The cache or null if it is disabled.
+   */
+  private Cache<RuleCacheKey,CachedRules> getSharedRuleCache() {
+    Cache<RuleCacheKey,CachedRules> cache = sharedRuleCache;
+    if (cache == null && ruleCacheSize > 0) {
+      synchronized(this) {
+        cache = sharedRuleCache;
+        if (cache == null && ruleCacheSize > 0) {
+          cache = CacheBuilder.newBuilder()
+              .maximumWeight(ruleCacheSize)
+              .weigher((RuleCacheKey k, CachedRules v) -> v.weight)
+              .concurrencyLevel(Math.max(4, numQueryThreads))
+              .recordStats()
+              .build();
+          sharedRuleCache = cache;
+        }
+      }
+    }
+    return cache;
+  }
+  
+  /**
+   * Discard all rules in the shared rule cache, e.g., after a change to
+   * the parameters that affect rule extraction.
+   */
+  private void invalidateRuleCache() {
+    final Cache<RuleCacheKey,CachedRules> cache = sharedRuleCache;
+    if (cache != null) cache.invalidateAll();
+  }
+  
+  /**
+   * Set the number of incremental updates that triggers a compaction.
+   * 
+   * @param numSentences
+   */
+  public void setCompactionThreshold(int numSentences) {
+    this.compactionThreshold = numSentences;
+  }
+  
+  /**
+   * Add a sentence pair to the model without rebuilding the suffix array. The pair is
+   * indexed on its own and merged into a small delta suffix array that is queried together
+   * with the static index, so rules extracted from it are available immediately. The delta
+   * is merged into the static index in the background when it reaches the compaction threshold.
+   * 
+   * NOTE: Serialization only writes the static index. Call {@link #compact()} and wait
+   * for the result to persist the updates.
+   * 
+   * @param source
+   * @param target
+   * @param align Alignment string in the format of {@link ParallelCorpus#extractAlignment}.
+   * @return false if the sentence pair could not be added, e.g., it is unaligned or too long.
+   */
+  public boolean update(String source, String target, String align) {
+    final ParallelCorpus corpus;
+    final AlignedSentence sentence;
+    synchronized(this) {
+      if (index == null) throw new IllegalStateException("Model has not been initialized");
+      final Vocabulary tmVocab = sa.getVocabulary();
+      final int vocabSize = tmVocab.size();
+      sentence = new ParallelCorpus(1, tmVocab).getSentence(source, target, align);
+      if (tmVocab.size() != vocabSize) createIdArrays();
+      if (sentence == null) return false;
+      corpus = new ParallelCorpus(1, tmVocab);
+      corpus.add(sentence);
+    }
+    
+    // Index the new sentence pair without holding the lock
+    final ParallelSuffixArray segmentSA = new ParallelSuffixArray(corpus);
+    segmentSA.build();
+    final LexCoocTable segmentCoocTable = createLexCoocTable(segmentSA, 10 * corpus.numSourcePositions());
+    final LongSet countKeys = countKeys(sentence);
+    
+    synchronized(this) {
+      if (updates == null) updates = new ArrayList<>();
+      updates.add(sentence);
+      // Merge the segment into the delta index in linear time. Queries read the previous
+      // snapshot until the new one is published.
+      final IndexSnapshot current = index;
+      final ParallelSuffixArray deltaSA = current.deltaSA == null ? segmentSA : 
+        ParallelSuffixArray.merge(current.deltaSA, segmentSA);
+      final LexCoocTable deltaCoocTable = current.deltaCoocTable == null ? segmentCoocTable :
+        new LexCoocTable(current.deltaCoocTable).addAll(segmentCoocTable);
+      // Record the changed counts before the snapshot is published, so that queries
+      // never accept cached rules that are older than the counts.
+      final long version = ++indexVersion;
+      for (long key : countKeys) current.changedCounts.put(key, version);
+      index = new IndexSnapshot(current.sa, current.coocTable, deltaSA, deltaCoocTable, version, 
+          current.staticVersion, current.changedCounts, current.ruleCache);
+      if (updates.size() >= compactionThreshold) compact();
+    }
+    return true;
+  }
+  
+  /**
+   * Build a snapshot of a new static index and the pending updates. The caller must
+   * hold the lock on this object.
+   * 
+   * @param staticIndex A snapshot of the static index without updates.
+   * @param ruleCache Frequent rules extracted from the static index, or null.
+   * @return
+   */
+  private IndexSnapshot indexUpdates(IndexSnapshot staticIndex, 
+      Map<Sequence<IString>,CachedRules> ruleCache) {
+    if (updates == null || updates.isEmpty()) return staticIndex.withRuleCache(ruleCache);
+    final long version = ++indexVersion;
+    final Map<Long,Long> changedCounts = staticIndex.changedCounts;
+    ParallelCorpus corpus = new ParallelCorpus(updates.size(), staticIndex.sa.getVocabulary());
+    for (AlignedSentence sentence : updates) {
+      corpus.add(sentence);
+      for (long key : countKeys(sentence)) changedCounts.put(key, version);
+    }
+    ParallelSuffixArray deltaSA = new ParallelSuffixArray(corpus);
+    deltaSA.build();
+    LexCoocTable deltaCoocTable = createLexCoocTable(deltaSA, 10 * corpus.numSourcePositions());
+    return new IndexSnapshot(staticIndex.sa, staticIndex.coocTable, deltaSA, deltaCoocTable, version, 
+        staticIndex.staticVersion, changedCounts, ruleCache);
+  }
+  
+  /**
+   * Keys of the counts that a sentence pair changes when it is added to the index.
+   * 
+   * @param sentence
+   * @return
+   */
+  private LongSet countKeys(AlignedSentence sentence) {
+    final LongSet keys = new LongOpenHashSet();
+    for (int i = 0, sz = sentence.sourceLength(); i < sz; ++i) {
+      keys.add(wordKey(SOURCE_WORD, sentence.source[i]));
+      if (sentence.isSourceUnaligned(i)) keys.add(wordKey(TARGET_WORD, LexCoocTable.NULL_ID));
+      for (int len = 1, maxLen = Math.min(maxSourcePhrase, sz - i); len <= maxLen; ++len) {
+        keys.add(ngramKey(SOURCE_NGRAM, sentence.source, i, len));
+      }
+    }
+    for (int i = 0, sz = sentence.targetLength(); i < sz; ++i) {
+      keys.add(wordKey(TARGET_WORD, sentence.target[i]));
+      if (sentence.isTargetUnaligned(i)) keys.add(wordKey(SOURCE_WORD, LexCoocTable.NULL_ID));
+      for (int len = 1, maxLen = Math.min(maxTargetPhrase, sz - i); len <= maxLen; ++len) {
+        keys.add(ngramKey(TARGET_NGRAM, sentence.target, i, len));
+      }
+    }
+    return keys;
+  }
+  
+  /**
+   * Add the keys of the counts from which a rule is scored. See {@link #scoreLex}.
+   * 
+   * @param rule
+   * @param keys
+   */
+  private static void addCountKeys(SampledRule rule, LongSet keys) {
+    keys.add(ngramKey(TARGET_NGRAM, rule.tgt, 0, rule.tgt.length));
+    final SentencePair sentencePair = rule.sentencePair;
+    for (int i = rule.srcStartInclusive; i < rule.srcEndExclusive; ++i) {
+      keys.add(wordKey(SOURCE_WORD, sentencePair.source(i)));
+      if (sentencePair.isSourceUnaligned(i)) {
+        keys.add(wordKey(TARGET_WORD, LexCoocTable.NULL_ID));
+      } else {
+        for (int j : sentencePair.f2e(i)) keys.add(wordKey(TARGET_WORD, sentencePair.target(j)));
+      }
+    }
+    for (int i = rule.tgtStartInclusive; i < rule.tgtEndExclusive; ++i) {
+      keys.add(wordKey(TARGET_WORD, sentencePair.target(i)));
+      if (sentencePair.isTargetUnaligned(i)) {
+        keys.add(wordKey(SOURCE_WORD, LexCoocTable.NULL_ID));
+      } else {
+        for (int j : sentencePair.e2f(i)) keys.add(wordKey(SOURCE_WORD, sentencePair.source(j)));
+      }
+    }
+  }
+  
+  /**
+   * Key of the count of an n-gram. Hash collisions only discard extra cached rules.
+   */
+  private static long ngramKey(long type, int[] tokens, int offset, int length) {
+    return type | (MurmurHash2.hash64(tokens, offset, length, 1) & COUNT_KEY_MASK);
+  }
+  
+  /**
+   * Key of the lexical counts of a word.
+   */
+  private static long wordKey(long type, int id) {
+    return type | (id & 0xffffffffL);
+  }
+  
+  /**
+   * Merge the incremental updates into the static index in the background. Updates that
+   * arrive during compaction remain in the delta index.
+   * 
+   * @return A future that completes when the merged index has been published.
+   */
+  public synchronized Future<?> compact() {
+    if (compaction != null && ! compaction.isDone()) return compaction;
+    final IndexSnapshot snapshot = index;
+    if (snapshot == null || snapshot.deltaSA == null) return CompletableFuture.completedFuture(null);
+    // The delta index always covers exactly the current list of updates.
+    final int numCompacted = updates.size();
+    compaction = compactionExecutor.submit(() -> {
+      TimeKeeper timer = TimingUtils.start();
+      ParallelSuffixArray merged = ParallelSuffixArray.merge(snapshot.sa, snapshot.deltaSA);
+      LexCoocTable mergedCoocTable = new LexCoocTable(snapshot.coocTable).addAll(snapshot.deltaCoocTable);
+      final IndexSnapshot staticIndex;
+      synchronized(this) {
+        final long version = ++indexVersion;
+        staticIndex = new IndexSnapshot(merged, mergedCoocTable, null, null, version, version, 
+            new ConcurrentHashMap<>(), null);
+      }
+      timer.mark("Merge");
+      // Extract the frequent rules before the merged index is published, so that queries
+      // never read frequent rules from the old index with the new one.
+      final Map<Sequence<IString>,CachedRules> ruleCache = snapshot.ruleCache == null ? null :
+        extractFrequentRules(staticIndex);
+      timer.mark("Query cache");
+      synchronized(this) {
+        sa = merged;
+        coocTable = mergedCoocTable;
+        updates.subList(0, numCompacted).clear();
+        index = indexUpdates(staticIndex, ruleCache);
+      }
+      // Cached rules refer to the old static index. They are never used with the new
+      // snapshot, so free the memory.
+      invalidateRuleCache();
+      logger.info("Compacted {} updates: {}", numCompacted, timer);
+    });
+    return compaction;
   }
   
   /**
@@ -466,9 +858,11 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   @Override
   public void setName(String name) { 
     this.name = name;
-    if (this.ruleCache != null) {
-      for (List<Rule<IString>> ruleList : ruleCache.values()) {
-        for (Rule<IString> r : ruleList) {
+    invalidateRuleCache();
+    final Map<Sequence<IString>,CachedRules> ruleCache = index == null ? null : index.ruleCache;
+    if (ruleCache != null) {
+      for (CachedRules cached : ruleCache.values()) {
+        for (Rule<IString> r : cached.rules) {
           r.phraseTableName = name;
         }
       }
@@ -496,6 +890,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     final List<ConcreteRule<IString,FV>> concreteRules = new ArrayList<>(source.size() * source.size() * 100);
     
     final int[] sourceArray = toTMArray(source);
+    final IndexSnapshot index = this.index;
     
     // Zhang and Vogel (2005) trick -- prune higher-order queries using lower-order misses
     final boolean[][] misses = new boolean[source.size()][source.size()+1];
@@ -503,15 +898,14 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     // Speed up higher-order queries with bounds from lower-order queries
     final int[][][] searchBounds = new int[source.size()][source.size()+1][];
     
-    final ExecutorCompletionService<QueryResult<FV>> workQueue = 
-        new ExecutorCompletionService<>(threadPool);
+    final ForkJoinPool pool = source.size() > directExecutionLength ? getQueryPool() : null;
     
     // Iterate over source span lengths
 //    TimeKeeper timer = TimingUtils.start();
     for (int len = 1, longestSourcePhrase = Math.min(maxSourcePhrase, source.size()); 
         len <= longestSourcePhrase; len++) {
       // Filter higher-order ranges based on lower-order misses
-      int numTasks = 0;
+      final List<ExtractionTask> tasks = new ArrayList<>(source.size() - len + 1);
       for (int i = 0, sz = source.size() - len; i <= sz; ++i) {
         final int j = i + len;
         
@@ -524,22 +918,20 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
           misses[i][j] = true;
         } else {
           final int[] prefixBounds = (len > 1 && searchBounds[i][j-1] != null) ? searchBounds[i][j-1] : null;
-          workQueue.submit(new ExtractionTask(i, j, source, sourceInputProperties, 
-              sourceInputId, scorer, sourceArray, prefixBounds));
-          ++numTasks;
+          tasks.add(new ExtractionTask(i, j, source, sourceInputProperties, 
+              sourceInputId, scorer, sourceArray, prefixBounds, index));
         }
       }
-//      timer.mark(String.format("submit %d/%d", len, numTasks));
+//      timer.mark(String.format("submit %d/%d", len, tasks.size()));
             
-      if (numTasks == 0) {
+      if (tasks.isEmpty()) {
         // There can't be any higher order matches
         break;
       } 
       
       // Wait for results
       try {
-        for (int k = 0; k < numTasks; ++k) {
-          QueryResult<FV> result = workQueue.take().get();
+        for (QueryResult<FV> result : execute(tasks, pool)) {
           if (result != null) {
             int i = result.i;
             int j = result.j;
@@ -548,12 +940,18 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
             concreteRules.addAll(result.ruleList);
           }
         }
-      } catch (InterruptedException | ExecutionException e) {
+      } catch (InterruptedException e) {
+        // Restore the interrupt so that callers do not share the empty result
+        logger.warn("input {}: rule extraction interrupted for order {}", sourceInputId, len);
+        Thread.currentThread().interrupt();
+        return Collections.emptyList();
+        
+      } catch (ExecutionException e) {
         logger.error("input {}: rule extraction failed for order {}", sourceInputId, len);
         logger.error("Rule extraction exception", e);
         return Collections.emptyList();
       }
-//      timer.mark(String.format("extract %d/%d", len, numTasks));      
+//      timer.mark(String.format("extract %d/%d", len, tasks.size()));      
     }
     
 //    logger.info("input {}: TM timing {}", sourceInputId, timer);
@@ -572,6 +970,47 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     return concreteRules;
   }
   
+  /**
+   * Run the extraction tasks for one span length. The calling thread and up to
+   * <code>parallelism</code> pool workers take tasks from a shared counter until all tasks
+   * are claimed. The caller never waits on a full queue: if the pool is busy, then
+   * the caller executes the tasks itself.
+   * 
+   * @param tasks
+   * @param pool The query pool, or null to run the tasks in the calling thread.
+   * @return The results in task order.
+   * @throws InterruptedException
+   * @throws ExecutionException
+   */
+  private List<QueryResult<FV>> execute(final List<ExtractionTask> tasks, ForkJoinPool pool) 
+      throws InterruptedException, ExecutionException {
+    final int numTasks = tasks.size();
+    final List<QueryResult<FV>> results = new ArrayList<>(Collections.nCopies(numTasks, null));
+    final AtomicInteger nextTask = new AtomicInteger();
+    final CountDownLatch done = new CountDownLatch(numTasks);
+    final AtomicReference<Throwable> error = new AtomicReference<>();
+    final Runnable worker = () -> {
+      for (int k; (k = nextTask.getAndIncrement()) < numTasks; ) {
+        try {
+          results.set(k, tasks.get(k).call());
+        } catch (Throwable e) {
+          error.compareAndSet(null, e);
+        } finally {
+          done.countDown();
+        }
+      }
+    };
+    if (pool != null) {
+      for (int k = 0, numHelpers = Math.min(pool.getParallelism(), numTasks - 1); k < numHelpers; ++k) {
+        pool.execute(worker);
+      }
+    }
+    worker.run();
+    done.await();
+    if (error.get() != null) throw new ExecutionException(error.get());
+    return results;
+  }
+  
   /**
    * Extract rules from suffix array.
    * 
@@ -587,9 +1026,10 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     private Scorer<FV> scorer;
     private int[] sourceArray;
     private int[] prefixBounds;
+    private IndexSnapshot index;
 
     public ExtractionTask(int i, int j, Sequence<IString> source, InputProperties sourceInputProperties, 
-        int sourceInputId, Scorer<FV> scorer, int[] sourceArray, int[] prefixBounds) {
+        int sourceInputId, Scorer<FV> scorer, int[] sourceArray, int[] prefixBounds, IndexSnapshot index) {
       this.i = i;
       this.j = j;
       this.source = source;
@@ -598,6 +1038,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       this.scorer = scorer;
       this.sourceArray = sourceArray;
       this.prefixBounds = prefixBounds;
+      this.index = index;
     }
 
     @Override
@@ -609,22 +1050,57 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       final Sequence<IString> sourceSpan = source.subsequence(i, j);
       final CoverageSet sourceCoverage = new CoverageSet(source.size());
       sourceCoverage.set(i, j);
-      List<Rule<IString>> rules = ruleCache == null ? null : ruleCache.get(sourceSpan);
+      final int[] sourcePhrase = Arrays.copyOfRange(sourceArray, i, j);
+      // The frequent rules are extracted from the static index. They are used unless an
+      // incremental update changed one of their counts.
+      final CachedRules frequentRules = index.ruleCache == null ? null : index.ruleCache.get(sourceSpan);
+      List<Rule<IString>> rules = frequentRules != null && index.isCurrent(frequentRules) ? 
+          frequentRules.rules : null;
       if (rules == null) {
-        // Sample from the suffix array
-        final int[] sourcePhrase = Arrays.copyOfRange(sourceArray, i, j);
-        final SuffixArraySample corpusSample = prefixBounds == null ? sa.sample(sourcePhrase, sampleSize)
-            : sa.sample(sourcePhrase, sampleSize, prefixBounds[0], prefixBounds[1]);
-        if (corpusSample.size() == 0) {
-          // This span is not present in the training data.
-          rules = Collections.emptyList();
-          result.miss = true;
+        final Cache<RuleCacheKey,CachedRules> cache = getSharedRuleCache();
+        final CachedRules cached = cache == null ? null :
+          cache.getIfPresent(new RuleCacheKey(sourceSpan, featureTemplate));
+        if (cached != null && index.isCurrent(cached)) {
+          rules = cached.rules;
+          result.searchBounds = cached.searchBounds;
+          result.miss = cached.miss;
           
         } else {
-          result.searchBounds = new int[]{corpusSample.lb, corpusSample.ub};
-          final int numHits = corpusSample.ub - corpusSample.lb + 1;
-          final double sampleRate = corpusSample.size() / (double) numHits;
-          rules = samplesToRules(corpusSample.samples, order, sampleRate, sourceSpan);
+          // Copy the span so that cached rules do not retain the input.
+          final Sequence<IString> ruleSource = cache == null ? sourceSpan : new ArraySequence<>(sourceSpan);
+          // Sample from the suffix array
+          final SuffixArraySample corpusSample = prefixBounds == null ? index.sa.sample(sourcePhrase, sampleSize)
+              : index.sa.sample(sourcePhrase, sampleSize, prefixBounds[0], prefixBounds[1]);
+          final SuffixArraySample deltaSample = index.deltaSA == null ? null : 
+            index.deltaSA.sample(sourcePhrase, sampleSize);
+          final int deltaSize = deltaSample == null ? 0 : deltaSample.size();
+          final LongSet countKeys = cache == null ? null : new LongOpenHashSet();
+          if (countKeys != null) countKeys.add(ngramKey(SOURCE_NGRAM, sourcePhrase, 0, order));
+          if (corpusSample.size() == 0 && deltaSize == 0) {
+            // This span is not present in the training data.
+            rules = Collections.emptyList();
+            result.miss = true;
+          
+          } else {
+            int numHits = 0;
+            List<SentencePair> samples = corpusSample.samples;
+            if (corpusSample.size() > 0) {
+              result.searchBounds = new int[]{corpusSample.lb, corpusSample.ub};
+              numHits += corpusSample.ub - corpusSample.lb + 1;
+            }
+            if (deltaSize > 0) {
+              numHits += deltaSample.ub - deltaSample.lb + 1;
+              samples = new ArrayList<>(corpusSample.size() + deltaSize);
+              samples.addAll(corpusSample.samples);
+              samples.addAll(deltaSample.samples);
+            }
+            final double sampleRate = samples.size() / (double) numHits;
+            rules = samplesToRules(samples, order, sampleRate, ruleSource, index, countKeys);
+          }
+          if (cache != null) {
+            cache.put(new RuleCacheKey(ruleSource, featureTemplate), 
+                new CachedRules(rules, index, result.searchBounds, result.miss, countKeys));
+          }
         }
       }
       // Extract rules
@@ -637,6 +1113,63 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     }
   }
   
+  /**
+   * Key of the shared rule cache.
+   */
+  private static class RuleCacheKey {
+    private final Sequence<IString> sourceSpan;
+    private final FeatureTemplate featureTemplate;
+    private final int hashCode;
+    public RuleCacheKey(Sequence<IString> sourceSpan, FeatureTemplate featureTemplate) {
+      this.sourceSpan = sourceSpan;
+      this.featureTemplate = featureTemplate;
+      this.hashCode = sourceSpan.hashCode() * 31 + featureTemplate.ordinal();
+    }
+    
+    @Override
+    public int hashCode() { return hashCode; }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      } else if ( ! (o instanceof RuleCacheKey)) {
+        return false;
+      } else {
+        RuleCacheKey other = (RuleCacheKey) o;
+        return featureTemplate == other.featureTemplate && sourceSpan.equals(other.sourceSpan);
+      }
+    }
+  }
+  
+  /**
+   * Value of the rule caches. Entries are only valid for the static index from which they
+   * were sampled and until an incremental update changes one of the counts from which they
+   * were extracted.
+   */
+  private static class CachedRules {
+    public final List<Rule<IString>> rules;
+    // Version of the index snapshot from which the rules were extracted
+    public final long version;
+    public final long staticVersion;
+    public final long[] countKeys;
+    public final int[] searchBounds;
+    public final boolean miss;
+    public final int weight;
+    public CachedRules(List<Rule<IString>> rules, IndexSnapshot index, int[] searchBounds, boolean miss,
+        LongSet countKeys) {
+      this.rules = rules;
+      this.version = index.version;
+      this.staticVersion = index.staticVersion;
+      this.countKeys = countKeys.toLongArray();
+      this.searchBounds = searchBounds;
+      this.miss = miss;
+      int w = 1;
+      for (Rule<IString> r : rules) w += 1 + r.target.size();
+      this.weight = w;
+    }
+  }
+  
   private static class QueryResult<FV> {
     public final int i;
     public final int j;
@@ -703,12 +1236,12 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public int getSourceLexCount(IString source) {
     int id = toTMId(source);
-    return id >= 0 ? coocTable.getSrcMarginal(id) : 0;
+    return id >= 0 ? index.getSrcMarginal(id) : 0;
   }
   
   public int getSourceUnalignedCount(IString source) {
     int id = toTMId(source);
-    return id >= 0 ? coocTable.getJointCount(id, LexCoocTable.NULL_ID) : 0;    
+    return id >= 0 ? index.getJointCount(id, LexCoocTable.NULL_ID) : 0;    
   }
   
   /**
@@ -718,12 +1251,12 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    */
   public int getTargetLexCount(IString target) {
     int id = toTMId(target);
-    return id >= 0 ? coocTable.getTgtMarginal(id) : 0;
+    return id >= 0 ? index.getTgtMarginal(id) : 0;
   }
   
   public int getTargetUnalignedCount(IString target) {
     int id = toTMId(target);
-    return id >= 0 ? coocTable.getJointCount(LexCoocTable.NULL_ID, id) : 0;    
+    return id >= 0 ? index.getJointCount(LexCoocTable.NULL_ID, id) : 0;    
   }
   
   /**
@@ -735,7 +1268,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
   public int getJointLexCount(IString source, IString target) {
     int srcId = toTMId(source);
     int tgtId = toTMId(target);
-    return srcId >= 0 && tgtId >= 0 ? coocTable.getJointCount(srcId, tgtId) : 0;
+    return srcId >= 0 && tgtId >= 0 ? index.getJointCount(srcId, tgtId) : 0;
   }
   
   /**
@@ -746,6 +1279,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * @return
    */
   private int toTMId(IString word) {
+    final int[] sys2TM = this.sys2TM;
     return word.id < sys2TM.length ? sys2TM[word.id] : Vocabulary.UNKNOWN_ID;
   }
   
@@ -788,10 +1322,12 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * @param order
    * @param sampleRate
    * @param sourceSpan
+   * @param index
+   * @param countKeys If not null, then add the keys of the counts from which the rules are scored.
    * @return
    */
   private List<Rule<IString>> samplesToRules(List<SentencePair> samples, final int order, 
-      double sampleRate, Sequence<IString> sourceSpan) {
+      double sampleRate, Sequence<IString> sourceSpan, IndexSnapshot index, LongSet countKeys) {
     // Extract rules from sentence pairs
     final List<SampledRule> rules = new ArrayList<>(2*samples.size());
     for (SentencePair sample : samples) rules.addAll(extractRules(sample, order, maxTargetPhrase));
@@ -831,7 +1367,8 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       // Note that the argmax alignment is chosen independent of the model.
       AlignmentTemplate maxAlignment = Counters.argmax(alTemps);
       SampledRule maxRule = maxAlignment.rule;
-      scoreLex(maxRule);
+      scoreLex(maxRule, index);
+      if (countKeys != null) addCountKeys(maxRule, countKeys);
       ruleList.add(maxRule);
       histogram[i] = (int) alTemps.totalCount();
     }
@@ -840,7 +1377,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     for (int r = 0, sz = ruleList.size(); r < sz; ++r) {
       final SampledRule rule = ruleList.get(r);
       float[] scores = new float[featureTemplate.getNumFeatures()];
-      int eCnt = sa.count(rule.tgt, false);
+      int eCnt = index.count(rule.tgt, false);
       assert eCnt > 0 : Arrays.toString(rule.tgt);
       int adjustedCount = (int) (histogram[r] / sampleRate);
       // Clip if the adjustedCount overshoots the number of occurrences of the target string in the
@@ -1007,24 +1544,25 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
    * co-occurrences.
    * 
    * @param rule
+   * @param index
    */
-  private void scoreLex(SampledRule rule) {
+  private static void scoreLex(SampledRule rule, IndexSnapshot index) {
     // Backward score p(f|e) -- Iterate over source
     double lex_f_e = 1.0;
     for (int i = rule.srcStartInclusive; i < rule.srcEndExclusive; ++i) {
       final int srcId = rule.sentencePair.source(i);
       double feSum = 0.0;
       if (rule.sentencePair.isSourceUnaligned(i)) {
-        int c_f_e = coocTable.getJointCount(srcId, LexCoocTable.NULL_ID);
-        int c_e = coocTable.getTgtMarginal(LexCoocTable.NULL_ID);
+        int c_f_e = index.getJointCount(srcId, LexCoocTable.NULL_ID);
+        int c_e = index.getTgtMarginal(LexCoocTable.NULL_ID);
         feSum = c_f_e / (double) c_e;
         
       } else {
         int[] tgtAlign = rule.sentencePair.f2e(i);
         for (int j : tgtAlign) {
           int tgtId = rule.sentencePair.target(j);
-          int c_f_e = coocTable.getJointCount(srcId, tgtId);
-          int c_e = coocTable.getTgtMarginal(tgtId);
+          int c_f_e = index.getJointCount(srcId, tgtId);
+          int c_e = index.getTgtMarginal(tgtId);
           feSum += (c_f_e / (double) c_e);
         }
         feSum /= (double) tgtAlign.length;
@@ -1040,16 +1578,16 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       final int tgtId = rule.sentencePair.target(i);
       double efSum = 0.0;
       if (rule.sentencePair.isTargetUnaligned(i)) {
-        int c_e_f = coocTable.getJointCount(LexCoocTable.NULL_ID, tgtId);
-        int c_f = coocTable.getSrcMarginal(LexCoocTable.NULL_ID);
+        int c_e_f = index.getJointCount(LexCoocTable.NULL_ID, tgtId);
+        int c_f = index.getSrcMarginal(LexCoocTable.NULL_ID);
         efSum = c_e_f / (double) c_f;
         
       } else {
         int[] srcAlign = rule.sentencePair.e2f(i);
         for (int j : srcAlign) {
           final int srcId = rule.sentencePair.source(j);
-          int c_e_f = coocTable.getJointCount(srcId, tgtId);
-          int c_f = coocTable.getSrcMarginal(srcId);
+          int c_e_f = index.getJointCount(srcId, tgtId);
+          int c_f = index.getSrcMarginal(srcId);
           efSum += (c_e_f / (double) c_f);
         }
         efSum /= (double) srcAlign.length;
@@ -1064,6 +1602,98 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     rule.lex_f_e = lex_f_e;
   }
 
+  /**
+   * An immutable view of the static index and the incremental updates. Queries read
+   * the snapshot once so that compaction replaces both parts atomically.
+   */
+  private static class IndexSnapshot {
+    public final ParallelSuffixArray sa;
+    public final LexCoocTable coocTable;
+    // null if there are no incremental updates
+    public final ParallelSuffixArray deltaSA;
+    public final LexCoocTable deltaCoocTable;
+    public final long version;
+    // Version of the first snapshot of the static index
+    public final long staticVersion;
+    // The version of the last update that changed each count. Shared by all snapshots of
+    // the static index.
+    public final Map<Long,Long> changedCounts;
+    // Rules for frequent source n-grams of the static index. null if disabled.
+    public final Map<Sequence<IString>,CachedRules> ruleCache;
+    
+    public IndexSnapshot(ParallelSuffixArray sa, LexCoocTable coocTable, ParallelSuffixArray deltaSA, 
+        LexCoocTable deltaCoocTable, long version, long staticVersion, Map<Long,Long> changedCounts,
+        Map<Sequence<IString>,CachedRules> ruleCache) {
+      this.sa = sa;
+      this.coocTable = coocTable;
+      this.deltaSA = deltaSA;
+      this.deltaCoocTable = deltaCoocTable;
+      this.version = version;
+      this.staticVersion = staticVersion;
+      this.changedCounts = changedCounts;
+      this.ruleCache = ruleCache;
+    }
+    
+    /**
+     * The static index without the incremental updates.
+     * 
+     * @return
+     */
+    public IndexSnapshot staticIndex() {
+      return deltaSA == null ? this : new IndexSnapshot(sa, coocTable, null, null, staticVersion, 
+          staticVersion, changedCounts, ruleCache);
+    }
+    
+    /**
+     * This snapshot with a different cache of frequent rules.
+     * 
+     * @param ruleCache
+     * @return
+     */
+    public IndexSnapshot withRuleCache(Map<Sequence<IString>,CachedRules> ruleCache) {
+      return new IndexSnapshot(sa, coocTable, deltaSA, deltaCoocTable, version, staticVersion, 
+          changedCounts, ruleCache);
+    }
+    
+    /**
+     * True if cached rules were extracted from this static index and no later update
+     * changed the counts from which they were extracted. The rules may include updates
+     * that are newer than this snapshot.
+     * 
+     * @param cached
+     * @return
+     */
+    public boolean isCurrent(CachedRules cached) {
+      if (cached.staticVersion != staticVersion) return false;
+      if (changedCounts.isEmpty()) return true;
+      for (long key : cached.countKeys) {
+        final Long changed = changedCounts.get(key);
+        if (changed != null && changed > cached.version) return false;
+      }
+      return true;
+    }
+    
+    public int count(int[] query, boolean isSource) {
+      int count = sa.count(query, isSource);
+      return deltaSA == null ? count : count + deltaSA.count(query, isSource);
+    }
+    
+    public int getSrcMarginal(int srcId) {
+      int count = coocTable.getSrcMarginal(srcId);
+      return deltaCoocTable == null ? count : count + deltaCoocTable.getSrcMarginal(srcId);
+    }
+    
+    public int getTgtMarginal(int tgtId) {
+      int count = coocTable.getTgtMarginal(tgtId);
+      return deltaCoocTable == null ? count : count + deltaCoocTable.getTgtMarginal(tgtId);
+    }
+    
+    public int getJointCount(int srcId, int tgtId) {
+      int count = coocTable.getJointCount(srcId, tgtId);
+      return deltaCoocTable == null ? count : count + deltaCoocTable.getJointCount(srcId, tgtId);
+    }
+  }
+  
   /**
    * A hash-based lexical co-occurrence table.
    * 
@@ -1090,6 +1720,29 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
       counts.defaultReturnValue(0);
     }
     
+    /**
+     * Copy constructor.
+     * 
+     * @param other
+     */
+    public LexCoocTable(LexCoocTable other) {
+      counts = new Long2IntOpenHashMap(other.counts);
+      counts.defaultReturnValue(0);
+    }
+    
+    /**
+     * Add the counts of another table.
+     * 
+     * @param other
+     * @return
+     */
+    public LexCoocTable addAll(LexCoocTable other) {
+      for (Long2IntMap.Entry entry : other.counts.long2IntEntrySet()) {
+        counts.put(entry.getLongKey(), counts.get(entry.getLongKey()) + entry.getIntValue());
+      }
+      return this;
+    }
+    
     /**
      * Add a word-word cooccurrence.
      * 
@@ -1288,6 +1941,7 @@ public class DynamicTranslationModel<FV> implements TranslationModel<IString,FV>
     System.out.printf("#rules: %d%n", numRules);
     System.out.printf("#segments: %d%n", sourceFile.size());
     System.out.printf("#sa queries: %d%n", numSAQueries);
+    System.out.printf("Rule cache: %s%n", tm.getRuleCacheStats());
     System.out.printf("Time/sa query: %.5fs%n", saTime);
   }
 }
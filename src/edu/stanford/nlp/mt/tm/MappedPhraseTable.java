@@ -0,0 +1,624 @@
+package edu.stanford.nlp.mt.tm;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.PhraseAlignment;
+import edu.stanford.nlp.mt.util.ProbingIntegerArrayIndex;
+import edu.stanford.nlp.mt.util.Quantizer;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.TimingUtils;
+import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
+import edu.stanford.nlp.mt.util.Vocabulary;
+import edu.stanford.nlp.mt.util.WordHash;
+import edu.stanford.nlp.util.StringUtils;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+
+/**
+ * A phrase table that is queried directly from a memory-mapped binary file. Loading is
+ * O(1), and processes that map the same file share its pages. Convert a text phrase table
+ * with the main method. Does *not* support gappy rules.
+ *
+ * Source phrases are keyed by 64-bit hashes of their words in a linear probing hash
+ * table. Each bucket points to the source phrase and its rules, which are stored
+ * contiguously with packed target phrases, alignment ids, and (optionally quantized)
+ * scores. Lookups compare the stored source phrase, so hash collisions cost a probe
+ * but never return the rules of another phrase. The layout is little-endian:
+ *
+ *   header
+ *   codebooks        -- (size float[size]) x numScores, if the scores are quantized
+ *   alignments       -- (byteLength utf8[byteLength]) x numAlignments, long[numAlignments]
+ *   vocabulary       -- (byteLength utf8[byteLength]) x vocabSize, long[vocabSize]
+ *   rules            -- (sourceLength int[sourceLength] firstRule numRules
+ *                        (alignment targetLength int[targetLength] scores) x numRules) x numSources
+ *   source table     -- (key position) x numBuckets; key 0 is empty
+ *
+ * Records never straddle a segment boundary.
+ *
+ * @param <FV>
+ */
+public class MappedPhraseTable<FV> extends AbstractPhraseGenerator<IString, FV>
+    implements PhraseTable<IString> {
+
+  private static final Logger logger = LogManager.getLogger(MappedPhraseTable.class);
+
+  private static final int MAGIC = 0x50505432;
+  private static final int HEADER_BYTES = 80;
+  private static final int BUCKET_BYTES = 16;
+  private static final double LOAD_FACTOR = 0.7;
+
+  // Mapped regions are limited to 2GB, so large files are mapped in segments.
+  private static final int SEGMENT_SHIFT = 30;
+  private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+  private final ByteBuffer[] segments;
+  private final int numScores;
+  private final int quantizationBits;
+  private final float[][] codebooks;
+  private final int numRules;
+  private final int longestSourcePhrase;
+  private final int longestTargetPhrase;
+  private final long tableOffset;
+  private final long tableMask;
+  private final long alignmentIndexOffset;
+  private final long vocabularyIndexOffset;
+  private final int minRuleIndex;
+  private final String[] scoreNames;
+  protected String name;
+
+  // Lazily populated mappings from file ids to system objects
+  private final int[] targetToSystemId;
+  private final PhraseAlignment[] alignments;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public MappedPhraseTable(String filename) throws IOException {
+    this(CompiledPhraseTable.DEFAULT_FEATURE_PREFIX, filename);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param featurePrefix
+   * @param filename A file created by {@link #build(String, String, int)}.
+   * @throws IOException
+   */
+  public MappedPhraseTable(String featurePrefix, String filename) throws IOException {
+    super(null);
+    TimeKeeper timer = TimingUtils.start();
+    File f = new File(filename);
+    name = String.format("%s:%s", this.getClass().getName(), f.getPath()).intern();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      segments = map(channel, MapMode.READ_ONLY, channel.size());
+    }
+    ByteBuffer header = segments.length > 0 ? segments[0] : null;
+    if (header == null || header.getInt(0) != MAGIC) {
+      throw new IOException("Not a memory-mapped phrase table: " + filename);
+    }
+    numScores = header.getInt(4);
+    quantizationBits = header.getInt(8);
+    longestSourcePhrase = header.getInt(12);
+    longestTargetPhrase = header.getInt(16);
+    numRules = header.getInt(20);
+    final int numAlignments = header.getInt(24);
+    final int vocabSize = header.getInt(28);
+    tableOffset = header.getLong(32);
+    tableMask = header.getLong(40) - 1;
+    final long codebookOffset = header.getLong(48);
+    alignmentIndexOffset = header.getLong(56);
+    vocabularyIndexOffset = header.getLong(64);
+
+    codebooks = new float[quantizationBits > 0 ? numScores : 0][];
+    long pos = codebookOffset;
+    for (int i = 0; i < codebooks.length; ++i) {
+      ByteBuffer segment = segment(pos);
+      int base = (int) (pos & SEGMENT_MASK);
+      codebooks[i] = new float[segment.getInt(base)];
+      for (int j = 0; j < codebooks[i].length; ++j) {
+        codebooks[i][j] = segment.getFloat(base + Integer.BYTES + j * Float.BYTES);
+      }
+      pos += Integer.BYTES + codebooks[i].length * Float.BYTES;
+    }
+    targetToSystemId = new int[vocabSize];
+    alignments = new PhraseAlignment[numAlignments];
+
+    minRuleIndex = CompiledPhraseTable.reserveRuleIds(numRules);
+    scoreNames = new String[numScores];
+    for (int i = 0; i < numScores; i++) {
+      scoreNames[i] = String.format("%s.%d", featurePrefix, i);
+    }
+    timer.mark("Load");
+    logger.info("Mapped phrase table {} (rules: {}): {}", filename, numRules, timer);
+  }
+
+  @Override
+  public List<Rule<IString>> query(Sequence<IString> sourceSequence) {
+    long pos = findSource(sourceSequence);
+    if (pos < 0) return null;
+    final ByteBuffer segment = segment(pos);
+    int p = (int) (pos & SEGMENT_MASK);
+    final int firstRule = segment.getInt(p);
+    final int count = segment.getInt(p + Integer.BYTES);
+    p += 2 * Integer.BYTES;
+    List<Rule<IString>> ruleList = new ArrayList<>(count);
+    for (int r = 0; r < count; ++r) {
+      final int alignmentId = segment.getInt(p);
+      final int targetLength = segment.getInt(p + Integer.BYTES);
+      p += 2 * Integer.BYTES;
+      int[] target = new int[targetLength];
+      for (int i = 0; i < targetLength; ++i, p += Integer.BYTES) {
+        target[i] = toSystemId(segment.getInt(p));
+      }
+      float[] scores = new float[numScores];
+      for (int i = 0; i < numScores; ++i) {
+        if (quantizationBits == 0) {
+          scores[i] = segment.getFloat(p);
+          p += Float.BYTES;
+        } else if (quantizationBits <= 8) {
+          scores[i] = codebooks[i][segment.get(p) & 0xff];
+          p += Byte.BYTES;
+        } else {
+          scores[i] = codebooks[i][segment.getChar(p)];
+          p += Character.BYTES;
+        }
+      }
+      ruleList.add(new Rule<IString>(minRuleIndex + firstRule + r, scores, scoreNames,
+          IStrings.toIStringSequence(target), sourceSequence, toAlignment(alignmentId), name));
+    }
+    return ruleList;
+  }
+
+  @Override
+  public int getId(Sequence<IString> sourceSequence, Sequence<IString> targetSequence) {
+    long pos = findSource(sourceSequence);
+    if (pos < 0) return -1;
+    final ByteBuffer segment = segment(pos);
+    int p = (int) (pos & SEGMENT_MASK);
+    final int firstRule = segment.getInt(p);
+    final int count = segment.getInt(p + Integer.BYTES);
+    p += 2 * Integer.BYTES;
+    final int scoreBytes = quantizationBits == 0 ? Float.BYTES : (quantizationBits <= 8 ? Byte.BYTES : Character.BYTES);
+    for (int r = 0; r < count; ++r) {
+      final int targetLength = segment.getInt(p + Integer.BYTES);
+      p += 2 * Integer.BYTES;
+      boolean match = targetLength == targetSequence.size();
+      for (int i = 0; match && i < targetLength; ++i) {
+        match = toSystemId(segment.getInt(p + i * Integer.BYTES)) == targetSequence.get(i).id;
+      }
+      if (match) return minRuleIndex + firstRule + r;
+      p += targetLength * Integer.BYTES + numScores * scoreBytes;
+    }
+    return -1;
+  }
+
+  /**
+   * Find the rules of a source phrase.
+   *
+   * @return The file position of the rules, or -1 if the source phrase is not in the table.
+   */
+  private long findSource(Sequence<IString> sourceSequence) {
+    final int length = sourceSequence.size();
+    if (length == 0 || length > longestSourcePhrase) return -1;
+    long[] hashes = new long[length];
+    for (int i = 0; i < length; ++i) hashes[i] = WordHash.hash(sourceSequence.get(i));
+    final long key = WordHash.hash(hashes, 0, length);
+    for (long bucket = key & tableMask; ; bucket = (bucket + 1) & tableMask) {
+      long pos = tableOffset + bucket * BUCKET_BYTES;
+      ByteBuffer segment = segment(pos);
+      long k = segment.getLong((int) (pos & SEGMENT_MASK));
+      if (k == 0) return -1;
+      if (k == key) {
+        long sourcePos = segment.getLong((int) (pos & SEGMENT_MASK) + Long.BYTES);
+        if (sourceEquals(sourcePos, sourceSequence)) {
+          return sourcePos + (length + 1) * Integer.BYTES;
+        }
+      }
+    }
+  }
+
+  /**
+   * True if the source phrase stored at pos is sourceSequence.
+   */
+  private boolean sourceEquals(long pos, Sequence<IString> sourceSequence) {
+    final ByteBuffer segment = segment(pos);
+    final int p = (int) (pos & SEGMENT_MASK);
+    final int length = segment.getInt(p);
+    if (length != sourceSequence.size()) return false;
+    for (int i = 0; i < length; ++i) {
+      if (toSystemId(segment.getInt(p + (i + 1) * Integer.BYTES)) != sourceSequence.get(i).id) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int toSystemId(int fileId) {
+    // Benign race: all threads compute the same id.
+    int id = targetToSystemId[fileId] - 1;
+    if (id < 0) {
+      id = Vocabulary.systemAdd(readString(vocabularyIndexOffset, fileId));
+      targetToSystemId[fileId] = id + 1;
+    }
+    return id;
+  }
+
+  private PhraseAlignment toAlignment(int alignmentId) {
+    if (alignmentId < 0) return null;
+    PhraseAlignment alignment = alignments[alignmentId];
+    if (alignment == null) {
+      alignment = PhraseAlignment.getPhraseAlignment(readString(alignmentIndexOffset, alignmentId));
+      alignments[alignmentId] = alignment;
+    }
+    return alignment;
+  }
+
+  private String readString(long indexOffset, int i) {
+    long indexPos = indexOffset + (long) i * Long.BYTES;
+    long pos = segment(indexPos).getLong((int) (indexPos & SEGMENT_MASK));
+    ByteBuffer segment = segment(pos);
+    int p = (int) (pos & SEGMENT_MASK);
+    byte[] bytes = new byte[segment.getInt(p)];
+    for (int j = 0; j < bytes.length; ++j) bytes[j] = segment.get(p + Integer.BYTES + j);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private ByteBuffer segment(long pos) {
+    return segments[(int) (pos >>> SEGMENT_SHIFT)];
+  }
+
+  private static ByteBuffer[] map(FileChannel channel, MapMode mode, long size) throws IOException {
+    int numSegments = (int) ((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+    ByteBuffer[] segments = new ByteBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      long start = (long) i << SEGMENT_SHIFT;
+      long length = Math.min(SEGMENT_MASK + 1, size - start);
+      segments[i] = channel.map(mode, start, length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+    return segments;
+  }
+
+  @Override
+  public int maxLengthSource() {
+    return longestSourcePhrase;
+  }
+
+  @Override
+  public int maxLengthTarget() {
+    return longestTargetPhrase;
+  }
+
+  @Override
+  public List<String> getFeatureNames() { return Arrays.asList(scoreNames); }
+
+  @Override
+  public int size() { return numRules; }
+
+  @Override
+  public int minRuleIndex() {
+    return minRuleIndex;
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public void setName(String name) { this.name = name; }
+
+  @Override
+  public String toString() {
+    return getName();
+  }
+
+  /**
+   * A rule in a phrase table that is being converted.
+   */
+  private static class BuilderRule {
+    final int[] target;
+    final float[] scores;
+    final int alignmentId;
+    BuilderRule(int[] target, float[] scores, int alignmentId) {
+      this.target = target;
+      this.scores = scores;
+      this.alignmentId = alignmentId;
+    }
+  }
+
+  /**
+   * Convert a text phrase table to the memory-mapped format.
+   *
+   * @param phraseTableFile
+   * @param outputFile
+   * @param quantizationBits Number of bits for each quantized score (2-16), or 0 to store floats.
+   * @throws IOException
+   */
+  public static void build(String phraseTableFile, String outputFile, int quantizationBits) throws IOException {
+    if (quantizationBits != 0 && (quantizationBits < Quantizer.MIN_BITS || quantizationBits > Quantizer.MAX_BITS)) {
+      throw new IllegalArgumentException("Invalid number of quantization bits: " + quantizationBits);
+    }
+    TimeKeeper timer = TimingUtils.start();
+
+    // Read the rules, grouped by source phrase in order of first occurrence
+    ProbingIntegerArrayIndex sourceIndex = new ProbingIntegerArrayIndex();
+    List<List<BuilderRule>> sourceToRules = new ArrayList<>();
+    LongArrayList sourceKeys = new LongArrayList();
+    Map<String,Integer> vocabulary = new HashMap<>();
+    List<String> words = new ArrayList<>();
+    Map<String,Integer> alignmentIndex = new HashMap<>();
+    List<String> alignmentList = new ArrayList<>();
+    int numScores = -1, numRules = 0, longestSource = 0, longestTarget = 0;
+    try (LineNumberReader reader = IOTools.getReaderFromFile(phraseTableFile)) {
+      for (String line; (line = reader.readLine()) != null;) {
+        List<List<String>> fields = StringUtils.splitFieldsFast(line, CompiledPhraseTable.FIELD_DELIM);
+        if (fields.size() != 5) {
+          throw new IOException(String.format("Phrase table line %d has %d fields: %s",
+              reader.getLineNumber(), fields.size(), line));
+        }
+        List<String> source = fields.get(0);
+        List<String> target = fields.get(1);
+        String targetConstellation = StringUtils.join(fields.get(3));
+        List<String> scoreList = fields.get(4);
+        if (numScores < 0) {
+          numScores = scoreList.size();
+        } else if (numScores != scoreList.size()) {
+          throw new IOException(String.format("Line %d has %d scores, but prior entries had %d",
+              reader.getLineNumber(), scoreList.size(), numScores));
+        }
+        int[] sourceIds = toFileIds(source, vocabulary, words);
+        int[] targetIds = toFileIds(target, vocabulary, words);
+        int alignmentId = -1;
+        if ( ! targetConstellation.equals("")) {
+          Integer id = alignmentIndex.get(targetConstellation);
+          if (id == null) {
+            id = alignmentList.size();
+            alignmentIndex.put(targetConstellation, id);
+            alignmentList.add(targetConstellation);
+          }
+          alignmentId = id;
+        }
+        final int sourceId = sourceIndex.indexOf(sourceIds, true);
+        if (sourceId == sourceToRules.size()) {
+          long[] hashes = new long[source.size()];
+          for (int i = 0; i < hashes.length; ++i) hashes[i] = WordHash.hash(source.get(i));
+          sourceKeys.add(WordHash.hash(hashes, 0, hashes.length));
+          sourceToRules.add(new ArrayList<>());
+        }
+        sourceToRules.get(sourceId)
+          .add(new BuilderRule(targetIds, IOTools.stringListToNumeric(scoreList), alignmentId));
+        ++numRules;
+        longestSource = Math.max(longestSource, source.size());
+        longestTarget = Math.max(longestTarget, target.size());
+      }
+    }
+    numScores = Math.max(0, numScores);
+    timer.mark("Read");
+
+    // Quantize each score column separately
+    Quantizer[] quantizers = new Quantizer[quantizationBits > 0 ? numScores : 0];
+    for (int i = 0; i < quantizers.length; ++i) {
+      float[] column = new float[numRules];
+      int j = 0;
+      for (List<BuilderRule> rules : sourceToRules) {
+        for (BuilderRule rule : rules) column[j++] = rule.scores[i];
+      }
+      quantizers[i] = new Quantizer(column, quantizationBits);
+    }
+    final int scoreBytes = quantizationBits == 0 ? Float.BYTES : (quantizationBits <= 8 ? Byte.BYTES : Character.BYTES);
+
+    long numBuckets = 1;
+    while (numBuckets * LOAD_FACTOR < sourceToRules.size() + 1) numBuckets <<= 1;
+    long[] keys = sourceKeys.toLongArray();
+    long[] positions = new long[sourceToRules.size()];
+    long tableOffset;
+    try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      RecordWriter writer = new RecordWriter(channel, HEADER_BYTES);
+      final long codebookOffset = writer.position;
+      for (Quantizer quantizer : quantizers) {
+        float[] codebook = quantizer.codebook();
+        writer.record(Integer.BYTES + codebook.length * Float.BYTES);
+        writer.putInt(codebook.length);
+        for (float v : codebook) writer.putFloat(v);
+      }
+      final long alignmentIndexOffset = writer.writeStrings(alignmentList);
+      final long vocabularyIndexOffset = writer.writeStrings(words);
+      timer.mark("Vocabulary");
+
+      int firstRule = 0;
+      for (int s = 0; s < sourceToRules.size(); ++s) {
+        List<BuilderRule> rules = sourceToRules.get(s);
+        int[] source = sourceIndex.get(s);
+        long size = (source.length + 3) * Integer.BYTES;
+        for (BuilderRule rule : rules) {
+          size += 2 * Integer.BYTES + rule.target.length * Integer.BYTES + numScores * scoreBytes;
+        }
+        positions[s] = writer.record(size);
+        writer.putInt(source.length);
+        for (int id : source) writer.putInt(id);
+        writer.putInt(firstRule);
+        writer.putInt(rules.size());
+        for (BuilderRule rule : rules) {
+          writer.putInt(rule.alignmentId);
+          writer.putInt(rule.target.length);
+          for (int id : rule.target) writer.putInt(id);
+          for (int i = 0; i < numScores; ++i) {
+            if (quantizationBits == 0) writer.putFloat(rule.scores[i]);
+            else if (quantizationBits <= 8) writer.put((byte) quantizers[i].encode(rule.scores[i]));
+            else writer.putChar((char) quantizers[i].encode(rule.scores[i]));
+          }
+        }
+        firstRule += rules.size();
+      }
+      writer.align(BUCKET_BYTES);
+      tableOffset = writer.position;
+      writer.flush();
+      timer.mark("Rules");
+
+      // Header
+      ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+      header.putInt(MAGIC).putInt(numScores).putInt(quantizationBits).putInt(longestSource)
+        .putInt(longestTarget).putInt(numRules).putInt(alignmentList.size()).putInt(words.size())
+        .putLong(tableOffset).putLong(numBuckets).putLong(codebookOffset)
+        .putLong(alignmentIndexOffset).putLong(vocabularyIndexOffset);
+      header.rewind();
+      while (header.hasRemaining()) channel.write(header, header.position());
+    }
+
+    // Build the source table in place
+    long tableBytes = numBuckets * BUCKET_BYTES;
+    try (FileChannel channel = FileChannel.open(Paths.get(outputFile), StandardOpenOption.READ,
+        StandardOpenOption.WRITE)) {
+      ByteBuffer[] segments = new ByteBuffer[(int) ((tableBytes + SEGMENT_MASK) >>> SEGMENT_SHIFT)];
+      for (int i = 0; i < segments.length; ++i) {
+        long start = (long) i << SEGMENT_SHIFT;
+        segments[i] = channel.map(MapMode.READ_WRITE, tableOffset + start,
+            Math.min(SEGMENT_MASK + 1, tableBytes - start)).order(ByteOrder.LITTLE_ENDIAN);
+      }
+      final long mask = numBuckets - 1;
+      for (int s = 0; s < keys.length; ++s) {
+        for (long bucket = keys[s] & mask; ; bucket = (bucket + 1) & mask) {
+          long pos = bucket * BUCKET_BYTES;
+          ByteBuffer segment = segments[(int) (pos >>> SEGMENT_SHIFT)];
+          int p = (int) (pos & SEGMENT_MASK);
+          if (segment.getLong(p) == 0) {
+            segment.putLong(p, keys[s]);
+            segment.putLong(p + Long.BYTES, positions[s]);
+            break;
+          }
+        }
+      }
+      for (ByteBuffer segment : segments) ((MappedByteBuffer) segment).force();
+    }
+    timer.mark("Source table");
+    logger.info("Wrote memory-mapped phrase table to {} (rules: {} sources: {}): {}", outputFile,
+        numRules, keys.length, timer);
+  }
+
+  /**
+   * Map words to ids in the file vocabulary, adding new words.
+   */
+  private static int[] toFileIds(List<String> phrase, Map<String,Integer> vocabulary, List<String> words) {
+    int[] ids = new int[phrase.size()];
+    for (int i = 0; i < ids.length; ++i) {
+      String word = phrase.get(i);
+      Integer id = vocabulary.get(word);
+      if (id == null) {
+        id = words.size();
+        vocabulary.put(word, id);
+        words.add(word);
+      }
+      ids[i] = id;
+    }
+    return ids;
+  }
+
+  /**
+   * Sequential writer that moves records to the next segment rather than letting them
+   * straddle a segment boundary.
+   */
+  private static class RecordWriter {
+    private static final int WRITE_BUFFER_SIZE = 1 << 20;
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    long position;
+
+    RecordWriter(FileChannel channel, long position) throws IOException {
+      this.channel = channel;
+      this.position = position;
+      channel.position(position);
+    }
+
+    /**
+     * Start a record of numBytes.
+     *
+     * @return The file position of the record.
+     */
+    long record(long numBytes) throws IOException {
+      if (numBytes > SEGMENT_MASK + 1) throw new IOException("Record exceeds segment size: " + numBytes);
+      long remaining = SEGMENT_MASK + 1 - (position & SEGMENT_MASK);
+      if (numBytes > remaining) {
+        for (long i = 0; i < remaining; ++i) put((byte) 0);
+      }
+      return position;
+    }
+
+    void align(int numBytes) throws IOException {
+      while (position % numBytes != 0) put((byte) 0);
+    }
+
+    /**
+     * Write a list of strings followed by an index of their positions.
+     *
+     * @return The position of the index.
+     */
+    long writeStrings(List<String> strings) throws IOException {
+      long[] offsets = new long[strings.size()];
+      for (int i = 0; i < offsets.length; ++i) {
+        byte[] bytes = strings.get(i).getBytes(StandardCharsets.UTF_8);
+        offsets[i] = record(Integer.BYTES + bytes.length);
+        putInt(bytes.length);
+        for (byte b : bytes) put(b);
+      }
+      align(Long.BYTES);
+      long indexOffset = position;
+      for (long offset : offsets) putLong(offset);
+      return indexOffset;
+    }
+
+    void put(byte b) throws IOException { ensureCapacity(Byte.BYTES); buffer.put(b); position += Byte.BYTES; }
+    void putChar(char c) throws IOException { ensureCapacity(Character.BYTES); buffer.putChar(c); position += Character.BYTES; }
+    void putInt(int i) throws IOException { ensureCapacity(Integer.BYTES); buffer.putInt(i); position += Integer.BYTES; }
+    void putLong(long l) throws IOException { ensureCapacity(Long.BYTES); buffer.putLong(l); position += Long.BYTES; }
+    void putFloat(float f) throws IOException { ensureCapacity(Float.BYTES); buffer.putFloat(f); position += Float.BYTES; }
+
+    private void ensureCapacity(int numBytes) throws IOException {
+      if (buffer.remaining() < numBytes) flush();
+    }
+
+    void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+      buffer.clear();
+    }
+  }
+
+  /**
+   * Convert a text phrase table to the memory-mapped format.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2 || args.length > 3) {
+      System.err.printf("Usage: java %s phrase_table output_file [quantization_bits]%n",
+          MappedPhraseTable.class.getName());
+      System.exit(-1);
+    }
+    build(args[0], args[1], args.length == 3 ? Integer.parseInt(args[2]) : 0);
+  }
+}
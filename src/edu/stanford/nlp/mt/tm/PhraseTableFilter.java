@@ -0,0 +1,158 @@
+package edu.stanford.nlp.mt.tm;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+import it.unimi.dsi.fastutil.longs.LongSet;
+
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.WordHash;
+
+/**
+ * Selects the phrase table entries that can match an input. The filter works on
+ * raw phrase table lines, so rejected entries are never parsed or added to the
+ * system vocabulary.
+ *
+ * In sentence mode, input n-grams up to a maximum length are indexed. Longer source
+ * phrases are matched by scanning the input, so set the maximum length to the
+ * longest source phrase that is common in the phrase table.
+ */
+public class PhraseTableFilter {
+
+  /**
+   * SENTENCE: the source phrase must occur in an input sentence.
+   * DOCUMENT: each source word must occur in the input.
+   */
+  public static enum Mode { SENTENCE, DOCUMENT }
+
+  public static final int DEFAULT_MAX_NGRAM_LENGTH = 7;
+
+  private final Mode mode;
+  private final int maxNgramLength;
+  private final LongSet vocabulary = new LongOpenHashSet();
+  private final LongSet ngrams = new LongOpenHashSet();
+  private final List<long[]> sentences = new ArrayList<>();
+
+  /**
+   * Constructor.
+   *
+   * @param mode
+   */
+  public PhraseTableFilter(Mode mode) {
+    this(mode, DEFAULT_MAX_NGRAM_LENGTH);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param mode
+   * @param maxNgramLength The longest input n-gram to index in sentence mode.
+   */
+  public PhraseTableFilter(Mode mode, int maxNgramLength) {
+    if (maxNgramLength < 1) throw new IllegalArgumentException("Invalid n-gram length: " + maxNgramLength);
+    this.mode = mode;
+    this.maxNgramLength = maxNgramLength;
+  }
+
+  /**
+   * Add a whitespace-tokenized input sentence.
+   *
+   * @param sentence
+   */
+  public void addSentence(String sentence) {
+    String[] tokens = sentence.trim().split("\\s+");
+    if (tokens.length == 0 || tokens[0].length() == 0) return;
+    long[] hashes = new long[tokens.length];
+    for (int i = 0; i < tokens.length; ++i) {
+      hashes[i] = WordHash.hash(tokens[i]);
+      vocabulary.add(hashes[i]);
+    }
+    if (mode == Mode.SENTENCE) {
+      for (int i = 0; i < hashes.length; ++i) {
+        for (int j = i + 1, limit = Math.min(hashes.length, i + maxNgramLength); j <= limit; ++j) {
+          ngrams.add(WordHash.hash(hashes, i, j - i));
+        }
+      }
+      if (hashes.length > maxNgramLength) sentences.add(hashes);
+    }
+  }
+
+  /**
+   * Create a filter from a file with one whitespace-tokenized sentence per line.
+   *
+   * @param filename
+   * @param mode
+   * @return
+   * @throws IOException
+   */
+  public static PhraseTableFilter fromFile(String filename, Mode mode) throws IOException {
+    return fromFile(filename, mode, DEFAULT_MAX_NGRAM_LENGTH);
+  }
+
+  /**
+   * Create a filter from a file with one whitespace-tokenized sentence per line.
+   *
+   * @param filename
+   * @param mode
+   * @param maxNgramLength The longest input n-gram to index in sentence mode.
+   * @return
+   * @throws IOException
+   */
+  public static PhraseTableFilter fromFile(String filename, Mode mode, int maxNgramLength)
+      throws IOException {
+    PhraseTableFilter filter = new PhraseTableFilter(mode, maxNgramLength);
+    try (LineNumberReader reader = IOTools.getReaderFromFile(filename)) {
+      for (String line; (line = reader.readLine()) != null;) {
+        filter.addSentence(line);
+      }
+    }
+    return filter;
+  }
+
+  /**
+   * True if the source phrase line[0..end) can match the input.
+   *
+   * @param line
+   * @param end
+   * @return
+   */
+  public boolean accept(String line, int end) {
+    long[] hashes = new long[8];
+    int length = 0;
+    for (int i = 0; i < end;) {
+      while (i < end && Character.isWhitespace(line.charAt(i))) ++i;
+      if (i == end) break;
+      int start = i;
+      while (i < end && ! Character.isWhitespace(line.charAt(i))) ++i;
+      long hash = WordHash.hash(line.substring(start, i));
+      if ( ! vocabulary.contains(hash)) return false;
+      if (length == hashes.length) {
+        long[] newHashes = new long[2 * length];
+        System.arraycopy(hashes, 0, newHashes, 0, length);
+        hashes = newHashes;
+      }
+      hashes[length++] = hash;
+    }
+    if (length == 0) return false;
+    if (mode == Mode.DOCUMENT) return true;
+    return length <= maxNgramLength ? ngrams.contains(WordHash.hash(hashes, 0, length))
+        : containsLongPhrase(hashes, length);
+  }
+
+  /**
+   * True if an input sentence contains the phrase hashes[0..length).
+   */
+  private boolean containsLongPhrase(long[] hashes, int length) {
+    for (long[] sentence : sentences) {
+      for (int i = 0, limit = sentence.length - length; i <= limit; ++i) {
+        int j = 0;
+        while (j < length && sentence[i + j] == hashes[j]) ++j;
+        if (j == length) return true;
+      }
+    }
+    return false;
+  }
+}
@@ -22,10 +22,17 @@ public class TranslationModelFactory {
   public static final String DYNAMIC_FEATURE_TEMPLATE = "dyn-feat";
   public static final String DYNAMIC_PHRASE_LENGTH = "dyn-plen";
   public static final String DYNAMIC_REORDERING = "dyn-reorder";
+  public static final String DYNAMIC_QUERY_THREADS = "dyn-threads";
+  public static final String DYNAMIC_DIRECT_LENGTH = "dyn-direct";
+  public static final String DYNAMIC_RULE_CACHE_SIZE = "dyn-cache";
+  public static final String FILTER_INPUT = "filter";
+  public static final String FILTER_MODE = "filter-mode";
+  public static final String FILTER_PHRASE_LENGTH = "filter-plen";
   public static final String SEPARATOR = ":";
 
   public static final String DYNAMIC_TAG = "dyn:";
   public static final String DTU_TAG = "dtu:";
+  public static final String MAPPED_TAG = "mmap:";
 
   private static final Logger logger = LogManager.getLogger(TranslationModelFactory.class);
 
@@ -46,6 +53,12 @@ public class TranslationModelFactory {
     FeatureTemplate dynamicTemplate = FeatureTemplate.DENSE_EXT;
     int dynamicPhraseLength = DynamicTranslationModel.DEFAULT_MAX_PHRASE_LEN;
     boolean doReordering = false;
+    int dynamicQueryThreads = DynamicTranslationModel.DEFAULT_QUERY_THREADS;
+    int dynamicDirectLength = DynamicTranslationModel.DEFAULT_DIRECT_EXECUTION_LENGTH;
+    long dynamicRuleCacheSize = DynamicTranslationModel.DEFAULT_RULE_CACHE_SIZE;
+    String filterInput = null;
+    PhraseTableFilter.Mode filterMode = PhraseTableFilter.Mode.SENTENCE;
+    int filterPhraseLength = PhraseTableFilter.DEFAULT_MAX_NGRAM_LENGTH;
     for (final String option : options) {
       final String[] fields = option.split(SEPARATOR);
       final String key = fields[0];
@@ -62,11 +75,28 @@ public class TranslationModelFactory {
         dynamicPhraseLength = Integer.valueOf(value);
       } else if (key.equalsIgnoreCase(DYNAMIC_REORDERING)) {
         doReordering = true;
+      } else if (key.equals(DYNAMIC_QUERY_THREADS)) {
+        dynamicQueryThreads = Integer.valueOf(value);
+      } else if (key.equals(DYNAMIC_DIRECT_LENGTH)) {
+        dynamicDirectLength = Integer.valueOf(value);
+      } else if (key.equals(DYNAMIC_RULE_CACHE_SIZE)) {
+        dynamicRuleCacheSize = Long.valueOf(value);
+      } else if (key.equals(FILTER_INPUT)) {
+        filterInput = value;
+      } else if (key.equals(FILTER_MODE)) {
+        filterMode = PhraseTableFilter.Mode.valueOf(value.toUpperCase());
+      } else if (key.equals(FILTER_PHRASE_LENGTH)) {
+        filterPhraseLength = Integer.valueOf(value);
       } else {
         logger.warn("Unknown key/value pair: {}", option);
       }
     }
 
+    if (filterInput != null && (filename.startsWith(DTU_TAG) || filename.startsWith(DYNAMIC_TAG)
+        || filename.startsWith(MAPPED_TAG))) {
+      logger.warn("Ignoring {} option. Only text phrase tables can be filtered: {}", FILTER_INPUT, filename);
+    }
+
     TranslationModel<IString, FV> translationModel;
     if (filename.startsWith(DTU_TAG)) {
       final String file = filename.substring(DTU_TAG.length());
@@ -78,10 +108,24 @@ public class TranslationModelFactory {
       ((DynamicTranslationModel) translationModel).setSampleSize(dynamicSampleSize);
       ((DynamicTranslationModel) translationModel).setMaxSourcePhrase(dynamicPhraseLength);
       ((DynamicTranslationModel) translationModel).setMaxTargetPhrase(dynamicPhraseLength);
+      ((DynamicTranslationModel) translationModel).setQueryThreads(dynamicQueryThreads);
+      ((DynamicTranslationModel) translationModel).setDirectExecutionLength(dynamicDirectLength);
+      ((DynamicTranslationModel) translationModel).setRuleCacheSize(dynamicRuleCacheSize);
       ((DynamicTranslationModel) translationModel).createQueryCache(dynamicTemplate);
       if (doReordering)
         ((DynamicTranslationModel) translationModel).setReorderingScores();
 
+    } else if (filename.startsWith(MAPPED_TAG)) {
+      final String file = filename.substring(MAPPED_TAG.length());
+      translationModel = featurePrefix == null ? new MappedPhraseTable<FV>(file)
+          : new MappedPhraseTable<FV>(featurePrefix, file);
+
+    } else if (filterInput != null) {
+      PhraseTableFilter filter = PhraseTableFilter.fromFile(filterInput, filterMode, filterPhraseLength);
+      logger.info("Filtering phrase table to {} ({})", filterInput, filterMode);
+      translationModel = new CompiledPhraseTable<FV>(featurePrefix == null ? 
+          CompiledPhraseTable.DEFAULT_FEATURE_PREFIX : featurePrefix, filename, filter);
+
     } else {
       translationModel = featurePrefix == null ? new CompiledPhraseTable<FV>(filename)
           : new CompiledPhraseTable<FV>(featurePrefix, filename);
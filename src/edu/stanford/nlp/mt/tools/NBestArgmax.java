@@ -9,9 +9,9 @@ import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
 import edu.stanford.nlp.mt.metrics.ScorerWrapperEvaluationMetric;
 import edu.stanford.nlp.mt.tune.GreedyMultiTranslationMetricMax;
-import edu.stanford.nlp.mt.util.FlatNBestList;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.NBestListContainer;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 
@@ -44,7 +44,7 @@ public class NBestArgmax {
     String evalArg = args.length == 3 ? args[2] : null;
 
     Scorer<String> wts = new DenseScorer(wtsFilename);
-    FlatNBestList nbestlists = new FlatNBestList(nbestFilename);
+    NBestListContainer<IString, String> nbestlists = IOTools.openNBestLists(nbestFilename);
 
     EvaluationMetric<IString, String> eval = null;
 
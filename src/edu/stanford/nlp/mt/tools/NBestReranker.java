@@ -6,9 +6,9 @@ import java.util.List;
 
 import edu.stanford.nlp.mt.decoder.util.DenseScorer;
 import edu.stanford.nlp.mt.decoder.util.Scorer;
-import edu.stanford.nlp.mt.util.FlatNBestList;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.NBestListContainer;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 
 import edu.stanford.nlp.stats.Counter;
@@ -44,7 +44,7 @@ public class NBestReranker {
 			outputNew1BestFh = new BufferedWriter(new FileWriter(outputNew1BestFn));
 		}
     
-    FlatNBestList nbest = new FlatNBestList(nbestFn);
+    NBestListContainer<IString, String> nbest = IOTools.openNBestLists(nbestFn);
     Counter<String> weights = IOTools.readWeights(weightsFn);
     Scorer<String> scorer = new DenseScorer(weights);
     final String nl = System.getProperty("line.separator");
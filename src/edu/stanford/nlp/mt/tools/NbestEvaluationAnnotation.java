@@ -10,8 +10,9 @@ import java.util.List;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
 import edu.stanford.nlp.mt.metrics.MetricUtils;
-import edu.stanford.nlp.mt.util.FlatNBestList;
+import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.NBestListContainer;
 import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 
@@ -44,7 +45,7 @@ public class NbestEvaluationAnnotation {
       refFns[i] = args[i+3];
     }
     
-    FlatNBestList nbest = new FlatNBestList(nbestFn);
+    NBestListContainer<IString, String> nbest = IOTools.openNBestLists(nbestFn);
     
     List<List<Sequence<IString>>> refs= MetricUtils.readReferences(
         refFns);
@@ -180,7 +180,8 @@ public class DynamicTMBuilder {
     String nl = System.getProperty("line.separator");
     sb.append("Usage: java ").append(DynamicTMBuilder.class.getName()).append(" OPTS src target alignf2e [aligne2f]").append(nl);
     sb.append(nl).append(" Options:").append(nl)
-    .append("   -o file-name   : Output file name.").append(nl)
+    .append("   -o file-name   : Output file name. Use the extension ").append(ParallelSuffixArray.MAPPED_EXTENSION)
+    .append(" for the memory-mapped format.").append(nl)
     .append("   -s type        : Symmetrization type.").append(nl);
     return sb.toString();
   }
@@ -228,7 +229,11 @@ public class DynamicTMBuilder {
           
       // Serialize
       logger.info("Serializing to: " + outputFileName);
-      IOTools.serialize(outputFileName, tm);
+      if (ParallelSuffixArray.isMappedFile(outputFileName)) {
+        tm.getSuffixArray().writeMapped(outputFileName);
+      } else {
+        IOTools.serialize(outputFileName, tm);
+      }
       timer.mark("Serialization");
       
       logger.info("Timing summary: {}", timer);
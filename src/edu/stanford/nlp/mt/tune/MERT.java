@@ -1,7 +1,11 @@
 package edu.stanford.nlp.mt.tune;
 
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
 import java.io.*;
 import java.util.*;
+import java.util.stream.IntStream;
 
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
@@ -263,16 +267,81 @@ public class MERT extends Thread {
     return trans;
   }
 
-  static class InterceptIDs {
-    final int list;
-    final int trans;
+  /**
+   * The upper envelope of the scores of an n-best list along a search
+   * direction. Translation <code>translations[i]</code> has the highest score
+   * from <code>breakpoints[i]</code> to <code>breakpoints[i+1]</code>. The
+   * first breakpoint is negative infinity.
+   */
+  static class Envelope {
+    final double[] breakpoints;
+    final int[] translations;
 
-    InterceptIDs(int list, int trans) {
-      this.list = list;
-      this.trans = trans;
+    Envelope(double[] breakpoints, int[] translations) {
+      this.breakpoints = breakpoints;
+      this.translations = translations;
     }
   }
 
+  /**
+   * Compute the upper envelope of the lines <code>b + m*x</code> for an n-best
+   * list, where <code>b</code> is the score of each translation under the
+   * current weights and <code>m</code> is its score under the search
+   * direction.
+   * 
+   * @param nbestlist
+   * @param currentScorer
+   * @param slopScorer
+   * @return
+   */
+  static Envelope envelope(List<ScoredFeaturizedTranslation<IString, String>> nbestlist,
+      Scorer<String> currentScorer, Scorer<String> slopScorer) {
+    final int size = nbestlist.size();
+    final double[] m = new double[size];
+    final double[] b = new double[size];
+    for (int i = 0; i < size; ++i) {
+      ScoredFeaturizedTranslation<IString, String> trans = nbestlist.get(i);
+      m[i] = slopScorer.getIncrementalScore(trans.features);
+      b[i] = currentScorer.getIncrementalScore(trans.features);
+    }
+
+    // Sweep the lines by increasing slope. Of lines with equal slope, only the
+    // one with the highest intercept can be on the envelope.
+    int[] lines = new int[size];
+    for (int i = 0; i < size; ++i) lines[i] = i;
+    IntArrays.quickSort(lines, new AbstractIntComparator() {
+      @Override
+      public int compare(int i, int j) {
+        return m[i] != m[j] ? Double.compare(m[i], m[j]) :
+          b[i] != b[j] ? Double.compare(b[j], b[i]) : Integer.compare(i, j);
+      }
+    });
+    double[] breakpoints = new double[size];
+    int[] translations = new int[size];
+    int hullSize = 0;
+    for (int k = 0; k < size; ++k) {
+      final int i = lines[k];
+      if (k > 0 && m[i] == m[lines[k-1]]) continue;
+      double breakpoint = Double.NEGATIVE_INFINITY;
+      while (hullSize > 0) {
+        final int top = translations[hullSize-1];
+        breakpoint = (b[top] - b[i]) / (m[i] - m[top]);
+        if (breakpoint <= breakpoints[hullSize-1] + MIN_PLATEAU_DIFF) {
+          // The top line is never strictly highest
+          --hullSize;
+          breakpoint = Double.NEGATIVE_INFINITY;
+        } else {
+          break;
+        }
+      }
+      breakpoints[hullSize] = breakpoint;
+      translations[hullSize] = i;
+      ++hullSize;
+    }
+    return new Envelope(Arrays.copyOf(breakpoints, hullSize), 
+        Arrays.copyOf(translations, hullSize));
+  }
+
   public Counter<String> lineSearch(FlatNBestList nbest,
       Counter<String> optWts, Counter<String> direction,
       EvaluationMetric<IString, String> emetric) {
@@ -283,111 +352,87 @@ public class MERT extends Thread {
       initialWts.addAll(fixedWts);
     }
 
-    Scorer<String> currentScorer = new DenseScorer(initialWts, featureIndex);
-    Scorer<String> slopScorer = new DenseScorer(direction, featureIndex);
-    ArrayList<Double> intercepts = new ArrayList<Double>();
-    Map<Double, Set<InterceptIDs>> interceptToIDs = new HashMap<Double, Set<InterceptIDs>>();
-
-    {
-      int lI = -1;
-      for (List<ScoredFeaturizedTranslation<IString, String>> nbestlist : nbest
-          .nbestLists()) {
-        lI++;
-        // calculate slops/intercepts
-        double[] m = new double[nbestlist.size()];
-        double[] b = new double[nbestlist.size()];
-        {
-          int tI = -1;
-          for (ScoredFeaturizedTranslation<IString, String> trans : nbestlist) {
-            tI++;
-            m[tI] = slopScorer.getIncrementalScore(trans.features);
-            b[tI] = currentScorer.getIncrementalScore(trans.features);
-          }
-        }
-
-        // find -inf*dir candidate
-        int firstBest = 0;
-        for (int i = 1; i < m.length; i++) {
-          if (m[i] < m[firstBest]
-              || (m[i] == m[firstBest] && b[i] > b[firstBest])) {
-            firstBest = i;
-          }
-        }
-
-        Set<InterceptIDs> niS = interceptToIDs.get(Double.NEGATIVE_INFINITY);
-        if (niS == null) {
-          niS = new HashSet<InterceptIDs>();
-          interceptToIDs.put(Double.NEGATIVE_INFINITY, niS);
-        }
-
-        niS.add(new InterceptIDs(lI, firstBest));
-
-        // find & save all intercepts
-        double interceptLimit = Double.NEGATIVE_INFINITY;
-        for (int currentBest = firstBest; currentBest != -1;) {
-          // find next intersection
-          double nearestIntercept = Double.POSITIVE_INFINITY;
-          int nextBest = -1;
-          for (int i = 0; i < m.length; i++) {
-            double intercept = (b[currentBest] - b[i])
-                / (m[i] - m[currentBest]); // wow just like middle school
-            if (intercept <= interceptLimit + MIN_PLATEAU_DIFF)
-              continue;
-            if (intercept < nearestIntercept) {
-              nextBest = i;
-              nearestIntercept = intercept;
-            }
-          }
-          if (nearestIntercept == Double.POSITIVE_INFINITY)
-            break;
-          if (DEBUG) {
-            System.out.printf("Nearest intercept: %e Limit: %e\n",
-                nearestIntercept, interceptLimit);
-          }
-          intercepts.add(nearestIntercept);
-          interceptLimit = nearestIntercept;
-          Set<InterceptIDs> s = interceptToIDs.get(nearestIntercept);
-          if (s == null) {
-            s = new HashSet<InterceptIDs>();
-            interceptToIDs.put(nearestIntercept, s);
-          }
-          s.add(new InterceptIDs(lI, nextBest));
-          currentBest = nextBest;
-        }
+    final Scorer<String> currentScorer = new DenseScorer(initialWts, featureIndex);
+    final Scorer<String> slopScorer = new DenseScorer(direction, featureIndex);
+    final List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists = nbest.nbestLists();
+
+    // Compute the envelopes in parallel
+    Envelope[] envelopes = IntStream.range(0, nbestLists.size()).parallel()
+        .mapToObj(i -> envelope(nbestLists.get(i), currentScorer, slopScorer))
+        .toArray(Envelope[]::new);
+
+    // Merge the breakpoints
+    int numPoints = 0;
+    for (Envelope envelope : envelopes) numPoints += envelope.breakpoints.length;
+    final double[] points = new double[numPoints];
+    final int[] pointLists = new int[numPoints];
+    final int[] pointTrans = new int[numPoints];
+    for (int lI = 0, pos = 0; lI < envelopes.length; ++lI) {
+      Envelope envelope = envelopes[lI];
+      final int length = envelope.breakpoints.length;
+      System.arraycopy(envelope.breakpoints, 0, points, pos, length);
+      System.arraycopy(envelope.translations, 0, pointTrans, pos, length);
+      Arrays.fill(pointLists, pos, pos + length, lI);
+      pos += length;
+    }
+    int[] order = new int[numPoints];
+    for (int i = 0; i < numPoints; ++i) order[i] = i;
+    IntArrays.parallelQuickSort(order, new AbstractIntComparator() {
+      @Override
+      public int compare(int i, int j) {
+        return Double.compare(points[i], points[j]);
       }
+    });
+
+    // Intercepts in sorted order, after the initial envelope at -inf
+    int numInitial = 0;
+    while (numInitial < numPoints && points[order[numInitial]] == Double.NEGATIVE_INFINITY) {
+      ++numInitial;
     }
+    final int numIntercepts = numPoints - numInitial + 1;
 
     // check eval score at each intercept;
     double bestEval = Double.NEGATIVE_INFINITY;
     // Counter<String> bestWts = initialWts;
-    if (intercepts.isEmpty())
+    if (numIntercepts < 2)
       return initialWts;
-    intercepts.add(Double.NEGATIVE_INFINITY);
-    Collections.sort(intercepts);
+    double[] intercepts = new double[numIntercepts];
+    intercepts[0] = Double.NEGATIVE_INFINITY;
+    for (int i = 1; i < numIntercepts; ++i) {
+      intercepts[i] = points[order[numInitial + i - 1]];
+    }
     resetQuickEval(emetric, nbest);
-    System.out.printf("Checking %d points", intercepts.size() - 1);
+    System.out.printf("Checking %d points", numIntercepts - 1);
 
-    double[] evals = new double[intercepts.size()];
-    double[] chkpts = new double[intercepts.size()];
+    double[] evals = new double[numIntercepts];
+    double[] chkpts = new double[numIntercepts];
 
-    for (int i = 0; i < intercepts.size(); i++) {
+    for (int i = 0, start = 0; i < numIntercepts; i++) {
       double chkpt;
       if (i == 0) {
-        chkpt = intercepts.get(i + 1) - 1.0;
-      } else if (i + 1 == intercepts.size()) {
-        chkpt = intercepts.get(i) + 1.0;
+        chkpt = intercepts[i + 1] - 1.0;
+      } else if (i + 1 == numIntercepts) {
+        chkpt = intercepts[i] + 1.0;
       } else {
-        if (intercepts.get(i) < 0 && intercepts.get(i + 1) > 0) {
+        if (intercepts[i] < 0 && intercepts[i + 1] > 0) {
           chkpt = 0;
         } else {
-          chkpt = (intercepts.get(i) + intercepts.get(i + 1)) / 2.0;
+          chkpt = (intercepts[i] + intercepts[i + 1]) / 2.0;
         }
       }
       if (DEBUG)
-        System.out.printf("intercept: %f, chkpt: %f\n", intercepts.get(i),
+        System.out.printf("intercept: %f, chkpt: %f\n", intercepts[i],
             chkpt);
-      double eval = quickEvalAtPoint(nbest,
-          interceptToIDs.get(intercepts.get(i)));
+      double eval;
+      if (i > 0 && intercepts[i] == intercepts[i - 1]) {
+        // Breakpoints at the same intercept were all applied at the first one
+        eval = evals[i - 1];
+      } else {
+        int end = start;
+        while (end < numPoints && points[order[end]] == intercepts[i]) ++end;
+        eval = quickEvalAtPoint(nbest, order, start, end, pointLists, pointTrans);
+        start = end;
+      }
 
       chkpts[i] = chkpt;
       evals[i] = eval;
@@ -535,14 +580,21 @@ public class MERT extends Thread {
    *
    * Previously, profiling revealed that this was a serious hotspot
    *
+   * @param nbest
+   * @param order Breakpoints sorted by intercept
+   * @param start First breakpoint at this intercept
+   * @param end Last breakpoint at this intercept (exclusive)
+   * @param lists N-best list of each breakpoint
+   * @param trans Translation of each breakpoint
    */
-  private double quickEvalAtPoint(FlatNBestList nbest, Set<InterceptIDs> s) {
+  private double quickEvalAtPoint(FlatNBestList nbest, int[] order, int start, 
+      int end, int[] lists, int[] trans) {
     if (DEBUG)
-      System.out.printf("replacing %d points\n", s.size());
-    for (InterceptIDs iId : s) {
-      ScoredFeaturizedTranslation<IString, String> trans = nbest.nbestLists()
-          .get(iId.list).get(iId.trans);
-      quickIncEval.replace(iId.list, trans);
+      System.out.printf("replacing %d points\n", end - start);
+    for (int i = start; i < end; ++i) {
+      final int point = order[i];
+      quickIncEval.replace(lists[point], 
+          nbest.nbestLists().get(lists[point]).get(trans[point]));
     }
     return quickIncEval.score();
   }
@@ -59,7 +59,8 @@ public interface OnlineOptimizer<TK,FV> {
    * Return a new updater object, which defines the online update rule. The updater
    * should configure the gain schedule, if any.
    * 
+   * @param batchSize The number of inputs in each mini-batch.
    * @return
    */
-  public OnlineUpdateRule<FV> newUpdater();
+  public OnlineUpdateRule<FV> newUpdater(int batchSize);
 }
@@ -18,6 +18,7 @@ import java.util.TreeMap;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 
 import org.apache.logging.log4j.LogManager;
@@ -28,6 +29,7 @@ import edu.stanford.nlp.mt.Phrasal;
 import edu.stanford.nlp.mt.decoder.feat.FeatureUtils;
 import edu.stanford.nlp.mt.decoder.feat.base.NGramLanguageModelFeaturizer;
 import edu.stanford.nlp.mt.decoder.feat.base.WordPenaltyFeaturizer;
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
 import edu.stanford.nlp.mt.metrics.BLEUMetric;
 import edu.stanford.nlp.mt.metrics.CorpusLevelMetricFactory;
 import edu.stanford.nlp.mt.metrics.EvaluationMetric;
@@ -43,6 +45,7 @@ import edu.stanford.nlp.mt.train.SymmetricalWordAlignment;
 import edu.stanford.nlp.mt.train.WordAlignment;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule.UpdaterState;
 import edu.stanford.nlp.mt.tune.optimizers.OptimizerUtils;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.FeatureValue;
 import edu.stanford.nlp.mt.util.FlatNBestList;
 import edu.stanford.nlp.mt.util.IOTools;
@@ -114,6 +117,15 @@ public final class OnlineTuner {
   // sequetial optimization? i.e. no stale gradient!
   private boolean enforceStrictlySequential = false;
 
+  // Asynchronous (Hogwild) updates. Workers apply their gradients to the shared
+  // weight vector unless more than maxStaleness updates happened while decoding.
+  private boolean asynchronousUpdates = false;
+  private int maxStaleness;
+
+  // Weights for update rules over feature ids. Null for other update rules.
+  private volatile SharedWeightVector sharedWeights;
+  private SparseUpdateRule sparseUpdater;
+
   // Train a local translation model.
   private boolean localTMTraining;
   private String localTMoutFile = "";
@@ -122,7 +134,7 @@ public final class OnlineTuner {
   // minimum number of times we need to see a feature 
   // before learning a decoding model weight for it 
   private int minFeatureCount;
-  private final Map<String,Set<Integer>> clippedFeatureIndex = new HashMap<>();
+  private final Map<String,Set<Integer>> clippedFeatureIndex = new ConcurrentHashMap<>();
   
   // Pseudo-reference selection
   private boolean createPseudoReferences = false;
@@ -330,6 +342,17 @@ public final class OnlineTuner {
    * @param b
    */
   private void enforceStrictlySequential(boolean b) { this.enforceStrictlySequential = b; }
+
+  /**
+   * Apply gradients asynchronously in the decoding threads. Gradients computed
+   * from weights that are more than maxStaleness updates old are discarded.
+   * 
+   * @param maxStaleness
+   */
+  private void asynchronousUpdates(int maxStaleness) {
+    this.asynchronousUpdates = true;
+    this.maxStaleness = maxStaleness;
+  }
   
   /**
    * Output single best translation?
@@ -368,16 +391,11 @@ public final class OnlineTuner {
            features.add(f.name);
          }
        }
-       synchronized(clippedFeatureIndex) {
-         for (String fName : features) {
-           Set<Integer> ids = clippedFeatureIndex.get(fName);
-           if (ids == null) {
-             ids = new TreeSet<Integer>();
-             clippedFeatureIndex.put(fName, ids); 
-           }
-           if (ids.size() < minFeatureCount) {
-             ids.add(translationIds[i]);
-           } 
+       for (String fName : features) {
+         Set<Integer> ids = clippedFeatureIndex.computeIfAbsent(fName, 
+             k -> ConcurrentHashMap.newKeySet());
+         if (ids.size() < minFeatureCount) {
+           ids.add(translationIds[i]);
          } 
        }
      }
@@ -407,9 +425,7 @@ public final class OnlineTuner {
       this.translationIds = translationIds;
       this.references = references;
       this.inputId = inputId;
-      // Copy here for thread safety. DO NOT change this unless you know
-      // what you're doing....
-      this.weights = new ClassicCounter<String>(weights);
+      this.weights = weights;
       this.localTM = localTM;
       this.createForcedAlignment = createForcedAlignment;
       this.additionalPrefixDecoding = additionalPrefixDecoding;
@@ -423,17 +439,27 @@ public final class OnlineTuner {
    *
    */
   private static class ProcessorOutput {
+    // Either gradient or sparseGradient is set, depending on the update rule
     public final Counter<String> gradient;
+    public final SparseVector sparseGradient;
     public final int inputId;
     public final List<List<RichTranslation<IString, String>>> nbestLists;
     public final int[] translationIds;
     List<SymmetricalWordAlignment> wordAlignments;
     List<RichTranslation<IString, String>> prefixDecodingOutput;
-    public ProcessorOutput(Counter<String> gradient, 
+    // Number of updates between reading the weights and applying the gradient,
+    // or -1 if the gradient is applied by the main thread.
+    public final long staleness;
+    // True if the gradient was discarded
+    public final boolean discarded;
+    public ProcessorOutput(Counter<String> gradient, SparseVector sparseGradient,
         int inputId, 
         List<List<RichTranslation<IString, String>>> nbestLists, int[] translationIds, List<SymmetricalWordAlignment> wordAlignments,
-        List<RichTranslation<IString, String>> prefixDecodingOutput) {
+        List<RichTranslation<IString, String>> prefixDecodingOutput, long staleness, boolean discarded) {
       this.gradient = gradient;
+      this.sparseGradient = sparseGradient;
+      this.staleness = staleness;
+      this.discarded = discarded;
       this.inputId = inputId;
       this.nbestLists = nbestLists;
       this.translationIds = translationIds;
@@ -466,7 +492,12 @@ public final class OnlineTuner {
 
     @Override
     public ProcessorOutput process(ProcessorInput input) {
-      Objects.requireNonNull(input.weights);
+      final SharedWeightVector sharedWeights = asynchronousUpdates ? OnlineTuner.this.sharedWeights : null;
+      final long readVersion = sharedWeights == null ? 0 : sharedWeights.version();
+      // Asynchronous workers read the shared weights directly. Otherwise the weights of the
+      // batch are read-only while it decodes, so the decoder can share them.
+      final WeightSnapshot decoderWeights = sharedWeights == null ? 
+          new WeightSnapshot(input.weights, readVersion) : sharedWeights.view();
             
       final int batchSize = input.translationIds.length;
       List<List<RichTranslation<IString,String>>> nbestLists = new ArrayList<>(input.translationIds.length);
@@ -482,7 +513,7 @@ public final class OnlineTuner {
           new InputProperties(decoder.getInputProperties().get(sourceId)) :
           new InputProperties();
 
-        inputProperties.put(InputProperty.ModelWeights, input.weights);
+        inputProperties.put(InputProperty.ModelWeights, decoderWeights);
         if (input.localTM != null) inputProperties.put(InputProperty.ForegroundTM, input.localTM);
         List<Sequence<IString>> targets = null;
         if (prefixes != null) {
@@ -527,24 +558,59 @@ public final class OnlineTuner {
       }
 
       // Compute gradient
-      Counter<String> gradient = batchSize == 1 ?
-        optimizer.getGradient(input.weights, input.source.get(0), 
-            input.translationIds[0], nbestLists.get(0), input.references.get(0), 
-            referenceWeights, scoreMetric) :
+      Counter<String> gradient = null;
+      SparseVector sparseGradient = null;
+      if (sparseUpdater != null && optimizer instanceof SparseOnlineOptimizer) {
+        sparseGradient = ((SparseOnlineOptimizer) optimizer).getSparseBatchGradient(decoderWeights, 
+            input.source, input.translationIds, nbestLists, input.references, referenceWeights, scoreMetric);
+      
+      } else {
+        final Counter<String> weights = sharedWeights == null ? input.weights : sharedWeights.snapshot();
+        Objects.requireNonNull(weights);
+        gradient = batchSize == 1 ?
+          optimizer.getGradient(weights, input.source.get(0), 
+              input.translationIds[0], nbestLists.get(0), input.references.get(0), 
+              referenceWeights, scoreMetric) :
 
-        optimizer.getBatchGradient(input.weights, input.source, input.translationIds, 
-                nbestLists, input.references, referenceWeights, scoreMetric);
+          optimizer.getBatchGradient(weights, input.source, input.translationIds, 
+                  nbestLists, input.references, referenceWeights, scoreMetric);
+        if (sparseUpdater != null) {
+          sparseGradient = SparseVector.fromCounter(gradient);
+          gradient = null;
+        }
+      }
 
       if (minFeatureCount > 0) {
         updateFeatureCounts(input.translationIds, nbestLists);
-        Set<String> features = new TreeSet<String>(gradient.keySet());
-        for (String feature : features) {
-           if (!hasMinFeatureCount(feature)) {
-              gradient.remove(feature);
-           }
-        } 
+        if (sparseGradient != null) {
+          sparseGradient = sparseGradient.retain(id -> hasMinFeatureCount(FeatureRegistry.get(id)));
+        } else {
+          Set<String> features = new TreeSet<String>(gradient.keySet());
+          for (String feature : features) {
+             if (!hasMinFeatureCount(feature)) {
+                gradient.remove(feature);
+             }
+          } 
+        }
+      }
+
+      // Hogwild update
+      long staleness = -1;
+      boolean discarded = false;
+      if (sharedWeights != null) {
+        final long version = sharedWeights.version();
+        staleness = version - readVersion;
+        if (staleness > maxStaleness) {
+          discarded = true;
+        } else {
+          // The time step is the number of committed updates, which is the update step
+          // of the synchronous path. The full regularization runs at the end of the epoch.
+          sparseUpdater.update(sharedWeights, sparseGradient, (int) version, false);
+          sharedWeights.commit();
+        }
       }
-      return new ProcessorOutput(gradient, input.inputId, nbestLists, input.translationIds, wordAlignments, prefixDecodingResult);
+      return new ProcessorOutput(gradient, sparseGradient, input.inputId, nbestLists, input.translationIds, wordAlignments, 
+          prefixDecodingResult, staleness, discarded);
     }
 
     @Override
@@ -570,21 +636,38 @@ public final class OnlineTuner {
       final ProcessorOutput result = threadpool.poll();
       boolean isEndOfEpoch = endOfEpoch && ! threadpool.peek();
 
-      logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient.keySet().size());
+      logger.info("Update {} gradient cardinality: {}", updateStep, result.gradient == null ?
+          result.sparseGradient.size() : result.gradient.keySet().size());
       
-      // Update rule. 
-      updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      // Update rule. Asynchronous updates have already been applied by the workers.
+      if (asynchronousUpdates) {
+        if (result.discarded) {
+          logger.warn("Update {} discarded gradient from input step {} (staleness: {})",
+              updateStep, result.inputId, result.staleness);
+        } else {
+          logger.info("Update {} applied asynchronously (staleness: {})", updateStep, result.staleness);
+        }
+      } else if (sparseUpdater != null) {
+        sparseUpdater.update(sharedWeights, result.sparseGradient, updateStep, isEndOfEpoch);
+        sharedWeights.commit();
+      } else {
+        updater.update(currentWts, result.gradient, updateStep, isEndOfEpoch);
+      }
 
       // Debug info
       logger.info("Update {} with gradient from input step {} (diff: {})", 
           updateStep, result.inputId, result.inputId - updateStep);
-      logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, Counters.L2Norm(result.gradient));
-      logger.info("Update {} cardinality: {}", updateStep, currentWts.keySet().size());
+      logger.info("Update {} approximate L2 ||w'-w|| {}", updateStep, result.gradient == null ?
+          result.sparseGradient.l2Norm() : Counters.L2Norm(result.gradient));
+      if ( ! asynchronousUpdates) {
+        logger.info("Update {} cardinality: {}", updateStep, sharedWeights == null ?
+            currentWts.keySet().size() : sharedWeights.cardinality());
+      }
       ++updateStep;
 
       // Accumulate intermediate weights for parameter averaging
       if (doParameterAveraging) {
-        wtsAccumulator.addAll(currentWts);
+        wtsAccumulator.addAll(sharedWeights == null ? currentWts : sharedWeights.snapshot());
       }
       
       // Do something with the n-best lists before dumping them?
@@ -648,12 +731,20 @@ public final class OnlineTuner {
     final int tuneSetSize = tuneSource.size();
     final int[] indices = ArrayMath.range(0, tuneSetSize);
     final int numBatches = (int) Math.ceil((double) indices.length / (double) batchSize);
-    final OnlineUpdateRule<String> updater = optimizer.newUpdater();
+    final OnlineUpdateRule<String> updater = optimizer.newUpdater(batchSize);
     final UpdaterState initialState = OnlineTuner.loadUpdaterState(initialWtsFileName);
     if (initialState != null && ! discardInitialWeightState) {
       updater.setState(initialState);
       logger.info("Warm restart: loaded updater state for weights file: {}", initialWtsFileName);
     }
+    sparseUpdater = updater instanceof SparseUpdateRule ? (SparseUpdateRule) updater : null;
+    if (asynchronousUpdates) {
+      if (sparseUpdater == null || ! sparseUpdater.isThreadsafe()) {
+        throw new UnsupportedOperationException("Asynchronous updates require a threadsafe SparseUpdateRule: " 
+            + updater.getClass().getName());
+      }
+      logger.info("Asynchronous updates with maximum staleness: {}", maxStaleness);
+    }
     final Runtime runtime = Runtime.getRuntime();
 
     // Threadpool for decoders. Create one per epoch so that we can wait for all jobs
@@ -672,6 +763,7 @@ public final class OnlineTuner {
     for (int epoch = 0; epoch < numEpochs; ++epoch) {
       final long startTime = TimingUtils.startTime();
       logger.info("Start of epoch: {}", epoch);
+      if (sparseUpdater != null) sharedWeights = new SharedWeightVector(currentWts, updateId);
       
       // n-best lists. Purge for each epoch
       Map<Integer,Sequence<IString>> nbestLists = new HashMap<>(tuneSetSize);
@@ -694,7 +786,12 @@ public final class OnlineTuner {
         int inputId = (epoch*numBatches) + t;
         TranslationModel<IString,String> localTM  = localTMTraining && t > 0 ? getLocalTM(corpus) : null;
         
-        ProcessorInput input = makeInput(batch, inputId, currentWts, localTM);
+        // Copy the weights for thread safety. DO NOT change this unless you know
+        // what you're doing.... Snapshots of the shared weights are read-only, and
+        // asynchronous workers read the shared weights when they start decoding.
+        Counter<String> inputWeights = asynchronousUpdates ? null : sharedWeights == null ?
+            new ClassicCounter<String>(currentWts) : sharedWeights.snapshot();
+        ProcessorInput input = makeInput(batch, inputId, inputWeights, localTM);
         wrapper.put(input);
         logger.info("Threadpool.status: {}", wrapper);
         if(enforceStrictlySequential)
@@ -703,7 +800,7 @@ public final class OnlineTuner {
         
         if((t+1) % weightWriteOutInterval == 0) {
           String filename = String.format("%s.%d.%d%s", outputWeightPrefix, epoch, t, IOTools.WEIGHTS_FILE_EXTENSION);
-          IOTools.writeWeights(filename, currentWts);
+          IOTools.writeWeights(filename, sharedWeights == null ? currentWts : sharedWeights.toCounter());
         }
       }
       
@@ -711,6 +808,16 @@ public final class OnlineTuner {
       boolean isLastEpoch = epoch+1 == numEpochs;
       wrapper.join(isLastEpoch);
       updateId = update(currentWts, updateId, wrapper, updater, nbestLists, true, corpus, prefixDecodingOutputs);
+      if (sharedWeights != null) {
+        if (asynchronousUpdates) {
+          // Full regularization step at the time step of the last committed update
+          sparseUpdater.update(sharedWeights, SparseVector.empty(), 
+              (int) sharedWeights.version() - 1, true);
+          sharedWeights.commit();
+        }
+        currentWts = sharedWeights.toCounter();
+        sharedWeights = null;
+      }
       
       // Compute (averaged) intermediate weights for next epoch, and write to file.
       if (doParameterAveraging) {
@@ -1000,6 +1107,7 @@ public final class OnlineTuner {
     optionMap.put("localTM", 0);
     optionMap.put("localTMout", 1);
     optionMap.put("seq", 0);
+    optionMap.put("async", 1);
     //optionMap.put("faDistLimit", 1);    
     optionMap.put("niw", 1);    
     optionMap.put("sb", 0);
@@ -1039,6 +1147,7 @@ public final class OnlineTuner {
       .append("   -localTM   : Incrementally train a local translation model on the dev data. (default: false)").append(nl)
       .append("   -localTMout: Output file for local translation model. (default: none)").append(nl)
       .append("   -seq       : Enforce a strictly sequential optimization - this will make multi-threading pointless. (default: false)").append(nl)
+      .append("   -async num : Asynchronous (Hogwild) updates in the decoding threads. Discard gradients more than num updates stale. (default: disabled)").append(nl)
       //.append("   -faDistLimit : distortion limit for forced alignment in localTM training (default: 15)").append(nl)
       .append("   -niw       : normalize the initial weights file (default: false)").append(nl)
       .append("   -sb        : Specify for single best output. ").append(nl)
@@ -1081,6 +1190,7 @@ public final class OnlineTuner {
     String localTMoutFile = PropertiesUtils.getString(opts, "localTMout", "");
     //int faDistortionLimit = PropertiesUtils.getInt(opts, "faDistLimit", 15);
     boolean enforceStrictlySequential = PropertiesUtils.getBool(opts, "seq", false);
+    int maxStaleness = PropertiesUtils.getInt(opts, "async", -1);
     boolean normalizeInitialWeights = PropertiesUtils.getBool(opts, "niw", false);
     String prefixTuningFile = opts.getProperty("pt", null);
     String additionalInitialFeatureWeights = opts.getProperty("ifw", null);
@@ -1090,6 +1200,10 @@ public final class OnlineTuner {
       System.err.println("ERROR: Only one reference allowed for prefix tuning.");
       System.exit(-1);
     }
+    if (opts.containsKey("async") && (maxStaleness < 0 || enforceStrictlySequential)) {
+      System.err.println("ERROR: Asynchronous updates require a non-negative staleness bound and no -seq.");
+      System.exit(-1);
+    }
     
     // Parse arguments
     String[] parsedArgs = opts.getProperty("","").split("\\s+");
@@ -1125,6 +1239,7 @@ public final class OnlineTuner {
       tuner.outputSingleBest(outputSingleBest);
       tuner.outputPrefixDecoding(outputPrefixDecoding);
       tuner.enforceStrictlySequential(enforceStrictlySequential);
+      if (maxStaleness >= 0) tuner.asynchronousUpdates(maxStaleness);
       tuner.trainLocalTM(trainLocalTM, localTMoutFile);
       tuner.run(numEpochs, batchSize, slScoreMetric, clMetricString, weightWriteOutInterval);
 
@@ -0,0 +1,266 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.stats.Counters;
+
+/**
+ * A weight vector that many threads can read and update without locks, for
+ * Hogwild-style asynchronous tuning (Recht et al., 2011).
+ *
+ * Weights are indexed by <code>FeatureRegistry</code> id and stored as the bits of
+ * doubles in fixed-size shards of atomic arrays. Updates to a single weight are
+ * atomic, but updates to a vector of weights are not. Shards are allocated when a
+ * feature is first written, so sparse feature sets only pay for the ranges of ids
+ * that they use.
+ *
+ * The vector also has a version, which writers advance after each complete update.
+ * Readers use the version to measure the staleness of the weights that they read.
+ */
+public class SharedWeightVector {
+
+  private static final int SHARD_BITS = 12;
+  private static final int SHARD_SIZE = 1 << SHARD_BITS;
+  private static final int SHARD_MASK = SHARD_SIZE - 1;
+
+  private volatile AtomicLongArray[] shards = new AtomicLongArray[16];
+  private final AtomicLong version = new AtomicLong();
+
+  // Cached snapshot for the decoders
+  private volatile Snapshot snapshot;
+  private final View view = new View();
+
+  private static class Snapshot {
+    public final long version;
+    public final Counter<String> weights;
+    public Snapshot(long version, Counter<String> weights) {
+      this.version = version;
+      this.weights = weights;
+    }
+  }
+
+  /**
+   * Constructor for an empty weight vector.
+   */
+  public SharedWeightVector() {}
+
+  /**
+   * Constructor.
+   *
+   * @param weights Initial weights.
+   */
+  public SharedWeightVector(Counter<String> weights) {
+    this(weights, 0);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param weights Initial weights.
+   * @param version Initial version, e.g., the number of earlier updates.
+   */
+  public SharedWeightVector(Counter<String> weights, long version) {
+    this.version.set(version);
+    for (Map.Entry<String,Double> entry : weights.entrySet()) {
+      // Null keys are skipped by the decoder scorers as well
+      if (entry.getKey() == null) continue;
+      set(FeatureRegistry.add(entry.getKey()), entry.getValue());
+    }
+  }
+
+  /**
+   * Get the weight of a feature.
+   *
+   * @param id
+   * @return
+   */
+  public double get(int id) {
+    AtomicLongArray[] shards = this.shards;
+    final int s = id >>> SHARD_BITS;
+    AtomicLongArray shard = s < shards.length ? shards[s] : null;
+    return shard == null ? 0.0 : Double.longBitsToDouble(shard.get(id & SHARD_MASK));
+  }
+
+  /**
+   * Get the weight of a feature.
+   *
+   * @param feature
+   * @return
+   */
+  public double get(String feature) {
+    final int id = FeatureRegistry.indexOf(feature);
+    return id < 0 ? 0.0 : get(id);
+  }
+
+  /**
+   * Set the weight of a feature.
+   *
+   * @param id
+   * @param value
+   */
+  public void set(int id, double value) {
+    shard(id).set(id & SHARD_MASK, Double.doubleToRawLongBits(value));
+  }
+
+  /**
+   * Atomically add to the weight of a feature.
+   *
+   * @param id
+   * @param delta
+   * @return The new weight.
+   */
+  public double add(int id, double delta) {
+    AtomicLongArray shard = shard(id);
+    final int i = id & SHARD_MASK;
+    while (true) {
+      final long bits = shard.get(i);
+      final double value = Double.longBitsToDouble(bits) + delta;
+      if (shard.compareAndSet(i, bits, Double.doubleToRawLongBits(value))) {
+        return value;
+      }
+    }
+  }
+
+  /**
+   * Atomically add to the weight of a feature.
+   *
+   * @param feature
+   * @param delta
+   * @return The new weight.
+   */
+  public double add(String feature, double delta) {
+    return add(FeatureRegistry.add(feature), delta);
+  }
+
+  private AtomicLongArray shard(int id) {
+    final int s = id >>> SHARD_BITS;
+    AtomicLongArray[] shards = this.shards;
+    AtomicLongArray shard = s < shards.length ? shards[s] : null;
+    return shard == null ? newShard(s) : shard;
+  }
+
+  private synchronized AtomicLongArray newShard(int s) {
+    if (s < shards.length && shards[s] != null) return shards[s];
+    // Publish the new shard with a new directory
+    AtomicLongArray[] newShards = Arrays.copyOf(shards,
+        s < shards.length ? shards.length : Math.max(2 * shards.length, s + 1));
+    newShards[s] = new AtomicLongArray(SHARD_SIZE);
+    shards = newShards;
+    return newShards[s];
+  }
+
+  /**
+   * Mark the end of an update.
+   *
+   * @return The new version.
+   */
+  public long commit() {
+    return version.incrementAndGet();
+  }
+
+  /**
+   * The number of completed updates.
+   *
+   * @return
+   */
+  public long version() {
+    return version.get();
+  }
+
+  /**
+   * Copy the non-zero weights to a new counter.
+   *
+   * @return
+   */
+  public Counter<String> toCounter() {
+    AtomicLongArray[] shards = this.shards;
+    final int numFeatures = FeatureRegistry.size();
+    Counter<String> weights = new ClassicCounter<>();
+    for (int s = 0; s < shards.length && (s << SHARD_BITS) < numFeatures; ++s) {
+      if (shards[s] == null) continue;
+      for (int i = 0; i < SHARD_SIZE; ++i) {
+        final double value = Double.longBitsToDouble(shards[s].get(i));
+        if (value != 0.0) {
+          weights.setCount(FeatureRegistry.get((s << SHARD_BITS) + i), value);
+        }
+      }
+    }
+    return weights;
+  }
+
+  /**
+   * The number of non-zero weights.
+   *
+   * @return
+   */
+  public int cardinality() {
+    AtomicLongArray[] shards = this.shards;
+    int cardinality = 0;
+    for (AtomicLongArray shard : shards) {
+      if (shard == null) continue;
+      for (int i = 0; i < SHARD_SIZE; ++i) {
+        if (Double.longBitsToDouble(shard.get(i)) != 0.0) ++cardinality;
+      }
+    }
+    return cardinality;
+  }
+
+  /**
+   * A view of the weights for decoding. The view reads the shared weights
+   * directly, without a copy, so a decoder sees updates that are applied while
+   * it decodes.
+   *
+   * @return
+   */
+  public WeightSnapshot view() {
+    return view;
+  }
+
+  private class View extends WeightSnapshot {
+    @Override
+    public double getWeight(FeatureValue<String> feature) {
+      final int id = feature.getId();
+      // Weights are only written for registered features
+      return id < 0 ? 0.0 : get(id);
+    }
+
+    @Override
+    public double getWeight(int id) {
+      return get(id);
+    }
+
+    @Override
+    public Counter<String> getWeights() {
+      return Counters.unmodifiableCounter(toCounter());
+    }
+
+    @Override
+    public long version() {
+      return SharedWeightVector.this.version();
+    }
+  }
+
+  /**
+   * A read-only copy of the weights. The copy is shared by all readers until
+   * the next commit. Do not modify.
+   *
+   * @return
+   */
+  public Counter<String> snapshot() {
+    final long currentVersion = version.get();
+    Snapshot cached = snapshot;
+    if (cached == null || cached.version != currentVersion) {
+      cached = new Snapshot(currentVersion, toCounter());
+      snapshot = cached;
+    }
+    return cached.weights;
+  }
+}
@@ -0,0 +1,36 @@
+package edu.stanford.nlp.mt.tune;
+
+import java.util.List;
+
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
+import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * An online optimizer that computes gradients as sparse vectors over feature
+ * ids, for use with a <code>SparseUpdateRule</code>.
+ */
+public interface SparseOnlineOptimizer {
+
+  /**
+   * Compute the gradient for a mini-batch.
+   *
+   * @param weights The weights that the mini-batch was decoded with.
+   * @param sources
+   * @param sourceIds
+   * @param translations
+   * @param references
+   * @param referenceWeights
+   * @param scoreMetric
+   * @return
+   */
+  public SparseVector getSparseBatchGradient(WeightSnapshot weights,
+      List<Sequence<IString>> sources,
+      int[] sourceIds,
+      List<List<RichTranslation<IString, String>>> translations,
+      List<List<Sequence<IString>>> references,
+      double[] referenceWeights,
+      SentenceLevelMetric<IString, String> scoreMetric);
+}
@@ -0,0 +1,28 @@
+package edu.stanford.nlp.mt.tune;
+
+/**
+ * An online update rule over feature ids. The weights, the gradient and any
+ * per-feature state of the rule are primitive arrays, so updates do not hash
+ * feature names.
+ */
+public interface SparseUpdateRule {
+
+  /**
+   * Apply a gradient to the weight vector in place. The caller commits the update
+   * to the weight vector afterward.
+   * 
+   * @param weights
+   * @param gradient
+   * @param timeStep The number of updates committed to the weights.
+   * @param endOfEpoch
+   */
+  void update(SharedWeightVector weights, SparseVector gradient, int timeStep, boolean endOfEpoch);
+
+  /**
+   * True if update() may be called concurrently by many threads, as in
+   * asynchronous tuning.
+   * 
+   * @return
+   */
+  boolean isThreadsafe();
+}
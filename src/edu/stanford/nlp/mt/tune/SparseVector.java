@@ -0,0 +1,238 @@
+package edu.stanford.nlp.mt.tune;
+
+import it.unimi.dsi.fastutil.ints.Int2DoubleOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.IntPredicate;
+
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * An immutable sparse vector over <code>FeatureRegistry</code> ids, stored as
+ * parallel arrays of ids and values sorted by id. Used for gradients, so that
+ * the update rules do not hash feature names.
+ *
+ * Entries with zero values are kept. Some update rules, e.g., lazy regularization,
+ * treat a feature that appears in the gradient differently from one that does not.
+ */
+public class SparseVector {
+
+  private static final SparseVector EMPTY = new SparseVector(new int[0], new double[0]);
+
+  private final int[] ids;
+  private final double[] values;
+
+  private SparseVector(int[] ids, double[] values) {
+    this.ids = ids;
+    this.values = values;
+  }
+
+  /**
+   * The empty vector.
+   *
+   * @return
+   */
+  public static SparseVector empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Convert a counter to a sparse vector.
+   *
+   * @param counter
+   * @return
+   */
+  public static SparseVector fromCounter(Counter<String> counter) {
+    Builder builder = new Builder(counter.size());
+    for (Map.Entry<String,Double> entry : counter.entrySet()) {
+      if (entry.getKey() == null) continue;
+      builder.add(FeatureRegistry.add(entry.getKey()), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Convert feature values to a sparse vector. The values of repeated
+   * features are summed. Sparse vectors update weights, so the features
+   * are registered.
+   *
+   * @param features
+   * @return
+   */
+  public static SparseVector fromFeatures(Iterable<FeatureValue<String>> features) {
+    Builder builder = new Builder();
+    for (FeatureValue<String> feature : features) {
+      final int id = feature.getId();
+      builder.add(id >= 0 ? id : FeatureRegistry.add(feature.name), feature.value);
+    }
+    return builder.build();
+  }
+
+  /**
+   * The number of entries.
+   *
+   * @return
+   */
+  public int size() {
+    return ids.length;
+  }
+
+  /**
+   * The feature id of the i-th entry.
+   *
+   * @param i
+   * @return
+   */
+  public int id(int i) {
+    return ids[i];
+  }
+
+  /**
+   * The value of the i-th entry.
+   *
+   * @param i
+   * @return
+   */
+  public double value(int i) {
+    return values[i];
+  }
+
+  /**
+   * The value of a feature.
+   *
+   * @param id
+   * @return
+   */
+  public double get(int id) {
+    final int i = IntArrays.binarySearch(ids, id);
+    return i < 0 ? 0.0 : values[i];
+  }
+
+  /**
+   * The L2 norm.
+   *
+   * @return
+   */
+  public double l2Norm() {
+    double sum = 0.0;
+    for (double value : values) sum += value * value;
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Return the entries whose feature ids satisfy a predicate.
+   *
+   * @param keep
+   * @return
+   */
+  public SparseVector retain(IntPredicate keep) {
+    int size = 0;
+    int[] newIds = new int[ids.length];
+    double[] newValues = new double[ids.length];
+    for (int i = 0; i < ids.length; ++i) {
+      if (keep.test(ids[i])) {
+        newIds[size] = ids[i];
+        newValues[size++] = values[i];
+      }
+    }
+    if (size == ids.length) return this;
+    return new SparseVector(Arrays.copyOf(newIds, size), Arrays.copyOf(newValues, size));
+  }
+
+  /**
+   * Convert to a counter.
+   *
+   * @return
+   */
+  public Counter<String> toCounter() {
+    Counter<String> counter = new ClassicCounter<>(ids.length);
+    for (int i = 0; i < ids.length; ++i) {
+      counter.setCount(FeatureRegistry.get(ids[i]), values[i]);
+    }
+    return counter;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("{");
+    for (int i = 0; i < ids.length; ++i) {
+      if (i > 0) sb.append(", ");
+      sb.append(FeatureRegistry.get(ids[i])).append("=").append(values[i]);
+    }
+    return sb.append("}").toString();
+  }
+
+  /**
+   * Accumulates a sparse vector. Not threadsafe.
+   */
+  public static class Builder {
+    private final Int2DoubleOpenHashMap entries;
+
+    public Builder() {
+      this(16);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param expectedSize
+     */
+    public Builder(int expectedSize) {
+      entries = new Int2DoubleOpenHashMap(expectedSize);
+    }
+
+    /**
+     * Add to the value of a feature.
+     *
+     * @param id
+     * @param value
+     * @return
+     */
+    public Builder add(int id, double value) {
+      entries.addTo(id, value);
+      return this;
+    }
+
+    /**
+     * Add a scaled vector.
+     *
+     * @param vector
+     * @param scale
+     * @return
+     */
+    public Builder add(SparseVector vector, double scale) {
+      for (int i = 0; i < vector.ids.length; ++i) {
+        entries.addTo(vector.ids[i], scale * vector.values[i]);
+      }
+      return this;
+    }
+
+    /**
+     * The number of features added so far.
+     *
+     * @return
+     */
+    public int size() {
+      return entries.size();
+    }
+
+    /**
+     * Create the vector.
+     *
+     * @return
+     */
+    public SparseVector build() {
+      if (entries.isEmpty()) return EMPTY;
+      int[] ids = entries.keySet().toIntArray();
+      IntArrays.quickSort(ids);
+      double[] values = new double[ids.length];
+      for (int i = 0; i < ids.length; ++i) values[i] = entries.get(ids[i]);
+      return new SparseVector(ids, values);
+    }
+  }
+}
@@ -41,6 +41,7 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
   // Regularization fields
   private final double L1lambda;
   private boolean l2Regularization;
+  private final boolean lazyL2Regularization;
   private final String regconfig;
   private final String fixedFeaturesFile;
 
@@ -77,6 +78,8 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
     // L2 regularization
     this.l2Regularization = !Double.isInfinite(sigma);
     this.sigmaSq = l2Regularization ? sigma * sigma : 0.0;
+    // The updater applies L2 regularization
+    this.lazyL2Regularization = updaterType.equalsIgnoreCase("adagradl1l2f");
 
     this.fixedFeaturesFile = fixedFeaturesFile != null && fixedFeaturesFile.trim().length() == 0 ? null : fixedFeaturesFile;
     
@@ -85,7 +88,7 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
   }
 
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule<String> newUpdater(int batchSize) {
     if (this.updaterType.equalsIgnoreCase("adagrad")) {
       return new AdaGradUpdater(learningRate, expectedNumFeatures);
     }
@@ -132,6 +135,13 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
       return new AdaGradFastFOBOSUpdater(learningRate, expectedNumFeatures,
           L1lambda, customl1, fixedFeatures);
     }
+    if (this.updaterType.equalsIgnoreCase("adagradl1l2f")) {
+      // L2 strength of one mini-batch, as in getBatchGradient()
+      final double dataFraction = Math.min(batchSize, tuneSetSize) / (double) tuneSetSize;
+      final double L2lambda = l2Regularization ? dataFraction / (2*sigmaSq) : 0.0;
+      return new AdaGradFastFOBOSUpdater(learningRate, expectedNumFeatures,
+          L1lambda, L2lambda, customl1, fixedFeatures);
+    }
     return new SGDUpdater(learningRate);
   }
 
@@ -162,7 +172,7 @@ abstract public class AbstractOnlineOptimizer implements OnlineOptimizer<IString
     }
 
     // Add L2 regularization directly into the derivative
-    if (this.l2Regularization) {
+    if (this.l2Regularization && ! lazyL2Regularization) {
       final Set<String> features = new HashSet<String>(weights.keySet());
       features.addAll(weights.keySet());
       final double dataFraction = sourceIds.length /(double) tuneSetSize;
@@ -1,5 +1,6 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -7,21 +8,28 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.mt.tune.SparseUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseVector;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 
 /**
  * Fast AdaGrad update rule from Duchi et al. (2010).
  * 
- * Lazy updates for L1 regularization.
+ * Lazy updates for L1 regularization, and optionally for L2 regularization. The
+ * regularization of a feature that was not in the gradient for several updates is
+ * caught up in closed form when the feature is next updated.
  * 
  * Assumes a sparse gradient (i.e., no L2 regularization). REPEAT:
  * the gradient here should NOT include L2 regularization, or else there is no point.
+ * Use the L2 strength of this updater instead.
  *
  * @author Sida Wang
  *
  */
-public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
+public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String>, SparseUpdateRule {
 
   private static final Logger logger = LogManager.getLogger(AdaGradFastFOBOSUpdater.class.getName());
 
@@ -31,12 +39,21 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
   // magnification factor over the base learning rate
   private final double eps = 1e-3;
   private double L1lambda;
+  private double L2lambda;
   
   private Counter<String> sumGradSquare;
   private Counter<String> lastUpdated;
   private Counter<String> customL1;
   private Set<String> fixedFeatures;
 
+  // State for sparse updates, by feature id
+  private SharedWeightVector sparseGradSquare;
+  private SharedWeightVector sparseLastUpdated;
+
+  // L1 strength by feature id. NaN if the feature has not been looked up, and
+  // negative infinity if the feature is fixed.
+  private double[] l1ById = new double[0];
+
   // Fields needed for warm restarts
   private int timeStepOffset = 0;
   private int lastTimeStep = 0;
@@ -65,8 +82,24 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
    */
   public AdaGradFastFOBOSUpdater(double initialRate, int expectedNumFeatures, double L1lambda, 
       Counter<String> customL1, Set<String> fixedFeatures) {
+    this(initialRate, expectedNumFeatures, L1lambda, 0.0, customL1, fixedFeatures);
+  }
+
+  /**
+   * Constructor.
+   * 
+   * @param initialRate
+   * @param expectedNumFeatures
+   * @param L1lambda
+   * @param L2lambda L2 strength per update.
+   * @param customL1
+   * @param fixedFeatures
+   */
+  public AdaGradFastFOBOSUpdater(double initialRate, int expectedNumFeatures, double L1lambda, 
+      double L2lambda, Counter<String> customL1, Set<String> fixedFeatures) {
     this.rate = initialRate;
     this.L1lambda = L1lambda;
+    this.L2lambda = L2lambda;
     sumGradSquare = new ClassicCounter<>(expectedNumFeatures);
     lastUpdated = new ClassicCounter<>(expectedNumFeatures);
     this.customL1 = customL1;
@@ -92,17 +125,7 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
     // w_{t+1} := w_t - nu*g_t
     Set<String> featuresToRemove = new HashSet<String>();
     for (String feature : featuresToUpdate) {
-      
-      if(fixedFeatures != null && fixedFeatures.size() > 0) {
-        boolean fixed = false;
-        for (String prefix : fixedFeatures) {
-          if(feature.startsWith(prefix)) {
-            fixed = true;
-            break;
-          }
-        }
-        if(fixed) continue;
-      }
+      if (isFixed(feature)) continue;
       
       double gradf = gradient.getCount(feature);
       double prevrate = rate / (Math.sqrt(sumGradSquare.getCount(feature))+eps);     
@@ -113,7 +136,6 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
 
       double sgsValue = sumGradSquare.incrementCount(feature, gradf*gradf);
       double currentrate = rate / (Math.sqrt(sgsValue)+eps);
-      double testupdate = weights.getCount(feature) - (currentrate * gradient.getCount(feature));
       double lastUpdateTimeStep = lastUpdated.getCount(feature);
       double idleinterval = timeStep - lastUpdateTimeStep-1;
       lastUpdated.setCount(feature, (double)timeStep);
@@ -122,18 +144,11 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
       // TODO(spenceg): This is super-slow. Can we do this more quickly?
       // TODO(spenceg): DanC suggests standardizing feature names so that we just need to
       // split on some delimiter and then lookup features in a hash table
-      double l1 = this.L1lambda;
-      if(customL1 != null && customL1.size()>0)
-        for (String prefix : customL1.keySet()) {
-          if(feature.startsWith(prefix)) {
-            l1 = customL1.getCount(prefix);
-            break;
-          }
-        }
+      double l1 = l1Strength(feature);
 
       // Update this coordinate in the weight vector
-      double trunc = Math.max(0.0, (Math.abs(testupdate) - (currentrate + prevrate*idleinterval)*l1));
-      double realupdate = Math.signum(testupdate) * trunc;      
+      double realupdate = regularizedUpdate(weights.getCount(feature), gradf, currentrate, 
+          prevrate, idleinterval, l1);
       if (realupdate == 0.0) {
         featuresToRemove.add(feature);
       } else {
@@ -147,9 +162,142 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
       weights.remove(feature);
     }
   }
+
+  @Override
+  public void update(SharedWeightVector weights, SparseVector gradient, int timeStep,
+      boolean endOfEpoch) {
+    // Warm restart fields
+    timeStep += timeStepOffset;
+    lastTimeStep = timeStep;
+    if (sparseGradSquare == null) {
+      sparseGradSquare = new SharedWeightVector(sumGradSquare);
+      sparseLastUpdated = new SharedWeightVector(lastUpdated);
+    }
+
+    int numNullified = 0;
+    if (endOfEpoch) {
+      // Regularize all features with non-zero weights
+      int numFeatures = 0;
+      for (int id = 0, i = 0, sz = FeatureRegistry.size(); id < sz; ++id) {
+        final boolean inGradient = i < gradient.size() && gradient.id(i) == id;
+        final double gradf = inGradient ? gradient.value(i++) : 0.0;
+        // Asynchronous updates end the epoch with an empty gradient at the time step
+        // of the last update. Skip the features that the last update already regularized.
+        final boolean isCurrent = timeStep > 0 && sparseLastUpdated.get(id) == timeStep;
+        if (inGradient || (weights.get(id) != 0.0 && ! isCurrent)) {
+          ++numFeatures;
+          if (updateFeature(weights, id, gradf, timeStep)) ++numNullified;
+        }
+      }
+      logger.info("Full regularization step for {} features", numFeatures);
+
+    } else {
+      for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+        if (updateFeature(weights, gradient.id(i), gradient.value(i), timeStep)) ++numNullified;
+      }
+    }
+    logger.info("Nullified features: {}", numNullified);
+  }
+
+  /**
+   * Update one coordinate of the weight vector.
+   * 
+   * @return True if the weight is zero after the update.
+   */
+  private boolean updateFeature(SharedWeightVector weights, int id, double gradf, int timeStep) {
+    final double l1 = l1Strength(id);
+    if (l1 == Double.NEGATIVE_INFINITY) return false;
+
+    final double prevSgsValue = sparseGradSquare.get(id);
+    // Do not start decaying the weight of a feature until it has been seen
+    final double prevrate = prevSgsValue == 0.0 ? 0.0 : rate / (Math.sqrt(prevSgsValue)+eps);
+    final double sgsValue = sparseGradSquare.add(id, gradf*gradf);
+    final double currentrate = rate / (Math.sqrt(sgsValue)+eps);
+    final double idleinterval = timeStep - sparseLastUpdated.get(id) - 1;
+    sparseLastUpdated.set(id, timeStep);
+
+    final double realupdate = regularizedUpdate(weights.get(id), gradf, currentrate, prevrate, 
+        idleinterval, l1);
+    weights.set(id, realupdate);
+    return realupdate == 0.0;
+  }
+
+  /**
+   * Take the gradient step for one coordinate, apply the regularization for the
+   * current update, and catch up on the updates in which the feature was idle.
+   * 
+   * @param weight
+   * @param gradf
+   * @param currentrate
+   * @param prevrate The rate during the idle interval.
+   * @param idleinterval
+   * @param l1
+   * @return The new weight.
+   */
+  private double regularizedUpdate(double weight, double gradf, double currentrate, 
+      double prevrate, double idleinterval, double l1) {
+    if (L2lambda == 0.0) {
+      double testupdate = weight - (currentrate * gradf);
+      double trunc = Math.max(0.0, (Math.abs(testupdate) - (currentrate + prevrate*idleinterval)*l1));
+      return Math.signum(testupdate) * trunc;
+    }
+    // Each idle update computes |w| := (|w| - prevrate*l1) / (1 + prevrate*L2lambda) 
+    // until w reaches zero. Sum the geometric series.
+    if (idleinterval > 0.0 && prevrate > 0.0) {
+      final double decay = Math.pow(1.0 + prevrate*L2lambda, -idleinterval);
+      weight = Math.signum(weight) * Math.max(0.0, Math.abs(weight)*decay - l1*(1.0 - decay)/L2lambda);
+    }
+    double testupdate = weight - (currentrate * gradf);
+    double trunc = Math.max(0.0, Math.abs(testupdate) - currentrate*l1) / (1.0 + currentrate*L2lambda);
+    return Math.signum(testupdate) * trunc;
+  }
+
+  private boolean isFixed(String feature) {
+    if (fixedFeatures != null && fixedFeatures.size() > 0) {
+      for (String prefix : fixedFeatures) {
+        if (feature.startsWith(prefix)) return true;
+      }
+    }
+    return false;
+  }
+
+  private double l1Strength(String feature) {
+    if (customL1 != null && customL1.size() > 0) {
+      for (String prefix : customL1.keySet()) {
+        if (feature.startsWith(prefix)) return customL1.getCount(prefix);
+      }
+    }
+    return L1lambda;
+  }
+
+  /**
+   * Lookup the L1 strength of a feature by id. Fixed features have negative
+   * infinity.
+   */
+  private double l1Strength(int id) {
+    if (id >= l1ById.length) {
+      int oldLength = l1ById.length;
+      l1ById = Arrays.copyOf(l1ById, Math.max(id + 1, Math.max(FeatureRegistry.size(), 2 * oldLength)));
+      Arrays.fill(l1ById, oldLength, l1ById.length, Double.NaN);
+    }
+    if (Double.isNaN(l1ById[id])) {
+      final String feature = FeatureRegistry.get(id);
+      l1ById[id] = isFixed(feature) ? Double.NEGATIVE_INFINITY : l1Strength(feature);
+    }
+    return l1ById[id];
+  }
+
+  @Override
+  public boolean isThreadsafe() {
+    return false;
+  }
   
   @Override
   public UpdaterState getState() {
+    if (sparseGradSquare != null) {
+      return new AdaGradFastFOBOSState(sparseGradSquare.toCounter(), customL1, fixedFeatures, 
+          sparseLastUpdated.toCounter(), lastTimeStep);
+    }
     return new AdaGradFastFOBOSState(sumGradSquare, customL1, fixedFeatures, lastUpdated, lastTimeStep);
   }
 
@@ -162,6 +310,9 @@ public class AdaGradFastFOBOSUpdater implements OnlineUpdateRule<String> {
       fixedFeatures = adaGradState.fixedFeatures;
       lastUpdated = adaGradState.lastUp;
       timeStepOffset = adaGradState.timeStep + 1;
+      sparseGradSquare = null;
+      sparseLastUpdated = null;
+      l1ById = new double[0];
     }
   }
   
@@ -4,6 +4,10 @@ import java.util.HashSet;
 import java.util.Set;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.mt.tune.SparseUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseVector;
+import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
 
 /**
@@ -12,7 +16,7 @@ import edu.stanford.nlp.stats.Counter;
  * @author Sida Wang
  *
  */
-public class AdaGradUpdater implements OnlineUpdateRule<String> {
+public class AdaGradUpdater implements OnlineUpdateRule<String>, SparseUpdateRule {
 
   private final double rate;
 
@@ -21,9 +25,13 @@ public class AdaGradUpdater implements OnlineUpdateRule<String> {
   private final double eps = 1e-3;
   private Counter<String> sumGradSquare;
 
+  // Gradient history for sparse updates
+  private volatile SharedWeightVector sharedGradSquare;
+
   public AdaGradUpdater(double initialRate, int expectedNumFeatures) {
     this.rate = initialRate;
     //sumGradSquare = new OpenAddressCounter<String>(expectedNumFeatures, 1.0f);
+    sumGradSquare = new ClassicCounter<String>(expectedNumFeatures);
   }
 
   @Override
@@ -52,14 +60,46 @@ public class AdaGradUpdater implements OnlineUpdateRule<String> {
   }
 
   @Override
-  public UpdaterState getState() {
-    return new AdaGradState(sumGradSquare);
+  public void update(SharedWeightVector weights, SparseVector gradient, int timeStep,
+      boolean endOfEpoch) {
+    SharedWeightVector sumGradSquare = sharedGradSquare();
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      final int id = gradient.id(i);
+      final double gValue = gradient.value(i);
+      final double sgsValue = sumGradSquare.add(id, gValue*gValue);
+      weights.add(id, -rate * gValue/(Math.sqrt(sgsValue)+eps));
+    }
+  }
+
+  @Override
+  public boolean isThreadsafe() {
+    return true;
+  }
+
+  private SharedWeightVector sharedGradSquare() {
+    SharedWeightVector history = sharedGradSquare;
+    if (history == null) {
+      synchronized(this) {
+        if (sharedGradSquare == null) {
+          sharedGradSquare = new SharedWeightVector(sumGradSquare);
+        }
+        history = sharedGradSquare;
+      }
+    }
+    return history;
+  }
+
+  @Override
+  public synchronized UpdaterState getState() {
+    return new AdaGradState(sharedGradSquare == null ? sumGradSquare : 
+      sharedGradSquare.toCounter());
   }
 
   @Override
-  public void setState(UpdaterState state) {
+  public synchronized void setState(UpdaterState state) {
     if (state instanceof AdaGradState) {
       sumGradSquare = ((AdaGradState) state).gradHistory;
+      sharedGradSquare = null;
     }
   }
   
@@ -42,7 +42,7 @@ public class MIRA1BestHopeFearOptimizer implements OnlineOptimizer<IString,Strin
   }
   
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule<String> newUpdater(int batchSize) {
     return new MiraUpdater();
   }
 
@@ -1,6 +1,9 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.mt.tune.SparseUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseVector;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 
@@ -10,7 +13,7 @@ import edu.stanford.nlp.stats.Counters;
  * @author Spence Green
  *
  */
-public class MiraUpdater implements OnlineUpdateRule<String> {
+public class MiraUpdater implements OnlineUpdateRule<String>, SparseUpdateRule {
 
   @Override
   public void update(Counter<String> weights,
@@ -18,6 +21,19 @@ public class MiraUpdater implements OnlineUpdateRule<String> {
     Counters.addInPlace(weights, gradient);
   }
 
+  @Override
+  public void update(SharedWeightVector weights, SparseVector gradient, int timeStep,
+      boolean endOfEpoch) {
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      weights.add(gradient.id(i), gradient.value(i));
+    }
+  }
+
+  @Override
+  public boolean isThreadsafe() {
+    return true;
+  }
+
   @Override
   public UpdaterState getState() {
     return new UpdaterState() {
@@ -14,16 +14,19 @@ import java.util.concurrent.ThreadLocalRandom;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
 import edu.stanford.nlp.mt.metrics.SentenceLevelMetric;
 import edu.stanford.nlp.mt.tune.OnlineOptimizer;
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseOnlineOptimizer;
+import edu.stanford.nlp.mt.tune.SparseVector;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
 import edu.stanford.nlp.mt.util.IOTools;
 import edu.stanford.nlp.mt.util.IString;
 import edu.stanford.nlp.mt.util.RichTranslation;
 import edu.stanford.nlp.mt.util.Sequence;
 import edu.stanford.nlp.stats.ClassicCounter;
 import edu.stanford.nlp.stats.Counter;
-import edu.stanford.nlp.stats.Counters;
 import edu.stanford.nlp.util.Triple;
 
 /**
@@ -32,7 +35,7 @@ import edu.stanford.nlp.util.Triple;
  * @author Spence Green
  *
  */
-public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,String> {
+public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,String>, SparseOnlineOptimizer {
 
   private static final Logger logger = LogManager.getLogger(PairwiseRankingOptimizerSGD.class.getName());
   
@@ -67,6 +70,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   private final double L1lambda;
   private boolean l2Regularization;
   private final double sigmaSq;
+  private final boolean lazyL2Regularization;
   private final String regconfig;
   private final String fixedFeaturesFile;
 
@@ -146,6 +150,8 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     // L2 regularization
     this.l2Regularization = ! Double.isInfinite(sigma);
     this.sigmaSq = l2Regularization ? sigma*sigma : 0.0;
+    // The updater applies L2 regularization
+    this.lazyL2Regularization = updaterType.equalsIgnoreCase("adagradl1l2f");
   }
 
   /**
@@ -208,18 +214,17 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
       List<Triple<Double, Integer, Integer>> selectedV = v.subList(0, Math.min(xi, v.size()));
 
       // Add selectedV to RVFDataset
+      SparseVector[] featureVectors = new SparseVector[translations.size()];
       for (Triple<Double, Integer, Integer> selectedPair : selectedV) {
-        Counter<String> plusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.second()).features);
-        Counter<String> minusFeatures = OptimizerUtils.featureValueCollectionToCounter(
-            translations.get(selectedPair.third()).features);
-        Counter<String> gtVector = new ClassicCounter<String>(plusFeatures);
-        Counters.subtractInPlace(gtVector, minusFeatures);
+        SparseVector plusFeatures = featureVector(translations, featureVectors, selectedPair.second());
+        SparseVector minusFeatures = featureVector(translations, featureVectors, selectedPair.third());
+        SparseVector gtVector = new SparseVector.Builder(plusFeatures.size() + minusFeatures.size())
+            .add(plusFeatures, 1.0).add(minusFeatures, -1.0).build();
 
         dataset.add(new Datum(Label.POSITIVE, gtVector));
 
-        Counter<String> ltVector = new ClassicCounter<String>(minusFeatures);
-        Counters.subtractInPlace(ltVector, plusFeatures);
+        SparseVector ltVector = new SparseVector.Builder(plusFeatures.size() + minusFeatures.size())
+            .add(minusFeatures, 1.0).add(plusFeatures, -1.0).build();
 
         dataset.add(new Datum(Label.NEGATIVE, ltVector));
       }
@@ -227,6 +232,17 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     return dataset;
   }
 
+  /**
+   * Lookup the feature vector of a translation, and cache it for other samples.
+   */
+  private static SparseVector featureVector(List<RichTranslation<IString, String>> translations,
+      SparseVector[] featureVectors, int i) {
+    if (featureVectors[i] == null) {
+      featureVectors[i] = SparseVector.fromFeatures(translations.get(i).features);
+    }
+    return featureVectors[i];
+  }
+
   /**
    * Sampling algorithm of Hopkins and May (2011).
    * 
@@ -282,7 +298,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
 
     // Sample from the n-best list
     List<Datum> dataset = sampleNbestList(sourceId, source, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, 1);
+    SparseVector gradient = computeGradient(dataset, new WeightSnapshot(weights, 0));
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for sourceId: {}", sourceId);
     }
@@ -292,7 +308,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
        displayGradient(gradient);
     }
  
-    return gradient;
+    return gradient.toCounter();
   }
 
   /**
@@ -304,6 +320,19 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
       List<List<RichTranslation<IString, String>>> translations,
       List<List<Sequence<IString>>> references,
       double[] referenceWeights, SentenceLevelMetric<IString, String> scoreMetric) {
+    return getSparseBatchGradient(new WeightSnapshot(weights, 0), sources, sourceIds, translations, 
+        references, referenceWeights, scoreMetric).toCounter();
+  }
+
+  /**
+   * Mini-batch learning.
+   */
+  @Override
+  public SparseVector getSparseBatchGradient(WeightSnapshot weights,
+      List<Sequence<IString>> sources, int[] sourceIds,
+      List<List<RichTranslation<IString, String>>> translations,
+      List<List<Sequence<IString>>> references,
+      double[] referenceWeights, SentenceLevelMetric<IString, String> scoreMetric) {
     // TODO(spenceg): Sanity checking. For public methods, replace with exceptions.
     assert weights != null;
     assert sourceIds != null;
@@ -312,7 +341,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     assert scoreMetric != null;
 
     List<Datum> dataset = sampleNbestLists(sourceIds, sources, scoreMetric, translations, references);
-    Counter<String> gradient = computeGradient(dataset, weights, sourceIds.length);
+    SparseVector gradient = computeGradient(dataset, weights);
     if (dataset.isEmpty()) {
       logger.warn("Null gradient for mini-batch: {}", Arrays.toString(sourceIds));
     }
@@ -330,7 +359,7 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
     return gradient;
   }
 
-  private void displayGradient(Counter<String> gradient) {
+  private void displayGradient(SparseVector gradient) {
      System.err.printf("Gradient: ");
      System.err.println(gradient);
   }
@@ -338,15 +367,14 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
   /**
    * Compute the gradient for the specified set of PRO samples.
    */
-  private Counter<String> computeGradient(List<Datum> dataset, Counter<String> weights,
-      int batchSize) {
+  private SparseVector computeGradient(List<Datum> dataset, WeightSnapshot weights) {
 
-    Counter<String> gradient = new ClassicCounter<String>(weights.keySet().size());
+    SparseVector.Builder gradient = new SparseVector.Builder();
 
     for (Datum datum : dataset) {
       double sum = 0;
-      for (String feature : datum.vX.keySet()) {
-        sum += weights.getCount(feature)*datum.vX.getCount(feature);
+      for (int i = 0, sz = datum.vX.size(); i < sz; ++i) {
+        sum += weights.getWeight(datum.vX.id(i))*datum.vX.value(i);
       }
 
       double expSum, derivativeIncrement;
@@ -359,39 +387,37 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
         derivativeIncrement = -1.0 / (1.0 + (1.0 / expSum));
       }
 
-      for (String feature : datum.vX.keySet()) {
-        double g = datum.vX.getCount(feature)*derivativeIncrement;
-        gradient.incrementCount(feature, g);
-      }
+      gradient.add(datum.vX, derivativeIncrement);
     }
 
-    // Add L2 regularization directly into the derivative
-    if (this.l2Regularization && dataset.size() > 0) {
-      final Set<String> features = new HashSet<String>(weights.keySet());
-      features.addAll(gradient.keySet());
+    // Add L2 regularization directly into the derivative. Features that
+    // are only in the gradient have zero weight.
+    if (this.l2Regularization && ! lazyL2Regularization && dataset.size() > 0) {
       final double dataFraction = dataset.size() / ((double) 2*xi*tuneSetSize);
       final double scaledSigmaSquared = sigmaSq / dataFraction;
-      for (String key : features) {
-        double x = weights.getCount(key);
-        gradient.incrementCount(key, x / scaledSigmaSquared);
+      Counter<String> weightVector = weights.getWeights();
+      for (String key : weightVector.keySet()) {
+        if (key == null) continue;
+        double x = weightVector.getCount(key);
+        gradient.add(FeatureRegistry.add(key), x / scaledSigmaSquared);
       }
     }
 
-    return gradient;
+    return gradient.build();
   }
 
 
   private static class Datum {
     public Label label;
-    public Counter<String> vX;
-    public Datum(Label label, Counter<String> vX) {
+    public SparseVector vX;
+    public Datum(Label label, SparseVector vX) {
       this.label = label;
       this.vX = vX;
     }
   }
 
   @Override
-  public OnlineUpdateRule<String> newUpdater() {
+  public OnlineUpdateRule<String> newUpdater(int batchSize) {
     if(this.updaterType.equalsIgnoreCase("adagrad")) {
       return new AdaGradUpdater(learningRate, expectedNumFeatures);
     }
@@ -434,6 +460,12 @@ public class PairwiseRankingOptimizerSGD implements OnlineOptimizer<IString,Stri
       return new AdaGradFOBOSUpdater(learningRate, expectedNumFeatures, L1lambda, AdaGradFOBOSUpdater.Norm.aeLASSO, customl1, fixedFeatures);
     } else if(this.updaterType.equalsIgnoreCase("adagradl1f")) {
       return new AdaGradFastFOBOSUpdater(learningRate, expectedNumFeatures, L1lambda, customl1, fixedFeatures);
+    } else if(this.updaterType.equalsIgnoreCase("adagradl1l2f")) {
+      // L2 strength of one mini-batch, as in computeGradient(), assuming that
+      // 2*xi pairs are sampled for each input
+      final double dataFraction = Math.min(batchSize, tuneSetSize) / (double) tuneSetSize;
+      final double L2lambda = l2Regularization ? dataFraction / sigmaSq : 0.0;
+      return new AdaGradFastFOBOSUpdater(learningRate, expectedNumFeatures, L1lambda, L2lambda, customl1, fixedFeatures);
     }
     return new SGDUpdater(learningRate);
   }
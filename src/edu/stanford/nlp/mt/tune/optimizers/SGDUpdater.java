@@ -1,6 +1,9 @@
 package edu.stanford.nlp.mt.tune.optimizers;
 
 import edu.stanford.nlp.mt.tune.OnlineUpdateRule;
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.mt.tune.SparseUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseVector;
 import edu.stanford.nlp.stats.Counter;
 import edu.stanford.nlp.stats.Counters;
 
@@ -10,7 +13,7 @@ import edu.stanford.nlp.stats.Counters;
  * @author Spence Green
  *
  */
-public class SGDUpdater implements OnlineUpdateRule<String> {
+public class SGDUpdater implements OnlineUpdateRule<String>, SparseUpdateRule {
 
   private final double rate;
   
@@ -22,7 +25,7 @@ public class SGDUpdater implements OnlineUpdateRule<String> {
   public void update(Counter<String> weights,
       Counter<String> gradient, int timeStep, boolean endOfEpoch) {
     // TODO(spenceg) This is kind of hacky, but seems to work.
-    final double nu = rate * (double) (1.0/((timeStep/10.0)+1.0));
+    final double nu = rate * (1.0/((timeStep/10.0)+1.0));
     
     // w_{t+1} := w_t - nu*g_t
     Counters.addInPlace(weights, gradient, -nu);
@@ -31,6 +34,20 @@ public class SGDUpdater implements OnlineUpdateRule<String> {
     Counters.retainNonZeros(weights);
   }
 
+  @Override
+  public void update(SharedWeightVector weights, SparseVector gradient, int timeStep,
+      boolean endOfEpoch) {
+    final double nu = rate * (1.0/((timeStep/10.0)+1.0));
+    for (int i = 0, sz = gradient.size(); i < sz; ++i) {
+      weights.add(gradient.id(i), -nu * gradient.value(i));
+    }
+  }
+
+  @Override
+  public boolean isThreadsafe() {
+    return true;
+  }
+
   @Override
   public UpdaterState getState() {
     return new UpdaterState() {
@@ -106,9 +106,19 @@ public class ArraySequence<T> extends AbstractSequence<T> {
 
   @Override
   public Sequence<T> concat(Sequence<T> other) {
-    int newSize = size() + other.size();
-    T[] newArr = Arrays.copyOf(elements(), newSize);
-    System.arraycopy(other.elements(), 0, newArr, size(), other.size());
+    // Copy directly from the backing arrays. elements() copies subsequences, and
+    // the decoder concatenates rule targets (usually subsequences) for every derivation.
+    final int size = size();
+    final int otherSize = other.size();
+    T[] newArr = Arrays.copyOfRange(elements, start, start + size + otherSize);
+    if (other instanceof ArraySequence) {
+      ArraySequence<T> otherSeq = (ArraySequence<T>) other;
+      System.arraycopy(otherSeq.elements, otherSeq.start, newArr, size, otherSize);
+    } else {
+      for (int i = 0; i < otherSize; ++i) {
+        newArr[size + i] = other.get(i);
+      }
+    }
     return new ArraySequence<T>(true, newArr);
   }
 }
@@ -0,0 +1,269 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Memory-mapped, columnar n-best lists. Each n-best list is stored as a block
+ * of columns: scores, token ids, a matrix of the features that every entry
+ * has, and the remaining features in compressed sparse row format.
+ * N-best lists are decoded on access and are not cached, so the file can be
+ * much larger than the heap.
+ *
+ * Written by <code>BinaryNBestListWriter</code>, e.g., by Phrasal with the
+ * <code>binary</code> n-best list output type. <code>IOTools.openNBestLists()</code>
+ * opens this format for single-pass tools, and <code>FlatNBestList</code> loads it
+ * into memory for tuning.
+ */
+public class BinaryNBestList implements NBestListContainer<IString, String> {
+
+  static final int MAGIC = 0x4e42534c;
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = 16;
+
+  // Maximum size of a mapped region
+  private static final long MAX_MAPPING = 1L << 30;
+
+  private final String[] featureNames;
+  private final IString[] words;
+  private final Index<String> featureIndex;
+
+  // Mapped regions, and the region and offset of each n-best list
+  private final MappedByteBuffer[] regions;
+  private final int[] blockRegion;
+  private final int[] blockOffset;
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public BinaryNBestList(String filename) throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(filename, "r");
+        FileChannel channel = file.getChannel()) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      readFully(channel, header, 0);
+      if (header.getInt() != MAGIC) {
+        throw new IOException("Not a binary n-best list: " + filename);
+      }
+      final int version = header.getInt();
+      if (version != VERSION) {
+        throw new IOException("Unsupported binary n-best list version: " + version);
+      }
+      final long tablesOffset = header.getLong();
+      if (tablesOffset < HEADER_SIZE) {
+        throw new IOException("Binary n-best list was not closed: " + filename);
+      }
+
+      // Feature and word tables
+      channel.position(tablesOffset);
+      DataInputStream input = new DataInputStream(new BufferedInputStream(
+          Channels.newInputStream(channel)));
+      featureNames = new String[input.readInt()];
+      for (int i = 0; i < featureNames.length; ++i) featureNames[i] = input.readUTF();
+      words = new IString[input.readInt()];
+      for (int i = 0; i < words.length; ++i) words[i] = new IString(input.readUTF());
+      featureIndex = new HashIndex<>(Arrays.asList(featureNames));
+
+      // Index the blocks
+      List<long[]> blocks = new ArrayList<>();
+      ByteBuffer blockHeader = ByteBuffer.allocate(8);
+      for (long position = HEADER_SIZE; position < tablesOffset;) {
+        blockHeader.clear();
+        readFully(channel, blockHeader, position);
+        blocks.add(new long[] { blockHeader.getInt(), position + 8, blockHeader.getInt() });
+        position += 8 + blocks.get(blocks.size() - 1)[2];
+      }
+      // Source ids must be 0, 1, 2, ...
+      blocks.sort((a, b) -> Long.compare(a[0], b[0]));
+      for (int i = 0; i < blocks.size(); ++i) {
+        final long id = blocks.get(i)[0];
+        if (i > 0 && id == blocks.get(i-1)[0]) {
+          throw new IOException("Duplicate n-best list for id: " + id);
+        } else if (id != i) {
+          throw new IOException("Missing n-best list for id: " + i);
+        }
+      }
+
+      // Map the blocks in file order
+      blockRegion = new int[blocks.size()];
+      blockOffset = new int[blocks.size()];
+      Integer[] fileOrder = new Integer[blocks.size()];
+      for (int i = 0; i < fileOrder.length; ++i) fileOrder[i] = i;
+      Arrays.sort(fileOrder, (a, b) -> Long.compare(blocks.get(a)[1], blocks.get(b)[1]));
+      List<MappedByteBuffer> regionList = new ArrayList<>();
+      long regionStart = -1, regionEnd = -1;
+      for (int i : fileOrder) {
+        long[] block = blocks.get(i);
+        if (regionStart < 0 || block[1] + block[2] - regionStart > MAX_MAPPING) {
+          if (regionStart >= 0) {
+            regionList.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionEnd - regionStart));
+          }
+          regionStart = block[1];
+        }
+        regionEnd = block[1] + block[2];
+        blockRegion[i] = regionList.size();
+        blockOffset[i] = (int) (block[1] - regionStart);
+      }
+      if (regionStart >= 0) {
+        regionList.add(channel.map(FileChannel.MapMode.READ_ONLY, regionStart, regionEnd - regionStart));
+      }
+      regions = regionList.toArray(new MappedByteBuffer[regionList.size()]);
+    }
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+  }
+
+  /**
+   * Return true if the file is a binary n-best list.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isBinary(String filename) {
+    try (DataInputStream input = new DataInputStream(new FileInputStream(filename))) {
+      return input.readInt() == MAGIC;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * The names of the features in the file.
+   *
+   * @return
+   */
+  public List<String> featureNames() {
+    return Arrays.asList(featureNames);
+  }
+
+  /**
+   * The number of n-best lists.
+   *
+   * @return
+   */
+  public int size() {
+    return blockRegion.length;
+  }
+
+  /**
+   * Decode an n-best list.
+   *
+   * @param i The position of the n-best list in the file order of source ids.
+   * @param featureIndex Index for the feature value collections. Must contain
+   *        all features in the file.
+   * @param useSparse Create sparse feature value collections.
+   * @return
+   */
+  List<ScoredFeaturizedTranslation<IString, String>> get(int i, Index<String> featureIndex,
+      boolean useSparse) {
+    ByteBuffer block = regions[blockRegion[i]].duplicate();
+    block.position(blockOffset[i]);
+    final int size = block.getInt();
+    final int numDense = block.getInt();
+    int[] denseFeatures = new int[numDense];
+    for (int j = 0; j < numDense; ++j) denseFeatures[j] = block.getInt();
+    double[] scores = new double[size];
+    for (int j = 0; j < size; ++j) scores[j] = block.getDouble();
+    long[] latticeIds = new long[size];
+    for (int j = 0; j < size; ++j) latticeIds[j] = block.getLong();
+    int[] tokenOffsets = new int[size + 1];
+    for (int j = 0; j <= size; ++j) tokenOffsets[j] = block.getInt();
+    IString[] tokens = new IString[tokenOffsets[size]];
+    for (int j = 0; j < tokens.length; ++j) tokens[j] = words[block.getInt()];
+    double[] dense = new double[size * numDense];
+    for (int j = 0; j < dense.length; ++j) dense[j] = block.getDouble();
+    int[] sparseOffsets = new int[size + 1];
+    for (int j = 0; j <= size; ++j) sparseOffsets[j] = block.getInt();
+    int[] sparseFeatures = new int[sparseOffsets[size]];
+    for (int j = 0; j < sparseFeatures.length; ++j) sparseFeatures[j] = block.getInt();
+    double[] sparse = new double[sparseFeatures.length];
+    for (int j = 0; j < sparse.length; ++j) sparse[j] = block.getDouble();
+
+    List<ScoredFeaturizedTranslation<IString, String>> nbestList = new ArrayList<>(size);
+    for (int j = 0; j < size; ++j) {
+      List<FeatureValue<String>> fvs = new ArrayList<>(numDense + sparseOffsets[j+1] - sparseOffsets[j]);
+      for (int k = 0; k < numDense; ++k) {
+        fvs.add(new FeatureValue<>(featureNames[denseFeatures[k]], dense[j * numDense + k]));
+      }
+      for (int k = sparseOffsets[j]; k < sparseOffsets[j+1]; ++k) {
+        fvs.add(new FeatureValue<>(featureNames[sparseFeatures[k]], sparse[k]));
+      }
+      FeatureValueCollection<String> features = useSparse ?
+          new SparseFeatureValueCollection<>(fvs, featureIndex) :
+            new DenseFeatureValueCollection<>(fvs, featureIndex);
+      Sequence<IString> translation = new ArraySequence<>(true,
+          Arrays.copyOfRange(tokens, tokenOffsets[j], tokenOffsets[j+1]));
+      nbestList.add(new ScoredFeaturizedTranslation<>(translation, features, scores[j], latticeIds[j]));
+    }
+    return nbestList;
+  }
+
+  @Override
+  public List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists() {
+    final boolean useSparse = featureIndex.size() >= FlatNBestList.MAX_DENSE_SIZE;
+    return new NBestLists(useSparse);
+  }
+
+  private class NBestLists extends AbstractList<List<ScoredFeaturizedTranslation<IString, String>>>
+    implements RandomAccess {
+    private final boolean useSparse;
+
+    public NBestLists(boolean useSparse) {
+      this.useSparse = useSparse;
+    }
+
+    @Override
+    public List<ScoredFeaturizedTranslation<IString, String>> get(int index) {
+      return BinaryNBestList.this.get(index, featureIndex, useSparse);
+    }
+
+    @Override
+    public int size() {
+      return BinaryNBestList.this.size();
+    }
+  }
+
+  /**
+   * Convert a text n-best list to the binary format.
+   *
+   * @param args
+   * @throws IOException
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      System.err.printf("Usage: java %s nbest_list binary_nbest_list%n", BinaryNBestList.class.getName());
+      System.exit(-1);
+    }
+    FlatNBestList nbestLists = new FlatNBestList(args[0]);
+    try (BinaryNBestListWriter writer = new BinaryNBestListWriter(args[1])) {
+      int sourceId = 0;
+      for (List<ScoredFeaturizedTranslation<IString, String>> nbestList : nbestLists.nbestLists()) {
+        writer.write(sourceId++, nbestList, null);
+      }
+    }
+  }
+}
@@ -0,0 +1,210 @@
+package edu.stanford.nlp.mt.util;
+
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Writes n-best lists in the binary format read by <code>BinaryNBestList</code>.
+ * N-best lists may be written in any order, but each source id may be written
+ * only once.
+ */
+public class BinaryNBestListWriter implements Closeable {
+
+  private final RandomAccessFile file;
+  private final FileChannel channel;
+
+  // File-local feature and word ids
+  private final Object2IntOpenHashMap<String> featureIds = new Object2IntOpenHashMap<>();
+  private final List<String> features = new ArrayList<>();
+  private final Int2IntOpenHashMap wordIds = new Int2IntOpenHashMap();
+  private final List<String> words = new ArrayList<>();
+
+  private final ByteArrayOutputStream blockBytes = new ByteArrayOutputStream(1 << 16);
+  private final DataOutputStream block = new DataOutputStream(blockBytes);
+
+  /**
+   * Constructor.
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public BinaryNBestListWriter(String filename) throws IOException {
+    file = new RandomAccessFile(filename, "rw");
+    file.setLength(0);
+    channel = file.getChannel();
+    featureIds.defaultReturnValue(-1);
+    wordIds.defaultReturnValue(-1);
+    ByteBuffer header = ByteBuffer.allocate(BinaryNBestList.HEADER_SIZE);
+    header.putInt(BinaryNBestList.MAGIC).putInt(BinaryNBestList.VERSION).putLong(0L);
+    header.flip();
+    while (header.hasRemaining()) channel.write(header);
+  }
+
+  /**
+   * Write an n-best list.
+   *
+   * @param sourceId
+   * @param nbestList
+   * @param featurePattern Only write features whose names match this pattern. May be null.
+   */
+  public synchronized void write(int sourceId,
+      List<? extends ScoredFeaturizedTranslation<IString, String>> nbestList,
+      Pattern featurePattern) {
+    try {
+      final int size = nbestList.size();
+      List<List<FeatureValue<String>>> entryFeatures = new ArrayList<>(size);
+      for (ScoredFeaturizedTranslation<IString, String> translation : nbestList) {
+        List<FeatureValue<String>> fvs = new ArrayList<>();
+        if (translation.features != null) {
+          for (FeatureValue<String> fv : translation.features) {
+            if (featurePattern == null || featurePattern.matcher(fv.name).matches()) {
+              fvs.add(fv);
+            }
+          }
+        }
+        entryFeatures.add(fvs);
+      }
+
+      // Features that every entry has are stored in the dense matrix
+      List<String> denseFeatures = new ArrayList<>();
+      Set<String> denseSet = new HashSet<>();
+      if (size > 0) {
+        for (FeatureValue<String> fv : entryFeatures.get(0)) {
+          boolean isDense = true;
+          for (int i = 1; i < size && isDense; ++i) {
+            isDense = indexOf(entryFeatures.get(i), fv.name) >= 0;
+          }
+          if (isDense && denseSet.add(fv.name)) denseFeatures.add(fv.name);
+        }
+      }
+
+      blockBytes.reset();
+      block.writeInt(size);
+      block.writeInt(denseFeatures.size());
+      for (String feature : denseFeatures) block.writeInt(featureId(feature));
+      for (ScoredFeaturizedTranslation<IString, String> translation : nbestList) {
+        block.writeDouble(translation.score);
+      }
+      for (ScoredFeaturizedTranslation<IString, String> translation : nbestList) {
+        block.writeLong(translation.latticeSourceId);
+      }
+      int offset = 0;
+      block.writeInt(offset);
+      for (ScoredFeaturizedTranslation<IString, String> translation : nbestList) {
+        offset += translation.translation.size();
+        block.writeInt(offset);
+      }
+      for (ScoredFeaturizedTranslation<IString, String> translation : nbestList) {
+        for (IString token : translation.translation) block.writeInt(wordId(token));
+      }
+      for (List<FeatureValue<String>> fvs : entryFeatures) {
+        for (String feature : denseFeatures) {
+          block.writeDouble(fvs.get(indexOf(fvs, feature)).value);
+        }
+      }
+      offset = 0;
+      block.writeInt(offset);
+      for (List<FeatureValue<String>> fvs : entryFeatures) {
+        for (FeatureValue<String> fv : fvs) {
+          if ( ! denseSet.contains(fv.name)) ++offset;
+        }
+        block.writeInt(offset);
+      }
+      for (List<FeatureValue<String>> fvs : entryFeatures) {
+        for (FeatureValue<String> fv : fvs) {
+          if ( ! denseSet.contains(fv.name)) block.writeInt(featureId(fv.name));
+        }
+      }
+      for (List<FeatureValue<String>> fvs : entryFeatures) {
+        for (FeatureValue<String> fv : fvs) {
+          if ( ! denseSet.contains(fv.name)) block.writeDouble(fv.value);
+        }
+      }
+      block.flush();
+
+      ByteBuffer buffer = ByteBuffer.allocate(8 + blockBytes.size());
+      buffer.putInt(sourceId).putInt(blockBytes.size()).put(blockBytes.toByteArray());
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+
+    } catch (IOException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  /**
+   * Write the n-best list of an input that could not be decoded. As in the
+   * text format, the list has one empty entry.
+   *
+   * @param sourceId
+   */
+  public void writeEmpty(int sourceId) {
+    ScoredFeaturizedTranslation<IString,String> empty = new ScoredFeaturizedTranslation<>(
+        Sequences.emptySequence(), null, 0.0);
+    write(sourceId, Collections.singletonList(empty), null);
+  }
+
+  private static int indexOf(List<FeatureValue<String>> fvs, String feature) {
+    for (int i = 0, sz = fvs.size(); i < sz; ++i) {
+      if (fvs.get(i).name.equals(feature)) return i;
+    }
+    return -1;
+  }
+
+  private int featureId(String feature) {
+    int id = featureIds.getInt(feature);
+    if (id < 0) {
+      id = features.size();
+      featureIds.put(feature, id);
+      features.add(feature);
+    }
+    return id;
+  }
+
+  private int wordId(IString token) {
+    int id = wordIds.get(token.id);
+    if (id < 0) {
+      id = words.size();
+      wordIds.put(token.id, id);
+      words.add(token.toString());
+    }
+    return id;
+  }
+
+  /**
+   * Write the feature and word tables, and close the file.
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    final long tablesOffset = channel.position();
+    blockBytes.reset();
+    block.writeInt(features.size());
+    for (String feature : features) block.writeUTF(feature);
+    block.writeInt(words.size());
+    for (String word : words) block.writeUTF(word);
+    block.flush();
+    ByteBuffer buffer = ByteBuffer.wrap(blockBytes.toByteArray());
+    while (buffer.hasRemaining()) channel.write(buffer);
+
+    ByteBuffer offset = ByteBuffer.allocate(8);
+    offset.putLong(tablesOffset);
+    offset.flip();
+    channel.write(offset, BinaryNBestList.HEADER_SIZE - 8);
+    channel.close();
+    file.close();
+  }
+}
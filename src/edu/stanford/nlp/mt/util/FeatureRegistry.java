@@ -0,0 +1,93 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide mapping from feature names to dense integer ids. Featurizers
+ * with fixed feature names look up their ids once, so the decoder can score
+ * features by array lookups instead of by hashing names.
+ *
+ * Names are only registered by weight vector writes and by featurizers with a
+ * fixed set of feature names. Lookups of other names return -1, so sparse features
+ * that never receive a weight do not grow the registry.
+ *
+ * Ids are stable for the lifetime of the JVM, but are not persistent.
+ */
+public final class FeatureRegistry {
+
+  private static final ConcurrentHashMap<String,Integer> index = new ConcurrentHashMap<>(1000);
+  private static volatile String[] names = new String[1000];
+  private static volatile int size = 0;
+
+  private FeatureRegistry() {}
+
+  /**
+   * Lookup the id of a feature.
+   *
+   * @param name
+   * @return The id, or -1 if the feature is not registered.
+   */
+  public static int indexOf(String name) {
+    Integer id = index.get(name);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * Lookup the id of a feature, adding it to the registry if necessary.
+   *
+   * @param name
+   * @return
+   */
+  public static int add(String name) {
+    Integer id = index.get(name);
+    return id == null ? register(name) : id;
+  }
+
+  /**
+   * Lookup the ids of an array of features, adding them to the registry if necessary.
+   *
+   * @param names
+   * @return
+   */
+  public static int[] addAll(String[] names) {
+    int[] ids = new int[names.length];
+    for (int i = 0; i < names.length; ++i) {
+      ids[i] = add(names[i]);
+    }
+    return ids;
+  }
+
+  private static synchronized int register(String name) {
+    Integer id = index.get(name);
+    if (id != null) return id;
+    if (size == names.length) {
+      names = Arrays.copyOf(names, 2 * names.length);
+    }
+    final int newId = size;
+    names[newId] = name;
+    size = newId + 1;
+    index.put(name, newId);
+    return newId;
+  }
+
+  /**
+   * Lookup the name of a feature.
+   *
+   * @param id
+   * @return
+   */
+  public static String get(int id) {
+    if (id < 0 || id >= size) throw new IndexOutOfBoundsException(String.valueOf(id));
+    return names[id];
+  }
+
+  /**
+   * The number of registered features.
+   *
+   * @return
+   */
+  public static int size() {
+    return size;
+  }
+}
@@ -22,6 +22,9 @@ public class FeatureValue<T> implements Serializable {
   
   // This feature is a baseline dense feature.
   public final boolean isDenseFeature;
+  
+  // 1 + the FeatureRegistry id of the name, or 0 if it has not been resolved.
+  private transient int registryIndex;
 
   /**
    * Constructor.
@@ -47,6 +50,33 @@ public class FeatureValue<T> implements Serializable {
     this.isDenseFeature = isDense;
   }
 
+  /**
+   * Constructor for a feature whose FeatureRegistry id is already known.
+   * 
+   * @param name
+   * @param value
+   * @param isDense
+   * @param id
+   */
+  public FeatureValue(T name, double value, boolean isDense, int id) {
+    this(name, value, isDense);
+    this.registryIndex = id + 1;
+  }
+
+  /**
+   * The FeatureRegistry id of the feature name. Does not register the name.
+   * 
+   * @return The id, or -1 if the name is not registered.
+   */
+  public int getId() {
+    // Benign race: all threads compute the same id.
+    if (registryIndex == 0) {
+      // Misses are not cached since the name may be registered later.
+      registryIndex = FeatureRegistry.indexOf(name.toString()) + 1;
+    }
+    return registryIndex - 1;
+  }
+
   @Override
   public String toString() {
     return String.format("%s:%f", name, value);
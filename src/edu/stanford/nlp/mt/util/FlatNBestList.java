@@ -15,6 +15,7 @@ import edu.stanford.nlp.util.concurrent.ConcurrentHashIndex;
 
 /**
  * Naive data structure for storing n-best lists. This data structure is not memory-efficient.
+ * Reads text n-best lists and binary n-best lists written by <code>BinaryNBestListWriter</code>.
  *
  * @author danielcer
  * @author Spence Green
@@ -75,6 +76,15 @@ public class FlatNBestList implements NBestListContainer<IString, String> {
 
     nbestLists = new ArrayList<>(initialCapacity);
 
+    if (BinaryNBestList.isBinary(filename)) {
+      readBinary(filename);
+      double elapsedTime = ((double) System.nanoTime() - startTime) / 1e9;
+      System.err.printf("Done loading binary n-best lists: %s (mem used: %d MiB time: %.3fs)%n",
+          filename, (rt.totalMemory() - rt.freeMemory() - preNBestListLoadMemUsed) / (1024 * 1024), 
+          elapsedTime);
+      return;
+    }
+
     List<ScoredFeaturizedTranslation<IString, String>> currentNbest = new ArrayList<>();
 
     LineNumberReader reader = IOTools.getReaderFromFile(filename);
@@ -237,6 +247,35 @@ public class FlatNBestList implements NBestListContainer<IString, String> {
                 / (1024 * 1024), elapsedTime);
   }
 
+  /**
+   * Load n-best lists written by <code>BinaryNBestListWriter</code>. The lists are decoded
+   * up front, which suits callers that make many passes over them, e.g., MERT. Callers that
+   * make one pass should use <code>IOTools.openNBestLists()</code>, which maps binary files.
+   * 
+   * @param filename
+   * @throws IOException
+   */
+  private void readBinary(String filename) throws IOException {
+    BinaryNBestList binaryLists = new BinaryNBestList(filename);
+    for (String feature : binaryLists.featureNames()) featureIndex.addToIndex(feature);
+    final boolean useSparse = featureIndex.size() >= MAX_DENSE_SIZE;
+    for (int i = 0, sz = binaryLists.size(); i < sz; ++i) {
+      List<ScoredFeaturizedTranslation<IString, String>> nbestList = 
+          binaryLists.get(i, featureIndex, useSparse);
+      for (int j = 0, nbestSize = nbestList.size(); j < nbestSize; ++j) {
+        ScoredFeaturizedTranslation<IString, String> translation = nbestList.get(j);
+        Sequence<IString> sequenceStored = sequenceSelfMap.get(translation.translation);
+        if (sequenceStored == null) {
+          sequenceSelfMap.put(translation.translation, translation.translation);
+        } else {
+          nbestList.set(j, new ScoredFeaturizedTranslation<>(sequenceStored, 
+              translation.features, translation.score, translation.latticeSourceId));
+        }
+      }
+      nbestLists.add(nbestList);
+    }
+  }
+
   @Override
   public List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists() {
     return nbestLists;
@@ -477,6 +477,20 @@ public final class IOTools {
     serialize(filename, wts, SerializationMode.BIN_GZ);
   }
 
+  /**
+   * Open n-best lists for a single pass. Binary n-best lists are memory-mapped and
+   * decoded on access, so they are not held in memory. Text n-best lists are loaded
+   * with <code>FlatNBestList</code>.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static NBestListContainer<IString, String> openNBestLists(String filename) throws IOException {
+    return BinaryNBestList.isBinary(filename) ? new BinaryNBestList(filename) : 
+      new FlatNBestList(filename);
+  }
+
   /**
    * Write an n-best list to file.
    *
@@ -42,8 +42,8 @@ public enum InputProperty {
   // Type: TranslationModel
   ForegroundTM,
   
-  // A weight vector
-  // Type: Counter<String>
+  // A weight vector. Counters are copied by the decoder, snapshots are shared.
+  // Type: Counter<String> or WeightSnapshot
   ModelWeights,
   
   // The phrase query limit
@@ -56,6 +56,10 @@ public enum InputProperty {
   
   // Flag that is true if the last word of the prefix may be incomplete
   // Type: Boolean
-  AllowIncompletePrefix
+  AllowIncompletePrefix,
+  
+  // Translation model query shared with other inputs
+  // Type: RuleQueryBatch
+  RuleQueryBatch
   
 }
@@ -0,0 +1,165 @@
+package edu.stanford.nlp.mt.util;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A read-only array of ints that is either backed by a heap array or by a
+ * memory-mapped file. Mapped regions are limited to 2GB, so mapped arrays are
+ * split into segments.
+ */
+public final class IntArray {
+
+  // 1GB segments
+  private static final int DEFAULT_SEGMENT_SHIFT = 28;
+
+  private static final IntArray EMPTY = new IntArray(new int[0]);
+
+  private final int[] array;
+  private final IntBuffer[] segments;
+  private final int segmentShift;
+  private final int segmentMask;
+  private final int length;
+
+  private IntArray(int[] array) {
+    this.array = array;
+    this.segments = null;
+    this.segmentShift = 0;
+    this.segmentMask = 0;
+    this.length = array.length;
+  }
+
+  private IntArray(IntBuffer[] segments, int segmentShift, int length) {
+    this.array = null;
+    this.segments = segments;
+    this.segmentShift = segmentShift;
+    this.segmentMask = (1 << segmentShift) - 1;
+    this.length = length;
+  }
+
+  /**
+   * Wrap a heap array. The array is not copied.
+   *
+   * @param array
+   * @return
+   */
+  public static IntArray wrap(int[] array) {
+    return array.length == 0 ? EMPTY : new IntArray(array);
+  }
+
+  /**
+   * Map a little-endian array of ints from a file.
+   *
+   * @param channel
+   * @param offset Offset of the array in bytes.
+   * @param length Number of ints.
+   * @return
+   * @throws IOException
+   */
+  public static IntArray map(FileChannel channel, long offset, int length) throws IOException {
+    return map(channel, offset, length, DEFAULT_SEGMENT_SHIFT);
+  }
+
+  /**
+   * Map a little-endian array of ints from a file with segments of
+   * <code>2^segmentShift</code> ints.
+   *
+   * @param channel
+   * @param offset
+   * @param length
+   * @param segmentShift
+   * @return
+   * @throws IOException
+   */
+  static IntArray map(FileChannel channel, long offset, int length, int segmentShift)
+      throws IOException {
+    if (length < 0) throw new IOException("Negative array length: " + length);
+    if (offset + (long) length * Integer.BYTES > channel.size()) {
+      throw new IOException("Array exceeds file size");
+    }
+    final int segmentSize = 1 << segmentShift;
+    final int numSegments = (int) (((long) length + segmentSize - 1) >>> segmentShift);
+    IntBuffer[] segments = new IntBuffer[numSegments];
+    for (int i = 0; i < numSegments; ++i) {
+      final long start = (long) i << segmentShift;
+      final long size = Math.min(segmentSize, length - start);
+      segments[i] = channel.map(MapMode.READ_ONLY, offset + start * Integer.BYTES,
+          size * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+    }
+    return new IntArray(segments, segmentShift, length);
+  }
+
+  /**
+   * Get an element.
+   *
+   * @param i
+   * @return
+   */
+  public int get(int i) {
+    if (array != null) return array[i];
+    if (i < 0 || i >= length) throw new ArrayIndexOutOfBoundsException(i);
+    return segments[i >>> segmentShift].get(i & segmentMask);
+  }
+
+  /**
+   * The number of elements.
+   *
+   * @return
+   */
+  public int length() {
+    return length;
+  }
+
+  /**
+   * Get the contents as a heap array. Avoids a copy for heap arrays, so
+   * do not modify the result.
+   *
+   * @return
+   */
+  public int[] toArray() {
+    return array != null ? array : copyOfRange(0, length);
+  }
+
+  /**
+   * Copy a range into a new array.
+   *
+   * @param startInclusive
+   * @param endExclusive
+   * @return
+   */
+  public int[] copyOfRange(int startInclusive, int endExclusive) {
+    int[] copy = new int[endExclusive - startInclusive];
+    copyTo(startInclusive, copy, 0, copy.length);
+    return copy;
+  }
+
+  /**
+   * Copy a range into an array.
+   *
+   * @param srcPos
+   * @param dest
+   * @param destPos
+   * @param numInts
+   */
+  public void copyTo(int srcPos, int[] dest, int destPos, int numInts) {
+    if (array != null) {
+      System.arraycopy(array, srcPos, dest, destPos, numInts);
+      return;
+    }
+    if (srcPos < 0 || numInts < 0 || srcPos > length - numInts) {
+      throw new ArrayIndexOutOfBoundsException(srcPos);
+    }
+    while (numInts > 0) {
+      IntBuffer view = segments[srcPos >>> segmentShift].duplicate();
+      view.position(srcPos & segmentMask);
+      final int n = Math.min(numInts, view.remaining());
+      view.get(dest, destPos, n);
+      srcPos += n;
+      destPos += n;
+      numInts -= n;
+    }
+  }
+}
@@ -49,8 +49,19 @@ public class ParallelCorpus implements Iterable<AlignedSentence>, Serializable {
    * @param initialCapacity
    */
   public ParallelCorpus(int initialCapacity) {
+    this(initialCapacity, new Vocabulary(initialCapacity));
+  }
+  
+  /**
+   * Constructor. Shares an existing vocabulary, e.g., with a {@link ParallelSuffixArray}
+   * that will be merged with this corpus.
+   * 
+   * @param initialCapacity
+   * @param vocabulary
+   */
+  public ParallelCorpus(int initialCapacity, Vocabulary vocabulary) {
     segments = new ArrayList<>(initialCapacity);
-    vocabulary = new Vocabulary(initialCapacity);
+    this.vocabulary = vocabulary;
   }
 
   /**
@@ -79,6 +90,17 @@ public class ParallelCorpus implements Iterable<AlignedSentence>, Serializable {
     }
   }
   
+  /**
+   * Add an aligned sentence that was created with this corpus' vocabulary.
+   * 
+   * @param sentence
+   */
+  public void add(AlignedSentence sentence) {
+    segments.add(sentence);
+    numSourcePos += sentence.sourceLength();
+    numTargetPos += sentence.targetLength();
+  }
+  
   /**
    * Create an {@link AlignedSentence} from a parallel input.
    * 
@@ -1,9 +1,20 @@
 package edu.stanford.nlp.mt.util;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.LineNumberReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.PrintWriter;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
@@ -34,16 +45,25 @@ import edu.stanford.nlp.mt.util.TimingUtils.TimeKeeper;
  */
 public class ParallelSuffixArray implements Serializable,KryoSerializable {
 
-  private static final long serialVersionUID = -5403502473957235135L;
+  private static final long serialVersionUID = 4716320417306419876L;
 
   private static final Logger logger = LogManager.getLogger(ParallelSuffixArray.class);
   
-  protected int[] srcBitext;
-  protected int[] f2e;
-  protected int[] tgtBitext;
-  protected int[] e2f;
-  protected int[] srcSuffixArray; 
-  protected int[] tgtSuffixArray;
+  /**
+   * File extension of the native memory-mapped format.
+   */
+  public static final String MAPPED_EXTENSION = ".psa";
+  private static final int MAPPED_MAGIC = 0x50534131;
+  private static final int WRITE_BUFFER_SIZE = 1 << 20;
+  
+  // Heap arrays when the arrays are built in memory, and read-only mapped
+  // arrays when loaded from the native format. See loadMapped().
+  protected transient IntArray srcBitext;
+  protected transient IntArray f2e;
+  protected transient IntArray tgtBitext;
+  protected transient IntArray e2f;
+  protected transient IntArray srcSuffixArray; 
+  protected transient IntArray tgtSuffixArray;
   
   protected int numSentences;
   protected Vocabulary vocabulary;
@@ -94,9 +114,9 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     kryo.writeObject(output, vocabulary);
   }
 
-  private static void writeArray(int[] arr, Output output) {
-    output.writeInt(arr.length, true);
-    output.writeInts(arr, true);
+  private static void writeArray(IntArray arr, Output output) {
+    output.writeInt(arr.length(), true);
+    output.writeInts(arr.toArray(), true);
   }
 
   @Override
@@ -110,10 +130,188 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     numSentences = input.readInt(true);
     vocabulary = kryo.readObject(input, Vocabulary.class);
   }
-  
-  private static int[] readArray(Input input) {
+
+  private static IntArray readArray(Input input) {
     int len = input.readInt(true);
-    return input.readInts(len, true);
+    return IntArray.wrap(input.readInts(len, true));
+  }
+
+  /**
+   * Custom serializer. The buffers are not serializable, so write them
+   * as int arrays.
+   *
+   * @param oos
+   * @throws IOException
+   */
+  private void writeObject(ObjectOutputStream oos) throws IOException {
+    oos.defaultWriteObject();
+    for (IntArray arr : arrays()) {
+      oos.writeObject(arr.toArray());
+    }
+  }
+
+  /**
+   * Custom deserializer.
+   *
+   * @param ois
+   * @throws ClassNotFoundException
+   * @throws IOException
+   */
+  private void readObject(ObjectInputStream ois) throws ClassNotFoundException, IOException {
+    ois.defaultReadObject();
+    srcBitext = IntArray.wrap((int[]) ois.readObject());
+    tgtBitext = IntArray.wrap((int[]) ois.readObject());
+    e2f = IntArray.wrap((int[]) ois.readObject());
+    f2e = IntArray.wrap((int[]) ois.readObject());
+    srcSuffixArray = IntArray.wrap((int[]) ois.readObject());
+    tgtSuffixArray = IntArray.wrap((int[]) ois.readObject());
+  }
+
+  /**
+   * The underlying arrays in serialization order.
+   *
+   * @return
+   */
+  private IntArray[] arrays() {
+    return new IntArray[] { srcBitext, tgtBitext, e2f, f2e, srcSuffixArray, tgtSuffixArray };
+  }
+
+  /**
+   * Write this suffix array in the native memory-mapped format. The suffix arrays
+   * must be built before calling this method. The layout is little-endian:
+   *
+   *   magic numSentences
+   *   (length int[length]) x 6   -- srcBitext tgtBitext e2f f2e srcSuffixArray tgtSuffixArray
+   *   vocabSize (byteLength utf8[byteLength]) x vocabSize
+   *
+   * @param filename
+   * @throws IOException
+   */
+  public void writeMapped(String filename) throws IOException {
+    if (srcSuffixArray == null || tgtSuffixArray == null) {
+      throw new IllegalStateException("Suffix arrays have not been built");
+    }
+    TimeKeeper timer = TimingUtils.start();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(MAPPED_MAGIC).putInt(numSentences);
+      for (IntArray arr : arrays()) {
+        ensureCapacity(channel, buffer, Integer.BYTES);
+        buffer.putInt(arr.length());
+        for (int i = 0, sz = arr.length(); i < sz; ++i) {
+          ensureCapacity(channel, buffer, Integer.BYTES);
+          buffer.putInt(arr.get(i));
+        }
+      }
+      ensureCapacity(channel, buffer, Integer.BYTES);
+      buffer.putInt(vocabulary.size());
+      for (int i = 0, sz = vocabulary.size(); i < sz; ++i) {
+        byte[] word = vocabulary.get(i).getBytes(StandardCharsets.UTF_8);
+        ensureCapacity(channel, buffer, Integer.BYTES + word.length);
+        buffer.putInt(word.length);
+        buffer.put(word);
+      }
+      flush(channel, buffer);
+    }
+    timer.mark("Write");
+    logger.info("Wrote memory-mapped suffix array to {}: {}", filename, timer);
+  }
+
+  private static void ensureCapacity(FileChannel channel, ByteBuffer buffer, int numBytes) throws IOException {
+    if (numBytes > buffer.capacity()) throw new IOException("Record exceeds write buffer size: " + numBytes);
+    if (buffer.remaining() < numBytes) flush(channel, buffer);
+  }
+
+  private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+    buffer.flip();
+    while (buffer.hasRemaining()) channel.write(buffer);
+    buffer.clear();
+  }
+
+  /**
+   * Load a suffix array written by {@link #writeMapped(String)}. The bitext, alignments,
+   * and suffix arrays are read-only mapped buffers, so they are not copied into the heap,
+   * and the pages are shared by all processes that map the same file.
+   *
+   * @param filename
+   * @return
+   * @throws IOException
+   */
+  public static ParallelSuffixArray loadMapped(String filename) throws IOException {
+    return loadMapped(filename, -1);
+  }
+
+  /**
+   * Load a suffix array written by {@link #writeMapped(String)} with mapped segments
+   * of <code>2^segmentShift</code> ints, or the default segment size if negative.
+   * 
+   * @param filename
+   * @param segmentShift
+   * @return
+   * @throws IOException
+   */
+  static ParallelSuffixArray loadMapped(String filename, int segmentShift) throws IOException {
+    TimeKeeper timer = TimingUtils.start();
+    ParallelSuffixArray sa = new ParallelSuffixArray();
+    try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+      if (readInt(channel, 0) != MAPPED_MAGIC) {
+        throw new IOException("Not a memory-mapped suffix array: " + filename);
+      }
+      sa.numSentences = readInt(channel, Integer.BYTES);
+      long offset = 2 * Integer.BYTES;
+      IntArray[] arrays = new IntArray[6];
+      for (int i = 0; i < arrays.length; ++i) {
+        final int length = readInt(channel, offset);
+        offset += Integer.BYTES;
+        arrays[i] = segmentShift < 0 ? IntArray.map(channel, offset, length) :
+          IntArray.map(channel, offset, length, segmentShift);
+        offset += (long) length * Integer.BYTES;
+      }
+      sa.srcBitext = arrays[0];
+      sa.tgtBitext = arrays[1];
+      sa.e2f = arrays[2];
+      sa.f2e = arrays[3];
+      sa.srcSuffixArray = arrays[4];
+      sa.tgtSuffixArray = arrays[5];
+      timer.mark("Map arrays");
+
+      // The vocabulary must be materialized in the heap for string lookups.
+      // Stream it, since it may also exceed the maximum mapped region size.
+      DataInputStream vocabInput = new DataInputStream(new BufferedInputStream(
+          Channels.newInputStream(channel.position(offset)), WRITE_BUFFER_SIZE));
+      final int vocabSize = Integer.reverseBytes(vocabInput.readInt());
+      sa.vocabulary = new Vocabulary(vocabSize);
+      for (int i = 0; i < vocabSize; ++i) {
+        byte[] word = new byte[Integer.reverseBytes(vocabInput.readInt())];
+        vocabInput.readFully(word);
+        sa.vocabulary.add(new String(word, StandardCharsets.UTF_8));
+      }
+      timer.mark("Vocabulary");
+    }
+    logger.info("Mapped suffix array {}: {}", filename, timer);
+    return sa;
+  }
+
+  private static int readInt(FileChannel channel, long position) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    buffer.flip();
+    return buffer.getInt();
+  }
+
+  /**
+   * True if the file is in the native memory-mapped format.
+   *
+   * @param filename
+   * @return
+   */
+  public static boolean isMappedFile(String filename) {
+    return filename.endsWith(MAPPED_EXTENSION);
   }
 
   /**
@@ -129,8 +327,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   public Stream<SentencePair> stream() {
-    return IntStream.range(0, srcBitext.length).mapToObj(i -> {
-      if (srcBitext[i] < 0) {
+    return IntStream.range(0, srcBitext.length()).mapToObj(i -> {
+      if (srcBitext.get(i) < 0) {
         return new SentencePair(i-1);
       } else {
         return null;
@@ -144,8 +342,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   public Stream<SentencePair> parallelStream() {
-    return IntStream.range(0, srcBitext.length).parallel().mapToObj(i -> {
-      if (srcBitext[i] < 0) {
+    return IntStream.range(0, srcBitext.length()).parallel().mapToObj(i -> {
+      if (srcBitext.get(i) < 0) {
         return new SentencePair(i-1);
       } else {
         return null;
@@ -192,12 +390,12 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Create the arrays
     final int srcLength = numSourcePositions + numSentences;
     if (srcLength < 0) throw new RuntimeException("Maximum source bitext size exceeded");
-    srcBitext = new int[srcLength];
-    f2e = new int[srcLength];
+    final int[] srcBitext = new int[srcLength];
+    final int[] f2e = new int[srcLength];
     final int tgtLength = numTargetPositions + numSentences;
     if (tgtLength < 0) throw new RuntimeException("Maximum target bitext size exceeded");
-    tgtBitext = new int[tgtLength];
-    e2f = new int[tgtLength];
+    final int[] tgtBitext = new int[tgtLength];
+    final int[] e2f = new int[tgtLength];
     
     // Create the arrays and read the files again
     try (LineNumberReader fReader = IOTools.getReaderFromFile(source)) {
@@ -227,6 +425,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
         }        
       }
     }
+    this.srcBitext = IntArray.wrap(srcBitext);
+    this.f2e = IntArray.wrap(f2e);
+    this.tgtBitext = IntArray.wrap(tgtBitext);
+    this.e2f = IntArray.wrap(e2f);
     this.vocabulary = corpus.getVocabulary();
     assert initialVocabularySize == vocabulary.size();
     timer.mark("Loading corpus");
@@ -246,11 +448,11 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     int numSourcePositions = corpus.numSourcePositions();
     int numTargetPositions = corpus.numTargetPositions();
     int srcLength = numSourcePositions + numSentences;
-    srcBitext = new int[srcLength];
-    f2e = new int[srcLength];
+    final int[] srcBitext = new int[srcLength];
+    final int[] f2e = new int[srcLength];
     int tgtLength = numTargetPositions + numSentences;
-    tgtBitext = new int[tgtLength];
-    e2f = new int[tgtLength];
+    final int[] tgtBitext = new int[tgtLength];
+    final int[] e2f = new int[tgtLength];
     int srcOffset = 0;
     int tgtOffset = 0;
     for (AlignedSentence sentence : corpus) {
@@ -267,6 +469,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       ++srcOffset;
       ++tgtOffset;
     }
+    this.srcBitext = IntArray.wrap(srcBitext);
+    this.f2e = IntArray.wrap(f2e);
+    this.tgtBitext = IntArray.wrap(tgtBitext);
+    this.e2f = IntArray.wrap(e2f);
     vocabulary = corpus.getVocabulary();
     timer.mark("Corpus loading");
     logger.info("Done loading corpus: {}", timer);
@@ -298,13 +504,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
   public void build() {
     logger.info("Building suffix arrays...");
     TimeKeeper timer = TimingUtils.start();
-    int numSourcePositions = srcBitext.length - numSentences;
-    srcSuffixArray = build(srcBitext, numSourcePositions);
-    if (srcSuffixArray.length != numSourcePositions) throw new RuntimeException();
+    int numSourcePositions = srcBitext.length() - numSentences;
+    srcSuffixArray = IntArray.wrap(build(srcBitext, numSourcePositions));
+    if (srcSuffixArray.length() != numSourcePositions) throw new RuntimeException();
     timer.mark("Source array");
-    int numTargetPositions = tgtBitext.length - numSentences;
-    tgtSuffixArray = build(tgtBitext, numTargetPositions);
-    if (tgtSuffixArray.length != numTargetPositions) throw new RuntimeException();
+    int numTargetPositions = tgtBitext.length() - numSentences;
+    tgtSuffixArray = IntArray.wrap(build(tgtBitext, numTargetPositions));
+    if (tgtSuffixArray.length() != numTargetPositions) throw new RuntimeException();
     timer.mark("Target array");
     logger.info("Done constructing suffix arrays: {}", timer);
   }
@@ -316,38 +522,142 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @param numPositions
    * @return
    */
-  private int[] build(final int[] bitext, int numPositions) {
-    return IntStream.range(0, bitext.length).parallel().boxed().sorted((x,y) -> {
-      // Compare suffixes
-      int xPos = x, yPos = y, xId = bitext[x], yId = bitext[y];
-      
-      // Check to see if these points are sentence boundaries
-      if (xId < 0 && yId < 0) {
-        return 0;
-      } else if (xId < 0) {
-        // Say that sentence boundaries are longer than everything else.
-        // They will be pushed to the end of the stream so that limit() can filter them.
-        return 1;
-      } else if (yId < 0) {
-        return -1;
+  private int[] build(final IntArray bitext, int numPositions) {
+    return IntStream.range(0, bitext.length()).parallel().boxed()
+        .sorted((x,y) -> compareSuffixes(bitext, x, y))
+        .limit(numPositions).mapToInt(i -> i).toArray();
+  }
+  
+  /**
+   * Compare the suffixes that start at two bitext positions.
+   * 
+   * @param bitext
+   * @param x
+   * @param y
+   * @return
+   */
+  private int compareSuffixes(final IntArray bitext, int x, int y) {
+    int xPos = x, yPos = y, xId = bitext.get(x), yId = bitext.get(y);
+
+    // Check to see if these points are sentence boundaries
+    if (xId < 0 && yId < 0) {
+      return 0;
+    } else if (xId < 0) {
+      // Say that sentence boundaries are longer than everything else.
+      // They will be pushed to the end of the stream so that limit() can filter them.
+      return 1;
+    } else if (yId < 0) {
+      return -1;
+    }
+
+    while(xId >= 0 && yId >= 0) {
+      if (xId == yId) {
+        xId = bitext.get(++xPos);
+        yId = bitext.get(++yPos);
+      } else {
+        // Lexicographic sort
+        return vocabulary.get(xId).compareTo(vocabulary.get(yId));
       }
-            
-      while(xId >= 0 && yId >= 0) {
-        if (xId == yId) {
-          xId = bitext[++xPos];
-          yId = bitext[++yPos];
-        } else {
-          // Lexicographic sort
-          return vocabulary.get(xId).compareTo(vocabulary.get(yId));
-        }
+    }
+
+    // Compare lengths
+    int xLength = xPos - x + (xId < 0 ? 0 : 1);
+    int yLength = yPos - y + (yId < 0 ? 0 : 1);
+    return xLength - yLength;
+  }
+  
+  /**
+   * Append the bitext of <code>delta</code> to the bitext of <code>base</code> and merge
+   * the suffix arrays. Suffixes never cross sentence boundaries, so the existing suffix
+   * arrays remain sorted relative to the concatenated bitext and can be merged in linear time.
+   * 
+   * The two suffix arrays must share the same vocabulary. The result is stored in
+   * heap buffers even if <code>base</code> is memory-mapped.
+   * 
+   * @param base
+   * @param delta
+   * @return
+   */
+  public static ParallelSuffixArray merge(ParallelSuffixArray base, ParallelSuffixArray delta) {
+    if (base.vocabulary != delta.vocabulary) {
+      throw new IllegalArgumentException("Suffix arrays must share a vocabulary");
+    }
+    if (base.srcSuffixArray == null || delta.srcSuffixArray == null) {
+      throw new IllegalStateException("Suffix arrays have not been built");
+    }
+    TimeKeeper timer = TimingUtils.start();
+    final int srcOffset = base.srcBitext.length();
+    final int tgtOffset = base.tgtBitext.length();
+    if ((long) srcOffset + delta.srcBitext.length() > Integer.MAX_VALUE ||
+        (long) tgtOffset + delta.tgtBitext.length() > Integer.MAX_VALUE) {
+      throw new RuntimeException("Maximum bitext size exceeded");
+    }
+    ParallelSuffixArray merged = new ParallelSuffixArray();
+    merged.vocabulary = base.vocabulary;
+    merged.numSentences = base.numSentences + delta.numSentences;
+    merged.srcBitext = concatenate(base.srcBitext, delta.srcBitext, tgtOffset);
+    merged.tgtBitext = concatenate(base.tgtBitext, delta.tgtBitext, srcOffset);
+    merged.f2e = concatenate(base.f2e, delta.f2e, -1);
+    merged.e2f = concatenate(base.e2f, delta.e2f, -1);
+    timer.mark("Bitext");
+    merged.srcSuffixArray = merged.mergeSuffixArrays(merged.srcBitext, base.srcSuffixArray, 
+        delta.srcSuffixArray, srcOffset);
+    merged.tgtSuffixArray = merged.mergeSuffixArrays(merged.tgtBitext, base.tgtSuffixArray, 
+        delta.tgtSuffixArray, tgtOffset);
+    timer.mark("Suffix arrays");
+    logger.info("Merged {} sentences into suffix array: {}", delta.numSentences, timer);
+    return merged;
+  }
+
+  /**
+   * Concatenate two arrays. If <code>pointerOffset</code> is non-negative, then the arrays
+   * are bitexts, and the sentence boundary pointers of the second array are shifted by that offset.
+   * 
+   * @param a
+   * @param b
+   * @param pointerOffset
+   * @return
+   */
+  private static IntArray concatenate(IntArray a, IntArray b, int pointerOffset) {
+    int[] arr = new int[a.length() + b.length()];
+    a.copyTo(0, arr, 0, a.length());
+    b.copyTo(0, arr, a.length(), b.length());
+    if (pointerOffset >= 0) {
+      for (int i = a.length(); i < arr.length; ++i) {
+        if (arr[i] < 0) arr[i] = toSentenceOffset(fromSentenceOffset(arr[i]) + pointerOffset);
       }
-      
-      // Compare lengths
-      int xLength = xPos - x + (xId < 0 ? 0 : 1);
-      int yLength = yPos - y + (yId < 0 ? 0 : 1);
-      return xLength - yLength;
-      
-    }).limit(numPositions).mapToInt(i -> i).toArray();
+    }
+    return IntArray.wrap(arr);
+  }
+
+  /**
+   * Linear merge of two sorted suffix arrays over a concatenated bitext.
+   * 
+   * @param bitext
+   * @param a
+   * @param b
+   * @param offset
+   * @return
+   */
+  private IntArray mergeSuffixArrays(IntArray bitext, IntArray a, IntArray b, int offset) {
+    final int aSize = a.length();
+    final int bSize = b.length();
+    int[] sa = new int[aSize + bSize];
+    int i = 0, j = 0, k = 0;
+    while (i < aSize && j < bSize) {
+      final int x = a.get(i);
+      final int y = b.get(j) + offset;
+      if (compareSuffixes(bitext, x, y) <= 0) {
+        sa[k++] = x;
+        ++i;
+      } else {
+        sa[k++] = y;
+        ++j;
+      }
+    }
+    for (; i < aSize; ++i) sa[k++] = a.get(i);
+    for (; j < bSize; ++j) sa[k++] = b.get(j) + offset;
+    return IntArray.wrap(sa);
   }
 
   /**
@@ -357,14 +667,14 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @param out
    */
   public void print(boolean isSource, PrintWriter out) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
-    int[] bitext = isSource ? this.srcBitext : this.tgtBitext;
-    for (int i = 0; i < sa.length; ++i) {
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    IntArray bitext = isSource ? this.srcBitext : this.tgtBitext;
+    for (int i = 0; i < sa.length(); ++i) {
       StringBuilder sb = new StringBuilder();
       sb.append(i).append(": ");
-      for (int corpusPos = sa[i]; bitext[corpusPos] >= 0; ++corpusPos) {
-        if (corpusPos != sa[i]) sb.append(" ");
-        sb.append(vocabulary.get(bitext[corpusPos]));
+      for (int corpusPos = sa.get(i); bitext.get(corpusPos) >= 0; ++corpusPos) {
+        if (corpusPos != sa.get(i)) sb.append(" ");
+        sb.append(vocabulary.get(bitext.get(corpusPos)));
       }
       out.println(sb.toString());
     }
@@ -382,17 +692,17 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    */
   public Map<Span,SuffixArraySample> lookupFrequentSourceNgrams(int sampleSize, int minOccurrences) {
     if (sampleSize >= minOccurrences) throw new IllegalArgumentException();
-    if (srcSuffixArray.length == 0) return Collections.emptyMap();
+    if (srcSuffixArray.length() == 0) return Collections.emptyMap();
     logger.info("Building query cache with threshold {}", minOccurrences);
     Map<Span,SuffixArraySample> queryCache = new HashMap<>(1000);
     int nCnt = 1, nnCnt = 1, nnnCnt = 1;
     int nStart = 0, nnStart = 0, nnnStart = 0;
-    Suffix firstSuffix = new Suffix(srcSuffixArray[0], true);
+    Suffix firstSuffix = new Suffix(srcSuffixArray.get(0), true);
     Span nSpan = new Span(firstSuffix, 1), 
         nnSpan = new Span(firstSuffix, 2), 
         nnnSpan = new Span(firstSuffix, 3);
-    for (int i = 1; i < srcSuffixArray.length; ++i) {
-      Suffix suffix = new Suffix(srcSuffixArray[i], true);
+    for (int i = 1; i < srcSuffixArray.length(); ++i) {
+      Suffix suffix = new Suffix(srcSuffixArray.get(i), true);
       Span nSpanThis = new Span(suffix, 1);
       Span nnSpanThis = new Span(suffix, 2);
       Span nnnSpanThis = new Span(suffix, 3);
@@ -419,10 +729,10 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     Arrays.fill(tgtCountLBCache, -1);
     this.tgtCountUBCache = new int[vocabulary.size()];
     Arrays.fill(tgtCountUBCache, -1);
-    int lastId = tgtBitext[tgtSuffixArray[0]];
+    int lastId = tgtBitext.get(tgtSuffixArray.get(0));
     
-    for (int i = 0; i < tgtSuffixArray.length; ++i) {
-      int tgtId = tgtBitext[tgtSuffixArray[i]];
+    for (int i = 0; i < tgtSuffixArray.length(); ++i) {
+      int tgtId = tgtBitext.get(tgtSuffixArray.get(i));
       assert tgtId >= 0;
       if (tgtCountLBCache[tgtId] < 0) {
         tgtCountLBCache[tgtId] = i;
@@ -435,8 +745,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     }
     
     // final update
-    tgtCountUBCache[lastId] = tgtSuffixArray.length;
-    assert tgtCountUBCache[lastId] >= tgtCountLBCache[lastId] : String.format("%d %d final", tgtSuffixArray.length, lastId);
+    tgtCountUBCache[lastId] = tgtSuffixArray.length();
+    assert tgtCountUBCache[lastId] >= tgtCountLBCache[lastId] : String.format("%d %d final", tgtSuffixArray.length(), lastId);
     
     logger.info("Finished building count() cache.");
     
@@ -454,8 +764,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       assert stepSize > 0;
       final List<SentencePair> hits = new ArrayList<>(sampleSize);
       for (int i = startSa; i < endSa && hits.size() < sampleSize; i += stepSize) {
-        int corpusPosition = srcSuffixArray[i];
-        assert srcBitext[corpusPosition] >= 0;
+        int corpusPosition = srcSuffixArray.get(i);
+        assert srcBitext.get(corpusPosition) >= 0;
         hits.add(new SentencePair(corpusPosition));
       }
       queryCache.put(currentSpan, new SuffixArraySample(hits, startSa, endSa-1));
@@ -515,9 +825,9 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    */
   public int numSentences() { return numSentences; }
 
-  public int sourceSASize() { return srcSuffixArray.length; }
+  public int sourceSASize() { return srcSuffixArray.length(); }
   
-  public int targetSASize() { return tgtSuffixArray.length; }
+  public int targetSASize() { return tgtSuffixArray.length(); }
   
   /**
    * Find a lower or upper bound in the suffix array.
@@ -529,18 +839,18 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
    * @return
    */
   private int findBound(final int[] query, boolean isSource, boolean lowerBound, int startFrom) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
-    return findBound(query, isSource, lowerBound, startFrom, sa.length - 1);
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    return findBound(query, isSource, lowerBound, startFrom, sa.length() - 1);
   }
   
   private int findBound(final int[] query, boolean isSource, boolean lowerBound, int lo, int hi) {
-    int[] sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
+    IntArray sa = isSource ? this.srcSuffixArray : this.tgtSuffixArray;
     int low = lo;
     int high = hi;
     while(low <= high) {
       final int mid = (low + high) >>> 1;
-      assert mid < sa.length;
-      final int corpusPos = sa[mid];
+      assert mid < sa.length();
+      final int corpusPos = sa.get(mid);
       assert corpusPos >= 0;
       final Suffix midSuffix = new Suffix(corpusPos, isSource);
       final int cmp = midSuffix.compare(query);
@@ -557,7 +867,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
         // Check to see if this is the bound, then search
         if (lowerBound) {
           if (mid == 0) return 0;
-          Suffix leftSuffix = new Suffix(sa[mid-1], isSource);
+          Suffix leftSuffix = new Suffix(sa.get(mid-1), isSource);
           int cmp2 = leftSuffix.compare(query);
           if (cmp2 > 0) return mid;
           // Search left
@@ -565,8 +875,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
           high = mid - 1;
 
         } else {
-          if (mid == sa.length - 1) return mid;
-          Suffix rightSuffix = new Suffix(sa[mid+1], isSource);
+          if (mid == sa.length() - 1) return mid;
+          Suffix rightSuffix = new Suffix(sa.get(mid+1), isSource);
           int cmp2 = rightSuffix.compare(query);
           if (cmp2 < 0) return mid;
           // Search right
@@ -594,22 +904,22 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     }
     
     public int get(int i) {
-      int[] bitext = isSource ? srcBitext : tgtBitext;
+      IntArray bitext = isSource ? srcBitext : tgtBitext;
       int bitextPos = this.pos + i;
-      if (bitextPos < 0 || bitextPos >= bitext.length || bitext[bitextPos] < 0) {
+      if (bitextPos < 0 || bitextPos >= bitext.length() || bitext.get(bitextPos) < 0) {
         return -1;
       } else {
-        return bitext[bitextPos];
+        return bitext.get(bitextPos);
       }
     }
 
     public int compare(int[] query) {
-      int[] bitext = isSource ? srcBitext : tgtBitext;
+      IntArray bitext = isSource ? srcBitext : tgtBitext;
       boolean consumedQuery = false;
-      for (int i = 0, j = pos; i < query.length && bitext[j] >= 0; ++i, ++j) {
+      for (int i = 0, j = pos; i < query.length && bitext.get(j) >= 0; ++i, ++j) {
         consumedQuery = (i == query.length-1);
         int xId = query[i];
-        int yId = bitext[j];
+        int yId = bitext.get(j);
         if (xId != yId) {
           return vocabulary.get(xId).compareTo(vocabulary.get(yId));
         }
@@ -648,6 +958,8 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     if (!isSource && this.tgtCountLBCache != null && this.tgtCountUBCache != null) {
       // Use caches for fast target lookup
       final int tgtId = query[0];
+      // Word types added to the vocabulary after the caches were built
+      if (tgtId >= tgtCountLBCache.length || tgtCountLBCache[tgtId] < 0) return 0;
       final int lo = tgtCountLBCache[tgtId];
       final int hi = tgtCountUBCache[tgtId];
       if (query.length == 1) {
@@ -737,7 +1049,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Stratified sample through the list of positions
     List<SentencePair> samples = new ArrayList<>(maxSamples);
     for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
-      SentencePair sp = new SentencePair(srcSuffixArray[i]);
+      SentencePair sp = new SentencePair(srcSuffixArray.get(i));
       if(!exactMatch || sp.sourceLength() == sourceQuery.length) samples.add(sp);
     }
     return new SuffixArraySample(samples, lb, ub);
@@ -765,7 +1077,7 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     // Stratified sample through the list of positions
     List<SentencePair> samples = new ArrayList<>(maxSamples);
     for (int i = lb; i <= ub && samples.size() < maxSamples; i += stepSize) {
-      samples.add(new SentencePair(srcSuffixArray[i]));
+      samples.add(new SentencePair(srcSuffixArray.get(i)));
     }
     return new SuffixArraySample(samples, lb, ub);
   }
@@ -793,24 +1105,24 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     private SentencePair(int corpusPosition) {
       // Find source span
       int j = corpusPosition;
-      assert srcBitext[j] >= 0;
+      assert srcBitext.get(j) >= 0;
       // Walk forward
-      while (srcBitext[j] >= 0) j++;
+      while (srcBitext.get(j) >= 0) j++;
       srcEndExclusive = j;
       // Walk backward
       j = corpusPosition - 1;
-      while (j >= 0 && srcBitext[j] >= 0) j--;
+      while (j >= 0 && srcBitext.get(j) >= 0) j--;
       srcStartInclusive = j + 1;
       assert corpusPosition >= srcStartInclusive : String.format("%d %d", corpusPosition, srcStartInclusive);
       
       // Find the target span
-      tgtStartInclusive = j == -1 ? 0 : fromSentenceOffset(srcBitext[j]) + 1;
-      tgtEndExclusive = fromSentenceOffset(srcBitext[srcEndExclusive]);
+      tgtStartInclusive = j == -1 ? 0 : fromSentenceOffset(srcBitext.get(j)) + 1;
+      tgtEndExclusive = fromSentenceOffset(srcBitext.get(srcEndExclusive));
       assert tgtStartInclusive < tgtEndExclusive : String.format("tgt: %d %d", tgtStartInclusive, 
           tgtEndExclusive);
       assert tgtEndExclusive > 0 : String.valueOf(tgtEndExclusive);
-      assert fromSentenceOffset(tgtBitext[tgtEndExclusive]) == srcEndExclusive : String.format("%d %d", 
-          fromSentenceOffset(tgtBitext[tgtEndExclusive]), srcEndExclusive);
+      assert fromSentenceOffset(tgtBitext.get(tgtEndExclusive)) == srcEndExclusive : String.format("%d %d", 
+          fromSentenceOffset(tgtBitext.get(tgtEndExclusive)), srcEndExclusive);
       
       // Set the start of the query
       wordPosition = corpusPosition - srcStartInclusive;
@@ -827,13 +1139,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
     public int source(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < 0 || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return srcBitext[bitextPos];
+      return srcBitext.get(bitextPos);
     }
     
     public int target(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return tgtBitext[bitextPos];
+      return tgtBitext.get(bitextPos);
     }
     
     public int[] f2e(int startInclusive, int endExclusive) {
@@ -841,13 +1153,13 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       int bitextStartInclusive = srcStartInclusive + startInclusive;
       int bitextEndExclusive = srcStartInclusive + endExclusive;
       if (bitextStartInclusive < srcStartInclusive || bitextEndExclusive > srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return Arrays.copyOfRange(f2e, bitextStartInclusive, bitextEndExclusive);
+      return f2e.copyOfRange(bitextStartInclusive, bitextEndExclusive);
     }
     
     public int[] f2e(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < srcStartInclusive || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return AlignedSentence.expand(f2e[bitextPos]);
+      return AlignedSentence.expand(f2e.get(bitextPos));
     }
     
     public int[] e2f(int startInclusive, int endExclusive) {
@@ -855,25 +1167,25 @@ public class ParallelSuffixArray implements Serializable,KryoSerializable {
       int bitextStartInclusive = tgtStartInclusive + startInclusive;
       int bitextEndExclusive = tgtStartInclusive + endExclusive;
       if (bitextStartInclusive < tgtStartInclusive || bitextEndExclusive > tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return Arrays.copyOfRange(e2f, bitextStartInclusive, bitextEndExclusive);
+      return e2f.copyOfRange(bitextStartInclusive, bitextEndExclusive);
     }
     
     public int[] e2f(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return AlignedSentence.expand(e2f[bitextPos]);
+      return AlignedSentence.expand(e2f.get(bitextPos));
     }
     
     public boolean isSourceUnaligned(int i) {
       int bitextPos = srcStartInclusive + i;
       if (bitextPos < srcStartInclusive || bitextPos >= srcEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return f2e[bitextPos] == 0;
+      return f2e.get(bitextPos) == 0;
     }
     
     public boolean isTargetUnaligned(int i) {
       int bitextPos = tgtStartInclusive + i;
       if (bitextPos < tgtStartInclusive || bitextPos >= tgtEndExclusive) throw new ArrayIndexOutOfBoundsException();
-      return e2f[bitextPos] == 0;
+      return e2f.get(bitextPos) == 0;
     }
     
     public ParallelSuffixArrayEntry getParallelEntry() {
@@ -41,6 +41,26 @@ public class ProbingIntegerArrayRawIndex implements IntegerArrayRawIndex {
     }
   }
 
+  /**
+   * Find a key that is stored in a range of a larger array. Does not allocate.
+   * 
+   * @param key
+   * @param offset
+   * @param length
+   * @return The index of the key, or -1 if the key is not in the index.
+   */
+  public int find(int[] key, int offset, int length) {
+    long hashed = MurmurHash2.hash64(key, offset, length, 1);
+    for (int i = ideal(hashed); ; ++i) {
+      if (i == values.length)
+        i = 0;
+      if (hashedKeys[i] == hashed)
+        return values[i];
+      if (hashedKeys[i] == 0)
+        return -1;
+    }
+  }
+
   public int findOrInsert(int[] key) {
     long hashed = hash(key);
     int i;
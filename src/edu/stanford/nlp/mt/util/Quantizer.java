@@ -0,0 +1,111 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.Arrays;
+
+/**
+ * Scalar quantizer for model scores. Values are binned so that each bin has roughly
+ * the same number of values, and each value is coded by its bin. The codebook stores
+ * the mean of each bin. Zero and negative infinity are coded exactly.
+ */
+public class Quantizer {
+
+  public static final int MIN_BITS = 2;
+  public static final int MAX_BITS = 16;
+
+  private final float[] centers;
+  private final float[] upperBounds;
+  private final int numSpecial;
+  private final int zeroCode;
+  private final int negInfCode;
+
+  /**
+   * Constructor.
+   *
+   * @param values The values that will be coded.
+   * @param bits The size of each code.
+   */
+  public Quantizer(float[] values, int bits) {
+    if (bits < MIN_BITS || bits > MAX_BITS) {
+      throw new IllegalArgumentException("Invalid number of quantization bits: " + bits);
+    }
+    // Reserve codes for the special values
+    boolean hasZero = false, hasNegInf = false;
+    int numFinite = 0;
+    for (float v : values) {
+      if (v == 0.0f) hasZero = true;
+      else if (v == Float.NEGATIVE_INFINITY) hasNegInf = true;
+      else ++numFinite;
+    }
+    numSpecial = (hasZero ? 1 : 0) + (hasNegInf ? 1 : 0);
+    zeroCode = hasZero ? 0 : -1;
+    negInfCode = hasNegInf ? numSpecial - 1 : -1;
+
+    // Equal-population bins over the sorted finite values
+    float[] sorted = new float[numFinite];
+    for (int i = 0, j = 0; i < values.length; ++i) {
+      float v = values[i];
+      if (v != 0.0f && v != Float.NEGATIVE_INFINITY) sorted[j++] = v;
+    }
+    Arrays.sort(sorted);
+    final int numBins = Math.max(0, Math.min((1 << bits) - numSpecial, numFinite));
+    centers = new float[numSpecial + numBins];
+    if (hasNegInf) centers[negInfCode] = Float.NEGATIVE_INFINITY;
+    upperBounds = new float[numBins];
+    for (int b = 0; b < numBins; ++b) {
+      int lo = (int) ((long) b * numFinite / numBins);
+      int hi = (int) ((long) (b + 1) * numFinite / numBins);
+      double sum = 0.0;
+      for (int i = lo; i < hi; ++i) sum += sorted[i];
+      centers[numSpecial + b] = (float) (sum / (hi - lo));
+      upperBounds[b] = sorted[hi - 1];
+    }
+  }
+
+  /**
+   * Code a value. Values outside the range of the constructor values are
+   * coded by the nearest bin.
+   *
+   * @param v
+   * @return
+   */
+  public int encode(float v) {
+    if (v == 0.0f && zeroCode >= 0) {
+      return zeroCode;
+    } else if (v == Float.NEGATIVE_INFINITY && negInfCode >= 0) {
+      return negInfCode;
+    } else if (upperBounds.length == 0) {
+      return 0;
+    }
+    int b = Arrays.binarySearch(upperBounds, v);
+    if (b < 0) b = Math.min(-b - 1, upperBounds.length - 1);
+    // Equal bounds occur when a value fills several bins. Choose the bin
+    // with the nearest center.
+    while (b > 0 && upperBounds[b - 1] == v) --b;
+    int best = b;
+    for (int i = b + 1; i < upperBounds.length && upperBounds[i] == v; ++i) {
+      if (Math.abs(centers[numSpecial + i] - v) < Math.abs(centers[numSpecial + best] - v)) {
+        best = i;
+      }
+    }
+    return numSpecial + best;
+  }
+
+  /**
+   * Decode a value.
+   *
+   * @param code
+   * @return
+   */
+  public float decode(int code) {
+    return centers[code];
+  }
+
+  /**
+   * The value of each code.
+   *
+   * @return
+   */
+  public float[] codebook() {
+    return centers;
+  }
+}
@@ -0,0 +1,109 @@
+package edu.stanford.nlp.mt.util;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * A bounded buffer between producers that finish items out of order and a single
+ * consumer. Items are numbered 0, 1, 2, ... by the producers.
+ *
+ * In ordered mode, the consumer receives the items in sequence order, and a producer
+ * blocks while its item is <code>depth</code> or more positions ahead of the next item to
+ * be consumed. In unordered mode, the consumer receives the items in completion order,
+ * and producers block while <code>depth</code> items are waiting.
+ *
+ * Producers must take their sequence numbers in order, e.g., from a FIFO queue, so that
+ * the next item in sequence is always in progress. Otherwise ordered mode can deadlock.
+ *
+ * @param <T>
+ */
+public class ReorderBuffer<T> {
+
+  private final int depth;
+  private final boolean ordered;
+
+  // Ordered mode: slot (sequence % depth)
+  private final Object[] slots;
+  // Unordered mode
+  private final Queue<T> queue;
+
+  private long nextSequence = 0;
+  private long numItems = -1;
+
+  /**
+   * Constructor.
+   *
+   * @param depth
+   * @param ordered
+   */
+  public ReorderBuffer(int depth, boolean ordered) {
+    if (depth < 1) throw new IllegalArgumentException("Invalid buffer depth: " + depth);
+    this.depth = depth;
+    this.ordered = ordered;
+    this.slots = ordered ? new Object[depth] : null;
+    this.queue = ordered ? null : new ArrayDeque<>(depth);
+  }
+
+  /**
+   * Add an item. Blocks until there is space for it. In ordered mode, each sequence
+   * number may be added only once.
+   *
+   * @param sequence
+   * @param item
+   * @throws InterruptedException
+   */
+  public synchronized void put(long sequence, T item) throws InterruptedException {
+    if (item == null) throw new IllegalArgumentException("Null items are not supported");
+    if (ordered) {
+      if (sequence < nextSequence) throw new IllegalArgumentException("Duplicate sequence number: " + sequence);
+      while (sequence >= nextSequence + depth) wait();
+      final int slot = (int) (sequence % depth);
+      // Items in the window have distinct slots, so an occupied slot holds this sequence number.
+      if (slots[slot] != null) throw new IllegalStateException("Duplicate sequence number: " + sequence);
+      slots[slot] = item;
+    } else {
+      while (queue.size() >= depth) wait();
+      queue.add(item);
+    }
+    notifyAll();
+  }
+
+  /**
+   * Declare the total number of items. take() returns null once all of them have
+   * been consumed.
+   *
+   * @param numItems
+   */
+  public synchronized void close(long numItems) {
+    this.numItems = numItems;
+    notifyAll();
+  }
+
+  /**
+   * Remove the next item. Blocks until it is available. Returns null when the
+   * buffer has been closed and all items have been consumed.
+   *
+   * @return
+   * @throws InterruptedException
+   */
+  @SuppressWarnings("unchecked")
+  public synchronized T take() throws InterruptedException {
+    while (true) {
+      if (numItems >= 0 && nextSequence >= numItems) return null;
+      T item;
+      if (ordered) {
+        final int slot = (int) (nextSequence % depth);
+        item = (T) slots[slot];
+        if (item != null) slots[slot] = null;
+      } else {
+        item = queue.poll();
+      }
+      if (item != null) {
+        ++nextSequence;
+        notifyAll();
+        return item;
+      }
+      wait();
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package edu.stanford.nlp.mt.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * 64-bit hashes of words and phrases that are independent of the system vocabulary.
+ * Binary models key their entries with these hashes so that they can be queried
+ * without loading a vocabulary. The hashes of system vocabulary items are cached.
+ */
+public final class WordHash {
+
+  private static final AtomicReference<long[]> istringIdToHash = new AtomicReference<>(new long[0]);
+  private static final ReentrantLock preventDuplicateWork = new ReentrantLock();
+
+  private WordHash() {}
+
+  /**
+   * Hash of a word.
+   *
+   * @param word
+   * @return
+   */
+  public static long hash(String word) {
+    byte[] bytes = word.getBytes(StandardCharsets.UTF_8);
+    return MurmurHash2.hash64(bytes, bytes.length);
+  }
+
+  /**
+   * Hash of a word in the system vocabulary.
+   *
+   * @param token
+   * @return
+   */
+  public static long hash(IString token) {
+    {
+      long[] map = istringIdToHash.get();
+      if (token.id < map.length) {
+        return map[token.id];
+      }
+    }
+    // Rare event: we have to expand the table.
+    if (preventDuplicateWork.tryLock()) {
+      // This thread is responsible for updating the mapping.
+      try {
+        // Maybe another thread did the work for us?
+        long[] oldTable = istringIdToHash.get();
+        if (token.id < oldTable.length) {
+          return oldTable[token.id];
+        }
+        long[] newTable = new long[Vocabulary.systemSize()];
+        System.arraycopy(oldTable, 0, newTable, 0, oldTable.length);
+        for (int i = oldTable.length; i < newTable.length; ++i) {
+          newTable[i] = hash(Vocabulary.systemGet(i));
+        }
+        istringIdToHash.set(newTable);
+        return newTable[token.id];
+      } finally {
+        preventDuplicateWork.unlock();
+      }
+    }
+    // Another thread is working.  Hash directly.
+    return hash(token.toString());
+  }
+
+  /**
+   * Hash of the phrase whose word hashes are hashes[start..start+length-1].
+   * The result is never 0, so 0 can mark empty hash table buckets.
+   *
+   * @param hashes
+   * @param start
+   * @param length
+   * @return
+   */
+  public static long hash(long[] hashes, int start, int length) {
+    long key = hashes[start];
+    for (int i = start + 1, limit = start + length; i < limit; ++i) {
+      key = (key * 0x9e3779b97f4a7c15L) ^ ((hashes[i] + 1) * 0xc2b2ae3d27d4eb4fL);
+    }
+    return key == 0 ? 1 : key;
+  }
+}
@@ -0,0 +1,71 @@
+package edu.stanford.nlp.mt;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.CubePruningDecoderTest;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Checks that multithreaded batch decoding returns the translations in input order.
+ */
+public class PhrasalTest {
+
+  private static final int NUM_INPUTS = 24;
+
+  private static List<Sequence<IString>> inputs;
+  private static List<String> expected;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    CubePruningDecoderTest.setUp();
+    inputs = CubePruningDecoderTest.inputs(NUM_INPUTS);
+    Phrasal phrasal = CubePruningDecoderTest.load(CubePruningDecoderTest.config(1));
+    expected = new ArrayList<>(NUM_INPUTS);
+    for (int i = 0; i < inputs.size(); ++i) {
+      expected.add(phrasal.decode(inputs.get(i), i, 0).get(0).translation.toString());
+    }
+  }
+
+  private static List<String> decode(int numThreads, int scheduleWindow) throws IOException {
+    Map<String,List<String>> config = CubePruningDecoderTest.config(1);
+    config.put(Phrasal.NUM_THREADS, Arrays.asList(String.valueOf(numThreads)));
+    config.put(Phrasal.SCHEDULE_WINDOW, Arrays.asList(String.valueOf(scheduleWindow)));
+    // Smaller than the window, so the buffer must be sized by the window
+    config.put(Phrasal.OUTPUT_BUFFER_SIZE, Arrays.asList("2"));
+    Phrasal phrasal = CubePruningDecoderTest.load(config);
+
+    StringBuilder sb = new StringBuilder();
+    for (Sequence<IString> input : inputs) sb.append(input).append('\n');
+    InputStream inputStream = new ByteArrayInputStream(sb.toString().getBytes(IOTools.DEFAULT_ENCODING));
+    List<String> translations = new ArrayList<>(NUM_INPUTS);
+    for (RichTranslation<IString,String> t : phrasal.decode(inputStream, false)) {
+      translations.add(t.translation.toString());
+    }
+    return translations;
+  }
+
+  @Test
+  public void testMultithreadedDecodeIsOrdered() throws IOException {
+    assertEquals(expected, decode(4, 0));
+  }
+
+  @Test
+  public void testScheduledDecodeIsOrdered() throws IOException {
+    // The inputs have different lengths, so the window reorders them.
+    assertEquals(expected, decode(4, 8));
+  }
+}
@@ -0,0 +1,148 @@
+package edu.stanford.nlp.mt.decoder;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.Phrasal;
+import edu.stanford.nlp.mt.lm.LanguageModel;
+import edu.stanford.nlp.mt.lm.LanguageModelFactory;
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Decodes with a small synthetic system and checks that intra-sentence parallelism
+ * does not change the output.
+ */
+public class CubePruningDecoderTest {
+
+  private static final String LM = "test-resources/inputs/mt06.flt_giga.lm.gz";
+  private static final String[] TARGET_WORDS = { "the", "president", "said", "on", "tuesday",
+      "that", "talks", "would", "continue", "with", "china", "and", "in", "of", "a", "new",
+      "government", "officials", "to", "meet" };
+  private static final int NUM_SOURCE_WORDS = 30;
+
+  private static String phraseTable;
+  private static String weights;
+  private static LanguageModel<IString> lm;
+
+  @BeforeClass
+  public static void setUp() throws IOException {
+    Random random = new Random(7);
+    File f = File.createTempFile("cube", ".pt");
+    f.deleteOnExit();
+    try (PrintStream ps = new PrintStream(f, "UTF-8")) {
+      for (int i = 0; i < 600; ++i) {
+        final int sourceLength = 1 + random.nextInt(3);
+        final int targetLength = 1 + random.nextInt(3);
+        List<String> source = new ArrayList<>();
+        for (int j = 0; j < sourceLength; ++j) source.add("cpd" + random.nextInt(NUM_SOURCE_WORDS));
+        List<String> target = new ArrayList<>();
+        for (int j = 0; j < targetLength; ++j) target.add(TARGET_WORDS[random.nextInt(TARGET_WORDS.length)]);
+        ps.printf("%s ||| %s ||| %s ||| %s ||| %.4f %.4f %.4f %.4f%n", String.join(" ", source),
+            String.join(" ", target), String.join(" ", Collections.nCopies(sourceLength, "()")),
+            String.join(" ", Collections.nCopies(targetLength, "()")), -3 * random.nextDouble(),
+            -3 * random.nextDouble(), -3 * random.nextDouble(), -3 * random.nextDouble());
+      }
+    }
+    phraseTable = f.getPath();
+
+    f = File.createTempFile("cube", ".binwts");
+    f.deleteOnExit();
+    Counter<String> w = new ClassicCounter<>();
+    w.setCount("LM", 0.5);
+    w.setCount("LinearDistortion", -0.3);
+    w.setCount("WordPenalty", -0.2);
+    w.setCount("PhrasePenalty", 0.1);
+    w.setCount("UnknownWord", -1.0);
+    for (int i = 0; i < 4; ++i) w.setCount("TM:FPT." + i, 0.2 + 0.05 * i);
+    IOTools.writeWeights(f.getPath(), w);
+    weights = f.getPath();
+    lm = LanguageModelFactory.load(LM);
+  }
+
+  /**
+   * The configuration of a small synthetic system.
+   * 
+   * @param searchThreads
+   * @return
+   */
+  public static Map<String,List<String>> config(int searchThreads) {
+    Map<String,List<String>> config = new HashMap<>();
+    config.put(Phrasal.TRANSLATION_TABLE_OPT, Arrays.asList(phraseTable));
+    config.put(Phrasal.LANGUAGE_MODEL_OPT, Arrays.asList(LM));
+    config.put(Phrasal.WEIGHTS_FILE, Arrays.asList(weights));
+    config.put(Phrasal.DISTORTION_LIMIT, Arrays.asList("5"));
+    config.put(Phrasal.NBEST_LIST_OPT, Arrays.asList("20"));
+    config.put(Phrasal.BEAM_SIZE, Arrays.asList("200"));
+    config.put(Phrasal.SEARCH_THREADS, Arrays.asList(String.valueOf(searchThreads)));
+    return config;
+  }
+
+  /**
+   * Load the synthetic system.
+   * 
+   * @param config
+   * @return
+   */
+  public static Phrasal load(Map<String,List<String>> config) {
+    return Phrasal.loadDecoder(config, lm);
+  }
+
+  /**
+   * Random inputs of the synthetic system, with some unknown words.
+   * 
+   * @param numInputs
+   * @return
+   */
+  public static List<Sequence<IString>> inputs(int numInputs) {
+    Random random = new Random(11);
+    List<Sequence<IString>> inputs = new ArrayList<>(numInputs);
+    for (int i = 0; i < numInputs; ++i) {
+      final int length = 5 + random.nextInt(12);
+      List<String> words = new ArrayList<>(length);
+      for (int j = 0; j < length; ++j) {
+        words.add(random.nextInt(20) == 0 ? "cpd_unk" + j : "cpd" + random.nextInt(NUM_SOURCE_WORDS));
+      }
+      inputs.add(IStrings.tokenize(String.join(" ", words)));
+    }
+    return inputs;
+  }
+
+  private static List<String> nbest(Phrasal phrasal, Sequence<IString> source, int sourceId) {
+    List<String> nbest = new ArrayList<>();
+    for (RichTranslation<IString,String> t : phrasal.decode(source, sourceId, 0)) {
+      nbest.add(String.format("%s ||| %s ||| %.6f", t.translation, t.features, t.score));
+    }
+    return nbest;
+  }
+
+  @Test
+  public void testParallelSearchMatchesSerial() {
+    Phrasal serial = load(config(1));
+    Phrasal parallel = load(config(4));
+    List<Sequence<IString>> inputs = inputs(10);
+    for (int i = 0; i < inputs.size(); ++i) {
+      List<String> expected = nbest(serial, inputs.get(i), i);
+      assertTrue(expected.size() > 1);
+      assertEquals(expected, nbest(parallel, inputs.get(i), i));
+    }
+  }
+}
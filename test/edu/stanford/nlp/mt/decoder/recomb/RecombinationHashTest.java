@@ -0,0 +1,103 @@
+package edu.stanford.nlp.mt.decoder.recomb;
+
+import static org.junit.Assert.*;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.recomb.RecombinationHash.Status;
+import edu.stanford.nlp.mt.decoder.util.State;
+
+/**
+ * Unit test for the recombination table.
+ */
+public class RecombinationHashTest {
+
+  private static class TestState implements State<TestState> {
+    public final int signature;
+    public final double score;
+    public TestState(int signature, double score) {
+      this.signature = signature;
+      this.score = score;
+    }
+    @Override
+    public int compareTo(TestState o) { return Double.compare(o.score, score); }
+    @Override
+    public double score() { return score; }
+    @Override
+    public double partialScore() { return score; }
+    @Override
+    public State<TestState> parent() { return null; }
+    @Override
+    public int depth() { return 0; }
+  }
+
+  /**
+   * States are equivalent if they have the same signature. The hash code
+   * collides for every tenth signature.
+   */
+  private static class TestFilter implements RecombinationFilter<TestState> {
+    @Override
+    public boolean combinable(TestState hypA, TestState hypB) {
+      return hypA.signature == hypB.signature;
+    }
+    @Override
+    public long recombinationHashCode(TestState hyp) {
+      return hyp.signature / 10;
+    }
+    @Override
+    public Object clone() throws CloneNotSupportedException {
+      return super.clone();
+    }
+  }
+
+  @Test
+  public void testUpdate() {
+    RecombinationHash<TestState> hash = new RecombinationHash<>(new TestFilter());
+    TestState a = new TestState(1, -1.0);
+    TestState b = new TestState(1, -2.0);
+    TestState c = new TestState(1, -0.5);
+    TestState d = new TestState(2, -3.0);
+    assertEquals(Status.NOVEL, hash.update(a));
+    assertEquals(Status.SELF, hash.update(a));
+    assertEquals(Status.COMBINABLE, hash.update(b));
+    assertSame(a, hash.getLastBestOnQuery());
+    assertSame(b, hash.getLastRedundant());
+    assertEquals(Status.BETTER, hash.update(c));
+    assertSame(a, hash.getLastRedundant());
+    assertEquals(Status.NOVEL, hash.update(d));
+    assertEquals(2, hash.size());
+    assertTrue(hash.isBest(c));
+    assertFalse(hash.isBest(a));
+  }
+
+  @Test
+  public void testGrowAndRemove() {
+    RecombinationHash<TestState> hash = new RecombinationHash<>(new TestFilter());
+    final int numStates = 5000;
+    TestState[] states = new TestState[numStates];
+    for (int i = 0; i < numStates; ++i) {
+      states[i] = new TestState(i, -i);
+      assertEquals(Status.NOVEL, hash.update(states[i]));
+    }
+    assertEquals(numStates, hash.size());
+    for (int i = 0; i < numStates; i += 3) {
+      hash.remove(states[i]);
+    }
+    Set<TestState> remaining = new HashSet<>();
+    for (int i = 0; i < numStates; ++i) {
+      if (i % 3 == 0) {
+        assertFalse(hash.isBest(states[i]));
+      } else {
+        assertTrue(hash.isBest(states[i]));
+        remaining.add(states[i]);
+      }
+    }
+    List<TestState> derivations = hash.derivations();
+    assertEquals(remaining.size(), hash.size());
+    assertEquals(remaining, new HashSet<>(derivations));
+  }
+}
@@ -0,0 +1,117 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.AbstractBeamInferer.PhraseQuery;
+import edu.stanford.nlp.mt.decoder.feat.RuleFeaturizer;
+import edu.stanford.nlp.mt.tm.ConcreteRule;
+import edu.stanford.nlp.mt.tm.Rule;
+import edu.stanford.nlp.mt.util.CoverageSet;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.Featurizable;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for shared rule queries.
+ */
+public class RuleQueryBatchTest {
+
+  private static final Sequence<IString> SOURCE = IStrings.tokenize("a b");
+
+  /**
+   * A rule feature whose value is the input id.
+   */
+  private static final RuleFeaturizer<IString,String> INPUT_ID_FEATURIZER =
+      new RuleFeaturizer<IString,String>() {
+    @Override
+    public void initialize() {}
+
+    @Override
+    public List<FeatureValue<String>> ruleFeaturize(Featurizable<IString,String> f) {
+      return Arrays.asList(new FeatureValue<>("RuleQueryBatchTest.id", f.sourceInputId));
+    }
+
+    @Override
+    public boolean isolationScoreOnly() {
+      return false;
+    }
+  };
+
+  private static SparseScorer scorer(double weight) {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("RuleQueryBatchTest.id", weight);
+    return new SparseScorer(weights);
+  }
+
+  /**
+   * Query one rule for the whole source.
+   */
+  private static PhraseQuery<IString,String> query(Scorer<String> scorer, int sourceInputId,
+      AtomicInteger numQueries) {
+    numQueries.incrementAndGet();
+    Rule<IString> rule = new Rule<>(new float[0], new String[0], IStrings.tokenize("x y"), SOURCE,
+        null, "test");
+    CoverageSet coverage = new CoverageSet(SOURCE.size());
+    coverage.set(0, SOURCE.size());
+    List<ConcreteRule<IString,String>> ruleList = new ArrayList<>();
+    ruleList.add(new ConcreteRule<>(rule, coverage, INPUT_ID_FEATURIZER, scorer, SOURCE,
+        sourceInputId, new InputProperties()));
+    return new PhraseQuery<>(SOURCE, ruleList);
+  }
+
+  @Test
+  public void testRulesAreScoredPerInput() {
+    RuleQueryBatch<IString,String> batch = new RuleQueryBatch<>();
+    final AtomicInteger numQueries = new AtomicInteger();
+    final SparseScorer scorer1 = scorer(1.0);
+    final SparseScorer scorer2 = scorer(-2.0);
+    PhraseQuery<IString,String> query1 = batch.get(() -> query(scorer1, 1, numQueries),
+        INPUT_ID_FEATURIZER, scorer1, 1, new InputProperties());
+    PhraseQuery<IString,String> query2 = batch.get(() -> query(scorer2, 2, numQueries),
+        INPUT_ID_FEATURIZER, scorer2, 2, new InputProperties());
+    assertEquals(1, numQueries.get());
+
+    ConcreteRule<IString,String> rule1 = query1.ruleList.get(0);
+    ConcreteRule<IString,String> rule2 = query2.ruleList.get(0);
+    assertSame(rule1.abstractRule, rule2.abstractRule);
+    assertEquals(1.0, rule1.isolationScore, 1e-9);
+    assertEquals(1.0, rule1.cachedFeatureList.get(0).value, 1e-9);
+    assertEquals(-4.0, rule2.isolationScore, 1e-9);
+    assertEquals(2.0, rule2.cachedFeatureList.get(0).value, 1e-9);
+  }
+
+  @Test
+  public void testInterruptedQueryIsNotShared() {
+    RuleQueryBatch<IString,String> batch = new RuleQueryBatch<>();
+    final AtomicInteger numQueries = new AtomicInteger();
+    final SparseScorer scorer = scorer(1.0);
+    // The first query is interrupted, e.g., at a request deadline
+    PhraseQuery<IString,String> query = batch.get(() -> {
+      numQueries.incrementAndGet();
+      Thread.currentThread().interrupt();
+      return new PhraseQuery<>(SOURCE, new ArrayList<>());
+    }, INPUT_ID_FEATURIZER, scorer, 1, new InputProperties());
+    assertTrue(Thread.interrupted());
+    assertTrue(query.ruleList.isEmpty());
+
+    query = batch.get(() -> query(scorer, 2, numQueries), INPUT_ID_FEATURIZER, scorer, 2,
+        new InputProperties());
+    assertEquals(1, query.ruleList.size());
+    query = batch.get(() -> query(scorer, 3, numQueries), INPUT_ID_FEATURIZER, scorer, 3,
+        new InputProperties());
+    assertEquals(1, query.ruleList.size());
+    assertEquals(2, numQueries.get());
+  }
+}
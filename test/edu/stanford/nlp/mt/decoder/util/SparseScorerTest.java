@@ -0,0 +1,62 @@
+package edu.stanford.nlp.mt.decoder.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit tests for the sparse scorer and its weight snapshots.
+ */
+public class SparseScorerTest {
+
+  @Test
+  public void testUpdateWeightsCopies() {
+    FeatureRegistry.add("SparseScorerTest.a");
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("SparseScorerTest.a", 2.0);
+    SparseScorer scorer = new SparseScorer(weights);
+    List<FeatureValue<String>> features = Arrays.asList(new FeatureValue<>("SparseScorerTest.a", 1.5));
+    assertEquals(3.0, scorer.getIncrementalScore(features), 1e-9);
+
+    weights.setCount("SparseScorerTest.a", 5.0);
+    assertEquals(3.0, scorer.getIncrementalScore(features), 1e-9);
+    scorer.updateWeights(weights);
+    assertEquals(7.5, scorer.getIncrementalScore(features), 1e-9);
+  }
+
+  @Test
+  public void testSnapshotCache() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("SparseScorerTest.b", -1.0);
+    weights.setCount("SparseScorerTest.nan", Double.NaN);
+    weights.setCount("SparseScorerTest.late", 4.0);
+    FeatureRegistry.add("SparseScorerTest.b");
+    FeatureRegistry.add("SparseScorerTest.zero");
+    FeatureRegistry.add("SparseScorerTest.nan");
+    WeightSnapshot snapshot = new WeightSnapshot(weights, 3);
+    assertEquals(3, snapshot.version());
+
+    // Features registered before the snapshot are in the dense array, including
+    // ones without a weight
+    FeatureValue<String> b = new FeatureValue<>("SparseScorerTest.b", 1.0);
+    assertEquals(-1.0, snapshot.getWeight(b), 0.0);
+    assertEquals(-1.0, snapshot.getWeight(FeatureRegistry.indexOf("SparseScorerTest.b")), 0.0);
+    assertEquals(0.0, snapshot.getWeight(new FeatureValue<>("SparseScorerTest.zero", 1.0)), 0.0);
+    assertTrue(Double.isNaN(snapshot.getWeight(new FeatureValue<>("SparseScorerTest.nan", 1.0))));
+
+    // Unregistered features and features registered later are read from the weights
+    FeatureValue<String> late = new FeatureValue<>("SparseScorerTest.late", 1.0);
+    assertEquals(4.0, snapshot.getWeight(late), 0.0);
+    final int lateId = FeatureRegistry.add("SparseScorerTest.late");
+    assertEquals(4.0, snapshot.getWeight(new FeatureValue<>("SparseScorerTest.late", 1.0)), 0.0);
+    assertEquals(4.0, snapshot.getWeight(lateId), 0.0);
+  }
+}
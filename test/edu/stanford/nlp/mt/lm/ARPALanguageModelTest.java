@@ -1,10 +1,11 @@
 package edu.stanford.nlp.mt.lm;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 
 import static org.junit.Assert.*;
 
-import org.junit.Before;
 import org.junit.Test;
 
 import edu.stanford.nlp.mt.util.IString;
@@ -22,20 +23,10 @@ import edu.stanford.nlp.mt.stats.NumericalPrecision;
  */
 public class ARPALanguageModelTest {
 
-  private ARPALanguageModel lm;
-
-  @Before
-  public void setUp() {
-    try {
-      lm = (ARPALanguageModel) LanguageModelFactory
-          .load("test-resources/inputs/3gm-probing.arpa.gz");
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-  }
-
   @Test
-  public void testScore() {
+  public void testScore() throws IOException {
+    ARPALanguageModel lm = (ARPALanguageModel) LanguageModelFactory
+        .load("test-resources/inputs/3gm-probing.arpa.gz");
     assertTrue(lm.tables.length == 3);
     String sent = "This is a test sentence to be scored by the language model";
     Sequence<IString> seq = IStrings.tokenize(sent.toLowerCase());
@@ -44,4 +35,51 @@ public class ARPALanguageModelTest {
     double score = lm.score(paddedSequence, 1, null).getScore();
     assertTrue(NumericalPrecision.equals(score, -72.46472558379173, 1e-6));
   }
+
+  private static final String TRIGRAM_LM = "test-resources/inputs/mt06.flt_giga.lm.gz";
+
+  @Test
+  public void testQuantizedScore() throws IOException {
+    ARPALanguageModel lm = (ARPALanguageModel) LanguageModelFactory.load(TRIGRAM_LM);
+    ARPALanguageModel qlm = (ARPALanguageModel) LanguageModelFactory
+        .load(LanguageModelFactory.QUANTIZE_TAG + "16:" + TRIGRAM_LM);
+    String sent = "the president said on tuesday that the talks would continue";
+    Sequence<IString> paddedSequence = Sequences.wrapStartEnd(
+        IStrings.tokenize(sent), qlm.getStartToken(), qlm.getEndToken());
+    LMState expected = lm.score(paddedSequence, 1, null);
+    LMState state = qlm.score(paddedSequence, 1, null);
+    assertEquals(expected.getScore(), state.getScore(), 1e-2);
+    assertEquals(expected, state);
+  }
+
+  @Test
+  public void testNaNBackoff() throws IOException {
+    File f = File.createTempFile("nan", ".arpa");
+    f.deleteOnExit();
+    try (PrintStream ps = new PrintStream(f, "UTF-8")) {
+      ps.println("\\data\\");
+      ps.println("ngram 1=4");
+      ps.println("ngram 2=1");
+      ps.println();
+      ps.println("\\1-grams:");
+      ps.println("-1.0\t<s>\t-0.5");
+      ps.println("-1.0\t</s>");
+      ps.println("-2.0\tnanbow_a\tNaN");
+      ps.println("-3.0\tnanbow_b\t-0.25");
+      ps.println();
+      ps.println("\\2-grams:");
+      ps.println("-0.5\tnanbow_b\tnanbow_a");
+      ps.println();
+      ps.println("\\end\\");
+    }
+    ARPALanguageModel lm = new ARPALanguageModel(f.getPath());
+    // Unseen bigram: the NaN backoff weight of the context is treated as log(1)
+    Sequence<IString> seq = IStrings.tokenize("nanbow_a nanbow_b");
+    double score = lm.score(seq, 1, null).getScore();
+    assertEquals(-3.0 * Math.log(10), score, 1e-5);
+    // Backoff weights of other contexts are still applied
+    seq = IStrings.tokenize("nanbow_b nanbow_b");
+    score = lm.score(seq, 1, null).getScore();
+    assertEquals(-3.25 * Math.log(10), score, 1e-5);
+  }
 }
@@ -1,6 +1,8 @@
 package edu.stanford.nlp.mt.lm;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
 
 import static org.junit.Assert.*;
 import static org.junit.Assume.*;
@@ -76,4 +78,60 @@ public class KenLanguageModelTest {
     double score = scoreTestSentence(lm);
     assertEquals("Score mismatch", -72.4647216796875, score, 1e-6);
   }
+
+  @Test
+  public void testBatch() throws IOException {
+    KenLanguageModel lm = (KenLanguageModel) LanguageModelFactory
+        .load("kenlm:test-resources/inputs/3gm-probing.bin");
+    MappedLanguageModelTest.assertBatchMatchesSingle(lm);
+  }
+
+  @Test
+  public void testCache() throws IOException {
+    KenLanguageModel lm = (KenLanguageModel) LanguageModelFactory
+        .load("kenlm:test-resources/inputs/3gm-probing.bin");
+    // A single slot, so every new query evicts the previous one
+    KenLanguageModel evicting = (KenLanguageModel) LanguageModelFactory
+        .load("kenlm:cache=1:test-resources/inputs/3gm-probing.bin");
+    KenLanguageModel cached = (KenLanguageModel) LanguageModelFactory
+        .load("kenlm:cache=4096:test-resources/inputs/3gm-probing.bin");
+    for (int pass = 0; pass < 2; ++pass) {
+      assertCacheMatchesUncached(lm, evicting);
+      assertCacheMatchesUncached(lm, cached);
+    }
+    assertEquals(0.0, lm.getCacheHitRate(), 0.0);
+    assertTrue(evicting.getCacheHitRate() > 0.0);
+    assertTrue(cached.getCacheHitRate() > evicting.getCacheHitRate());
+    MappedLanguageModelTest.assertBatchMatchesSingle(cached);
+  }
+
+  /**
+   * Check that single and batched queries of a cached model return the same
+   * scores and states as the uncached model.
+   * 
+   * @param lm
+   * @param cached
+   */
+  private static void assertCacheMatchesUncached(KenLanguageModel lm, KenLanguageModel cached) {
+    Sequence<IString> prefix = Sequences.wrapStart(IStrings.tokenize("the president"), lm.getStartToken());
+    LMState priorState = lm.score(prefix, 1, null);
+    LMState cachedPriorState = cached.score(prefix, 1, null);
+    assertEquals(priorState.getScore(), cachedPriorState.getScore(), 0.0);
+    assertEquals(priorState, cachedPriorState);
+    // The same words with and without a prior state
+    List<Sequence<IString>> sequences = Arrays.asList(
+        IStrings.tokenize("said on tuesday"), IStrings.tokenize("said on tuesday"), 
+        IStrings.tokenize("talks would continue"), IStrings.tokenize("said on tuesday"));
+    int[] startOffsets = { 0, 0, 0, 0 };
+    List<LMState> priorStates = Arrays.asList(priorState, null, priorState, priorState);
+    List<LMState> batch = cached.score(sequences, startOffsets, priorStates);
+    for (int i = 0; i < sequences.size(); ++i) {
+      LMState expected = lm.score(sequences.get(i), startOffsets[i], priorStates.get(i));
+      LMState single = cached.score(sequences.get(i), startOffsets[i], priorStates.get(i));
+      assertEquals(expected.getScore(), single.getScore(), 0.0);
+      assertEquals(expected, single);
+      assertEquals(expected.getScore(), batch.get(i).getScore(), 0.0);
+      assertEquals(expected, batch.get(i));
+    }
+  }
 }
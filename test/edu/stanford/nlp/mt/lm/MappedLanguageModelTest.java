@@ -0,0 +1,121 @@
+package edu.stanford.nlp.mt.lm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.mt.util.Sequences;
+
+/**
+ * Unit test.
+ */
+public class MappedLanguageModelTest {
+
+  private static final String TRIGRAM_LM = "test-resources/inputs/mt06.flt_giga.lm.gz";
+
+  @Test
+  public void testMatchesARPA() throws IOException {
+    File f = File.createTempFile("mappedlm", ".bin");
+    f.deleteOnExit();
+    MappedLanguageModel.build(TRIGRAM_LM, f.getPath());
+    LanguageModel<IString> lm = LanguageModelFactory.load(TRIGRAM_LM);
+    LanguageModel<IString> mlm = LanguageModelFactory.load(LanguageModelFactory.MAPPED_LM_TAG + f.getPath());
+    assertEquals(lm.order(), mlm.order());
+
+    String[] sents = { "the president said on tuesday that the talks would continue",
+        "qwzxv the united states", "" };
+    for (String sent : sents) {
+      Sequence<IString> seq = Sequences.wrapStartEnd(IStrings.tokenize(sent),
+          lm.getStartToken(), lm.getEndToken());
+      LMState expected = lm.score(seq, 1, null);
+      LMState actual = mlm.score(seq, 1, null);
+      assertEquals(expected.getScore(), actual.getScore(), 1e-9);
+      assertEquals(expected, actual);
+      
+      // Incremental scoring
+      if (seq.size() > 3) {
+        expected = lm.score(seq.subsequence(2, seq.size()), 0, lm.score(seq.subsequence(0, 2), 1, null));
+        actual = mlm.score(seq.subsequence(2, seq.size()), 0, mlm.score(seq.subsequence(0, 2), 1, null));
+        assertEquals(expected.getScore(), actual.getScore(), 1e-9);
+        assertEquals(expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testBatchMatchesSingle() throws IOException {
+    File f = File.createTempFile("mappedlm", ".bin");
+    f.deleteOnExit();
+    MappedLanguageModel.build(TRIGRAM_LM, f.getPath());
+    LanguageModel<IString> lm = LanguageModelFactory.load(TRIGRAM_LM);
+    LanguageModel<IString> mlm = LanguageModelFactory.load(LanguageModelFactory.MAPPED_LM_TAG + f.getPath());
+    assertBatchMatchesSingle(lm);
+    assertBatchMatchesSingle(mlm);
+  }
+
+  @Test
+  public void testNaNBackoff() throws IOException {
+    File arpa = File.createTempFile("nan", ".arpa");
+    arpa.deleteOnExit();
+    try (PrintStream ps = new PrintStream(arpa, "UTF-8")) {
+      ps.println("\\data\\");
+      ps.println("ngram 1=4");
+      ps.println("ngram 2=1");
+      ps.println();
+      ps.println("\\1-grams:");
+      ps.println("-1.0\t<s>\t-0.5");
+      ps.println("-1.0\t</s>");
+      ps.println("-2.0\tnanbow_a\tNaN");
+      ps.println("-3.0\tnanbow_b\t-0.25");
+      ps.println();
+      ps.println("\\2-grams:");
+      ps.println("-0.5\tnanbow_b\tnanbow_a");
+      ps.println();
+      ps.println("\\end\\");
+    }
+    File f = File.createTempFile("mappedlm", ".bin");
+    f.deleteOnExit();
+    MappedLanguageModel.build(arpa.getPath(), f.getPath());
+    MappedLanguageModel lm = new MappedLanguageModel(f.getPath());
+    // Unseen bigram: the NaN backoff weight of the context is treated as log(1)
+    Sequence<IString> seq = IStrings.tokenize("nanbow_a nanbow_b");
+    double score = lm.score(seq, 1, null).getScore();
+    assertEquals(-3.0 * Math.log(10), score, 1e-5);
+    // Backoff weights of other contexts are still applied
+    seq = IStrings.tokenize("nanbow_b nanbow_b");
+    score = lm.score(seq, 1, null).getScore();
+    assertEquals(-3.25 * Math.log(10), score, 1e-5);
+  }
+
+  /**
+   * Check that batched scoring returns the same states as single queries, including
+   * empty sequences and prior states.
+   * 
+   * @param lm
+   */
+  static void assertBatchMatchesSingle(LanguageModel<IString> lm) {
+    Sequence<IString> prefix = Sequences.wrapStart(IStrings.tokenize("the president"), lm.getStartToken());
+    LMState priorState = lm.score(prefix, 1, null);
+    List<Sequence<IString>> sequences = Arrays.asList(
+        IStrings.tokenize("said on tuesday"), IStrings.tokenize("qwzxv the united states"),
+        IStrings.tokenize(""), prefix, IStrings.tokenize("talks would continue"));
+    int[] startOffsets = { 0, 0, 0, 1, 0 };
+    List<LMState> priorStates = Arrays.asList(priorState, null, priorState, null, priorState);
+    List<LMState> batch = lm.score(sequences, startOffsets, priorStates);
+    assertEquals(sequences.size(), batch.size());
+    for (int i = 0; i < sequences.size(); ++i) {
+      LMState expected = lm.score(sequences.get(i), startOffsets[i], priorStates.get(i));
+      assertEquals(expected.getScore(), batch.get(i).getScore(), 0.0);
+      assertEquals(expected, batch.get(i));
+    }
+  }
+}
@@ -0,0 +1,49 @@
+package edu.stanford.nlp.mt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit test for BLEU+1 and its reference cache.
+ */
+public class BLEUGainTest {
+
+  private static final Sequence<IString> translation = IStrings.tokenize("the cat sat on the mat");
+
+  private static double uncachedScore(List<Sequence<IString>> references) {
+    return new BLEUGain<IString,String>().score(0, null, new ArrayList<>(references), translation);
+  }
+
+  @Test
+  public void testReferencesModifiedInPlace() {
+    BLEUGain<IString,String> metric = new BLEUGain<>();
+    List<Sequence<IString>> references = new ArrayList<>(Arrays.asList(
+        IStrings.tokenize("the cat sat on the mat"),
+        IStrings.tokenize("a dog ran off")));
+    final double firstScore = metric.score(0, null, references, translation);
+    assertEquals(uncachedScore(references), firstScore, 1e-9);
+
+    // Replace the head of the list, as OnlineTuner does for new random prefixes
+    references.remove(0);
+    references.add(0, IStrings.tokenize("a cat sat"));
+    final double score = metric.score(0, null, references, translation);
+    assertEquals(uncachedScore(references), score, 1e-9);
+    assertTrue(score < firstScore);
+
+    // Same contents, new list
+    assertEquals(score, metric.score(0, null, new ArrayList<>(references), translation), 1e-9);
+
+    // Remove a reference
+    references.remove(0);
+    assertEquals(uncachedScore(references), metric.score(0, null, references, translation), 1e-9);
+  }
+}
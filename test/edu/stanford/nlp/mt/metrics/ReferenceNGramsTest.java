@@ -0,0 +1,82 @@
+package edu.stanford.nlp.mt.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.ArraySequence;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for packed reference n-gram counts.
+ */
+public class ReferenceNGramsTest {
+
+  private static final int ORDER = 4;
+
+  private static final List<Sequence<IString>> references = Arrays.asList(
+      IStrings.tokenize("the cat sat on the mat"),
+      IStrings.tokenize("there is a cat on the mat on the mat"));
+
+  private static final String[] candidates = {
+    "the the the the the the",
+    "the cat sat on the mat",
+    "a cat is on the mat on the mat",
+    "the",
+    "",
+    "dog",
+  };
+
+  /**
+   * The clipped match counts computed with counters.
+   */
+  private static int[] counterMatches(Sequence<IString> candidate) {
+    Counter<Sequence<IString>> counts = MetricUtils.getNGramCounts(candidate, ORDER);
+    MetricUtils.clipCounts(counts, MetricUtils.getMaxNGramCounts(references, ORDER));
+    int[] matches = new int[ORDER];
+    for (Sequence<IString> ngram : counts.keySet()) {
+      matches[ngram.size() - 1] += (int) counts.getCount(ngram);
+    }
+    return matches;
+  }
+
+  private static Sequence<String> toStringSequence(Sequence<IString> seq) {
+    String[] tokens = new String[seq.size()];
+    for (int i = 0; i < tokens.length; ++i) tokens[i] = seq.get(i).toString();
+    return new ArraySequence<>(tokens);
+  }
+
+  @Test
+  public void testMatchCounts() {
+    ReferenceNGrams<IString> ngrams = new ReferenceNGrams<>(references, ORDER);
+    assertArrayEquals(new int[] {6, 10}, ngrams.lengths());
+    assertEquals(MetricUtils.getMaxNGramCounts(references, ORDER).size(), ngrams.size());
+    int[] matches = new int[ORDER];
+    for (String candidate : candidates) {
+      Sequence<IString> seq = IStrings.tokenize(candidate);
+      ngrams.matchCounts(seq, matches);
+      assertArrayEquals(candidate, counterMatches(seq), matches);
+    }
+  }
+
+  @Test
+  public void testNonIString() {
+    List<Sequence<String>> refs = new ArrayList<>();
+    for (Sequence<IString> reference : references) {
+      refs.add(toStringSequence(reference));
+    }
+    ReferenceNGrams<String> ngrams = new ReferenceNGrams<>(refs, ORDER);
+    int[] matches = new int[ORDER];
+    for (String candidate : candidates) {
+      ngrams.matchCounts(toStringSequence(IStrings.tokenize(candidate)), matches);
+      assertArrayEquals(candidate, counterMatches(IStrings.tokenize(candidate)), matches);
+    }
+  }
+}
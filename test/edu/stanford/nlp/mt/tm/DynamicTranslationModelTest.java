@@ -0,0 +1,193 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tm.DynamicTranslationModel.FeatureTemplate;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.InputProperties;
+import edu.stanford.nlp.mt.util.ParallelCorpus;
+import edu.stanford.nlp.mt.util.ParallelSuffixArray;
+
+/**
+ * Unit test for incremental updates to the dynamic translation model.
+ */
+public class DynamicTranslationModelTest {
+
+  private static DynamicTranslationModel<String> makeModel() {
+    ParallelCorpus corpus = new ParallelCorpus();
+    corpus.add("dtm_a dtm_b dtm_c", "dtm_x dtm_y dtm_z", "0-0 1-1 2-2");
+    corpus.add("dtm_b dtm_c dtm_d", "dtm_y dtm_z dtm_w", "0-0 1-1 2-2");
+    corpus.add("dtm_c dtm_a", "dtm_z dtm_x", "0-0 1-1");
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    DynamicTranslationModel<String> tm = new DynamicTranslationModel<>(sa);
+    tm.configureAsForegroundTM(FeatureTemplate.DENSE);
+    tm.setCompactionThreshold(Integer.MAX_VALUE);
+    return tm;
+  }
+
+  private static Set<String> rules(DynamicTranslationModel<String> tm, String source) {
+    Set<String> rules = new TreeSet<>();
+    List<ConcreteRule<IString,String>> ruleList = tm.getRules(IStrings.tokenize(source),
+        new InputProperties(), 0, null);
+    for (ConcreteRule<IString,String> rule : ruleList) {
+      rules.add(String.format("%s => %s %s", rule.abstractRule.source, rule.abstractRule.target, 
+          Arrays.toString(rule.abstractRule.scores)));
+    }
+    return rules;
+  }
+
+  @Test
+  public void testUpdateAndCompact() throws InterruptedException, ExecutionException {
+    DynamicTranslationModel<String> tm = makeModel();
+    final IString a = new IString("dtm_a");
+    final IString e = new IString("dtm_e");
+    final IString x = new IString("dtm_x");
+    final IString v = new IString("dtm_v");
+    assertEquals(2, tm.getSourceLexCount(a));
+    assertEquals(0, tm.getSourceLexCount(e));
+    assertFalse(rules(tm, "dtm_a dtm_e").stream().anyMatch(r -> r.contains("dtm_v")));
+
+    assertTrue(tm.update("dtm_a dtm_b dtm_e", "dtm_x dtm_y dtm_v", "0-0 1-1 2-2"));
+    assertTrue(tm.update("dtm_e dtm_a", "dtm_v dtm_x", "0-0 1-1"));
+    assertEquals(4, tm.getSourceLexCount(a));
+    assertEquals(2, tm.getSourceLexCount(e));
+    assertEquals(4, tm.getJointLexCount(a, x));
+    assertEquals(2, tm.getTargetLexCount(v));
+    final Set<String> rulesBefore = rules(tm, "dtm_e dtm_a dtm_b");
+    assertTrue(rulesBefore.stream().anyMatch(r -> r.startsWith("dtm_e dtm_a => dtm_v dtm_x")));
+
+    tm.compact().get();
+    assertEquals(5, tm.bitextSize());
+    assertEquals(4, tm.getSourceLexCount(a));
+    assertEquals(2, tm.getSourceLexCount(e));
+    assertEquals(4, tm.getJointLexCount(a, x));
+    assertEquals(2, tm.getTargetLexCount(v));
+    assertEquals(rulesBefore, rules(tm, "dtm_e dtm_a dtm_b"));
+
+    // Updates after compaction go to a new delta index
+    assertTrue(tm.update("dtm_e", "dtm_v", "0-0"));
+    assertEquals(3, tm.getSourceLexCount(e));
+    assertEquals(3, tm.getJointLexCount(e, v));
+  }
+
+  @Test
+  public void testParallelQuery() {
+    DynamicTranslationModel<String> tm = makeModel();
+    final String source = "dtm_a dtm_b dtm_c dtm_d dtm_c dtm_a dtm_b";
+    final Set<String> expected = rules(tm, source);
+    assertFalse(expected.isEmpty());
+
+    // Run every query in the pool
+    tm.setQueryThreads(3);
+    tm.setDirectExecutionLength(0);
+    for (int i = 0; i < 10; ++i) {
+      assertEquals(expected, rules(tm, source));
+    }
+  }
+
+  /**
+   * The abstract rules of a query, which are shared if they are cached.
+   */
+  private static Set<Rule<IString>> cachedRules(DynamicTranslationModel<String> tm, String source) {
+    Set<Rule<IString>> rules = Collections.newSetFromMap(new IdentityHashMap<>());
+    for (ConcreteRule<IString,String> rule : tm.getRules(IStrings.tokenize(source), 
+        new InputProperties(), 0, null)) {
+      rules.add(rule.abstractRule);
+    }
+    return rules;
+  }
+
+  @Test
+  public void testUpdateKeepsUnaffectedCachedRules() {
+    DynamicTranslationModel<String> tm = makeModel();
+    final Set<Rule<IString>> unaffected = cachedRules(tm, "dtm_b dtm_c");
+    final Set<String> affected = rules(tm, "dtm_c dtm_a");
+    assertEquals(unaffected, cachedRules(tm, "dtm_b dtm_c"));
+
+    // The update shares no words with the rules for "dtm_b dtm_c"
+    assertTrue(tm.update("dtm_q dtm_a", "dtm_r dtm_u", "0-0 1-1"));
+    final long hits = tm.getRuleCacheStats().hitCount();
+    assertEquals(unaffected, cachedRules(tm, "dtm_b dtm_c"));
+    assertEquals(hits + 3, tm.getRuleCacheStats().hitCount());
+
+    // The update changes the counts of "dtm_a"
+    assertNotEquals(affected, rules(tm, "dtm_c dtm_a"));
+  }
+
+  @Test
+  public void testUpdateKeepsUnaffectedFrequentRules() throws InterruptedException, ExecutionException {
+    // Source words that occur more than 10000 times are in the frequent rule cache
+    ParallelCorpus corpus = new ParallelCorpus();
+    for (int i = 0; i <= 10000; ++i) {
+      corpus.add("dtm_f dtm_g", "dtm_p dtm_q", "0-0 1-1");
+    }
+    // The last source n-grams in suffix array order are not cached
+    corpus.add("dtm_h", "dtm_x", "0-0");
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    DynamicTranslationModel<String> tm = new DynamicTranslationModel<>(sa);
+    tm.configureAsForegroundTM(FeatureTemplate.DENSE);
+    tm.setCompactionThreshold(Integer.MAX_VALUE);
+    tm.setRuleCacheSize(0);
+    final Set<Rule<IString>> f = cachedRules(tm, "dtm_f");
+    final Set<Rule<IString>> g = cachedRules(tm, "dtm_g");
+    assertFalse(f.isEmpty());
+    assertEquals(f, cachedRules(tm, "dtm_f"));
+    assertEquals(g, cachedRules(tm, "dtm_g"));
+
+    // The update shares no words with the frequent rules
+    assertTrue(tm.update("dtm_a", "dtm_x", "0-0"));
+    assertEquals(f, cachedRules(tm, "dtm_f"));
+    assertEquals(g, cachedRules(tm, "dtm_g"));
+
+    // The update changes the counts of "dtm_f", but not of "dtm_g"
+    assertTrue(tm.update("dtm_f", "dtm_p", "0-0"));
+    final Set<Rule<IString>> updated = cachedRules(tm, "dtm_f");
+    assertTrue(Collections.disjoint(f, updated));
+    assertEquals(g, cachedRules(tm, "dtm_g"));
+
+    // Compaction rebuilds the frequent rules from the merged index
+    final Set<String> rulesBefore = rules(tm, "dtm_f");
+    tm.compact().get();
+    final Set<Rule<IString>> compacted = cachedRules(tm, "dtm_f");
+    assertTrue(Collections.disjoint(updated, compacted));
+    assertEquals(compacted, cachedRules(tm, "dtm_f"));
+    assertEquals(rulesBefore, rules(tm, "dtm_f"));
+  }
+
+  @Test
+  public void testCachedRulesAfterTargetUpdate() {
+    DynamicTranslationModel<String> tm = makeModel();
+    final Set<String> before = rules(tm, "dtm_c dtm_a");
+    assertEquals(before, rules(tm, "dtm_c dtm_a"));
+
+    // The update shares only target words with the cached rules, but it changes
+    // their target counts and lexical weights.
+    assertTrue(tm.update("dtm_q", "dtm_z", "0-0"));
+    final Set<String> after = rules(tm, "dtm_c dtm_a");
+    assertNotEquals(before, after);
+
+    ParallelCorpus corpus = new ParallelCorpus();
+    corpus.add("dtm_a dtm_b dtm_c", "dtm_x dtm_y dtm_z", "0-0 1-1 2-2");
+    corpus.add("dtm_b dtm_c dtm_d", "dtm_y dtm_z dtm_w", "0-0 1-1 2-2");
+    corpus.add("dtm_c dtm_a", "dtm_z dtm_x", "0-0 1-1");
+    corpus.add("dtm_q", "dtm_z", "0-0");
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    DynamicTranslationModel<String> rebuilt = new DynamicTranslationModel<>(sa);
+    rebuilt.configureAsForegroundTM(FeatureTemplate.DENSE);
+    assertEquals(rules(rebuilt, "dtm_c dtm_a"), after);
+  }
+}
@@ -0,0 +1,100 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.IOTools;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Round-trip tests for the memory-mapped phrase table.
+ */
+public class MappedPhraseTableTest {
+
+  private static final String PHRASE_TABLE = "test-resources/inputs/mt06.phrase-table.gz";
+
+  private static List<Sequence<IString>> sources() throws IOException {
+    Set<String> sources = new LinkedHashSet<>();
+    try (LineNumberReader reader = IOTools.getReaderFromFile(PHRASE_TABLE)) {
+      for (String line; (line = reader.readLine()) != null;) {
+        sources.add(line.split(" \\|\\|\\| ")[0].trim());
+      }
+    }
+    List<Sequence<IString>> sequences = new ArrayList<>(sources.size());
+    for (String source : sources) sequences.add(IStrings.tokenize(source));
+    return sequences;
+  }
+
+  private static MappedPhraseTable<String> build(int quantizationBits) throws IOException {
+    File f = File.createTempFile("mapped", ".pt");
+    f.deleteOnExit();
+    MappedPhraseTable.build(PHRASE_TABLE, f.getPath(), quantizationBits);
+    return new MappedPhraseTable<>(f.getPath());
+  }
+
+  /**
+   * Compare the rules of both tables, in order. Scores must agree to within tolerance.
+   */
+  private static void assertSameRules(CompiledPhraseTable<String> expected,
+      MappedPhraseTable<String> actual, double tolerance) throws IOException {
+    assertEquals(expected.maxLengthSource(), actual.maxLengthSource());
+    assertEquals(expected.maxLengthTarget(), actual.maxLengthTarget());
+    int numRules = 0;
+    for (Sequence<IString> source : sources()) {
+      List<Rule<IString>> expectedRules = expected.query(source);
+      List<Rule<IString>> rules = actual.query(source);
+      assertNotNull(source.toString(), rules);
+      assertEquals(source.toString(), expectedRules.size(), rules.size());
+      for (int i = 0; i < rules.size(); ++i) {
+        Rule<IString> expectedRule = expectedRules.get(i);
+        Rule<IString> rule = rules.get(i);
+        assertEquals(expectedRule.source, rule.source);
+        assertEquals(expectedRule.target, rule.target);
+        assertEquals(String.valueOf(expectedRule.alignment), String.valueOf(rule.alignment));
+        assertEquals(expectedRule.scores.length, rule.scores.length);
+        for (int j = 0; j < rule.scores.length; ++j) {
+          assertEquals(expectedRule.scores[j], rule.scores[j], tolerance);
+        }
+        assertEquals(expectedRule.id - expected.minRuleIndex(), rule.id - actual.minRuleIndex());
+        assertEquals(rule.id, actual.getId(source, rule.target));
+      }
+      numRules += rules.size();
+    }
+    assertEquals(numRules, actual.size());
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    CompiledPhraseTable<String> expected = new CompiledPhraseTable<>(PHRASE_TABLE);
+    assertSameRules(expected, build(0), 0.0);
+  }
+
+  @Test
+  public void testQuantizedRoundTrip() throws IOException {
+    CompiledPhraseTable<String> expected = new CompiledPhraseTable<>(PHRASE_TABLE);
+    assertSameRules(expected, build(16), 1e-3);
+  }
+
+  @Test
+  public void testUnknownSource() throws IOException {
+    MappedPhraseTable<String> tm = build(0);
+    assertNull(tm.query(IStrings.tokenize("mapped_pt_unknown_word")));
+    assertNull(tm.query(IStrings.tokenize("")));
+    List<Sequence<IString>> sources = sources();
+    // A known word in an unknown phrase
+    Sequence<IString> source = sources.get(0).concat(IStrings.tokenize("mapped_pt_unknown_word"));
+    assertNull(tm.query(source));
+    assertEquals(-1, tm.getId(source, source));
+  }
+}
@@ -0,0 +1,92 @@
+package edu.stanford.nlp.mt.tm;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tm.PhraseTableFilter.Mode;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.Sequence;
+
+/**
+ * Unit tests for phrase table filtering.
+ */
+public class PhraseTableFilterTest {
+
+  private static boolean accept(PhraseTableFilter filter, String source) {
+    String line = source + CompiledPhraseTable.FIELD_DELIM + "x";
+    return filter.accept(line, line.indexOf(CompiledPhraseTable.FIELD_DELIM));
+  }
+
+  @Test
+  public void testSentenceMode() {
+    PhraseTableFilter filter = new PhraseTableFilter(Mode.SENTENCE, 2);
+    filter.addSentence("a b c d e");
+    filter.addSentence("  f g ");
+    assertTrue(accept(filter, "a"));
+    assertTrue(accept(filter, "b c"));
+    assertTrue(accept(filter, " f  g"));
+    assertFalse(accept(filter, "a c"));
+    assertFalse(accept(filter, "e f"));
+    assertFalse(accept(filter, "z"));
+    assertFalse(accept(filter, ""));
+    // Longer than the indexed n-grams
+    assertTrue(accept(filter, "b c d"));
+    assertTrue(accept(filter, "a b c d e"));
+    assertFalse(accept(filter, "b c e"));
+    assertFalse(accept(filter, "a b c d e f"));
+  }
+
+  @Test
+  public void testDocumentMode() {
+    PhraseTableFilter filter = new PhraseTableFilter(Mode.DOCUMENT);
+    filter.addSentence("a b c");
+    filter.addSentence("d");
+    assertTrue(accept(filter, "c a"));
+    assertTrue(accept(filter, "d b"));
+    assertFalse(accept(filter, "a z"));
+  }
+
+  private static File writeLines(String... lines) throws IOException {
+    File f = File.createTempFile("filter", ".txt");
+    f.deleteOnExit();
+    try (PrintStream ps = new PrintStream(f, "UTF-8")) {
+      for (String line : lines) ps.println(line);
+    }
+    return f;
+  }
+
+  @Test
+  public void testFilteredPhraseTable() throws IOException {
+    File phraseTable = writeLines(
+        "ptf_a ||| x ||| (0) ||| (0) ||| 0.1 0.2",
+        "ptf_a ||| y ||| (0) ||| (0) ||| 0.3 0.4",
+        "ptf_a ptf_b ||| x y ||| (0) (1) ||| (0) (1) ||| 0.5 0.6",
+        "ptf_b ptf_a ||| y x ||| (0) (1) ||| (0) (1) ||| 0.7 0.8",
+        "ptf_c ||| z ||| (0) ||| (0) ||| 0.9 1.0");
+    File input = writeLines("ptf_a ptf_b ptf_d");
+    CompiledPhraseTable<String> tm = new CompiledPhraseTable<>(
+        CompiledPhraseTable.DEFAULT_FEATURE_PREFIX, phraseTable.getPath(),
+        PhraseTableFilter.fromFile(input.getPath(), Mode.SENTENCE));
+    List<Rule<IString>> rules = tm.query(IStrings.tokenize("ptf_a"));
+    assertEquals(2, rules.size());
+    assertEquals(IStrings.tokenize("y"), rules.get(1).target);
+    assertEquals(0.4f, rules.get(1).scores[1], 0.0f);
+    Sequence<IString> source = IStrings.tokenize("ptf_a ptf_b");
+    assertEquals(1, tm.query(source).size());
+    assertNull(tm.query(IStrings.tokenize("ptf_b ptf_a")));
+    assertNull(tm.query(IStrings.tokenize("ptf_c")));
+    assertEquals(2, tm.maxLengthSource());
+
+    tm = new CompiledPhraseTable<>(CompiledPhraseTable.DEFAULT_FEATURE_PREFIX,
+        phraseTable.getPath(), PhraseTableFilter.fromFile(input.getPath(), Mode.DOCUMENT));
+    assertEquals(1, tm.query(IStrings.tokenize("ptf_b ptf_a")).size());
+    assertNull(tm.query(IStrings.tokenize("ptf_c")));
+  }
+}
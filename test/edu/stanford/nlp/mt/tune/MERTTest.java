@@ -0,0 +1,168 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.DenseScorer;
+import edu.stanford.nlp.mt.decoder.util.Scorer;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.IStrings;
+import edu.stanford.nlp.mt.util.ScoredFeaturizedTranslation;
+import edu.stanford.nlp.mt.util.SparseFeatureValueCollection;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+import edu.stanford.nlp.util.Index;
+
+/**
+ * Compares the MERT line search envelope with a brute-force envelope.
+ */
+public class MERTTest {
+
+  private static final String SLOPE = "MERTTest.slope";
+  private static final String INTERCEPT = "MERTTest.intercept";
+
+  private static final Scorer<String> slopeScorer = scorer(SLOPE);
+  private static final Scorer<String> interceptScorer = scorer(INTERCEPT);
+
+  private static Scorer<String> scorer(String feature) {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount(feature, 1.0);
+    return new DenseScorer(weights);
+  }
+
+  /**
+   * An n-best list with the lines <code>b + m*x</code>.
+   */
+  private static List<ScoredFeaturizedTranslation<IString, String>> nbestList(double[] m, double[] b) {
+    Index<String> featureIndex = new HashIndex<>();
+    List<ScoredFeaturizedTranslation<IString, String>> nbestList = new ArrayList<>(m.length);
+    for (int i = 0; i < m.length; ++i) {
+      List<FeatureValue<String>> features = Arrays.asList(new FeatureValue<>(SLOPE, m[i]),
+          new FeatureValue<>(INTERCEPT, b[i]));
+      nbestList.add(new ScoredFeaturizedTranslation<>(IStrings.tokenize("t" + i),
+          new SparseFeatureValueCollection<>(features, featureIndex), 0.0));
+    }
+    return nbestList;
+  }
+
+  /**
+   * The envelope computation that MERT used before the hull sweep. At each
+   * breakpoint, it scans all lines for the nearest intersection. The old scan took
+   * the lowest-index line when several lines met at that intersection, which could
+   * put a line on the envelope that is not highest after it. This version takes the
+   * steepest line, as the sweep does.
+   */
+  private static MERT.Envelope bruteForceEnvelope(double[] m, double[] b) {
+    int firstBest = 0;
+    for (int i = 1; i < m.length; i++) {
+      if (m[i] < m[firstBest] || (m[i] == m[firstBest] && b[i] > b[firstBest])) {
+        firstBest = i;
+      }
+    }
+    List<Double> breakpoints = new ArrayList<>();
+    List<Integer> translations = new ArrayList<>();
+    breakpoints.add(Double.NEGATIVE_INFINITY);
+    translations.add(firstBest);
+    double interceptLimit = Double.NEGATIVE_INFINITY;
+    for (int currentBest = firstBest; currentBest != -1;) {
+      double nearestIntercept = Double.POSITIVE_INFINITY;
+      int nextBest = -1;
+      for (int i = 0; i < m.length; i++) {
+        double intercept = (b[currentBest] - b[i]) / (m[i] - m[currentBest]);
+        if (intercept <= interceptLimit + MERT.MIN_PLATEAU_DIFF) continue;
+        if (intercept < nearestIntercept || 
+            (intercept == nearestIntercept && nextBest >= 0 && m[i] > m[nextBest])) {
+          nextBest = i;
+          nearestIntercept = intercept;
+        }
+      }
+      if (nearestIntercept == Double.POSITIVE_INFINITY) break;
+      breakpoints.add(nearestIntercept);
+      translations.add(nextBest);
+      interceptLimit = nearestIntercept;
+      currentBest = nextBest;
+    }
+    return new MERT.Envelope(breakpoints.stream().mapToDouble(Double::doubleValue).toArray(),
+        translations.stream().mapToInt(Integer::intValue).toArray());
+  }
+
+  private static void assertSameEnvelope(double[] m, double[] b) {
+    MERT.Envelope expected = bruteForceEnvelope(m, b);
+    MERT.Envelope actual = MERT.envelope(nbestList(m, b), interceptScorer, slopeScorer);
+    assertArrayEquals(expected.breakpoints, actual.breakpoints, 1e-9);
+    assertEquals(expected.translations.length, actual.translations.length);
+    for (int i = 0; i < expected.translations.length; ++i) {
+      // Identical lines are interchangeable
+      final int e = expected.translations[i], a = actual.translations[i];
+      assertTrue(e == a || (m[e] == m[a] && b[e] == b[a]));
+    }
+
+    // Each line of the envelope is highest on its segment
+    final double[] breakpoints = actual.breakpoints;
+    for (int i = 0; i < breakpoints.length; ++i) {
+      final double x;
+      if (i + 1 == breakpoints.length) {
+        x = i == 0 ? 0.0 : breakpoints[i] + 1.0;
+      } else if (i == 0) {
+        x = breakpoints[1] - 1.0;
+      } else {
+        x = (breakpoints[i] + breakpoints[i+1]) / 2.0;
+      }
+      double max = Double.NEGATIVE_INFINITY;
+      for (int j = 0; j < m.length; ++j) max = Math.max(max, b[j] + m[j]*x);
+      final int line = actual.translations[i];
+      assertEquals(max, b[line] + m[line]*x, 1e-9);
+    }
+  }
+
+  @Test
+  public void testSingleLine() {
+    assertSameEnvelope(new double[] { 2.0 }, new double[] { -1.0 });
+    MERT.Envelope envelope = MERT.envelope(nbestList(new double[] { 2.0 }, new double[] { -1.0 }),
+        interceptScorer, slopeScorer);
+    assertArrayEquals(new double[] { Double.NEGATIVE_INFINITY }, envelope.breakpoints, 0.0);
+    assertArrayEquals(new int[] { 0 }, envelope.translations);
+  }
+
+  @Test
+  public void testParallelLines() {
+    assertSameEnvelope(new double[] { 1.0, 1.0, 1.0 }, new double[] { 0.0, 2.0, 1.0 });
+    assertSameEnvelope(new double[] { 1.0, 1.0, -1.0, -1.0 }, new double[] { 0.0, 2.0, 1.0, 3.0 });
+  }
+
+  @Test
+  public void testDuplicateLines() {
+    assertSameEnvelope(new double[] { 1.0, 1.0, -1.0, -1.0 }, new double[] { 2.0, 2.0, 0.0, 0.0 });
+  }
+
+  @Test
+  public void testDuplicateIntercepts() {
+    assertSameEnvelope(new double[] { -1.0, 2.0, 0.5 }, new double[] { 1.0, 1.0, -3.0 });
+  }
+
+  @Test
+  public void testRandomLines() {
+    Random random = new Random(17);
+    for (int trial = 0; trial < 500; ++trial) {
+      final int size = 1 + random.nextInt(40);
+      double[] m = new double[size];
+      double[] b = new double[size];
+      for (int i = 0; i < size; ++i) {
+        m[i] = random.nextGaussian();
+        b[i] = random.nextGaussian();
+        // Parallel lines and duplicate intercepts
+        if (i > 0 && random.nextInt(5) == 0) m[i] = m[random.nextInt(i)];
+        if (i > 0 && random.nextInt(5) == 0) b[i] = b[random.nextInt(i)];
+      }
+      assertSameEnvelope(m, b);
+    }
+  }
+}
@@ -0,0 +1,101 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.WeightSnapshot;
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for the shared weight vector.
+ */
+public class SharedWeightVectorTest {
+
+  @Test
+  public void testInitialWeights() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("SharedWeightVectorTest.a", 1.5);
+    weights.setCount("SharedWeightVectorTest.b", -2.0);
+    SharedWeightVector sharedWeights = new SharedWeightVector(weights);
+    assertEquals(1.5, sharedWeights.get("SharedWeightVectorTest.a"), 0.0);
+    assertEquals(0.0, sharedWeights.get("SharedWeightVectorTest.c"), 0.0);
+    assertEquals(weights, sharedWeights.toCounter());
+
+    sharedWeights.add("SharedWeightVectorTest.a", -1.5);
+    assertFalse(sharedWeights.toCounter().containsKey("SharedWeightVectorTest.a"));
+  }
+
+  @Test
+  public void testSnapshot() {
+    SharedWeightVector sharedWeights = new SharedWeightVector();
+    sharedWeights.add("SharedWeightVectorTest.d", 1.0);
+    Counter<String> snapshot = sharedWeights.snapshot();
+    assertSame(snapshot, sharedWeights.snapshot());
+    sharedWeights.add("SharedWeightVectorTest.d", 1.0);
+    assertSame(snapshot, sharedWeights.snapshot());
+    assertEquals(1, sharedWeights.commit());
+    assertNotSame(snapshot, sharedWeights.snapshot());
+    assertEquals(2.0, sharedWeights.snapshot().getCount("SharedWeightVectorTest.d"), 0.0);
+  }
+
+  @Test
+  public void testView() {
+    SharedWeightVector sharedWeights = new SharedWeightVector();
+    WeightSnapshot view = sharedWeights.view();
+    FeatureValue<String> feature = new FeatureValue<>("SharedWeightVectorTest.e", 1.0);
+    assertEquals(0.0, view.getWeight(feature), 0.0);
+
+    // The view reads the shared weights without a commit
+    sharedWeights.add("SharedWeightVectorTest.e", 1.0);
+    final int id = FeatureRegistry.indexOf("SharedWeightVectorTest.e");
+    assertEquals(1.0, view.getWeight(feature), 0.0);
+    assertEquals(1.0, view.getWeight(id), 0.0);
+    assertEquals(0, view.version());
+    sharedWeights.commit();
+    assertEquals(1, view.version());
+    assertEquals(1.0, view.getWeights().getCount("SharedWeightVectorTest.e"), 0.0);
+    assertEquals(1, sharedWeights.cardinality());
+
+    sharedWeights.add(id, -1.0);
+    assertEquals(0, sharedWeights.cardinality());
+  }
+
+  @Test
+  public void testConcurrentAdd() throws InterruptedException {
+    final SharedWeightVector sharedWeights = new SharedWeightVector();
+    final int numThreads = 4;
+    final int numUpdates = 10000;
+    // Spread the features over several shards
+    final int[] ids = new int[16];
+    for (int i = 0; i < ids.length; ++i) {
+      ids[i] = FeatureRegistry.add("SharedWeightVectorTest.f" + i);
+    }
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < numThreads; ++t) {
+      Thread thread = new Thread(() -> {
+        for (int j = 0; j < numUpdates; ++j) {
+          sharedWeights.add(ids[j % ids.length], 0.5);
+          sharedWeights.add(ids[j % ids.length] + (1 << 14), 1.0);
+          sharedWeights.commit();
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) thread.join();
+
+    assertEquals(numThreads * numUpdates, sharedWeights.version());
+    final double expected = 0.5 * numThreads * numUpdates / ids.length;
+    for (int id : ids) {
+      assertEquals(expected, sharedWeights.get(id), 0.0);
+      assertEquals(2.0 * expected, sharedWeights.get(id + (1 << 14)), 0.0);
+    }
+  }
+}
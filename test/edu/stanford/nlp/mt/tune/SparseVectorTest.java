@@ -0,0 +1,63 @@
+package edu.stanford.nlp.mt.tune;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.FeatureRegistry;
+import edu.stanford.nlp.mt.util.FeatureValue;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for sparse vectors.
+ */
+public class SparseVectorTest {
+
+  @Test
+  public void testFromCounter() {
+    Counter<String> counter = new ClassicCounter<>();
+    counter.setCount("SparseVectorTest.b", 2.0);
+    counter.setCount("SparseVectorTest.a", -1.0);
+    counter.setCount("SparseVectorTest.z", 0.0);
+    SparseVector vector = SparseVector.fromCounter(counter);
+    assertEquals(3, vector.size());
+    for (int i = 1; i < vector.size(); ++i) {
+      assertTrue(vector.id(i-1) < vector.id(i));
+    }
+    assertEquals(-1.0, vector.get(FeatureRegistry.indexOf("SparseVectorTest.a")), 0.0);
+    assertEquals(0.0, vector.get(FeatureRegistry.indexOf("SparseVectorTest.missing")), 0.0);
+    assertEquals(Math.sqrt(5.0), vector.l2Norm(), 1e-12);
+    // Zeros are kept
+    assertEquals(counter, vector.toCounter());
+    assertTrue(vector.toCounter().containsKey("SparseVectorTest.z"));
+  }
+
+  @Test
+  public void testBuilder() {
+    SparseVector plus = SparseVector.fromFeatures(Arrays.asList(
+        new FeatureValue<>("SparseVectorTest.c", 1.0),
+        new FeatureValue<>("SparseVectorTest.d", 2.0),
+        new FeatureValue<>("SparseVectorTest.c", 0.5)));
+    SparseVector minus = SparseVector.fromFeatures(Arrays.asList(
+        new FeatureValue<>("SparseVectorTest.d", 2.0),
+        new FeatureValue<>("SparseVectorTest.e", 3.0)));
+    assertEquals(2, plus.size());
+    assertEquals(1.5, plus.get(FeatureRegistry.indexOf("SparseVectorTest.c")), 0.0);
+
+    SparseVector difference = new SparseVector.Builder().add(plus, 1.0).add(minus, -1.0).build();
+    assertEquals(3, difference.size());
+    assertEquals(1.5, difference.get(FeatureRegistry.indexOf("SparseVectorTest.c")), 0.0);
+    assertEquals(0.0, difference.get(FeatureRegistry.indexOf("SparseVectorTest.d")), 0.0);
+    assertEquals(-3.0, difference.get(FeatureRegistry.indexOf("SparseVectorTest.e")), 0.0);
+
+    final int d = FeatureRegistry.indexOf("SparseVectorTest.d");
+    SparseVector retained = difference.retain(id -> id != d);
+    assertEquals(2, retained.size());
+    assertFalse(retained.toCounter().containsKey("SparseVectorTest.d"));
+    assertSame(difference, difference.retain(id -> true));
+    assertEquals(0, new SparseVector.Builder().build().size());
+  }
+}
@@ -0,0 +1,193 @@
+package edu.stanford.nlp.mt.tune.optimizers;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.mt.tune.SparseUpdateRule;
+import edu.stanford.nlp.mt.tune.SparseVector;
+import edu.stanford.nlp.mt.util.IString;
+import edu.stanford.nlp.mt.util.RichTranslation;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit test for the lazy FOBOS update rule.
+ */
+public class AdaGradFastFOBOSUpdaterTest {
+
+  private static final double RATE = 0.1;
+  private static final double L1 = 0.01;
+
+  private static Counter<String> gradient(String... features) {
+    Counter<String> gradient = new ClassicCounter<>();
+    for (int i = 0; i < features.length; i += 2) {
+      gradient.setCount(features[i], Double.parseDouble(features[i+1]));
+    }
+    return gradient;
+  }
+
+  private static List<Counter<String>> gradients() {
+    return Arrays.asList(
+        gradient("FOBOSTest.a", "-1.0", "FOBOSTest.b", "0.5"),
+        gradient("FOBOSTest.b", "0.25", "FOBOSTest.fixed", "1.0"),
+        gradient("FOBOSTest.c", "-2.0"),
+        gradient("FOBOSTest.c", "1.0"),
+        gradient("FOBOSTest.a", "-0.5", "FOBOSTest.c", "0.0"));
+  }
+
+  private static AdaGradFastFOBOSUpdater newUpdater(double l2) {
+    Counter<String> customL1 = new ClassicCounter<>();
+    customL1.setCount("FOBOSTest.c", 2*L1);
+    return new AdaGradFastFOBOSUpdater(RATE, 10, L1, l2, customL1,
+        new HashSet<>(Arrays.asList("FOBOSTest.fixed")));
+  }
+
+  @Test
+  public void testSparseUpdateMatchesCounterUpdate() {
+    for (double l2 : new double[] { 0.0, 0.05 }) {
+      AdaGradFastFOBOSUpdater counterUpdater = newUpdater(l2);
+      AdaGradFastFOBOSUpdater sparseUpdater = newUpdater(l2);
+      Counter<String> counterWeights = new ClassicCounter<>();
+      counterWeights.setCount("FOBOSTest.b", 0.5);
+      counterWeights.setCount("FOBOSTest.d", 1.0);
+      SharedWeightVector sparseWeights = new SharedWeightVector(counterWeights);
+      List<Counter<String>> gradients = gradients();
+      for (int t = 0; t < gradients.size(); ++t) {
+        final boolean endOfEpoch = t == gradients.size() - 1;
+        counterUpdater.update(counterWeights, gradients.get(t), t, endOfEpoch);
+        sparseUpdater.update(sparseWeights, SparseVector.fromCounter(gradients.get(t)), t, endOfEpoch);
+      }
+      Counter<String> weights = sparseWeights.toCounter();
+      assertEquals(counterWeights.keySet(), weights.keySet());
+      for (String feature : weights.keySet()) {
+        assertEquals(counterWeights.getCount(feature), weights.getCount(feature), 1e-12);
+      }
+      assertFalse(weights.containsKey("FOBOSTest.fixed"));
+    }
+  }
+
+  @Test
+  public void testAsynchronousEpochMatchesSynchronous() {
+    for (double l2 : new double[] { 0.0, 0.05 }) {
+      AdaGradFastFOBOSUpdater syncUpdater = newUpdater(l2);
+      AdaGradFastFOBOSUpdater asyncUpdater = newUpdater(l2);
+      Counter<String> initialWeights = gradient("FOBOSTest.b", "0.5", "FOBOSTest.d", "1.0");
+      SharedWeightVector syncWeights = new SharedWeightVector(initialWeights);
+      SharedWeightVector asyncWeights = new SharedWeightVector(initialWeights);
+      List<Counter<String>> gradients = gradients();
+      for (int t = 0; t < gradients.size(); ++t) {
+        SparseVector gradient = SparseVector.fromCounter(gradients.get(t));
+        syncUpdater.update(syncWeights, gradient, t, t == gradients.size() - 1);
+        // Asynchronous updates, as in OnlineTuner
+        asyncUpdater.update(asyncWeights, gradient, (int) asyncWeights.version(), false);
+        asyncWeights.commit();
+      }
+      // End of the asynchronous epoch
+      asyncUpdater.update(asyncWeights, SparseVector.empty(), (int) asyncWeights.version() - 1, 
+          true);
+
+      Counter<String> sync = syncWeights.toCounter();
+      Counter<String> async = asyncWeights.toCounter();
+      assertTrue(sync.getCount("FOBOSTest.d") < 1.0);
+      assertEquals(sync.keySet(), async.keySet());
+      for (String feature : sync.keySet()) {
+        assertEquals(sync.getCount(feature), async.getCount(feature), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testLazyCatchUp() {
+    // Regularizing an idle feature at every update gives the same weight as
+    // catching up when the feature is next updated.
+    final double l2 = 0.2;
+    AdaGradFastFOBOSUpdater eagerUpdater = newUpdater(l2);
+    AdaGradFastFOBOSUpdater lazyUpdater = newUpdater(l2);
+    SharedWeightVector eagerWeights = new SharedWeightVector();
+    SharedWeightVector lazyWeights = new SharedWeightVector();
+    for (int t = 0; t < 6; ++t) {
+      String g = t == 0 ? "-3.0" : t == 5 ? "0.5" : "0.0";
+      eagerUpdater.update(eagerWeights, SparseVector.fromCounter(
+          gradient("FOBOSTest.e", g)), t, false);
+      lazyUpdater.update(lazyWeights, SparseVector.fromCounter(t == 0 || t == 5 ?
+          gradient("FOBOSTest.e", g) : gradient("FOBOSTest.f", "1.0")), t, false);
+    }
+    Counter<String> eager = eagerWeights.toCounter();
+    Counter<String> lazy = lazyWeights.toCounter();
+    assertTrue(eager.getCount("FOBOSTest.e") > 0.0);
+    assertEquals(eager.getCount("FOBOSTest.e"), lazy.getCount("FOBOSTest.e"), 1e-12);
+  }
+
+  private static CrossEntropyOptimizer newOptimizer(String updaterType) {
+    String[] args = { "5.0", String.valueOf(RATE), updaterType, String.valueOf(L1) };
+    return new CrossEntropyOptimizer(10, 10, args);
+  }
+
+  @Test
+  public void testLazyMatchesEager() {
+    // Regularizing every feature at every update gives the same weights as
+    // catching up idle features when they are next updated.
+    List<Counter<String>> gradients = Arrays.asList(
+        gradient("FOBOSLazyTest.a", "-1.0", "FOBOSLazyTest.b", "2.0"),
+        gradient("FOBOSLazyTest.c", "0.5"),
+        gradient("FOBOSLazyTest.b", "-0.5"),
+        gradient(),
+        gradient("FOBOSLazyTest.a", "0.5", "FOBOSLazyTest.c", "0.25"),
+        gradient("FOBOSLazyTest.b", "0.25"));
+    for (int batchSize : new int[] { 1, 5 }) {
+      CrossEntropyOptimizer optimizer = newOptimizer("adagradl1l2f");
+      SparseUpdateRule eagerUpdater = (SparseUpdateRule) optimizer.newUpdater(batchSize);
+      SparseUpdateRule lazyUpdater = (SparseUpdateRule) optimizer.newUpdater(batchSize);
+      SharedWeightVector eagerWeights = new SharedWeightVector();
+      SharedWeightVector lazyWeights = new SharedWeightVector();
+      for (int t = 0; t < gradients.size(); ++t) {
+        Counter<String> denseGradient = gradient("FOBOSLazyTest.a", "0.0", "FOBOSLazyTest.b", "0.0",
+            "FOBOSLazyTest.c", "0.0");
+        denseGradient.addAll(gradients.get(t));
+        eagerUpdater.update(eagerWeights, SparseVector.fromCounter(denseGradient), t, false);
+        lazyUpdater.update(lazyWeights, SparseVector.fromCounter(gradients.get(t)), t, 
+            t == gradients.size() - 1);
+      }
+      Counter<String> eager = eagerWeights.toCounter();
+      Counter<String> lazy = lazyWeights.toCounter();
+      assertEquals(3, eager.size());
+      assertEquals(eager.keySet(), lazy.keySet());
+      for (String feature : eager.keySet()) {
+        assertEquals(eager.getCount(feature), lazy.getCount(feature), 1e-12);
+      }
+    }
+  }
+
+  @Test
+  public void testLazyL2MatchesGradient() {
+    final double gradf = -1.0;
+    for (int batchSize : new int[] { 1, 5, 10 }) {
+      // L2 strength of the eager batch gradient. The inputs failed, so the
+      // gradient is the L2 term alone.
+      Counter<String> weights = gradient("FOBOSLazyTest.g", "1.0");
+      List<List<RichTranslation<IString,String>>> translations = new ArrayList<>(batchSize);
+      for (int i = 0; i < batchSize; ++i) translations.add(new ArrayList<>());
+      final double eagerL2 = newOptimizer("adagradl1f").getBatchGradient(weights, null, 
+          new int[batchSize], translations, null, null, null).getCount("FOBOSLazyTest.g");
+      assertTrue(eagerL2 > 0.0);
+
+      // L2 strength of the lazy updater, from w = -rate*gradf / (1 + rate*L2)
+      CrossEntropyOptimizer optimizer = newOptimizer("adagradl1l2f");
+      SparseUpdateRule updater = (SparseUpdateRule) optimizer.newUpdater(batchSize);
+      SharedWeightVector lazyWeights = new SharedWeightVector();
+      updater.update(lazyWeights, SparseVector.fromCounter(gradient("FOBOSLazyTest.g", 
+          String.valueOf(gradf))), 0, false);
+      final double rate = RATE / (Math.abs(gradf) + 1e-3);
+      final double w = lazyWeights.get("FOBOSLazyTest.g");
+      final double lazyL2 = ((Math.abs(rate*gradf) - rate*L1) / w - 1.0) / rate;
+      assertEquals(eagerL2, lazyL2, 1e-9);
+    }
+  }
+}
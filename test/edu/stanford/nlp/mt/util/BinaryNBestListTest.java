@@ -0,0 +1,126 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.stats.Counter;
+import edu.stanford.nlp.util.HashIndex;
+
+/**
+ * Unit test for binary n-best lists.
+ */
+public class BinaryNBestListTest {
+
+  private static ScoredFeaturizedTranslation<IString, String> newTranslation(String translation,
+      double score, String... features) {
+    List<FeatureValue<String>> fvs = new ArrayList<>();
+    for (int i = 0; i < features.length; i += 2) {
+      fvs.add(new FeatureValue<>(features[i], Double.parseDouble(features[i+1])));
+    }
+    FeatureValueCollection<String> collection = new SparseFeatureValueCollection<>(fvs,
+        new HashIndex<>());
+    return new ScoredFeaturizedTranslation<>(IStrings.tokenize(translation), collection, score);
+  }
+
+  private static List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists() {
+    List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists = new ArrayList<>();
+    nbestLists.add(Arrays.asList(
+        newTranslation("a b c", -1.5, "LM", "-2.25", "TM", "-1", "sparse1", "1"),
+        newTranslation("a c", -2.0, "TM", "-0.5", "LM", "-3", "sparse2", "2", "sparse3", "1")));
+    nbestLists.add(Arrays.asList(
+        newTranslation("d", -0.5, "LM", "-0.125")));
+    return nbestLists;
+  }
+
+  private static void assertSame(ScoredFeaturizedTranslation<IString, String> expected,
+      ScoredFeaturizedTranslation<IString, String> actual) {
+    assertEquals(expected.translation, actual.translation);
+    assertEquals(expected.score, actual.score, 0.0);
+    Counter<String> expectedFeatures = FeatureValues.toCounter(expected.features);
+    Counter<String> actualFeatures = FeatureValues.toCounter(actual.features);
+    assertEquals(expectedFeatures.keySet(), actualFeatures.keySet());
+    for (String feature : expectedFeatures.keySet()) {
+      assertEquals(expectedFeatures.getCount(feature), actualFeatures.getCount(feature), 0.0);
+    }
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+    File file = File.createTempFile("nbest", ".bin");
+    file.deleteOnExit();
+    List<List<ScoredFeaturizedTranslation<IString, String>>> expected = nbestLists();
+    try (BinaryNBestListWriter writer = new BinaryNBestListWriter(file.getPath())) {
+      // Out of order
+      writer.writeEmpty(2);
+      writer.write(1, expected.get(1), null);
+      writer.write(0, expected.get(0), null);
+    }
+    assertTrue(BinaryNBestList.isBinary(file.getPath()));
+
+    for (NBestListContainer<IString, String> actual : Arrays.asList(
+        new BinaryNBestList(file.getPath()), new FlatNBestList(file.getPath()))) {
+      List<List<ScoredFeaturizedTranslation<IString, String>>> nbestLists = actual.nbestLists();
+      assertEquals(3, nbestLists.size());
+      for (int i = 0; i < expected.size(); ++i) {
+        assertEquals(expected.get(i).size(), nbestLists.get(i).size());
+        for (int j = 0; j < expected.get(i).size(); ++j) {
+          assertSame(expected.get(i).get(j), nbestLists.get(i).get(j));
+        }
+      }
+      assertEquals(1, nbestLists.get(2).size());
+      assertEquals(0, nbestLists.get(2).get(0).translation.size());
+      assertTrue(nbestLists.get(2).get(0).features.isEmpty());
+    }
+  }
+
+  @Test
+  public void testFeaturePattern() throws IOException {
+    File file = File.createTempFile("nbest", ".bin");
+    file.deleteOnExit();
+    try (BinaryNBestListWriter writer = new BinaryNBestListWriter(file.getPath())) {
+      writer.write(0, nbestLists().get(0), Pattern.compile("LM|TM"));
+    }
+    BinaryNBestList nbestLists = new BinaryNBestList(file.getPath());
+    assertEquals(Arrays.asList("LM", "TM"), nbestLists.featureNames());
+    for (ScoredFeaturizedTranslation<IString, String> translation : nbestLists.nbestLists().get(0)) {
+      assertEquals(2, translation.features.size());
+    }
+  }
+  private static String writeIds(int... ids) throws IOException {
+    File file = File.createTempFile("nbest", ".bin");
+    file.deleteOnExit();
+    try (BinaryNBestListWriter writer = new BinaryNBestListWriter(file.getPath())) {
+      for (int id : ids) writer.writeEmpty(id);
+    }
+    return file.getPath();
+  }
+
+  private static void assertInvalid(String expectedMessage, int... ids) throws IOException {
+    try {
+      new BinaryNBestList(writeIds(ids));
+      fail();
+    } catch (IOException e) {
+      assertEquals(expectedMessage, e.getMessage());
+    }
+  }
+
+  @Test
+  public void testInvalidIds() throws IOException {
+    assertInvalid("Duplicate n-best list for id: 1", 0, 1, 1);
+    assertInvalid("Missing n-best list for id: 0", 1, 2);
+    assertInvalid("Missing n-best list for id: 1", 2, 0);
+  }
+
+  @Test
+  public void testOpenNBestLists() throws IOException {
+    assertTrue(IOTools.openNBestLists(writeIds(0)) instanceof BinaryNBestList);
+  }
+}
@@ -0,0 +1,55 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.decoder.util.DenseScorer;
+import edu.stanford.nlp.mt.tune.SharedWeightVector;
+import edu.stanford.nlp.stats.ClassicCounter;
+import edu.stanford.nlp.stats.Counter;
+
+/**
+ * Unit tests for the feature registry.
+ */
+public class FeatureRegistryTest {
+
+  @Test
+  public void testLookupDoesNotRegister() {
+    final int size = FeatureRegistry.size();
+    assertEquals(-1, FeatureRegistry.indexOf("FeatureRegistryTest.unknown"));
+    FeatureValue<String> feature = new FeatureValue<>("FeatureRegistryTest.unknown", 1.0);
+    assertEquals(-1, feature.getId());
+    assertEquals(0.0, new SharedWeightVector(new ClassicCounter<>()).get("FeatureRegistryTest.unknown"), 0.0);
+    assertEquals(size, FeatureRegistry.size());
+
+    // Registered later
+    final int id = FeatureRegistry.add("FeatureRegistryTest.unknown");
+    assertEquals(id, FeatureRegistry.indexOf("FeatureRegistryTest.unknown"));
+    assertEquals(id, feature.getId());
+    assertEquals("FeatureRegistryTest.unknown", FeatureRegistry.get(id));
+    assertEquals(id, FeatureRegistry.add("FeatureRegistryTest.unknown"));
+  }
+
+  @Test
+  public void testDenseScorer() {
+    Counter<String> weights = new ClassicCounter<>();
+    weights.setCount("FeatureRegistryTest.w1", 2.0);
+    weights.setCount("FeatureRegistryTest.w2", -1.0);
+    DenseScorer scorer = new DenseScorer(weights);
+    // Weight writes register the names
+    assertTrue(FeatureRegistry.indexOf("FeatureRegistryTest.w1") >= 0);
+    assertTrue(scorer.hasNonZeroWeight("FeatureRegistryTest.w2"));
+    assertFalse(scorer.hasNonZeroWeight("FeatureRegistryTest.w3"));
+    final int size = FeatureRegistry.size();
+    double score = scorer.getIncrementalScore(Arrays.asList(
+        new FeatureValue<>("FeatureRegistryTest.w1", 1.5),
+        new FeatureValue<>("FeatureRegistryTest.w2", 1.0),
+        new FeatureValue<>("FeatureRegistryTest.w3", 10.0)));
+    assertEquals(2.0, score, 1e-9);
+    assertEquals(size, FeatureRegistry.size());
+    assertEquals(-1, FeatureRegistry.indexOf("FeatureRegistryTest.w3"));
+  }
+}
@@ -0,0 +1,56 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.junit.Test;
+
+/**
+ * Unit test for segmented int arrays.
+ */
+public class IntArrayTest {
+
+  @Test
+  public void testMappedSegments() throws IOException {
+    int[] expected = new int[37];
+    for (int i = 0; i < expected.length; ++i) expected[i] = i * i - 100;
+    File f = File.createTempFile("intarray", ".bin");
+    f.deleteOnExit();
+    try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.WRITE)) {
+      ByteBuffer buffer = ByteBuffer.allocate((expected.length + 1) * Integer.BYTES)
+          .order(ByteOrder.LITTLE_ENDIAN);
+      buffer.putInt(0xDEADBEEF);
+      for (int v : expected) buffer.putInt(v);
+      buffer.flip();
+      while (buffer.hasRemaining()) channel.write(buffer);
+    }
+    try (FileChannel channel = FileChannel.open(f.toPath(), StandardOpenOption.READ)) {
+      // Eight ints per segment
+      IntArray arr = IntArray.map(channel, Integer.BYTES, expected.length, 3);
+      assertEquals(expected.length, arr.length());
+      for (int i = 0; i < expected.length; ++i) assertEquals(expected[i], arr.get(i));
+      assertArrayEquals(expected, arr.toArray());
+      int[] range = new int[20];
+      System.arraycopy(expected, 5, range, 0, range.length);
+      assertArrayEquals(range, arr.copyOfRange(5, 25));
+      try {
+        arr.get(expected.length);
+        fail();
+      } catch (ArrayIndexOutOfBoundsException e) {}
+    }
+  }
+
+  @Test
+  public void testWrap() {
+    int[] expected = { 3, 1, 4, 1, 5 };
+    IntArray arr = IntArray.wrap(expected);
+    assertSame(expected, arr.toArray());
+    assertArrayEquals(new int[] { 1, 4 }, arr.copyOfRange(1, 3));
+  }
+}
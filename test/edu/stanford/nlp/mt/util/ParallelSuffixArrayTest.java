@@ -0,0 +1,136 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+import edu.stanford.nlp.mt.util.ParallelSuffixArray.SuffixArraySample;
+
+/**
+ * Unit test.
+ */
+public class ParallelSuffixArrayTest {
+
+  private static ParallelSuffixArray makeSuffixArray() {
+    ParallelCorpus corpus = new ParallelCorpus();
+    corpus.add("a b c", "x y z", "0-0 1-1 2-2");
+    corpus.add("b c d", "y z w", "0-0 1-1 2-2");
+    corpus.add("c a", "z x", "0-0 1-1");
+    ParallelSuffixArray sa = new ParallelSuffixArray(corpus);
+    sa.build();
+    return sa;
+  }
+
+  private static int[] toIds(ParallelSuffixArray sa, String... words) {
+    int[] ids = new int[words.length];
+    for (int i = 0; i < words.length; ++i) ids[i] = sa.getVocabulary().indexOf(words[i]);
+    return ids;
+  }
+
+  @Test
+  public void testCountAndSample() {
+    ParallelSuffixArray sa = makeSuffixArray();
+    assertEquals(3, sa.numSentences());
+    assertEquals(2, sa.count(toIds(sa, "b", "c"), true));
+    assertEquals(3, sa.count(toIds(sa, "c"), true));
+    assertEquals(0, sa.count(toIds(sa, "c", "b"), true));
+    assertEquals(2, sa.count(toIds(sa, "y", "z"), false));
+    SuffixArraySample sample = sa.sample(toIds(sa, "a"), 10);
+    assertEquals(2, sample.size());
+  }
+
+  @Test
+  public void testMerge() {
+    ParallelSuffixArray sa = makeSuffixArray();
+    ParallelCorpus updates = new ParallelCorpus(2, sa.getVocabulary());
+    updates.add("a b e", "x y v", "0-0 1-1 2-2");
+    updates.add("e c", "v z", "0-0 1-1");
+    ParallelSuffixArray delta = new ParallelSuffixArray(updates);
+    delta.build();
+    assertEquals(1, delta.count(toIds(delta, "a", "b"), true));
+
+    ParallelSuffixArray merged = ParallelSuffixArray.merge(sa, delta);
+    assertEquals(5, merged.numSentences());
+    assertEquals(sa.sourceSASize() + delta.sourceSASize(), merged.sourceSASize());
+    assertEquals(3, merged.count(toIds(merged, "b"), true));
+    assertEquals(2, merged.count(toIds(merged, "a", "b"), true));
+    assertEquals(2, merged.count(toIds(merged, "e"), true));
+    assertEquals(4, merged.count(toIds(merged, "z"), false));
+    assertEquals(2, merged.count(toIds(merged, "x", "y"), false));
+
+    // Sentence boundaries in the appended bitext must point into the appended target
+    List<String> entries = merged.stream().map(s -> s.toString()).collect(Collectors.toList());
+    assertEquals(5, entries.size());
+    assertTrue(entries.get(4).startsWith("e c"));
+    assertTrue(entries.get(4).contains("v z"));
+
+    // The merged suffix array must match one that is built from scratch
+    ParallelCorpus corpus = new ParallelCorpus(5, sa.getVocabulary());
+    corpus.add("a b c", "x y z", "0-0 1-1 2-2");
+    corpus.add("b c d", "y z w", "0-0 1-1 2-2");
+    corpus.add("c a", "z x", "0-0 1-1");
+    corpus.add("a b e", "x y v", "0-0 1-1 2-2");
+    corpus.add("e c", "v z", "0-0 1-1");
+    ParallelSuffixArray rebuilt = new ParallelSuffixArray(corpus);
+    rebuilt.build();
+    StringWriter expected = new StringWriter();
+    rebuilt.print(true, new PrintWriter(expected));
+    StringWriter actual = new StringWriter();
+    merged.print(true, new PrintWriter(actual));
+    assertEquals(expected.toString(), actual.toString());
+  }
+
+  @Test
+  public void testMappedRoundTrip() throws IOException {
+    ParallelSuffixArray sa = makeSuffixArray();
+    File f = File.createTempFile("psa", ParallelSuffixArray.MAPPED_EXTENSION);
+    f.deleteOnExit();
+    sa.writeMapped(f.getPath());
+    assertTrue(ParallelSuffixArray.isMappedFile(f.getPath()));
+
+    ParallelSuffixArray mapped = ParallelSuffixArray.loadMapped(f.getPath());
+    assertEquals(sa.numSentences(), mapped.numSentences());
+    assertEquals(sa.sourceSASize(), mapped.sourceSASize());
+    assertEquals(sa.targetSASize(), mapped.targetSASize());
+    assertEquals(sa.getVocabulary().size(), mapped.getVocabulary().size());
+    for (int i = 0; i < sa.getVocabulary().size(); ++i) {
+      assertEquals(sa.getVocabulary().get(i), mapped.getVocabulary().get(i));
+    }
+    assertEquals(2, mapped.count(toIds(mapped, "b", "c"), true));
+    assertEquals(2, mapped.count(toIds(mapped, "y", "z"), false));
+
+    List<String> expected = sa.stream().map(s -> s.toString()).collect(Collectors.toList());
+    List<String> actual = mapped.stream().map(s -> s.toString()).collect(Collectors.toList());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void testMappedSegments() throws IOException {
+    ParallelSuffixArray sa = makeSuffixArray();
+    File f = File.createTempFile("psa", ParallelSuffixArray.MAPPED_EXTENSION);
+    f.deleteOnExit();
+    sa.writeMapped(f.getPath());
+
+    // Four ints per segment, so lookups and copies cross segment boundaries
+    ParallelSuffixArray mapped = ParallelSuffixArray.loadMapped(f.getPath(), 2);
+    for (boolean isSource : new boolean[] { true, false }) {
+      StringWriter expected = new StringWriter();
+      sa.print(isSource, new PrintWriter(expected));
+      StringWriter actual = new StringWriter();
+      mapped.print(isSource, new PrintWriter(actual));
+      assertEquals(expected.toString(), actual.toString());
+    }
+    assertEquals(3, mapped.count(toIds(mapped, "c"), true));
+    assertEquals(2, mapped.count(toIds(mapped, "b", "c"), true));
+    List<String> expected = sa.stream().map(s -> s.toString()).collect(Collectors.toList());
+    List<String> actual = mapped.stream().map(s -> s.toString()).collect(Collectors.toList());
+    assertEquals(expected, actual);
+  }
+}
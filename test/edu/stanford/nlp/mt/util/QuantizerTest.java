@@ -0,0 +1,80 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests for the scalar quantizer.
+ */
+public class QuantizerTest {
+
+  /**
+   * Every value must decode to a value within the range of its bin.
+   */
+  private static void assertBounded(float[] values, int bits) {
+    Quantizer quantizer = new Quantizer(values, bits);
+    float[] sorted = values.clone();
+    Arrays.sort(sorted);
+    assertTrue(quantizer.codebook().length <= (1 << bits));
+    // With 2^bits equal-population bins, each bin spans at most
+    // ceil(n / numBins) + 1 consecutive sorted values.
+    final int numBins = Math.max(1, quantizer.codebook().length - 2);
+    final int span = (sorted.length + numBins - 1) / numBins + 1;
+    for (float v : values) {
+      final int code = quantizer.encode(v);
+      final float decoded = quantizer.decode(code);
+      if (v == 0.0f || v == Float.NEGATIVE_INFINITY) {
+        assertEquals(v, decoded, 0.0f);
+        continue;
+      }
+      int i = Arrays.binarySearch(sorted, v);
+      float lo = sorted[Math.max(0, i - span)];
+      float hi = sorted[Math.min(sorted.length - 1, i + span)];
+      assertTrue(String.format("%f -> %f", v, decoded), decoded >= lo && decoded <= hi);
+      assertEquals(code, quantizer.encode(decoded));
+    }
+  }
+
+  @Test
+  public void testErrorBound() {
+    Random random = new Random(5);
+    float[] values = new float[10000];
+    for (int i = 0; i < values.length; ++i) {
+      values[i] = (float) Math.log(random.nextDouble());
+    }
+    for (int bits = Quantizer.MIN_BITS; bits <= Quantizer.MAX_BITS; bits += 2) {
+      assertBounded(values, bits);
+    }
+    // Maximum error of an 8-bit code on uniform values
+    for (int i = 0; i < values.length; ++i) values[i] = random.nextFloat() - 1.0f;
+    Quantizer quantizer = new Quantizer(values, 8);
+    for (float v : values) {
+      assertEquals(v, quantizer.decode(quantizer.encode(v)), 2.0 / 256);
+    }
+  }
+
+  @Test
+  public void testExactValues() {
+    float[] values = { 0.0f, Float.NEGATIVE_INFINITY, -1.0f, -2.0f, -3.0f };
+    Quantizer quantizer = new Quantizer(values, 4);
+    for (float v : values) {
+      assertEquals(v, quantizer.decode(quantizer.encode(v)), 0.0f);
+    }
+    // Out of range values are coded by the nearest bin
+    assertEquals(-1.0f, quantizer.decode(quantizer.encode(10.0f)), 0.0f);
+    assertEquals(-3.0f, quantizer.decode(quantizer.encode(-10.0f)), 0.0f);
+  }
+
+  @Test
+  public void testRepeatedValues() {
+    float[] values = new float[100];
+    Arrays.fill(values, -0.5f);
+    values[99] = -4.0f;
+    Quantizer quantizer = new Quantizer(values, 2);
+    assertEquals(-0.5f, quantizer.decode(quantizer.encode(-0.5f)), 0.0f);
+  }
+}
@@ -0,0 +1,123 @@
+package edu.stanford.nlp.mt.util;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+/**
+ * Unit test for the reorder buffer.
+ */
+public class ReorderBufferTest {
+
+  private static final int NUM_ITEMS = 1000;
+  private static final int NUM_PRODUCERS = 4;
+
+  /**
+   * Producers take sequence numbers in order and finish them out of order.
+   */
+  private static List<Integer> run(ReorderBuffer<Integer> buffer) throws InterruptedException {
+    final AtomicInteger nextItem = new AtomicInteger();
+    List<Thread> producers = new ArrayList<>();
+    for (int i = 0; i < NUM_PRODUCERS; ++i) {
+      Thread producer = new Thread(() -> {
+        try {
+          for (int item; (item = nextItem.getAndIncrement()) < NUM_ITEMS;) {
+            if (item % 7 == 0) Thread.sleep(1);
+            buffer.put(item, item);
+          }
+        } catch (InterruptedException e) {
+          fail();
+        }
+      });
+      producer.start();
+      producers.add(producer);
+    }
+    buffer.close(NUM_ITEMS);
+    List<Integer> items = new ArrayList<>();
+    for (Integer item; (item = buffer.take()) != null;) items.add(item);
+    for (Thread producer : producers) producer.join();
+    return items;
+  }
+
+  @Test
+  public void testOrdered() throws InterruptedException {
+    List<Integer> items = run(new ReorderBuffer<>(3, true));
+    assertEquals(NUM_ITEMS, items.size());
+    for (int i = 0; i < NUM_ITEMS; ++i) {
+      assertEquals(i, (int) items.get(i));
+    }
+  }
+
+  @Test
+  public void testUnordered() throws InterruptedException {
+    List<Integer> items = run(new ReorderBuffer<>(3, false));
+    assertEquals(NUM_ITEMS, items.size());
+    Set<Integer> itemSet = new HashSet<>(items);
+    assertEquals(NUM_ITEMS, itemSet.size());
+  }
+
+  @Test
+  public void testOutOfOrderWithinDepth() throws InterruptedException {
+    // A scheduling window submits the items of each window in reverse order.
+    final int depth = 8;
+    ReorderBuffer<Integer> buffer = new ReorderBuffer<>(depth, true);
+    Thread producer = new Thread(() -> {
+      try {
+        for (int window = 0; window < NUM_ITEMS; window += depth) {
+          for (int item = Math.min(window + depth, NUM_ITEMS) - 1; item >= window; --item) {
+            buffer.put(item, item);
+          }
+        }
+      } catch (InterruptedException e) {
+        fail();
+      }
+    });
+    producer.start();
+    buffer.close(NUM_ITEMS);
+    for (int i = 0; i < NUM_ITEMS; ++i) assertEquals(i, (int) buffer.take());
+    assertNull(buffer.take());
+    producer.join();
+  }
+
+  @Test
+  public void testPutBlocksBeyondDepth() throws InterruptedException {
+    ReorderBuffer<Integer> buffer = new ReorderBuffer<>(2, true);
+    buffer.put(1, 1);
+    Thread producer = new Thread(() -> {
+      try {
+        buffer.put(2, 2);
+      } catch (InterruptedException e) {
+        fail();
+      }
+    });
+    producer.start();
+    producer.join(100);
+    assertTrue(producer.isAlive());
+    buffer.put(0, 0);
+    assertEquals(0, (int) buffer.take());
+    producer.join();
+    assertEquals(1, (int) buffer.take());
+    assertEquals(2, (int) buffer.take());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testDuplicateSequence() throws InterruptedException {
+    ReorderBuffer<Integer> buffer = new ReorderBuffer<>(2, true);
+    buffer.put(0, 0);
+    buffer.take();
+    buffer.put(0, 0);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testDuplicateSequenceWithinDepth() throws InterruptedException {
+    ReorderBuffer<Integer> buffer = new ReorderBuffer<>(2, true);
+    buffer.put(1, 1);
+    buffer.put(1, 2);
+  }
+}
@@ -32,4 +32,16 @@ public class SequenceTest {
     assertTrue(TokenUtils.END_TOKEN.equals(padStartEnd.subsequence(seq.size() + 1, padStartEnd.size()).get(0)));
     assertTrue(seq.equals(padStartEnd.subsequence(1, seq.size() + 1)));
   }
+  
+  @Test
+  public void testSubsequenceConcat() {
+    Sequence<IString> seq = IStrings.tokenize(str);
+    Sequence<IString> prefix = seq.subsequence(1, 3);
+    Sequence<IString> suffix = seq.subsequence(2, 4);
+    Sequence<IString> concat = prefix.concat(suffix);
+    assertEquals(4, concat.size());
+    assertEquals("ipsum sit sit dolor", concat.toString());
+    assertEquals("ipsum sit", prefix.toString());
+    assertEquals(seq, Sequences.<IString>emptySequence().concat(seq));
+  }
 }